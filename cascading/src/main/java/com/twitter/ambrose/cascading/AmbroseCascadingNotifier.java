@@ -29,8 +29,10 @@ import com.google.common.collect.Maps;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.JobProgressEncoder;
 import com.twitter.ambrose.model.Workflow;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+import com.twitter.ambrose.service.ConfigurationWriteServices;
 import com.twitter.ambrose.service.StatsWriteService;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapred.JobClient;
@@ -69,6 +71,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   private SimpleDirectedGraph jobGraph;
   private int totalNumberOfJobs;
   private int runnigJobs;
+  private JobProgressEncoder progressEncoder = new JobProgressEncoder();
   private String currentFlowId;   //id of the flow being excuted
 
   /**
@@ -101,12 +104,13 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     totalNumberOfJobs = steps.size();
     runnigJobs = 0;
     currentFlowId = flow.getID();
+    progressEncoder.reset();
 
     // convert the graph generated by cascading toDAGNodes Graph to be sent to ambrose
     AmbroseCascadingGraphConverter convertor = new AmbroseCascadingGraphConverter((SimpleDirectedGraph) Flows.getStepGraphFrom(flow), dagNodeNameMap);
     convertor.convert();
     try {
-        statsWriteService.sendDagNodeNameMap(null, this.dagNodeNameMap);
+        statsWriteService.sendDagNodeNameMap(currentFlowId, this.dagNodeNameMap);
     } catch (IOException e) {
         log.error("Couldn't send dag to StatsWriteService", e);
     }
@@ -255,7 +259,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
 
     //only push job progress events for a completed job once
     if (node.getJob().getMapReduceJobState() != null && !completedJobIds.contains(node.getJob().getId())) {
-      pushEvent(currentFlowId, new Event.JobProgressEvent(node));
+      pushJobProgressEvent(currentFlowId, node);
       addMapReduceJobState(node.getJob(), stats);
 
       if (node.getJob().getMapReduceJobState().isComplete()) {
@@ -290,6 +294,14 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     }
   }
 
+  private void pushJobProgressEvent(String flowId, DAGNode<? extends Job> node) {
+    try {
+      statsWriteService.pushEvent(flowId, progressEncoder.encode(node));
+    } catch (IOException e) {
+      log.error("Couldn't send event to StatsWriteService", e);
+    }
+  }
+
   private void outputStatsData(Workflow workflow) throws IOException {
     if(log.isDebugEnabled()) {
       log.debug("Collected stats for script:\n" + Workflow.toJSON(workflow));
@@ -308,12 +320,16 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
       TaskReport[] mapTaskReport = stats.getJobClient().getMapTaskReports(jobID);
       TaskReport[] reduceTaskReport = stats.getJobClient().getReduceTaskReports(jobID);
       cascadingJob.setMapReduceJobState(new MapReduceJobState(runningJob, mapTaskReport, reduceTaskReport));
-      Properties jobConfProperties = new Properties();
-      Configuration conf = stats.getJobClient().getConf();
-      for (Map.Entry<String, String> entry : conf) {
-        jobConfProperties.setProperty(entry.getKey(), entry.getValue());
+      // the configuration doesn't change between polls, so only copy it once per job
+      if (cascadingJob.getConfiguration() == null && cascadingJob.getConfigurationId() == null) {
+        Properties jobConfProperties = new Properties();
+        Configuration conf = stats.getJobClient().getConf();
+        for (Map.Entry<String, String> entry : conf) {
+          jobConfProperties.setProperty(entry.getKey(), entry.getValue());
+        }
+        ConfigurationWriteServices.setConfiguration(
+            statsWriteService, cascadingJob, jobConfProperties);
       }
-      cascadingJob.setConfiguration(jobConfProperties);
     } catch (IOException ex) {
       log.error("Error getting job info.", ex);
     }
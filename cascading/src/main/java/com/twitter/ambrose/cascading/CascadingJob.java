@@ -24,6 +24,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 
 import org.apache.commons.logging.Log;
@@ -32,6 +33,7 @@ import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.Counters.Counter;
 
 import com.twitter.ambrose.util.JSONUtil;
+import com.twitter.ambrose.model.HadoopJobSerializer;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.hadoop.CounterGroup;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
@@ -44,6 +46,7 @@ import cascading.stats.hadoop.HadoopStepStats;
  * @author Ahmed Mohsen
  */
 @JsonTypeName("cascading")
+@JsonSerialize(using = CascadingJob.Serializer.class, include = JsonSerialize.Inclusion.NON_NULL)
 public class CascadingJob extends Job{
   protected static Log LOG = LogFactory.getLog(CascadingJob.class);
 
@@ -162,6 +165,27 @@ public class CascadingJob extends Job{
       @JsonSubTypes.Type(value = com.twitter.ambrose.cascading.CascadingJob.class, name = "cascading") })
   private static class AnnotationMixinClass {}
 
+  /**
+   * Serializes CascadingJobs without reflection.
+   */
+  public static class Serializer extends HadoopJobSerializer<CascadingJob> {
+    @Override
+    protected String[] getAliases(CascadingJob job) { return job.getAliases(); }
+
+    @Override
+    protected String[] getFeatures(CascadingJob job) { return job.getFeatures(); }
+
+    @Override
+    protected MapReduceJobState getMapReduceJobState(CascadingJob job) {
+      return job.getMapReduceJobState();
+    }
+
+    @Override
+    protected Map<String, CounterGroup> getCounterGroupMap(CascadingJob job) {
+      return job.getCounterGroupMap();
+    }
+  }
+
   private Double getCounterValue(Map<String, Long> counterNameToValue, MetricsCounter hjc) {
     String[] keys = MetricsCounter.get(hjc);
     if(counterNameToValue.get(keys[1]) == null)
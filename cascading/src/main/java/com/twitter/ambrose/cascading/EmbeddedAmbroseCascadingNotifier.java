@@ -17,15 +17,22 @@ package com.twitter.ambrose.cascading;
 
 import cascading.flow.Flow;
 
+import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.server.ScriptStatusServer;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
 import com.twitter.ambrose.service.impl.InMemoryStatsService;
+import com.twitter.ambrose.service.impl.StatsServiceFactory;
 
 
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
- * Subclass of AmbroseCascadingNotifier where cascading run inside. Stats are collected using by this class via InMemoryStatsService,
- * which is what serves stats to ScriptStatusServer.
+ * Subclass of AmbroseCascadingNotifier where cascading run inside. Stats are collected using by this class via the service created by
+ * {@link StatsServiceFactory}, InMemoryStatsService by default, which is what serves stats to
+ * ScriptStatusServer.
  * <P>
  * To use this class with cascading, start cascading as follows:
  * <pre>
@@ -40,13 +47,15 @@ public class EmbeddedAmbroseCascadingNotifier
              extends AmbroseCascadingNotifier {
 
   private static final String POST_SCRIPT_SLEEP_SECS_PARAM = "ambrose.post.script.sleep.seconds";
-  private InMemoryStatsService service;
+  private StatsWriteService<Job> service;
   private ScriptStatusServer server;
 
+  @SuppressWarnings("unchecked")
   public EmbeddedAmbroseCascadingNotifier() {
-    super(new InMemoryStatsService());
-    this.service = (InMemoryStatsService) getStatsWriteService();
-    this.server = new ScriptStatusServer(service, service);
+    super(StatsServiceFactory.fromSystemProperties());
+    this.service = getStatsWriteService();
+    this.server = new ScriptStatusServer((WorkflowIndexReadService) service,
+        (StatsReadService<Job>) service);
     this.server.start();
   }
 
@@ -63,14 +72,19 @@ public class EmbeddedAmbroseCascadingNotifier
       int sleepTimeSeconds = Integer.parseInt(sleepTime);
       log.info("Job complete but sleeping for " + sleepTimeSeconds
         + " seconds to keep the CascadingStats REST server running. Hit ctrl-c to exit.");
-      service.flushJsonToDisk();
+      if (service instanceof InMemoryStatsService) {
+        ((InMemoryStatsService) service).flushJsonToDisk();
+      }
       Thread.sleep(sleepTimeSeconds * 1000);
       server.stop();
+      if (service instanceof Closeable) {
+        ((Closeable) service).close();
+      }
 
     } catch (NumberFormatException e) {
       log.warn(POST_SCRIPT_SLEEP_SECS_PARAM + " param is not a valid number, not sleeping: " + sleepTime);
     } catch (IOException e) {
-      log.warn("Couldn't write json to disk", e);
+      log.warn("Couldn't write stats to disk", e);
     } catch (InterruptedException e) {
       log.warn("Sleep interrupted", e);
     }
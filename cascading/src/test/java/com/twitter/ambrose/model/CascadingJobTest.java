@@ -0,0 +1,44 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.assertSerializedAsBean;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.counterGroupMap;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.mapReduceJobState;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.cascading.CascadingJob;
+import com.twitter.ambrose.cascading.CascadingMapReduceJobState;
+
+/**
+ * Unit tests for {@link com.twitter.ambrose.cascading.CascadingJob}.
+ */
+public class CascadingJobTest {
+  static {
+    CascadingJob.mixinJsonAnnotations();
+  }
+
+  @Test
+  public void testSerializedAsBean() throws IOException {
+    CascadingJob job = new CascadingJob("job_1", new String[] { "A", null },
+        new String[] { "GROUP_BY" }, mapReduceJobState(new CascadingMapReduceJobState()),
+        counterGroupMap());
+    assertSerializedAsBean(job, new CascadingJob(null, null));
+  }
+}
@@ -15,10 +15,10 @@ limitations under the License.
 */
 package com.twitter.ambrose.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -28,7 +28,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.base.Objects;
 
+import com.twitter.ambrose.util.AsyncJsonFileWriter;
 import com.twitter.ambrose.util.JSONUtil;
+import com.twitter.ambrose.util.JsonFileReader;
 
 /**
  * Class that represents a Job node in the DAG. The job name must not be null. At DAG creation time
@@ -42,6 +44,8 @@ import com.twitter.ambrose.util.JSONUtil;
  * String json = om.writeValueAsString(dagNode);
  */
 public class DAGNode<T extends Job> {
+  private static final TypeReference<DAGNode<? extends Job>> TYPE =
+      new TypeReference<DAGNode<? extends Job>>() { };
   private String name;
   private T job;
   @JsonIgnore
@@ -72,6 +76,13 @@ public class DAGNode<T extends Job> {
 
   public synchronized Collection<String> getSuccessorNames() { return successorNames; }
 
+  /**
+   * Sets the successor names of a node being deserialized, whose successors aren't known.
+   */
+  synchronized void setSuccessorNames(Collection<String> successorNames) {
+    this.successorNames = successorNames;
+  }
+
   @Override
   public int hashCode() {
     return Objects.hashCode(name, job, successorNames);
@@ -99,14 +110,22 @@ public class DAGNode<T extends Job> {
   }
 
   public static DAGNode<? extends Job> fromJson(String json) throws IOException {
-    return JSONUtil.toObject(json, new TypeReference<DAGNode<? extends Job>>() { });
+    return JSONUtil.toObject(json, TYPE);
   }
 
-  @SuppressWarnings("unchecked")
   public static void main(String[] args) throws IOException {
     String sourceFile = "pig/src/main/resources/web/data/large-dag.json";
-    String json = JSONUtil.readFile(sourceFile);
-    List<DAGNode> nodes = JSONUtil.toObject(json, new TypeReference<List<DAGNode>>() { });
-    JSONUtil.writeJson(sourceFile + "2", nodes);
+    JsonFileReader<DAGNode<? extends Job>> reader =
+        new JsonFileReader<DAGNode<? extends Job>>(new File(sourceFile), TYPE);
+    AsyncJsonFileWriter writer = AsyncJsonFileWriter.open(sourceFile + "2", true);
+    try {
+      DAGNode<? extends Job> node;
+      while ((node = reader.read()) != null) {
+        writer.write(node);
+      }
+    } finally {
+      reader.close();
+      writer.close();
+    }
   }
 }
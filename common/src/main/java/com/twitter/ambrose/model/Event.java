@@ -15,10 +15,10 @@ limitations under the License.
 */
 package com.twitter.ambrose.model;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -26,13 +26,21 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
 
+import com.twitter.ambrose.util.AsyncJsonFileWriter;
+import com.twitter.ambrose.util.EventFileReader;
 import com.twitter.ambrose.util.JSONUtil;
 
 /**
- * Class that represents a Event of a given Type. Each one of these created will have
- * a unique id that increments up for each object. eventIds will always be >= 0.
+ * Class that represents a Event of a given Type. Each event has an id, which is unique among
+ * the events of a stats service once the event is committed. eventIds will always be >= 0.
  * The data associated with the event currently can be anything.
+ * <p/>
+ * The id assigned on creation is provisional. Stats services assign each event pushed to them the
+ * next id of a sequence shared by their workflows when the event is committed, see
+ * {@link #withId(long)}, so the ids of a workflow's events follow the order in which they became
+ * visible to readers, and keep increasing when readers move on to another workflow.
  *
  * @author billg
  */
@@ -41,25 +49,29 @@ import com.twitter.ambrose.util.JSONUtil;
     @JsonSubTypes.Type(value=Event.WorkflowProgressEvent.class, name="WORKFLOW_PROGRESS"),
     @JsonSubTypes.Type(value=Event.JobStartedEvent.class, name="JOB_STARTED"),
     @JsonSubTypes.Type(value=Event.JobProgressEvent.class, name="JOB_PROGRESS"),
+    @JsonSubTypes.Type(value=Event.JobProgressDeltaEvent.class, name="JOB_PROGRESS_DELTA"),
     @JsonSubTypes.Type(value=Event.JobFinishedEvent.class, name="JOB_FINISHED"),
     @JsonSubTypes.Type(value=Event.JobFailedEvent.class, name="JOB_FAILED")
 })
-public class Event<T> {
-  private static AtomicInteger NEXT_ID = new AtomicInteger();
+public class Event<T> implements Cloneable {
+  private static AtomicLong NEXT_ID = new AtomicLong();
+  private static final TypeReference<Event<?>> TYPE = new TypeReference<Event<?>>() { };
 
-  public static enum Type { JOB_STARTED, JOB_FINISHED, JOB_FAILED, JOB_PROGRESS, WORKFLOW_PROGRESS }
+  public static enum Type {
+    JOB_STARTED, JOB_FINISHED, JOB_FAILED, JOB_PROGRESS, JOB_PROGRESS_DELTA, WORKFLOW_PROGRESS
+  }
 
   public static enum WorkflowProgressField {
     workflowProgress
   }
 
-  private int id;
+  private long id;
   @JsonIgnore
   private Type type;
   private long timestamp;
   private T payload;
 
-  public Event(int eventId, Type type, long timestamp, T payload) {
+  public Event(long eventId, Type type, long timestamp, T payload) {
     this.id = eventId;
     this.type = type;
     this.timestamp = timestamp;
@@ -72,17 +84,44 @@ public class Event<T> {
 
   public Event() {}
 
-  public int getId() { return id; }
+  public long getId() { return id; }
   public Type getType() { return type; }
   public long getTimestamp() { return timestamp; }
   public T getPayload() { return payload; }
 
+  /**
+   * Returns a copy of this event with the given id. The copy is of the same class as this event and
+   * shares its payload.
+   *
+   * @param eventId the id of the copy.
+   * @return a copy of this event.
+   */
+  @SuppressWarnings("unchecked")
+  public Event<T> withId(long eventId) {
+    try {
+      Event<T> copy = (Event<T>) clone();
+      copy.id = eventId;
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Restores the id and timestamp of an event being deserialized, replacing those its constructor
+   * assigned.
+   */
+  void restore(long eventId, long timestamp) {
+    this.id = eventId;
+    this.timestamp = timestamp;
+  }
+
   public String toJson() throws IOException {
     return JSONUtil.toJson(this);
   }
 
   public static Event<?> fromJson(String json) throws IOException {
-    return JSONUtil.toObject(json, new TypeReference<Event<?>>() {});
+    return JSONUtil.toObject(json, TYPE);
   }
 
   /**
@@ -125,6 +164,32 @@ public class Event<T> {
     }
   }
 
+  /**
+   * Progress of a job, carrying only the fields of the job which changed since the last full
+   * {@link JobProgressEvent} of its node. The payload holds the node's name under
+   * {@value #NAME_FIELD} and a JSON merge patch of the job under {@value #JOB_FIELD}; see
+   * {@link JobProgressEncoder}.
+   */
+  public static class JobProgressDeltaEvent extends Event<Map<String, Object>> {
+    public static final String NAME_FIELD = "name";
+    public static final String JOB_FIELD = "job";
+
+    @JsonCreator
+    public JobProgressDeltaEvent(@JsonProperty("payload") Map<String, Object> payload) {
+      super(Type.JOB_PROGRESS_DELTA, payload);
+    }
+
+    public JobProgressDeltaEvent(String nodeName, Object jobDelta) {
+      this(ImmutableMap.of(NAME_FIELD, nodeName, JOB_FIELD, jobDelta));
+    }
+
+    @JsonIgnore
+    public String getNodeName() { return (String) getPayload().get(NAME_FIELD); }
+
+    @JsonIgnore
+    public Object getJobDelta() { return getPayload().get(JOB_FIELD); }
+  }
+
   public static class JobFinishedEvent extends Event<DAGNode<? extends Job>> {
     @JsonCreator
     public JobFinishedEvent(@JsonProperty("payload") DAGNode<? extends Job> payload) {
@@ -147,11 +212,18 @@ public class Event<T> {
   }
 
   public static void main(String[] args) throws IOException {
-    String json = JSONUtil.readFile("pig/src/main/resources/web/data/small-events.json");
-    List<Event> events = JSONUtil.toObject(json, new TypeReference<List<Event>>() { });
-    for (Event event : events) {
-      // useful if we need to read a file, add a field, output and re-generate
+    String sourceFile = "pig/src/main/resources/web/data/small-events.json";
+    EventFileReader reader = new EventFileReader(new File(sourceFile));
+    AsyncJsonFileWriter writer = AsyncJsonFileWriter.open(sourceFile + "2", true);
+    try {
+      Event event;
+      while ((event = reader.read()) != null) {
+        // useful if we need to read a file, add a field, output and re-generate
+        writer.write(event);
+      }
+    } finally {
+      reader.close();
+      writer.close();
     }
-    JSONUtil.writeJson("pig/src/main/resources/web/data/small-events.json2", events);
   }
 }
@@ -0,0 +1,100 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.BeanSerializerFactory;
+
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Base of the serializers of the Job subclasses of each runtime, which carry aliases, features, the
+ * state of a map reduce job and its counters. Subclasses are registered on their Job subclass with
+ * {@link com.fasterxml.jackson.databind.annotation.JsonSerialize}, which should also include
+ * non-null properties only, as the serializer does; they must have a public no-arg constructor.
+ * <p/>
+ * Properties are written as Jackson's bean serializer would for such a subclass: the properties
+ * taken by its creator first, then those of Job in declaration order, omitting null values. The
+ * state of the map reduce job is written with type information if its class calls for it, as the
+ * Cascading runtime's does.
+ */
+public abstract class HadoopJobSerializer<T extends Job>
+    extends ModelSerializers.ObjectSerializer<T> {
+  private final ModelSerializers.JobSerializer jobFields = new ModelSerializers.JobSerializer();
+  private final ModelSerializers.DynamicValueWriter counterGroups =
+      new ModelSerializers.DynamicValueWriter(null);
+  private ModelSerializers.DynamicValueWriter mapReduceJobStates;
+
+  protected abstract String[] getAliases(T job);
+
+  protected abstract String[] getFeatures(T job);
+
+  protected abstract MapReduceJobState getMapReduceJobState(T job);
+
+  protected abstract Map<String, CounterGroup> getCounterGroupMap(T job);
+
+  @Override
+  final void writeFields(T job, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    ModelSerializers.writeStringField("id", job.getId(), jgen);
+    writeStringArrayField("aliases", getAliases(job), jgen);
+    writeStringArrayField("features", getFeatures(job), jgen);
+    if (mapReduceJobStates == null) {
+      // the type serializer depends on the mapper's configuration, so it is only known here
+      mapReduceJobStates = new ModelSerializers.DynamicValueWriter(
+          BeanSerializerFactory.instance.createTypeSerializer(provider.getConfig(),
+              provider.constructType(MapReduceJobState.class)));
+    }
+    mapReduceJobStates.writeField("mapReduceJobState", getMapReduceJobState(job), jgen, provider);
+    Map<String, CounterGroup> counterGroupMap = getCounterGroupMap(job);
+    if (counterGroupMap != null) {
+      jgen.writeObjectFieldStart("counterGroupMap");
+      for (Map.Entry<String, CounterGroup> entry : counterGroupMap.entrySet()) {
+        if (entry.getKey() == null) {
+          throw new JsonGenerationException("Null key for a Map not allowed in JSON");
+        }
+        jgen.writeFieldName(entry.getKey());
+        counterGroups.writeValue(entry.getValue(), jgen, provider);
+      }
+      jgen.writeEndObject();
+    }
+    jobFields.writeConfiguration(job, jgen, provider);
+    ModelSerializers.writeStringField("configurationId", job.getConfigurationId(), jgen);
+    jobFields.writeMetrics(job, jgen, provider);
+  }
+
+  private static void writeStringArrayField(String name, String[] values, JsonGenerator jgen)
+      throws IOException {
+    if (values == null) {
+      return;
+    }
+    jgen.writeArrayFieldStart(name);
+    for (String value : values) {
+      if (value == null) {
+        jgen.writeNull();
+      } else {
+        jgen.writeString(value);
+      }
+    }
+    jgen.writeEndArray();
+  }
+}
@@ -34,6 +34,10 @@ import java.util.Properties;
  * Class that encapsulates all information related to a run of a job. A job might have job
  * configuration and job metric data. Job metrics represents job data that is produced after the
  * conclusion of a job.
+ * <p/>
+ * Since job configurations are large and mostly shared between jobs, a job may instead carry only
+ * the id of its configuration, which is then served by a
+ * {@link com.twitter.ambrose.service.ConfigurationReadService}.
  *
  * @author billg
  */
@@ -42,8 +46,10 @@ import java.util.Properties;
     @JsonSubTypes.Type(value=com.twitter.ambrose.model.Job.class, name="default")
 })
 public class Job {
+  private static final TypeReference<Job> TYPE = new TypeReference<Job>() { };
   private String id;
   private Properties configuration;
+  private String configurationId;
   private Map<String, Number> metrics;
 
   protected Job() { }
@@ -63,12 +69,15 @@ public class Job {
   public Properties getConfiguration() { return configuration; }
   public void setConfiguration(Properties configuration) { this.configuration = configuration; }
 
+  public String getConfigurationId() { return configurationId; }
+  public void setConfigurationId(String configurationId) { this.configurationId = configurationId; }
+
   public Map<String, Number> getMetrics() { return metrics; }
   protected void setMetrics(Map<String, Number> metrics) { this.metrics = metrics; }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(id, configuration, metrics);
+    return Objects.hashCode(id, configuration, configurationId, metrics);
   }
 
   @Override
@@ -85,6 +94,7 @@ public class Job {
     Job that = (Job) obj;
     return Objects.equal(id, that.id)
         && Objects.equal(configuration, that.configuration)
+        && Objects.equal(configurationId, that.configurationId)
         && Objects.equal(metrics, that.metrics);
   }
 
@@ -93,6 +103,6 @@ public class Job {
   }
 
   public static Job fromJson(String json) throws IOException {
-    return JSONUtil.toObject(json, new TypeReference<Job>() { });
+    return JSONUtil.toObject(json, TYPE);
   }
 }
@@ -0,0 +1,157 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Maps;
+
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Encodes the progress of jobs as events. The first progress event of a node is a full
+ * {@link Event.JobProgressEvent}, whose job becomes the snapshot of that node. Subsequent events are
+ * {@link Event.JobProgressDeltaEvent}s carrying a JSON merge patch (RFC 7386) of the job against the
+ * snapshot: nested objects hold only their changed fields, and removed fields are null. Since most
+ * of a job, such as its configuration, doesn't change while it runs, deltas are typically a tiny
+ * fraction of the size of the full job.
+ * <p/>
+ * Deltas are cumulative against the snapshot rather than chained, so a client which missed some
+ * events still ends up with the current state after applying the latest delta. A field stays in
+ * every delta once it has changed, even if it changes back, for the same reason. A new snapshot is
+ * sent once a delta would be more than half the size of the full job.
+ * <p/>
+ * One encoder should be used per workflow. Instances are thread safe.
+ */
+public class JobProgressEncoder {
+  private final Map<String, Snapshot> snapshots = Maps.newHashMap();
+
+  /**
+   * Returns an event reporting the current progress of a node's job.
+   *
+   * @param node the node whose job progress to report.
+   * @return a {@link Event.JobProgressEvent} or {@link Event.JobProgressDeltaEvent}.
+   * @throws IOException if the job can't be serialized.
+   */
+  public synchronized Event encode(DAGNode<? extends Job> node) throws IOException {
+    JsonNode job = JSONUtil.toJsonNode(node.getJob());
+    if (!job.isObject()) {
+      return new Event.JobProgressEvent(node);
+    }
+    Snapshot snapshot = snapshots.get(node.getName());
+    if (snapshot != null) {
+      ObjectNode delta = diff(snapshot.job, job, snapshot.lastDelta);
+      if (JSONUtil.toJsonBytes(delta).length * 2 <= snapshot.bytes) {
+        snapshot.lastDelta = delta;
+        return new Event.JobProgressDeltaEvent(node.getName(), delta);
+      }
+    }
+    snapshots.put(node.getName(), new Snapshot(job, JSONUtil.toJsonBytes(job).length));
+    return new Event.JobProgressEvent(node);
+  }
+
+  /**
+   * Forgets all snapshots, so the next event of each node is a full one.
+   */
+  public synchronized void reset() {
+    snapshots.clear();
+  }
+
+  /**
+   * Applies the delta carried by an event to a job.
+   *
+   * @param job the job as of the last full progress event of the event's node.
+   * @param event the delta to apply.
+   * @return a new job with the delta applied.
+   * @throws IOException if the patched job can't be deserialized.
+   */
+  public static Job applyDelta(Job job, Event.JobProgressDeltaEvent event) throws IOException {
+    JsonNode tree = JSONUtil.toJsonNode(job);
+    JsonNode delta = JSONUtil.toJsonNode(event.getJobDelta());
+    return JSONUtil.toObject(merge(tree, delta), Job.class);
+  }
+
+  /**
+   * Returns a merge patch turning base into current. Fields of forced are included even if they
+   * equal those of base.
+   */
+  private static ObjectNode diff(JsonNode base, JsonNode current, JsonNode forced) {
+    ObjectNode patch = JsonNodeFactory.instance.objectNode();
+    Iterator<Map.Entry<String, JsonNode>> fields = current.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      String name = field.getKey();
+      JsonNode value = field.getValue();
+      JsonNode baseValue = base.get(name);
+      JsonNode forcedValue = forced == null ? null : forced.get(name);
+      if (value.isObject() && baseValue != null && baseValue.isObject()
+          && (forcedValue == null || forcedValue.isObject())) {
+        ObjectNode nested = diff(baseValue, value, forcedValue);
+        if (nested.size() > 0) {
+          patch.put(name, nested);
+        }
+      } else if (!value.equals(baseValue) || forcedValue != null) {
+        patch.put(name, value);
+      }
+    }
+    Iterator<String> baseNames = base.fieldNames();
+    while (baseNames.hasNext()) {
+      String name = baseNames.next();
+      if (!current.has(name)) {
+        patch.putNull(name);
+      }
+    }
+    return patch;
+  }
+
+  /**
+   * Applies a merge patch to target, returning the result.
+   */
+  private static JsonNode merge(JsonNode target, JsonNode patch) {
+    if (!patch.isObject()) {
+      return patch;
+    }
+    ObjectNode result = target != null && target.isObject()
+        ? (ObjectNode) target
+        : JsonNodeFactory.instance.objectNode();
+    Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      if (field.getValue().isNull()) {
+        result.remove(field.getKey());
+      } else {
+        result.put(field.getKey(), merge(result.get(field.getKey()), field.getValue()));
+      }
+    }
+    return result;
+  }
+
+  private static class Snapshot {
+    private final JsonNode job;
+    private final int bytes;
+    private JsonNode lastDelta;
+
+    private Snapshot(JsonNode job, int bytes) {
+      this.job = job;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,512 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.Deserializers;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Deserializers of {@link ModelModule}. They accept what Jackson's bean deserializers would, with
+ * unknown properties ignored. Type information is resolved by Jackson before these are called, so
+ * they may start after the type property, at the next property or the end of the object. Values
+ * of other classes are read by the deserializers Jackson finds for their declared type.
+ */
+class ModelDeserializers extends Deserializers.Base {
+  @Override
+  public JsonDeserializer<?> findBeanDeserializer(JavaType type, DeserializationConfig config,
+      BeanDescription beanDesc) {
+    Class<?> cls = type.getRawClass();
+    TypeFactory typeFactory = config.getTypeFactory();
+    if (cls == Event.JobStartedEvent.class
+        || cls == Event.JobProgressEvent.class
+        || cls == Event.JobFinishedEvent.class
+        || cls == Event.JobFailedEvent.class) {
+      return new EventDeserializer(cls,
+          typeFactory.constructParametricType(DAGNode.class, Job.class));
+    }
+    if (cls == Event.JobProgressDeltaEvent.class) {
+      return new EventDeserializer(cls,
+          typeFactory.constructMapType(Map.class, String.class, Object.class));
+    }
+    if (cls == Event.WorkflowProgressEvent.class) {
+      return new EventDeserializer(cls, typeFactory.constructMapType(Map.class,
+          Event.WorkflowProgressField.class, String.class));
+    }
+    if (cls == DAGNode.class) {
+      JavaType jobType = type.containedTypeCount() == 1
+          ? type.containedType(0)
+          : typeFactory.constructType(Job.class);
+      return new DAGNodeDeserializer(jobType);
+    }
+    if (cls == Job.class) {
+      return new JobDeserializer();
+    }
+    if (cls == MapReduceJobState.class) {
+      return new MapReduceJobStateDeserializer();
+    }
+    if (cls == CounterGroup.class) {
+      return new CounterGroupDeserializer();
+    }
+    if (cls == CounterGroup.CounterInfo.class) {
+      return new CounterInfoDeserializer();
+    }
+    return null;
+  }
+
+  /**
+   * Base of deserializers of objects, which calls {@link #readField} for each property.
+   */
+  abstract static class ObjectDeserializer<T, B> extends StdDeserializer<T> {
+    ObjectDeserializer(Class<?> cls) {
+      super(cls);
+    }
+
+    @Override
+    public T deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+      JsonToken token = jp.getCurrentToken();
+      if (token == JsonToken.START_OBJECT) {
+        token = jp.nextToken();
+      }
+      B builder = newBuilder();
+      for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+        String name = jp.getCurrentName();
+        jp.nextToken();
+        if (!readField(builder, name, jp, ctxt)) {
+          jp.skipChildren();
+        }
+      }
+      if (token != JsonToken.END_OBJECT) {
+        throw ctxt.mappingException(getValueClass(), token);
+      }
+      return build(builder);
+    }
+
+    @Override
+    public Object deserializeWithType(JsonParser jp, DeserializationContext ctxt,
+        TypeDeserializer typeDeserializer) throws IOException {
+      return typeDeserializer.deserializeTypedFromObject(jp, ctxt);
+    }
+
+    /**
+     * Deserializers are immutable once resolved, so Jackson may share them.
+     */
+    @Override
+    public boolean isCachable() {
+      return true;
+    }
+
+    abstract B newBuilder();
+
+    /**
+     * Reads the value of a property, the parser being at its first token.
+     *
+     * @return false if the property is unknown, in which case its value is skipped.
+     */
+    abstract boolean readField(B builder, String name, JsonParser jp, DeserializationContext ctxt)
+        throws IOException;
+
+    abstract T build(B builder) throws IOException;
+
+    /**
+     * Reads a string as Jackson's string deserializer would.
+     */
+    String readString(JsonParser jp, DeserializationContext ctxt) throws IOException {
+      JsonToken token = jp.getCurrentToken();
+      if (token == JsonToken.VALUE_NULL) {
+        return null;
+      }
+      if (token.isScalarValue()) {
+        return jp.getText();
+      }
+      throw ctxt.mappingException(String.class, token);
+    }
+  }
+
+  static class EventBuilder {
+    private Object payload;
+    private Long id;
+    private Long timestamp;
+  }
+
+  /**
+   * Deserializer of the event subclasses, which are created through their payload constructor and
+   * then given the id and timestamp read.
+   */
+  static class EventDeserializer extends ObjectDeserializer<Event<?>, EventBuilder>
+      implements ResolvableDeserializer {
+    private final JavaType payloadType;
+    private JsonDeserializer<Object> payloads;
+
+    EventDeserializer(Class<?> cls, JavaType payloadType) {
+      super(cls);
+      this.payloadType = payloadType;
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+      payloads = ctxt.findRootValueDeserializer(payloadType);
+    }
+
+    @Override
+    EventBuilder newBuilder() {
+      return new EventBuilder();
+    }
+
+    @Override
+    boolean readField(EventBuilder builder, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      if ("payload".equals(name)) {
+        builder.payload = jp.getCurrentToken() == JsonToken.VALUE_NULL
+            ? null
+            : payloads.deserialize(jp, ctxt);
+      } else if ("id".equals(name)) {
+        builder.id = _parseLongPrimitive(jp, ctxt);
+      } else if ("timestamp".equals(name)) {
+        builder.timestamp = _parseLongPrimitive(jp, ctxt);
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Event<?> build(EventBuilder builder) {
+      Class<?> cls = getValueClass();
+      Event<?> event;
+      if (cls == Event.JobStartedEvent.class) {
+        event = new Event.JobStartedEvent((DAGNode<? extends Job>) builder.payload);
+      } else if (cls == Event.JobProgressEvent.class) {
+        event = new Event.JobProgressEvent((DAGNode<? extends Job>) builder.payload);
+      } else if (cls == Event.JobFinishedEvent.class) {
+        event = new Event.JobFinishedEvent((DAGNode<? extends Job>) builder.payload);
+      } else if (cls == Event.JobFailedEvent.class) {
+        event = new Event.JobFailedEvent((DAGNode<? extends Job>) builder.payload);
+      } else if (cls == Event.JobProgressDeltaEvent.class) {
+        event = new Event.JobProgressDeltaEvent((Map<String, Object>) builder.payload);
+      } else {
+        event = new Event.WorkflowProgressEvent(
+            (Map<Event.WorkflowProgressField, String>) builder.payload);
+      }
+      event.restore(builder.id == null ? event.getId() : builder.id,
+          builder.timestamp == null ? event.getTimestamp() : builder.timestamp);
+      return event;
+    }
+  }
+
+  static class DAGNodeBuilder {
+    private String name;
+    private Job job;
+    private Collection<String> successorNames;
+    private boolean hasSuccessorNames;
+  }
+
+  static class DAGNodeDeserializer extends ObjectDeserializer<DAGNode<?>, DAGNodeBuilder>
+      implements ResolvableDeserializer {
+    private final JavaType jobType;
+    private JsonDeserializer<Object> jobs;
+    private JsonDeserializer<Object> successorNames;
+
+    DAGNodeDeserializer(JavaType jobType) {
+      super(DAGNode.class);
+      this.jobType = jobType;
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+      jobs = ctxt.findRootValueDeserializer(jobType);
+      successorNames = ctxt.findRootValueDeserializer(ctxt.getTypeFactory()
+          .constructCollectionType(Collection.class, String.class));
+    }
+
+    @Override
+    DAGNodeBuilder newBuilder() {
+      return new DAGNodeBuilder();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean readField(DAGNodeBuilder builder, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      boolean isNull = jp.getCurrentToken() == JsonToken.VALUE_NULL;
+      if ("name".equals(name)) {
+        builder.name = readString(jp, ctxt);
+      } else if ("job".equals(name)) {
+        builder.job = isNull ? null : (Job) jobs.deserialize(jp, ctxt);
+      } else if ("successorNames".equals(name)) {
+        builder.successorNames =
+            isNull ? null : (Collection<String>) successorNames.deserialize(jp, ctxt);
+        builder.hasSuccessorNames = true;
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    DAGNode<?> build(DAGNodeBuilder builder) {
+      DAGNode<Job> node = new DAGNode<Job>(builder.name, builder.job);
+      if (builder.hasSuccessorNames) {
+        node.setSuccessorNames(builder.successorNames);
+      }
+      return node;
+    }
+  }
+
+  static class JobBuilder {
+    private String id;
+    private Properties configuration;
+    private String configurationId;
+    private Map<String, Number> metrics;
+    private boolean hasConfigurationId;
+  }
+
+  static class JobDeserializer extends ObjectDeserializer<Job, JobBuilder>
+      implements ResolvableDeserializer {
+    private JsonDeserializer<Object> configurations;
+    private JsonDeserializer<Object> configurationValues;
+    private JsonDeserializer<Object> metrics;
+
+    JobDeserializer() {
+      super(Job.class);
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+      TypeFactory typeFactory = ctxt.getTypeFactory();
+      configurations = ctxt.findRootValueDeserializer(typeFactory.constructType(Properties.class));
+      configurationValues = ctxt.findRootValueDeserializer(typeFactory.constructType(Object.class));
+      metrics = ctxt.findRootValueDeserializer(
+          typeFactory.constructMapType(Map.class, String.class, Number.class));
+    }
+
+    /**
+     * Reads a configuration, whose values are strings but for the odd value left to Jackson's
+     * untyped deserializer, as its map deserializer would.
+     */
+    private Properties readConfiguration(JsonParser jp, DeserializationContext ctxt)
+        throws IOException {
+      if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+        return (Properties) configurations.deserialize(jp, ctxt);
+      }
+      Properties configuration = new Properties();
+      while (jp.nextToken() == JsonToken.FIELD_NAME) {
+        String key = jp.getCurrentName();
+        Object value = jp.nextToken() == JsonToken.VALUE_STRING
+            ? jp.getText()
+            : configurationValues.deserialize(jp, ctxt);
+        configuration.put(key, value);
+      }
+      return configuration;
+    }
+
+    @Override
+    JobBuilder newBuilder() {
+      return new JobBuilder();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean readField(JobBuilder builder, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      boolean isNull = jp.getCurrentToken() == JsonToken.VALUE_NULL;
+      if ("id".equals(name)) {
+        builder.id = readString(jp, ctxt);
+      } else if ("configuration".equals(name)) {
+        builder.configuration = isNull ? null : readConfiguration(jp, ctxt);
+      } else if ("metrics".equals(name)) {
+        builder.metrics = isNull ? null : (Map<String, Number>) metrics.deserialize(jp, ctxt);
+      } else if ("configurationId".equals(name)) {
+        builder.configurationId = readString(jp, ctxt);
+        builder.hasConfigurationId = true;
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    Job build(JobBuilder builder) {
+      Job job = new Job(builder.id, builder.configuration, builder.metrics);
+      if (builder.hasConfigurationId) {
+        job.setConfigurationId(builder.configurationId);
+      }
+      return job;
+    }
+  }
+
+  /**
+   * Deserializer of job states, which are set property by property as they are read.
+   */
+  static class MapReduceJobStateDeserializer
+      extends ObjectDeserializer<MapReduceJobState, MapReduceJobState> {
+    MapReduceJobStateDeserializer() {
+      super(MapReduceJobState.class);
+    }
+
+    @Override
+    MapReduceJobState newBuilder() {
+      return new MapReduceJobState();
+    }
+
+    @Override
+    boolean readField(MapReduceJobState state, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      if ("jobId".equals(name)) {
+        state.setJobId(readString(jp, ctxt));
+      } else if ("jobName".equals(name)) {
+        state.setJobName(readString(jp, ctxt));
+      } else if ("trackingURL".equals(name)) {
+        state.setTrackingURL(readString(jp, ctxt));
+      } else if ("mapProgress".equals(name)) {
+        state.setMapProgress(_parseFloatPrimitive(jp, ctxt));
+      } else if ("reduceProgress".equals(name)) {
+        state.setReduceProgress(_parseFloatPrimitive(jp, ctxt));
+      } else if ("jobStartTime".equals(name)) {
+        state.setJobStartTime(_parseLongPrimitive(jp, ctxt));
+      } else if ("jobLastUpdateTime".equals(name)) {
+        state.setJobLastUpdateTime(_parseLongPrimitive(jp, ctxt));
+      } else if ("totalMappers".equals(name)) {
+        state.setTotalMappers(_parseIntPrimitive(jp, ctxt));
+      } else if ("finishedMappersCount".equals(name)) {
+        state.setFinishedMappersCount(_parseIntPrimitive(jp, ctxt));
+      } else if ("totalReducers".equals(name)) {
+        state.setTotalReducers(_parseIntPrimitive(jp, ctxt));
+      } else if ("finishedReducersCount".equals(name)) {
+        state.setFinishedReducersCount(_parseIntPrimitive(jp, ctxt));
+      } else if ("complete".equals(name)) {
+        state.setComplete(_parseBooleanPrimitive(jp, ctxt));
+      } else if ("successful".equals(name)) {
+        state.setSuccessful(_parseBooleanPrimitive(jp, ctxt));
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    MapReduceJobState build(MapReduceJobState state) {
+      return state;
+    }
+  }
+
+  static class CounterGroupBuilder {
+    private String groupName;
+    private String groupDisplayName;
+    private Map<String, CounterGroup.CounterInfo> counterInfoMap;
+  }
+
+  static class CounterGroupDeserializer
+      extends ObjectDeserializer<CounterGroup, CounterGroupBuilder>
+      implements ResolvableDeserializer {
+    private JsonDeserializer<Object> counterInfoMaps;
+
+    CounterGroupDeserializer() {
+      super(CounterGroup.class);
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+      counterInfoMaps = ctxt.findRootValueDeserializer(ctxt.getTypeFactory()
+          .constructMapType(Map.class, String.class, CounterGroup.CounterInfo.class));
+    }
+
+    @Override
+    CounterGroupBuilder newBuilder() {
+      return new CounterGroupBuilder();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean readField(CounterGroupBuilder builder, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      if ("groupName".equals(name)) {
+        builder.groupName = readString(jp, ctxt);
+      } else if ("groupDisplayName".equals(name)) {
+        builder.groupDisplayName = readString(jp, ctxt);
+      } else if ("counterInfoMap".equals(name)) {
+        builder.counterInfoMap = jp.getCurrentToken() == JsonToken.VALUE_NULL
+            ? null
+            : (Map<String, CounterGroup.CounterInfo>) counterInfoMaps.deserialize(jp, ctxt);
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    CounterGroup build(CounterGroupBuilder builder) {
+      return new CounterGroup(builder.groupName, builder.groupDisplayName, builder.counterInfoMap);
+    }
+  }
+
+  static class CounterInfoBuilder {
+    private String name;
+    private String displayName;
+    private long value;
+  }
+
+  static class CounterInfoDeserializer
+      extends ObjectDeserializer<CounterGroup.CounterInfo, CounterInfoBuilder> {
+    CounterInfoDeserializer() {
+      super(CounterGroup.CounterInfo.class);
+    }
+
+    @Override
+    CounterInfoBuilder newBuilder() {
+      return new CounterInfoBuilder();
+    }
+
+    @Override
+    boolean readField(CounterInfoBuilder builder, String name, JsonParser jp,
+        DeserializationContext ctxt) throws IOException {
+      if ("name".equals(name)) {
+        builder.name = readString(jp, ctxt);
+      } else if ("displayName".equals(name)) {
+        builder.displayName = readString(jp, ctxt);
+      } else if ("value".equals(name)) {
+        builder.value = _parseLongPrimitive(jp, ctxt);
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    CounterGroup.CounterInfo build(CounterInfoBuilder builder) {
+      return new CounterGroup.CounterInfo(builder.name, builder.displayName, builder.value);
+    }
+  }
+}
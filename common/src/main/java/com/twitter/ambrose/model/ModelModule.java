@@ -0,0 +1,51 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.Module;
+
+/**
+ * Jackson module registering hand-written serializers and deserializers of the model classes sent
+ * with every event: {@link Event} and its subclasses, {@link DAGNode}, {@link Job},
+ * {@link com.twitter.ambrose.model.hadoop.MapReduceJobState} and
+ * {@link com.twitter.ambrose.model.hadoop.CounterGroup}. They write exactly the JSON Jackson's
+ * reflective bean serializers would, but without introspecting properties or invoking accessors
+ * reflectively for each object.
+ * <p/>
+ * Only these exact classes are handled. The Job subclasses of each runtime register serializers of
+ * their own, extending {@link HadoopJobSerializer}, but are still deserialized as beans, though the
+ * model objects they hold use the deserializers of this module.
+ * Type information of {@link Event} and {@link Job} is still written and resolved by Jackson, so
+ * subtypes mixed in through {@link com.twitter.ambrose.util.JSONUtil#mixinAnnotatons} keep working.
+ */
+public class ModelModule extends Module {
+  @Override
+  public String getModuleName() {
+    return "ambrose-model";
+  }
+
+  @Override
+  public Version version() {
+    return Version.unknownVersion();
+  }
+
+  @Override
+  public void setupModule(SetupContext context) {
+    context.addSerializers(new ModelSerializers());
+    context.addDeserializers(new ModelDeserializers());
+  }
+}
@@ -0,0 +1,338 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.BeanSerializerFactory;
+import com.fasterxml.jackson.databind.ser.Serializers;
+import com.fasterxml.jackson.databind.ser.impl.PropertySerializerMap;
+
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Serializers of {@link ModelModule}. Each writes the properties Jackson's bean serializer would, in
+ * the same order: creator properties first, then the others in declaration order, omitting null
+ * values. Values whose class is only known at runtime, such as event payloads and job
+ * configurations, are written by the serializers Jackson finds for their class, cached per class.
+ */
+class ModelSerializers extends Serializers.Base {
+  @Override
+  public JsonSerializer<?> findSerializer(SerializationConfig config, JavaType type,
+      BeanDescription beanDesc) {
+    Class<?> cls = type.getRawClass();
+    if (cls == Event.class) {
+      return new EventSerializer(false);
+    }
+    if (cls.getSuperclass() == Event.class && cls.getEnclosingClass() == Event.class) {
+      return new EventSerializer(true);
+    }
+    if (cls == DAGNode.class) {
+      return new DAGNodeSerializer(BeanSerializerFactory.instance.createTypeSerializer(
+          config, config.constructType(Job.class)));
+    }
+    if (cls == Job.class) {
+      return new JobSerializer();
+    }
+    if (cls == MapReduceJobState.class) {
+      return new MapReduceJobStateSerializer();
+    }
+    if (cls == CounterGroup.class) {
+      return new CounterGroupSerializer();
+    }
+    if (cls == CounterGroup.CounterInfo.class) {
+      return new CounterInfoSerializer();
+    }
+    return null;
+  }
+
+  /**
+   * Base of serializers of objects, which are written with type information when their declared
+   * type calls for it.
+   */
+  abstract static class ObjectSerializer<T> extends JsonSerializer<T> {
+    @Override
+    public void serialize(T value, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      jgen.writeStartObject();
+      writeFields(value, jgen, provider);
+      jgen.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(T value, JsonGenerator jgen, SerializerProvider provider,
+        TypeSerializer typeSer) throws IOException {
+      typeSer.writeTypePrefixForObject(value, jgen);
+      writeFields(value, jgen, provider);
+      typeSer.writeTypeSuffixForObject(value, jgen);
+    }
+
+    abstract void writeFields(T value, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException;
+  }
+
+  /**
+   * Writes values whose class is only known at runtime, caching the serializer of each class as
+   * Jackson's bean properties do.
+   */
+  static class DynamicValueWriter {
+    private final TypeSerializer typeSer;
+    private PropertySerializerMap serializers = PropertySerializerMap.emptyMap();
+
+    DynamicValueWriter(TypeSerializer typeSer) {
+      this.typeSer = typeSer;
+    }
+
+    void writeField(String name, Object value, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      if (value == null) {
+        return;
+      }
+      jgen.writeFieldName(name);
+      writeValue(value, jgen, provider);
+    }
+
+    void writeValue(Object value, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      if (value == null) {
+        jgen.writeNull();
+        return;
+      }
+      Class<?> cls = value.getClass();
+      JsonSerializer<Object> serializer = serializers.serializerFor(cls);
+      if (serializer == null) {
+        PropertySerializerMap.SerializerAndMapResult result =
+            serializers.findAndAddSerializer(cls, provider, null);
+        serializers = result.map;
+        serializer = result.serializer;
+      }
+      if (typeSer == null) {
+        serializer.serialize(value, jgen, provider);
+      } else {
+        serializer.serializeWithType(value, jgen, provider, typeSer);
+      }
+    }
+  }
+
+  /**
+   * Serializer of events. Subclasses take their payload through their creator, so it comes first.
+   */
+  static class EventSerializer extends ObjectSerializer<Event<?>> {
+    private final boolean payloadFirst;
+    private final DynamicValueWriter payloads = new DynamicValueWriter(null);
+
+    EventSerializer(boolean payloadFirst) {
+      this.payloadFirst = payloadFirst;
+    }
+
+    @Override
+    void writeFields(Event<?> event, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      if (payloadFirst) {
+        payloads.writeField("payload", event.getPayload(), jgen, provider);
+      }
+      jgen.writeNumberField("id", event.getId());
+      jgen.writeNumberField("timestamp", event.getTimestamp());
+      if (!payloadFirst) {
+        payloads.writeField("payload", event.getPayload(), jgen, provider);
+      }
+    }
+  }
+
+  static class DAGNodeSerializer extends ObjectSerializer<DAGNode<?>> {
+    private final DynamicValueWriter jobs;
+
+    DAGNodeSerializer(TypeSerializer jobTypeSer) {
+      this.jobs = new DynamicValueWriter(jobTypeSer);
+    }
+
+    @Override
+    void writeFields(DAGNode<?> node, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      writeStringField("name", node.getName(), jgen);
+      jobs.writeField("job", node.getJob(), jgen, provider);
+      Collection<String> successorNames = node.getSuccessorNames();
+      if (successorNames != null) {
+        jgen.writeArrayFieldStart("successorNames");
+        for (String successorName : successorNames) {
+          if (successorName == null) {
+            jgen.writeNull();
+          } else {
+            jgen.writeString(successorName);
+          }
+        }
+        jgen.writeEndArray();
+      }
+    }
+  }
+
+  /**
+   * Serializer of jobs. Configurations of strings and metrics of boxed primitives, which is what jobs
+   * carry, are written directly; anything else is left to Jackson's map serializer.
+   */
+  static class JobSerializer extends ObjectSerializer<Job> {
+    private final DynamicValueWriter configurations = new DynamicValueWriter(null);
+    private final DynamicValueWriter metrics = new DynamicValueWriter(null);
+
+    @Override
+    void writeFields(Job job, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      writeStringField("id", job.getId(), jgen);
+      writeConfiguration(job, jgen, provider);
+      writeMetrics(job, jgen, provider);
+      writeStringField("configurationId", job.getConfigurationId(), jgen);
+    }
+
+    void writeConfiguration(Job job, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      Properties configuration = job.getConfiguration();
+      if (configuration != null && hasStringEntries(configuration)) {
+        jgen.writeObjectFieldStart("configuration");
+        for (Map.Entry<Object, Object> entry : configuration.entrySet()) {
+          jgen.writeStringField((String) entry.getKey(), (String) entry.getValue());
+        }
+        jgen.writeEndObject();
+      } else {
+        configurations.writeField("configuration", configuration, jgen, provider);
+      }
+    }
+
+    void writeMetrics(Job job, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      Map<String, Number> jobMetrics = job.getMetrics();
+      if (jobMetrics != null && hasPrimitiveValues(jobMetrics)) {
+        jgen.writeObjectFieldStart("metrics");
+        for (Map.Entry<String, Number> entry : jobMetrics.entrySet()) {
+          jgen.writeFieldName(entry.getKey());
+          writeNumber(entry.getValue(), jgen);
+        }
+        jgen.writeEndObject();
+      } else {
+        metrics.writeField("metrics", jobMetrics, jgen, provider);
+      }
+    }
+
+    private static boolean hasStringEntries(Properties configuration) {
+      for (Map.Entry<Object, Object> entry : configuration.entrySet()) {
+        if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean hasPrimitiveValues(Map<String, Number> metrics) {
+      for (Map.Entry<String, Number> entry : metrics.entrySet()) {
+        Number value = entry.getValue();
+        if (entry.getKey() == null || !(value == null || value instanceof Integer
+            || value instanceof Long || value instanceof Double || value instanceof Float)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static void writeNumber(Number value, JsonGenerator jgen) throws IOException {
+      if (value == null) {
+        jgen.writeNull();
+      } else if (value instanceof Integer) {
+        jgen.writeNumber(value.intValue());
+      } else if (value instanceof Long) {
+        jgen.writeNumber(value.longValue());
+      } else if (value instanceof Double) {
+        jgen.writeNumber(value.doubleValue());
+      } else {
+        jgen.writeNumber(value.floatValue());
+      }
+    }
+  }
+
+  static class MapReduceJobStateSerializer extends ObjectSerializer<MapReduceJobState> {
+    @Override
+    void writeFields(MapReduceJobState state, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      writeStringField("jobId", state.getJobId(), jgen);
+      writeStringField("jobName", state.getJobName(), jgen);
+      writeStringField("trackingURL", state.getTrackingURL(), jgen);
+      jgen.writeNumberField("mapProgress", state.getMapProgress());
+      jgen.writeNumberField("reduceProgress", state.getReduceProgress());
+      jgen.writeNumberField("jobStartTime", state.getJobStartTime());
+      jgen.writeNumberField("jobLastUpdateTime", state.getJobLastUpdateTime());
+      jgen.writeNumberField("totalMappers", state.getTotalMappers());
+      jgen.writeNumberField("finishedMappersCount", state.getFinishedMappersCount());
+      jgen.writeNumberField("totalReducers", state.getTotalReducers());
+      jgen.writeNumberField("finishedReducersCount", state.getFinishedReducersCount());
+      jgen.writeBooleanField("complete", state.isComplete());
+      jgen.writeBooleanField("successful", state.isSuccessful());
+    }
+  }
+
+  static class CounterGroupSerializer extends ObjectSerializer<CounterGroup> {
+    private final CounterInfoSerializer counterInfos = new CounterInfoSerializer();
+
+    @Override
+    void writeFields(CounterGroup group, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      writeStringField("groupName", group.getGroupName(), jgen);
+      writeStringField("groupDisplayName", group.getGroupDisplayName(), jgen);
+      Map<String, CounterGroup.CounterInfo> counterInfoMap = group.getCounterInfoMap();
+      if (counterInfoMap != null) {
+        jgen.writeObjectFieldStart("counterInfoMap");
+        for (Map.Entry<String, CounterGroup.CounterInfo> entry : counterInfoMap.entrySet()) {
+          if (entry.getKey() == null) {
+            throw new JsonGenerationException("Null key for a Map not allowed in JSON");
+          }
+          jgen.writeFieldName(entry.getKey());
+          if (entry.getValue() == null) {
+            jgen.writeNull();
+          } else {
+            counterInfos.serialize(entry.getValue(), jgen, provider);
+          }
+        }
+        jgen.writeEndObject();
+      }
+    }
+  }
+
+  static class CounterInfoSerializer extends ObjectSerializer<CounterGroup.CounterInfo> {
+    @Override
+    void writeFields(CounterGroup.CounterInfo info, JsonGenerator jgen,
+        SerializerProvider provider) throws IOException {
+      writeStringField("name", info.getName(), jgen);
+      writeStringField("displayName", info.getDisplayName(), jgen);
+      jgen.writeNumberField("value", info.getValue());
+    }
+  }
+
+  static void writeStringField(String name, String value, JsonGenerator jgen)
+      throws IOException {
+    if (value != null) {
+      jgen.writeStringField(name, value);
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.twitter.ambrose.util.JSONUtil;
  * @author billg
  */
 public class Workflow {
+  private static final TypeReference<Workflow> TYPE = new TypeReference<Workflow>() { };
 
   private String workflowId;
   private String workflowFingerprint;
@@ -79,6 +80,6 @@ public class Workflow {
    * @throws IOException
    */
   public static Workflow fromJSON(String workflowInfoJson) throws IOException {
-    return JSONUtil.toObject(workflowInfoJson, new TypeReference<Workflow>() {});
+    return JSONUtil.toObject(workflowInfoJson, TYPE);
   }
 }
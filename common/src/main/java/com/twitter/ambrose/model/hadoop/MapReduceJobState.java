@@ -1,6 +1,7 @@
 package com.twitter.ambrose.model.hadoop;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.TIPStatus;
@@ -11,6 +12,9 @@ import java.io.IOException;
 /**
  * Container that holds state of a MapReduce job
  */
+@JsonPropertyOrder({"jobId", "jobName", "trackingURL", "mapProgress", "reduceProgress",
+    "jobStartTime", "jobLastUpdateTime", "totalMappers", "finishedMappersCount", "totalReducers",
+    "finishedReducersCount", "complete", "successful"})
 public class MapReduceJobState {
   private String jobId;
   private String jobName;
@@ -1,29 +1,44 @@
 package com.twitter.ambrose.server;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
+import java.util.Properties;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.io.BaseEncoding;
 
 import org.mortbay.jetty.HttpConnection;
 import org.mortbay.jetty.Request;
 import org.mortbay.jetty.handler.AbstractHandler;
+import org.mortbay.util.ajax.Continuation;
+import org.mortbay.util.ajax.ContinuationSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
-import com.twitter.ambrose.model.PaginatedList;
-import com.twitter.ambrose.model.WorkflowSummary;
 import com.twitter.ambrose.model.WorkflowSummary.Status;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.EventJsonReadService;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.PagedEventReadService;
+import com.twitter.ambrose.service.ReplayControlService;
+import com.twitter.ambrose.service.SerializedEventList;
 import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.VersionedReadService;
 import com.twitter.ambrose.service.WorkflowIndexReadService;
 import com.twitter.ambrose.util.JSONUtil;
 
@@ -33,13 +48,62 @@ import com.twitter.ambrose.util.JSONUtil;
  * @author billg
  */
 public class APIHandler extends AbstractHandler {
+  /**
+   * Writes object to the response in the format negotiated by {@link #getFormat}.
+   */
   private static void sendJson(HttpServletRequest request,
       HttpServletResponse response, Object object) throws IOException {
-    JSONUtil.writeJson(response.getWriter(), object);
-    response.getWriter().close();
+    JSONUtil.Format format = getFormat(request);
+    setContentType(response, format);
+    OutputStream out = response.getOutputStream();
+    JSONUtil.writeValue(format, out, object);
+    out.close();
     setHandled(request);
   }
 
+  /**
+   * Returns the format the request accepts, which is Smile if the Accept header prefers it over
+   * JSON, and JSON otherwise. Only explicitly listed Smile is accepted, so browsers accepting any
+   * type keep getting JSON.
+   */
+  static JSONUtil.Format getFormat(HttpServletRequest request) {
+    String accept = request.getHeader("Accept");
+    if (accept == null) {
+      return JSONUtil.Format.JSON;
+    }
+    float smile = 0;
+    float json = 0;
+    for (String range : accept.split(",")) {
+      String[] parts = range.split(";");
+      String type = parts[0].trim().toLowerCase();
+      float quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (type.equals(JSONUtil.Format.SMILE.getContentType())) {
+        smile = quality;
+      } else if (type.equals(JSONUtil.Format.JSON.getContentType())) {
+        json = quality;
+      }
+    }
+    return smile > 0 && smile >= json ? JSONUtil.Format.SMILE : JSONUtil.Format.JSON;
+  }
+
+  private static void setContentType(HttpServletResponse response, JSONUtil.Format format) {
+    response.setContentType(format.getContentType());
+    if (format == JSONUtil.Format.JSON) {
+      response.setCharacterEncoding(CHARSET_UTF_8);
+    }
+    response.addHeader("Vary", "Accept");
+  }
+
   private static void setHandled(HttpServletRequest request) {
     Request base_request = (request instanceof Request) ?
         (Request) request : HttpConnection.getCurrentConnection().getRequest();
@@ -76,6 +140,104 @@ public class APIHandler extends AbstractHandler {
     return out;
   }
 
+  /**
+   * Writes events to the response, either as a json array or, if cursor isn't null, as a page
+   * object holding the events, the cursor from which to request the next page and whether more
+   * events are available. Serialized events are copied to the response as json without serializing
+   * them again.
+   */
+  private static void sendEvents(HttpServletRequest request, HttpServletResponse response,
+      List<Event> events, String cursor, boolean hasMore) throws IOException {
+    if (events instanceof SerializedEventList && getFormat(request) == JSONUtil.Format.JSON) {
+      setContentType(response, JSONUtil.Format.JSON);
+      OutputStream out = response.getOutputStream();
+      if (cursor != null) {
+        out.write("{\"events\":".getBytes(Charsets.UTF_8));
+      }
+      ((SerializedEventList) events).writeJson(out);
+      if (cursor != null) {
+        out.write(String.format(",\"cursor\":\"%s\",\"hasMore\":%s}",
+            cursor, hasMore).getBytes(Charsets.UTF_8));
+      }
+      out.close();
+      setHandled(request);
+    } else if (cursor != null) {
+      sendJson(request, response, ImmutableMap.of(
+          "events", events.toArray(new Event[events.size()]),
+          "cursor", cursor,
+          "hasMore", hasMore));
+    } else {
+      sendJson(request, response, events.toArray(new Event[events.size()]));
+    }
+  }
+
+  /**
+   * Cursors are opaque to clients, so event ids may be encoded differently in the future.
+   */
+  private static String encodeCursor(long eventId) {
+    return BaseEncoding.base64Url().encode(Long.toString(eventId).getBytes(Charsets.UTF_8));
+  }
+
+  private static long decodeCursor(String cursor) {
+    return Long.parseLong(new String(BaseEncoding.base64Url().decode(cursor), Charsets.UTF_8));
+  }
+
+  private static long getLong(String value, long defaultValue) {
+    long out = defaultValue;
+    if (value != null) {
+      try {
+        out = Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        // ignore
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Returns the entity tag of If-None-Match matching etag, or null if none does. Tags of compressed
+   * variants match the tag of the resource they were compressed from.
+   */
+  private static String matchETag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return null;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*")) {
+        return etag;
+      }
+      String value = tag.startsWith("W/") ? tag.substring(2) : tag;
+      for (String encoding : new String[] { CompressingResponse.GZIP, CompressingResponse.DEFLATE }) {
+        String suffix = "-" + encoding + "\"";
+        if (value.endsWith(suffix)) {
+          value = value.substring(0, value.length() - suffix.length()) + "\"";
+        }
+      }
+      if (value.equals(etag)) {
+        return tag;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parses a replay speed, which is a non-negative number or {@value #REPLAY_SPEED_MAX} for max
+   * speed.
+   *
+   * @throws IllegalArgumentException if speed is neither.
+   */
+  static double parseReplaySpeed(String speed) {
+    if (REPLAY_SPEED_MAX.equalsIgnoreCase(speed.trim())) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double out = Double.parseDouble(speed.trim());
+    if (!(out >= 0)) {
+      throw new IllegalArgumentException("Invalid replay speed " + speed);
+    }
+    return out;
+  }
+
   private static int getInt(String value, int defaultValue) {
     int out = defaultValue;
     if (value != null) {
@@ -93,17 +255,64 @@ public class APIHandler extends AbstractHandler {
   private static final String QUERY_PARAM_USER = "user";
   private static final String QUERY_PARAM_STATUS = "status";
   private static final String QUERY_PARAM_START_KEY = "startKey";
+  private static final String QUERY_PARAM_NUM_RESULTS = "numResults";
   private static final String QUERY_PARAM_WORKFLOW_ID = "workflowId";
   private static final String QUERY_PARAM_LAST_EVENT_ID = "lastEventId";
+  private static final String QUERY_PARAM_CONFIGURATION_ID = "configurationId";
+  private static final String QUERY_PARAM_CURSOR = "cursor";
+  private static final String QUERY_PARAM_LIMIT = "limit";
+  private static final String QUERY_PARAM_WAIT_MS = "waitMs";
+  private static final String QUERY_PARAM_CHANNEL_ID = "channelId";
+  private static final String QUERY_PARAM_SPEED = "speed";
+  private static final String QUERY_PARAM_SEEK_MS = "seekMs";
+  static final String REPLAY_SPEED_MAX = "max";
+  /**
+   * Name of system property used to configure the number of workflow summaries in a page, unless
+   * requested otherwise.
+   */
+  public static final String PAGE_SIZE_PARAM = "ambrose.workflows.page.size";
+  public static final int PAGE_SIZE_DEFAULT = 10;
+  private static final int MAX_PAGE_SIZE = 1000;
+  /**
+   * Max number of events read at once, which also bounds the batches events are streamed in.
+   */
+  static final int MAX_EVENTS_LIMIT = 1000;
+  private static final long MAX_EVENTS_WAIT_MS = 60000;
   private static final String MIME_TYPE_HTML = "text/html";
-  private static final String MIME_TYPE_JSON = "application/json";
+  private static final String MIME_TYPE_EVENT_STREAM = "text/event-stream";
+  private static final String HEADER_LAST_EVENT_ID = "Last-Event-ID";
+  private static final long STREAM_HEARTBEAT_MS = 15000;
+  private static final long STREAM_POLL_MS = 1000;
+  private static final String CHARSET_UTF_8 = "UTF-8";
+  private static final long JSON_CACHE_MAX_BYTES = 32 * 1024 * 1024;
   private WorkflowIndexReadService workflowIndexReadService;
   private StatsReadService<Job> statsReadService;
+  private EventChannelHub eventChannelHub;
+  private final int compressionMinBytes;
+  private final int compressionLevel;
+  private final int pageSize;
+  // versions are only unique within a service instance, so tags are prefixed by this handler's
+  // start time
+  private final String etagPrefix = Long.toHexString(System.currentTimeMillis());
+  private final Cache<String, byte[]> jsonCache = CacheBuilder.newBuilder()
+      .maximumWeight(JSON_CACHE_MAX_BYTES)
+      .weigher(new Weigher<String, byte[]>() {
+        @Override
+        public int weigh(String key, byte[] json) {
+          return json.length;
+        }
+      })
+      .build();
 
   public APIHandler(WorkflowIndexReadService workflowIndexReadService,
       StatsReadService<Job> statsReadService) {
     this.workflowIndexReadService = workflowIndexReadService;
     this.statsReadService = statsReadService;
+    this.compressionMinBytes = Integer.getInteger(
+        CompressingResponse.MIN_BYTES_PARAM, CompressingResponse.MIN_BYTES_DEFAULT);
+    this.compressionLevel = Integer.getInteger(
+        CompressingResponse.LEVEL_PARAM, CompressingResponse.LEVEL_DEFAULT);
+    this.pageSize = Integer.getInteger(PAGE_SIZE_PARAM, PAGE_SIZE_DEFAULT);
   }
 
   @Override
@@ -112,48 +321,227 @@ public class APIHandler extends AbstractHandler {
       HttpServletResponse response,
       int dispatch) throws IOException, ServletException {
 
+    // event streams are flushed as events are committed, so they aren't compressed
+    if (compressionLevel > 0
+        && !target.endsWith("/events/stream") && !target.endsWith("/events/channel")) {
+      String encoding = CompressingResponse.getEncoding(request);
+      if (encoding != null) {
+        response = new CompressingResponse(
+            response, encoding, compressionMinBytes, compressionLevel);
+      }
+    }
+
     if (target.endsWith("/clusters")) {
       sendJson(request, response, workflowIndexReadService.getClusters());
 
     } else if (target.endsWith("/workflows")) {
-      String cluster = normalize(request.getParameter(QUERY_PARAM_CLUSTER));
-      String user = normalize(request.getParameter(QUERY_PARAM_USER));
+      final String cluster = normalize(request.getParameter(QUERY_PARAM_CLUSTER));
+      final String user = normalize(request.getParameter(QUERY_PARAM_USER));
       String statusParam = normalize(request.getParameter(QUERY_PARAM_STATUS));
-      Status status = getEnum(statusParam, Status.class, null);
+      final Status status = getEnum(statusParam, Status.class, null);
       String startRowParam = normalize(request.getParameter(QUERY_PARAM_START_KEY));
-      byte[] startRow = getBytes(startRowParam, null);
+      String numResultsParam = normalize(request.getParameter(QUERY_PARAM_NUM_RESULTS));
+      final int numResults =
+          Math.max(1, Math.min(getInt(numResultsParam, pageSize), MAX_PAGE_SIZE));
 
       LOG.info("Submitted request for cluster={}, user={}, status={}, startRow={}", cluster, user,
           status, startRowParam);
-      PaginatedList<WorkflowSummary> workflows = workflowIndexReadService.getWorkflows(
-          cluster, status, user, 10, startRow);
+      String cacheKey = String.format(
+          "workflows?cluster=%s&user=%s&status=%s&startRow=%s&numResults=%d",
+          cluster, user, status, startRowParam, numResults);
+      final byte[] startRow;
+      try {
+        startRow = getBytes(startRowParam, null);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid start key " + startRowParam);
+        setHandled(request);
+        return;
+      }
+      try {
+        sendVersionedJson(request, response, cacheKey, new VersionedResource() {
+          @Override
+          long getVersion() throws IOException {
+            return workflowIndexReadService instanceof VersionedReadService
+                ? ((VersionedReadService) workflowIndexReadService).getWorkflowsVersion()
+                : -1;
+          }
 
-      response.setContentType(MIME_TYPE_JSON);
-      response.setStatus(HttpServletResponse.SC_OK);
-      sendJson(request, response, workflows);
+          @Override
+          Object read() throws IOException {
+            try {
+              return workflowIndexReadService.getWorkflows(
+                  cluster, status, user, numResults, startRow);
+            } catch (IllegalArgumentException e) {
+              // the format of start keys is up to the service, which rejects those it can't read
+              throw new InvalidRequestException(e);
+            }
+          }
+        });
+      } catch (InvalidRequestException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid start key " + startRowParam);
+        setHandled(request);
+        return;
+      }
 
     } else if (target.endsWith("/dag")) {
-      String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
+      final String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
 
       LOG.info("Submitted request for workflowId={}", workflowId);
-      Map<String, DAGNode<Job>> dagNodeNameMap =
-          statsReadService.getDagNodeNameMap(workflowId);
-      Collection<DAGNode<Job>> nodes = dagNodeNameMap.values();
+      sendVersionedJson(request, response, "dag?workflowId=" + workflowId, new VersionedResource() {
+        @Override
+        long getVersion() throws IOException {
+          return statsReadService instanceof VersionedReadService
+              ? ((VersionedReadService) statsReadService).getDagVersion(workflowId)
+              : -1;
+        }
+
+        @Override
+        Object read() throws IOException {
+          Collection<DAGNode<Job>> nodes =
+              statsReadService.getDagNodeNameMap(workflowId).values();
+          return nodes.toArray(new DAGNode[nodes.size()]);
+        }
+      });
 
-      response.setContentType(MIME_TYPE_JSON);
+    } else if (target.endsWith("/events/channel")) {
+      EventChannelHub hub = getEventChannelHub();
+      if (hub == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "Event channels aren't supported");
+        setHandled(request);
+        return;
+      }
+
+      EventChannel channel = hub.open();
+      LOG.info("Opened event channel {}", channel.getId());
+      response.setContentType(MIME_TYPE_EVENT_STREAM);
+      response.setCharacterEncoding(CHARSET_UTF_8);
+      response.setHeader("Cache-Control", "no-cache");
       response.setStatus(HttpServletResponse.SC_OK);
-      sendJson(request, response, nodes.toArray(new DAGNode[nodes.size()]));
+      streamChannel(response, hub, channel);
+      setHandled(request);
+
+    } else if (target.endsWith("/events/channel/subscribe")
+        || target.endsWith("/events/channel/unsubscribe")) {
+      String channelId = normalize(request.getParameter(QUERY_PARAM_CHANNEL_ID));
+      String lastEventIdParam = normalize(request.getParameter(QUERY_PARAM_LAST_EVENT_ID));
+      String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
+      EventChannelHub hub = getEventChannelHub();
+      EventChannel channel = hub == null ? null : hub.get(channelId);
+      if (channel == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            "No event channel found for channelId=" + channelId);
+        setHandled(request);
+        return;
+      }
+
+      if (target.endsWith("/subscribe")) {
+        Long lastEventId = lastEventIdParam == null ? null : getLong(lastEventIdParam, -1);
+        LOG.info("Subscribing event channel {} to workflowId={}, lastEventId={}",
+            channelId, workflowId, lastEventId);
+        hub.subscribe(channel, workflowId, lastEventId);
+      } else {
+        LOG.info("Unsubscribing event channel {} from workflowId={}", channelId, workflowId);
+        hub.unsubscribe(channel, workflowId);
+      }
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      setHandled(request);
+
+    } else if (target.endsWith("/events/stream")) {
+      String lastEventIdParam = normalize(request.getHeader(HEADER_LAST_EVENT_ID));
+      if (lastEventIdParam == null) {
+        lastEventIdParam = normalize(request.getParameter(QUERY_PARAM_LAST_EVENT_ID));
+      }
+      String workflowId = request.getParameter(QUERY_PARAM_WORKFLOW_ID);
+      long lastEventId = getLong(lastEventIdParam, -1);
+
+      LOG.info("Streaming events for workflowId={}, lastEventId={}", workflowId, lastEventId);
+      response.setContentType(MIME_TYPE_EVENT_STREAM);
+      response.setCharacterEncoding(CHARSET_UTF_8);
+      response.setHeader("Cache-Control", "no-cache");
+      response.setStatus(HttpServletResponse.SC_OK);
+      streamEvents(response, workflowId, lastEventId);
+      setHandled(request);
 
     } else if (target.endsWith("/events")) {
       String lastEventIdParam = normalize(request.getParameter(QUERY_PARAM_LAST_EVENT_ID));
-      Integer lastEventId = getInt(lastEventIdParam, -1);
+      String cursorParam = normalize(request.getParameter(QUERY_PARAM_CURSOR));
+      String limitParam = normalize(request.getParameter(QUERY_PARAM_LIMIT));
+      String waitMsParam = normalize(request.getParameter(QUERY_PARAM_WAIT_MS));
+      String workflowId = request.getParameter(QUERY_PARAM_WORKFLOW_ID);
+      int limit = Math.min(getInt(limitParam, -1), MAX_EVENTS_LIMIT);
+      long lastEventId = getLong(lastEventIdParam, -1);
+      long waitMs = Math.min(getLong(waitMsParam, 0), MAX_EVENTS_WAIT_MS);
+      if (cursorParam != null) {
+        try {
+          lastEventId = decodeCursor(cursorParam);
+        } catch (IllegalArgumentException e) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor " + cursorParam);
+          setHandled(request);
+          return;
+        }
+      }
 
-      Collection<Event> events = statsReadService
-          .getEventsSinceId(request.getParameter(QUERY_PARAM_WORKFLOW_ID), lastEventId);
+      // read one more event than the limit to tell whether there are more
+      int readLimit = limit > 0 ? limit + 1 : 0;
+      List<Event> events = waitForEvents(request, workflowId, lastEventId, readLimit, waitMs);
+
+      // without a limit, respond with an array of all events, as older clients expect
+      String cursor = null;
+      boolean hasMore = false;
+      if (limit > 0) {
+        hasMore = events.size() > limit;
+        if (hasMore) {
+          events = events.subList(0, limit);
+        }
+        cursor = encodeCursor(events.isEmpty()
+            ? lastEventId
+            : events.get(events.size() - 1).getId());
+      }
 
-      response.setContentType(MIME_TYPE_JSON);
       response.setStatus(HttpServletResponse.SC_OK);
-      sendJson(request, response, events.toArray(new Event[events.size()]));
+      sendEvents(request, response, events, cursor, hasMore);
+
+    } else if (target.endsWith("/config")) {
+      String configurationId = normalize(request.getParameter(QUERY_PARAM_CONFIGURATION_ID));
+
+      LOG.info("Submitted request for configurationId={}", configurationId);
+      Properties configuration = statsReadService instanceof ConfigurationReadService
+          ? ((ConfigurationReadService) statsReadService).getConfiguration(configurationId)
+          : null;
+      if (configuration == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            "No configuration found for configurationId=" + configurationId);
+        setHandled(request);
+        return;
+      }
+
+      response.setStatus(HttpServletResponse.SC_OK);
+      sendJson(request, response, configuration);
+
+    } else if (target.endsWith("/replay")) {
+      if (!(statsReadService instanceof ReplayControlService)) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "Replay isn't supported");
+        setHandled(request);
+        return;
+      }
+      ReplayControlService replay = (ReplayControlService) statsReadService;
+      String speedParam = normalize(request.getParameter(QUERY_PARAM_SPEED));
+      String seekMsParam = normalize(request.getParameter(QUERY_PARAM_SEEK_MS));
+      try {
+        if (seekMsParam != null) {
+          replay.seekReplay(replay.getReplayState().getStartTime() + Long.parseLong(seekMsParam));
+        }
+        if (speedParam != null) {
+          replay.setReplaySpeed(parseReplaySpeed(speedParam));
+        }
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        setHandled(request);
+        return;
+      }
+
+      response.setStatus(HttpServletResponse.SC_OK);
+      sendJson(request, response, replay.getReplayState());
 
     } else if (target.endsWith(".html")) {
       response.setContentType(MIME_TYPE_HTML);
@@ -161,4 +549,280 @@ public class APIHandler extends AbstractHandler {
       // handle html well. This is jank.
     }
   }
+
+  private List<Event> getEventsSinceId(String workflowId, long lastEventId, int limit)
+      throws IOException {
+    return getEventsSinceId(statsReadService, workflowId, lastEventId, limit);
+  }
+
+  /**
+   * Returns up to limit events of a workflow since lastEventId, already serialized if the service
+   * supports it. Services which can't read a bounded number of events are read in full, but only
+   * the first limit events are copied.
+   *
+   * @param limit max number of events to return, or zero or less to return all of them.
+   */
+  static List<Event> getEventsSinceId(StatsReadService<Job> statsReadService, String workflowId,
+      long lastEventId, int limit) throws IOException {
+    if (statsReadService instanceof EventJsonReadService) {
+      SerializedEventList events = ((EventJsonReadService) statsReadService)
+          .getSerializedEventsSinceId(workflowId, lastEventId);
+      return limit > 0 && events.size() > limit ? events.subList(0, limit) : events;
+    }
+    Collection<Event> events = statsReadService instanceof PagedEventReadService
+        ? ((PagedEventReadService) statsReadService)
+            .getEventsSinceId(workflowId, lastEventId, limit)
+        : statsReadService.getEventsSinceId(workflowId, lastEventId);
+    return ImmutableList.copyOf(limit > 0 ? Iterables.limit(events, limit) : events);
+  }
+
+  /**
+   * Sends the json of a resource along with a tag of its version. Clients holding that version, as
+   * told by their If-None-Match header, get a 304 response without the resource being read. The
+   * json of each version is cached, so it is serialized once rather than on every request. Versions
+   * are read before and after the resource, and a resource which changed while it was read is sent
+   * without a tag. Resources are sent as Smile rather than json if the request prefers it, under a
+   * tag of their own.
+   *
+   * @param cacheKey key of the resource, which together with its version identifies its json.
+   */
+  private void sendVersionedJson(HttpServletRequest request, HttpServletResponse response,
+      String cacheKey, VersionedResource resource) throws IOException {
+    JSONUtil.Format format = getFormat(request);
+    String formatSuffix = format == JSONUtil.Format.JSON ? "" : "-" + format.name().toLowerCase();
+    long version = resource.getVersion();
+    String etag = version < 0
+        ? null
+        : String.format("\"%s-%x%s\"", etagPrefix, version, formatSuffix);
+    response.setHeader("Cache-Control", "no-cache");
+    String matchingETag = etag == null ? null : matchETag(request.getHeader("If-None-Match"), etag);
+    if (matchingETag != null) {
+      response.setHeader("ETag", matchingETag);
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      setHandled(request);
+      return;
+    }
+
+    cacheKey = cacheKey + "@" + version + formatSuffix;
+    byte[] json = etag == null ? null : jsonCache.getIfPresent(cacheKey);
+    if (json == null) {
+      json = JSONUtil.toBytes(format, resource.read());
+      if (etag != null && resource.getVersion() == version) {
+        jsonCache.put(cacheKey, json);
+      } else {
+        etag = null;
+      }
+    }
+
+    setContentType(response, format);
+    response.setStatus(HttpServletResponse.SC_OK);
+    if (etag != null) {
+      response.setHeader("ETag", etag);
+    }
+    OutputStream out = response.getOutputStream();
+    out.write(json);
+    out.close();
+    setHandled(request);
+  }
+
+  /**
+   * Resource sent by {@link #sendVersionedJson}.
+   */
+  private abstract static class VersionedResource {
+    /**
+     * Returns the current version of the resource, or a negative value if it isn't versioned.
+     */
+    abstract long getVersion() throws IOException;
+
+    /**
+     * Reads the resource, to be serialized as json or Smile.
+     */
+    abstract Object read() throws IOException;
+  }
+
+  /**
+   * Thrown by {@link VersionedResource#read} when the service rejects the arguments of a request.
+   */
+  private static class InvalidRequestException extends RuntimeException {
+    InvalidRequestException(IllegalArgumentException cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * Returns up to limit events since lastEventId, waiting up to waitMs for one to be committed if
+   * there are none yet. The request is suspended while waiting: with a selector based connector,
+   * suspending throws a RetryRequest which releases the calling thread, and Jetty handles the
+   * request again once the listener resumes it or the wait times out, at which point suspending
+   * returns at once.
+   *
+   * @param limit max number of events to return, or zero or less to return all of them.
+   */
+  private List<Event> waitForEvents(HttpServletRequest request, String workflowId,
+      long lastEventId, int limit, long waitMs) throws IOException {
+    if (waitMs <= 0 || !(statsReadService instanceof EventNotificationService)) {
+      return getEventsSinceId(workflowId, lastEventId, limit);
+    }
+    EventNotificationService notificationService = (EventNotificationService) statsReadService;
+    Continuation continuation = ContinuationSupport.getContinuation(request, null);
+    ContinuationListener listener = (ContinuationListener) continuation.getObject();
+    if (listener == null) {
+      List<Event> events = getEventsSinceId(workflowId, lastEventId, limit);
+      if (!events.isEmpty()) {
+        return events;
+      }
+      listener = new ContinuationListener(continuation);
+      continuation.setObject(listener);
+      notificationService.addEventListener(workflowId, listener);
+      // events committed before the listener was added didn't notify it
+      if (getEventsSinceId(workflowId, lastEventId, 1).isEmpty()) {
+        continuation.suspend(waitMs);
+      }
+    } else {
+      continuation.suspend(waitMs);
+    }
+    notificationService.removeEventListener(workflowId, listener);
+    continuation.setObject(null);
+    return getEventsSinceId(workflowId, lastEventId, limit);
+  }
+
+  /**
+   * Writes events since lastEventId to the response as they are committed, until the client goes
+   * away or the calling thread is interrupted. Unlike waiting for events, streaming holds the
+   * calling thread, as it keeps writing to the response. Events are polled for if the stats service
+   * doesn't notify listeners. Events are read in batches of at most {@link #MAX_EVENTS_LIMIT}, and
+   * the next batch is read without waiting while batches are full.
+   */
+  private void streamEvents(HttpServletResponse response, String workflowId, long lastEventId)
+      throws IOException {
+    EventStreamWriter writer = new EventStreamWriter(response.getOutputStream());
+    StreamListener listener = new StreamListener();
+    EventNotificationService notificationService = null;
+    long waitMs = STREAM_POLL_MS;
+    if (statsReadService instanceof EventNotificationService) {
+      notificationService = (EventNotificationService) statsReadService;
+      notificationService.addEventListener(workflowId, listener);
+      waitMs = STREAM_HEARTBEAT_MS;
+    }
+    try {
+      long lastWriteTime = System.currentTimeMillis();
+      while (true) {
+        List<Event> events = getEventsSinceId(workflowId, lastEventId, MAX_EVENTS_LIMIT);
+        if (!events.isEmpty()) {
+          writer.writeEvents(events);
+          lastEventId = events.get(events.size() - 1).getId();
+          lastWriteTime = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - lastWriteTime >= STREAM_HEARTBEAT_MS) {
+          writer.writeHeartbeat();
+          lastWriteTime = System.currentTimeMillis();
+        }
+        writer.flush();
+        if (events.size() < MAX_EVENTS_LIMIT) {
+          listener.await(waitMs);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOG.debug("Event stream of workflowId={} closed: {}", workflowId, e.toString());
+    } finally {
+      if (notificationService != null) {
+        notificationService.removeEventListener(workflowId, listener);
+      }
+    }
+  }
+
+  /**
+   * Writes the events queued to a channel to the response, until the client goes away, the channel
+   * is closed or the calling thread is interrupted. The first frame, of type channel, tells the
+   * client the id of its channel, through which it then subscribes to workflows.
+   */
+  private void streamChannel(HttpServletResponse response, EventChannelHub hub,
+      EventChannel channel) throws IOException {
+    EventStreamWriter writer = new EventStreamWriter(response.getOutputStream());
+    try {
+      writer.writeFrame("channel", ImmutableMap.of("channelId", channel.getId()));
+      writer.flush();
+      while (!channel.isClosed()) {
+        EventChannel.Batch batch = channel.poll(STREAM_HEARTBEAT_MS);
+        if (batch != null) {
+          writer.writeWorkflowEvents(batch.getWorkflowId(), batch.getEvents());
+        } else if (!channel.isClosed()) {
+          writer.writeHeartbeat();
+        }
+        writer.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOG.debug("Event channel {} closed: {}", channel.getId(), e.toString());
+    } finally {
+      hub.close(channel);
+    }
+  }
+
+  /**
+   * Returns the hub through which event channels are served, or null if the stats service doesn't
+   * notify listeners of events.
+   */
+  private synchronized EventChannelHub getEventChannelHub() {
+    if (eventChannelHub == null && statsReadService instanceof EventNotificationService) {
+      eventChannelHub = new EventChannelHub(statsReadService);
+    }
+    return eventChannelHub;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    synchronized (this) {
+      if (eventChannelHub != null) {
+        eventChannelHub.stop();
+        eventChannelHub = null;
+      }
+    }
+    super.doStop();
+  }
+
+  /**
+   * Wakes up a streaming request once events are committed.
+   */
+  private static class StreamListener implements EventNotificationService.Listener {
+    private boolean committed = false;
+
+    @Override
+    public synchronized void eventsCommitted(String workflowId) {
+      committed = true;
+      notifyAll();
+    }
+
+    /**
+     * Waits until events are committed or waitMs elapse, unless events were committed since the
+     * last call.
+     */
+    private synchronized void await(long waitMs) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + waitMs;
+      long remaining = waitMs;
+      while (!committed && remaining > 0) {
+        wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+      committed = false;
+    }
+  }
+
+  /**
+   * Resumes a suspended request once events are committed.
+   */
+  private static class ContinuationListener implements EventNotificationService.Listener {
+    private final Continuation continuation;
+
+    private ContinuationListener(Continuation continuation) {
+      this.continuation = continuation;
+    }
+
+    @Override
+    public void eventsCommitted(String workflowId) {
+      continuation.resume();
+    }
+  }
 }
@@ -0,0 +1,156 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.thread.ThreadPool;
+
+/**
+ * Jetty thread pool whose queue of pending jobs is bounded, unlike Jetty's own pools. The min
+ * threads are started with the pool and kept, and more threads are started up to the max before
+ * jobs are queued, which are stopped once idle. Jobs dispatched once the queue is full are
+ * rejected, in which case Jetty retries or drops the connection rather than letting work pile up.
+ */
+class BoundedQueueThreadPool extends AbstractLifeCycle implements ThreadPool {
+  private final int minThreads;
+  private final int maxThreads;
+  private final int maxQueued;
+  private final int maxIdleTimeMs;
+  // jobs dispatched which haven't finished yet, whether running or queued
+  private final AtomicInteger pending = new AtomicInteger();
+  private ThreadPoolExecutor executor;
+
+  /**
+   * @param maxThreads max number of threads.
+   * @param maxQueued max number of jobs waiting for a thread.
+   * @param maxIdleTimeMs time after which idle threads are stopped.
+   */
+  BoundedQueueThreadPool(int maxThreads, int maxQueued, int maxIdleTimeMs) {
+    this(0, maxThreads, maxQueued, maxIdleTimeMs);
+  }
+
+  /**
+   * @param minThreads number of threads kept, even when idle.
+   * @param maxThreads max number of threads.
+   * @param maxQueued max number of jobs waiting for a thread.
+   * @param maxIdleTimeMs time after which idle threads beyond the min are stopped.
+   */
+  BoundedQueueThreadPool(int minThreads, int maxThreads, int maxQueued, int maxIdleTimeMs) {
+    this.minThreads = Math.min(minThreads, maxThreads);
+    this.maxThreads = maxThreads;
+    this.maxQueued = maxQueued;
+    this.maxIdleTimeMs = maxIdleTimeMs;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    final JobQueue queue = new JobQueue();
+    executor = new ThreadPoolExecutor(minThreads, maxThreads, maxIdleTimeMs,
+        TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ambrose-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !queue.force(job)) {
+              throw new RejectedExecutionException();
+            }
+          }
+        }) {
+      @Override
+      protected void afterExecute(Runnable job, Throwable t) {
+        pending.decrementAndGet();
+      }
+    };
+    executor.prestartAllCoreThreads();
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    executor.shutdownNow();
+  }
+
+  @Override
+  public boolean dispatch(Runnable job) {
+    pending.incrementAndGet();
+    try {
+      executor.execute(job);
+      return true;
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      return false;
+    }
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+      // keep waiting
+    }
+  }
+
+  @Override
+  public int getThreads() {
+    return executor.getPoolSize();
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return executor.getPoolSize() - executor.getActiveCount();
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return executor.getActiveCount() >= maxThreads && !executor.getQueue().isEmpty();
+  }
+
+  /**
+   * Queue of jobs waiting for a thread. A ThreadPoolExecutor only starts threads beyond its core
+   * size once its queue refuses a job, so jobs are refused while all threads are busy and more may
+   * be started, and forced into the queue if no thread could be started after all.
+   */
+  private class JobQueue extends ArrayBlockingQueue<Runnable> {
+    private JobQueue() {
+      super(maxQueued);
+    }
+
+    @Override
+    public boolean offer(Runnable job) {
+      int threads = executor.getPoolSize();
+      return (pending.get() <= threads || threads >= maxThreads) && super.offer(job);
+    }
+
+    private boolean force(Runnable job) {
+      return super.offer(job);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response compressing its body with gzip or deflate, as negotiated with the client through the
+ * Accept-Encoding request header. The body is buffered until it reaches a threshold, below which
+ * it is sent as is since compression wouldn't pay off, and is compressed as it is written past it,
+ * so large responses are never held in memory.
+ * <p/>
+ * Compression can be configured with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MIN_BYTES_PARAM}</code> - size in bytes from which bodies are compressed.
+ * Defaults to {@value #MIN_BYTES_DEFAULT}.</li>
+ *     <li><code>{@value #LEVEL_PARAM}</code> - compression level, from 1 (fastest) to 9 (smallest),
+ * or 0 to disable compression. Defaults to {@value #LEVEL_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+  static final String MIN_BYTES_PARAM = "ambrose.compression.min.bytes";
+  static final int MIN_BYTES_DEFAULT = 1024;
+  static final String LEVEL_PARAM = "ambrose.compression.level";
+  static final int LEVEL_DEFAULT = 6;
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+  private static final int BUFFER_BYTES = 8192;
+
+  /**
+   * Returns the encoding to compress the response to a request with, preferring gzip over deflate,
+   * or null if the client accepts neither.
+   */
+  static String getEncoding(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return null;
+    }
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      float quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals(GZIP) || name.equals("x-gzip")) {
+        gzip = quality;
+      } else if (name.equals(DEFLATE)) {
+        deflate = quality;
+      } else if (name.equals("*")) {
+        any = quality;
+      }
+    }
+    if (gzip < 0) {
+      gzip = any;
+    }
+    if (deflate < 0) {
+      deflate = any;
+    }
+    if (gzip > 0 && gzip >= deflate) {
+      return GZIP;
+    }
+    return deflate > 0 ? DEFLATE : null;
+  }
+
+  private final String encoding;
+  private final int minBytes;
+  private final int level;
+  private CompressingOutputStream stream;
+  private PrintWriter writer;
+  private String etag;
+
+  /**
+   * @param response response to wrap.
+   * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+   * @param minBytes size in bytes from which the body is compressed.
+   * @param level compression level, from 1 to 9.
+   */
+  CompressingResponse(HttpServletResponse response, String encoding, int minBytes, int level) {
+    super(response);
+    this.encoding = encoding;
+    this.minBytes = minBytes;
+    this.level = level;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null) {
+      throw new IllegalStateException("getWriter() has already been called");
+    }
+    return getStream();
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      if (stream != null) {
+        throw new IllegalStateException("getOutputStream() has already been called");
+      }
+      writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  /**
+   * Tags set through this method are given a suffix naming the encoding if the body is compressed,
+   * as compressed bodies differ from the resource they are tagged with.
+   */
+  @Override
+  public void setHeader(String name, String value) {
+    if ("ETag".equalsIgnoreCase(name)) {
+      etag = value;
+    }
+    super.setHeader(name, value);
+  }
+
+  /**
+   * Ignored, as the length of the compressed body isn't known until it is written.
+   */
+  @Override
+  public void setContentLength(int length) {
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    } else if (stream != null) {
+      stream.flush();
+    }
+  }
+
+  private CompressingOutputStream getStream() {
+    if (stream == null) {
+      stream = new CompressingOutputStream();
+    }
+    return stream;
+  }
+
+  /**
+   * Stream buffering the body until it reaches the threshold, then compressing it.
+   */
+  private class CompressingOutputStream extends ServletOutputStream {
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream out;
+    private Deflater deflater;
+    private boolean closed = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (out == null) {
+        if (buffer.size() + len < minBytes) {
+          buffer.write(b, off, len);
+          return;
+        }
+        startCompressing();
+      }
+      out.write(b, off, len);
+    }
+
+    /**
+     * Flushes data compressed so far. Buffered data below the threshold is kept, so the decision
+     * whether to compress isn't forced early.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (out == null) {
+        addHeader("Vary", "Accept-Encoding");
+        getResponse().setContentLength(buffer.size());
+        OutputStream raw = getResponse().getOutputStream();
+        buffer.writeTo(raw);
+        raw.close();
+      } else {
+        try {
+          out.close();
+        } finally {
+          if (deflater != null) {
+            deflater.end();
+          }
+        }
+      }
+      buffer = null;
+    }
+
+    private void startCompressing() throws IOException {
+      setHeader("Content-Encoding", encoding);
+      addHeader("Vary", "Accept-Encoding");
+      if (etag != null && etag.endsWith("\"")) {
+        setHeader("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding + "\"");
+      }
+      OutputStream raw = getResponse().getOutputStream();
+      if (GZIP.equals(encoding)) {
+        out = new GzipOutputStream(raw, level);
+      } else {
+        deflater = new Deflater(level);
+        out = new DeflaterOutputStream(raw, deflater, BUFFER_BYTES);
+      }
+      buffer.writeTo(out);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Gzip stream compressing at a given level.
+   */
+  private static class GzipOutputStream extends GZIPOutputStream {
+    private GzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out, BUFFER_BYTES);
+      def.setLevel(level);
+    }
+  }
+}
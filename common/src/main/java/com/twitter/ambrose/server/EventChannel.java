@@ -0,0 +1,121 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+
+import com.twitter.ambrose.model.Event;
+
+/**
+ * Channel through which a single client receives the events of all workflows it subscribed to.
+ * Events are queued by an {@link EventChannelHub} and taken by the request streaming the channel to
+ * the client. The queue is bounded by a number of events: a client which doesn't keep up is evicted
+ * by closing its channel, rather than letting events pile up in memory. Evicted clients reconnect
+ * and subscribe again from the last event they received.
+ */
+class EventChannel {
+  private static final Batch CLOSED = new Batch(null, ImmutableList.<Event>of());
+
+  private final String id;
+  private final int maxPendingEvents;
+  private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+  private final AtomicInteger pendingEvents = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  EventChannel(String id, int maxPendingEvents) {
+    this.id = id;
+    this.maxPendingEvents = maxPendingEvents;
+  }
+
+  String getId() {
+    return id;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Queues events of a workflow to be sent to the client.
+   *
+   * @return false if the channel is closed, or was closed because queueing the events would exceed
+   * its bound.
+   */
+  boolean offer(String workflowId, List<Event> events) {
+    if (closed) {
+      return false;
+    }
+    if (pendingEvents.addAndGet(events.size()) > maxPendingEvents) {
+      close();
+      return false;
+    }
+    queue.add(new Batch(workflowId, events));
+    return true;
+  }
+
+  /**
+   * Takes the next batch of events to send, waiting up to timeoutMs for one to be queued.
+   *
+   * @return the next batch, or null if none was queued in time or the channel is closed.
+   */
+  Batch poll(long timeoutMs) throws InterruptedException {
+    if (closed) {
+      return null;
+    }
+    Batch batch = queue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    if (batch == null || batch == CLOSED) {
+      return null;
+    }
+    pendingEvents.addAndGet(-batch.events.size());
+    return batch;
+  }
+
+  /**
+   * Closes the channel, dropping queued events and waking up the request streaming it.
+   */
+  void close() {
+    closed = true;
+    queue.clear();
+    queue.add(CLOSED);
+  }
+
+  /**
+   * Events of a single workflow, ordered by id.
+   */
+  static class Batch {
+    private final String workflowId;
+    private final List<Event> events;
+
+    private Batch(String workflowId, List<Event> events) {
+      this.workflowId = workflowId;
+      this.events = events;
+    }
+
+    String getWorkflowId() {
+      return workflowId;
+    }
+
+    List<Event> getEvents() {
+      return events;
+    }
+  }
+}
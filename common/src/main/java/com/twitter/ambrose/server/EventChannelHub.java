@@ -0,0 +1,287 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.StatsReadService;
+
+/**
+ * Fans out the events committed to a stats service to {@link EventChannel}s subscribed to their
+ * workflows. The hub listens to each workflow with at least one subscriber. When events are
+ * committed to it, a single dispatcher thread reads the new events once and queues to each
+ * subscribed channel the events it hasn't received yet, so the threads pushing events never wait
+ * for clients. Channels exceeding their bound are closed.
+ * <p/>
+ * The number of events which may be queued for a channel can be configured with the following
+ * system property:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MAX_PENDING_EVENTS_PARAM}</code> - max number of events queued for a
+ * channel before its client is evicted. Defaults to {@value #MAX_PENDING_EVENTS_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ */
+class EventChannelHub {
+  static final String MAX_PENDING_EVENTS_PARAM = "ambrose.channel.max.pending.events";
+  static final int MAX_PENDING_EVENTS_DEFAULT = 10000;
+  private static final Logger LOG = LoggerFactory.getLogger(EventChannelHub.class);
+
+  private final StatsReadService<Job> statsReadService;
+  private final EventNotificationService notificationService;
+  private final int maxPendingEvents;
+  private final ConcurrentMap<String, EventChannel> channels =
+      new ConcurrentHashMap<String, EventChannel>();
+  // guarded by this; workflowId may be null
+  private final Map<String, Feed> feeds = Maps.newHashMap();
+  private final BlockingQueue<Feed> dirtyFeeds = new LinkedBlockingQueue<Feed>();
+  private final Thread dispatcher;
+
+  /**
+   * @param statsReadService service to read events from, which must also implement
+   * {@link EventNotificationService}.
+   */
+  EventChannelHub(StatsReadService<Job> statsReadService) {
+    this.statsReadService = statsReadService;
+    this.notificationService = (EventNotificationService) statsReadService;
+    this.maxPendingEvents = Integer.getInteger(MAX_PENDING_EVENTS_PARAM, MAX_PENDING_EVENTS_DEFAULT);
+    this.dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    }, "ambrose-event-channels");
+    this.dispatcher.setDaemon(true);
+    this.dispatcher.start();
+  }
+
+  /**
+   * Opens a new channel without any subscriptions.
+   */
+  EventChannel open() {
+    EventChannel channel = new EventChannel(UUID.randomUUID().toString(), maxPendingEvents);
+    channels.put(channel.getId(), channel);
+    return channel;
+  }
+
+  /**
+   * Returns the open channel with the given id, or null if there is none.
+   */
+  EventChannel get(String channelId) {
+    return channelId == null ? null : channels.get(channelId);
+  }
+
+  /**
+   * Subscribes a channel to the events of a workflow. Subscribing again to the same workflow
+   * restarts the subscription from the given event id.
+   *
+   * @param channel channel to subscribe.
+   * @param workflowId id of the workflow, or null for the current workflow.
+   * @param lastEventId id of the last event the channel's client received, or null to only receive
+   * events committed from now on.
+   */
+  void subscribe(EventChannel channel, String workflowId, Long lastEventId) throws IOException {
+    long cursor = lastEventId != null ? lastEventId : getLastEventId(workflowId);
+    Feed feed;
+    synchronized (this) {
+      if (channel.isClosed()) {
+        return;
+      }
+      feed = feeds.get(workflowId);
+      if (feed == null) {
+        feed = new Feed(workflowId);
+        feeds.put(workflowId, feed);
+        notificationService.addEventListener(workflowId, feed);
+      }
+      feed.cursors.put(channel, new AtomicLong(cursor));
+    }
+    feed.eventsCommitted(workflowId);
+  }
+
+  /**
+   * Unsubscribes a channel from the events of a workflow.
+   */
+  synchronized void unsubscribe(EventChannel channel, String workflowId) {
+    Feed feed = feeds.get(workflowId);
+    if (feed != null) {
+      feed.cursors.remove(channel);
+      removeIfUnused(feed);
+    }
+  }
+
+  /**
+   * Closes a channel and drops its subscriptions.
+   */
+  void close(EventChannel channel) {
+    channel.close();
+    channels.remove(channel.getId());
+    synchronized (this) {
+      for (Feed feed : ImmutableList.copyOf(feeds.values())) {
+        feed.cursors.remove(channel);
+        removeIfUnused(feed);
+      }
+    }
+  }
+
+  /**
+   * Closes all channels and stops dispatching events.
+   */
+  void stop() {
+    dispatcher.interrupt();
+    for (EventChannel channel : channels.values()) {
+      close(channel);
+    }
+  }
+
+  private void removeIfUnused(Feed feed) {
+    if (feed.cursors.isEmpty()) {
+      feeds.remove(feed.workflowId);
+      notificationService.removeEventListener(feed.workflowId, feed);
+    }
+  }
+
+  private long getLastEventId(String workflowId) throws IOException {
+    long lastEventId = -1;
+    while (true) {
+      List<Event> events = APIHandler.getEventsSinceId(
+          statsReadService, workflowId, lastEventId, APIHandler.MAX_EVENTS_LIMIT);
+      if (!events.isEmpty()) {
+        lastEventId = events.get(events.size() - 1).getId();
+      }
+      if (events.size() < APIHandler.MAX_EVENTS_LIMIT) {
+        return lastEventId;
+      }
+    }
+  }
+
+  private void dispatch() {
+    while (true) {
+      Feed feed;
+      try {
+        feed = dirtyFeeds.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      feed.dirty.set(false);
+      try {
+        dispatch(feed);
+      } catch (IOException e) {
+        LOG.warn("Failed to read events of workflowId=" + feed.workflowId, e);
+      } catch (RuntimeException e) {
+        LOG.error("Failed to dispatch events of workflowId=" + feed.workflowId, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the events of a feed's workflow which some subscribed channel hasn't received yet, and
+   * queues to each channel its share of them. At most {@link APIHandler#MAX_EVENTS_LIMIT} events
+   * are read at once; the feed is marked dirty again after a full batch, so the rest are read on a
+   * later pass.
+   */
+  private void dispatch(Feed feed) throws IOException {
+    // channels subscribed while dispatching mark the feed dirty again, and are served next time
+    Map<EventChannel, Long> cursors = Maps.newHashMap();
+    long minCursor = Long.MAX_VALUE;
+    for (Map.Entry<EventChannel, AtomicLong> entry : feed.cursors.entrySet()) {
+      long cursor = entry.getValue().get();
+      cursors.put(entry.getKey(), cursor);
+      minCursor = Math.min(minCursor, cursor);
+    }
+    if (cursors.isEmpty()) {
+      return;
+    }
+    List<Event> events = APIHandler.getEventsSinceId(
+        statsReadService, feed.workflowId, minCursor, APIHandler.MAX_EVENTS_LIMIT);
+    if (events.isEmpty()) {
+      return;
+    }
+    if (events.size() == APIHandler.MAX_EVENTS_LIMIT) {
+      feed.eventsCommitted(feed.workflowId);
+    }
+    long lastEventId = events.get(events.size() - 1).getId();
+    for (Map.Entry<EventChannel, Long> entry : cursors.entrySet()) {
+      EventChannel channel = entry.getKey();
+      AtomicLong cursor = feed.cursors.get(channel);
+      int from = indexAfter(events, entry.getValue());
+      if (cursor == null || cursor.get() != entry.getValue() || from == events.size()) {
+        continue;
+      }
+      if (channel.offer(feed.workflowId, events.subList(from, events.size()))) {
+        cursor.compareAndSet(entry.getValue(), lastEventId);
+      } else {
+        LOG.info("Evicting event channel {} which fell behind", channel.getId());
+        close(channel);
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the first event whose id is greater than eventId.
+   */
+  private static int indexAfter(List<Event> events, long eventId) {
+    int low = 0;
+    int high = events.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (events.get(mid).getId() <= eventId) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Subscriptions to a workflow, along with the id of the last event queued to each channel.
+   */
+  private class Feed implements EventNotificationService.Listener {
+    private final String workflowId;
+    private final ConcurrentMap<EventChannel, AtomicLong> cursors =
+        new ConcurrentHashMap<EventChannel, AtomicLong>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private Feed(String workflowId) {
+      this.workflowId = workflowId;
+    }
+
+    @Override
+    public void eventsCommitted(String workflowId) {
+      if (dirty.compareAndSet(false, true)) {
+        dirtyFeeds.add(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.service.SerializedEventList;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Writes events to a stream in the text/event-stream format of Server-Sent Events. Each event is
+ * written as a frame holding the event's id, so clients resume from it after reconnecting, followed
+ * by its json, split into data lines should it span several:
+ * <pre>
+ *   id: 42
+ *   data: {"type":"JOB_STARTED",...}
+ * </pre>
+ * Events held in a {@link SerializedEventList} are written from the json they were serialized to
+ * when pushed. Events of several workflows may be multiplexed on a stream, see
+ * {@link #writeWorkflowEvents(String, List)}.
+ */
+class EventStreamWriter {
+  private static final byte[] ID_FIELD = "id: ".getBytes(Charsets.UTF_8);
+  private static final byte[] EVENT_FIELD = "event: ".getBytes(Charsets.UTF_8);
+  private static final byte[] WORKFLOW_ID_START = "{\"workflowId\":".getBytes(Charsets.UTF_8);
+  private static final byte[] WORKFLOW_EVENT_START = ",\"event\":".getBytes(Charsets.UTF_8);
+  private static final byte[] WORKFLOW_EVENT_END = "}".getBytes(Charsets.UTF_8);
+  private static final byte[] DATA_FIELD = "data: ".getBytes(Charsets.UTF_8);
+  private static final byte[] HEARTBEAT = ":\n\n".getBytes(Charsets.UTF_8);
+  private static final int LINE_FEED = '\n';
+
+  private final OutputStream out;
+  private final DataLinesOutputStream data;
+
+  EventStreamWriter(OutputStream out) {
+    this.out = out;
+    this.data = new DataLinesOutputStream(out);
+  }
+
+  /**
+   * Writes a frame for each event.
+   */
+  void writeEvents(List<Event> events) throws IOException {
+    for (int i = 0; i < events.size(); i++) {
+      out.write(ID_FIELD);
+      out.write(Long.toString(events.get(i).getId()).getBytes(Charsets.UTF_8));
+      out.write(LINE_FEED);
+      writeEventJson(events, i);
+      data.endFrame();
+    }
+  }
+
+  /**
+   * Writes a frame for each event of a workflow. The frames hold no id, as ids are only ordered
+   * within a workflow, and their data wraps each event along with the id of its workflow:
+   * <pre>
+   *   {"workflowId":"...","event":{...}}
+   * </pre>
+   */
+  void writeWorkflowEvents(String workflowId, List<Event> events) throws IOException {
+    byte[] workflowIdJson = JSONUtil.toJsonBytes(workflowId);
+    for (int i = 0; i < events.size(); i++) {
+      data.write(WORKFLOW_ID_START);
+      data.write(workflowIdJson);
+      data.write(WORKFLOW_EVENT_START);
+      writeEventJson(events, i);
+      data.write(WORKFLOW_EVENT_END);
+      data.endFrame();
+    }
+  }
+
+  /**
+   * Writes a frame of the given type, which clients receive through listeners for that type rather
+   * than as a message, holding object as json.
+   */
+  void writeFrame(String type, Object object) throws IOException {
+    out.write(EVENT_FIELD);
+    out.write(type.getBytes(Charsets.UTF_8));
+    out.write(LINE_FEED);
+    data.write(JSONUtil.toJsonBytes(object));
+    data.endFrame();
+  }
+
+  /**
+   * Writes a comment, which clients ignore, so connections aren't considered idle and closed
+   * clients are detected.
+   */
+  void writeHeartbeat() throws IOException {
+    out.write(HEARTBEAT);
+  }
+
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  private void writeEventJson(List<Event> events, int index) throws IOException {
+    if (events instanceof SerializedEventList) {
+      ((SerializedEventList) events).writeJson(index, data);
+    } else {
+      data.write(JSONUtil.toJsonBytes(events.get(index)));
+    }
+  }
+
+  /**
+   * Stream prefixing each line written to it with a data field.
+   */
+  private static class DataLinesOutputStream extends FilterOutputStream {
+    private boolean lineStart = true;
+
+    private DataLinesOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int end = off + len;
+      int start = off;
+      while (start < end) {
+        if (lineStart) {
+          out.write(DATA_FIELD);
+          lineStart = false;
+        }
+        int next = start;
+        while (next < end && b[next] != LINE_FEED) {
+          next++;
+        }
+        if (next < end) {
+          next++;
+          lineStart = true;
+        }
+        out.write(b, start, next - start);
+        start = next;
+      }
+    }
+
+    /**
+     * Terminates the last data line and the frame.
+     */
+    private void endFrame() throws IOException {
+      if (!lineStart) {
+        out.write(LINE_FEED);
+      }
+      out.write(LINE_FEED);
+      lineStart = true;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Response;
+import org.mortbay.jetty.RetryRequest;
+import org.mortbay.jetty.handler.HandlerWrapper;
+
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Handler recording metrics of the requests handled by the handler it wraps, and serving them
+ * along with the metrics of the stats service at <code>/metrics</code>, see {@link ServerMetrics}.
+ * Metrics are served in the Prometheus text exposition format, or as json if the
+ * <code>format</code> parameter is <code>json</code> or the <code>Accept</code> header starts with
+ * <code>application/json</code>.
+ * <p/>
+ * Requests are recorded by endpoint, which is the API path they end with, or <code>static</code>
+ * for all other paths. The latency of a request suspended while waiting for events spans from when
+ * it was first handled to when it completed. Streaming requests are recorded once they end, so
+ * their latency is the lifetime of the stream.
+ */
+public class MetricsHandler extends HandlerWrapper {
+  /**
+   * Endpoints recorded separately, ordered so that longer paths are matched first.
+   */
+  private static final String[] ENDPOINTS = {
+      RemoteStatsWriteService.EVENTS_PATH,
+      RemoteStatsWriteService.DAG_PATH,
+      RemoteStatsWriteService.CONFIGURATION_PATH,
+      "/events/channel/subscribe",
+      "/events/channel/unsubscribe",
+      "/events/channel",
+      "/events/stream",
+      "/events",
+      "/clusters",
+      "/workflows",
+      "/dag",
+      "/config",
+      "/replay",
+      "/metrics"
+  };
+  private static final String METRICS_ENDPOINT = "/metrics";
+  private static final String STATIC_ENDPOINT = "static";
+  private static final String START_NANOS_ATTRIBUTE = MetricsHandler.class.getName() + ".start";
+  private static final String QUERY_PARAM_FORMAT = "format";
+  private static final String MIME_TYPE_PROMETHEUS = "text/plain; version=0.0.4";
+  private static final String MIME_TYPE_JSON = "application/json";
+  private final ServerMetrics metrics;
+
+  public MetricsHandler(Handler handler, StatsReadService<Job> statsReadService) {
+    this.metrics = new ServerMetrics(statsReadService);
+    setHandler(handler);
+  }
+
+  @Override
+  public void handle(String target,
+      HttpServletRequest request,
+      HttpServletResponse response,
+      int dispatch) throws IOException, ServletException {
+    String endpoint = getEndpoint(target);
+    Long startNanos = (Long) request.getAttribute(START_NANOS_ATTRIBUTE);
+    if (startNanos == null) {
+      startNanos = System.nanoTime();
+      request.setAttribute(START_NANOS_ATTRIBUTE, startNanos);
+    }
+    boolean failed = true;
+    boolean suspended = false;
+    try {
+      if (endpoint.equals(METRICS_ENDPOINT)) {
+        sendMetrics(request, response);
+      } else {
+        super.handle(target, request, response, dispatch);
+      }
+      failed = false;
+    } catch (RetryRequest e) {
+      // the request is suspended, and is recorded once handled again
+      suspended = true;
+      throw e;
+    } finally {
+      if (!suspended) {
+        Response baseResponse = HttpConnection.getCurrentConnection().getResponse();
+        metrics.record(endpoint, System.nanoTime() - startNanos,
+            failed ? -1 : baseResponse.getStatus(), baseResponse.getContentCount());
+      }
+    }
+  }
+
+  static String getEndpoint(String target) {
+    for (String endpoint : ENDPOINTS) {
+      if (target.endsWith(endpoint)) {
+        return endpoint;
+      }
+    }
+    return STATIC_ENDPOINT;
+  }
+
+  private void sendMetrics(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    String accept = request.getHeader("Accept");
+    boolean json = "json".equalsIgnoreCase(request.getParameter(QUERY_PARAM_FORMAT))
+        || (accept != null && accept.trim().startsWith(MIME_TYPE_JSON));
+    response.setContentType(json ? MIME_TYPE_JSON : MIME_TYPE_PROMETHEUS);
+    response.setCharacterEncoding(Charsets.UTF_8.name());
+    response.setHeader("Cache-Control", "no-cache");
+    response.setStatus(HttpServletResponse.SC_OK);
+    OutputStream out = response.getOutputStream();
+    if (json) {
+      JSONUtil.writeJson(out, metrics.toJsonObject());
+    } else {
+      Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+      metrics.writePrometheus(writer);
+      writer.flush();
+    }
+    out.close();
+    Request baseRequest = (request instanceof Request)
+        ? (Request) request
+        : HttpConnection.getCurrentConnection().getRequest();
+    baseRequest.setHandled(true);
+  }
+}
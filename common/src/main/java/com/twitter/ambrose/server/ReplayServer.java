@@ -0,0 +1,79 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.service.impl.ReplayStatsService;
+
+/**
+ * Replays a workflow recorded to <code>ambrose.write.dag.file</code> and
+ * <code>ambrose.write.events.file</code> with a {@link ScriptStatusServer}, so the recording can be
+ * watched as the workflow ran. Files are given as system properties of the same names, or as
+ * arguments <code>&lt;events file&gt; [&lt;dag file&gt;]</code>. The replay is configured with the
+ * following system properties, along with those of {@link ScriptStatusServer}:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #SPEED_PARAM}</code> - speed of the replay relative to real time, or
+ * <code>max</code> to serve all events at once. Defaults to 1.</li>
+ *     <li><code>{@value #SEEK_MS_PARAM}</code> - time after the start of the recording from which to
+ * replay, in milliseconds. Defaults to 0.</li>
+ *     <li><code>{@value #MAX_EVENTS_PARAM}</code> - max number of events sent per response.
+ * Defaults to {@value ReplayStatsService#MAX_EVENTS_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ * Speed and time may be changed while replaying through <code>/replay</code>.
+ */
+public class ReplayServer {
+  public static final String DAG_FILE_PARAM = "ambrose.write.dag.file";
+  public static final String EVENTS_FILE_PARAM = "ambrose.write.events.file";
+  public static final String SPEED_PARAM = "ambrose.replay.speed";
+  public static final String SEEK_MS_PARAM = "ambrose.replay.seek.ms";
+  public static final String MAX_EVENTS_PARAM = "ambrose.replay.max.events";
+  private static final Logger LOG = LoggerFactory.getLogger(ReplayServer.class);
+
+  private ReplayServer() { }
+
+  public static void main(String[] args) throws IOException {
+    String eventsFile = args.length > 0 ? args[0] : System.getProperty(EVENTS_FILE_PARAM);
+    String dagFile = args.length > 1 ? args[1] : System.getProperty(DAG_FILE_PARAM);
+    if (eventsFile == null) {
+      System.err.println("Usage: " + ReplayServer.class.getName()
+          + " <events file> [<dag file>], or set " + EVENTS_FILE_PARAM + " and " + DAG_FILE_PARAM);
+      System.exit(1);
+    }
+    double speed = APIHandler.parseReplaySpeed(System.getProperty(SPEED_PARAM, "1"));
+    long seekMs = Long.getLong(SEEK_MS_PARAM, 0);
+    int maxEvents = Integer.getInteger(MAX_EVENTS_PARAM, ReplayStatsService.MAX_EVENTS_DEFAULT);
+
+    ReplayStatsService service = new ReplayStatsService(
+        dagFile == null ? null : new File(dagFile), new File(eventsFile), speed, maxEvents);
+    try {
+      if (seekMs != 0) {
+        service.seekReplay(service.getReplayState().getStartTime() + seekMs);
+        service.setReplaySpeed(speed);
+      }
+      LOG.info("Replaying {} at speed {}", eventsFile, speed);
+      new ScriptStatusServer(service, service).run();
+    } finally {
+      service.close();
+    }
+  }
+}
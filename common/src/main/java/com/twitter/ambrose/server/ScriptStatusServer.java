@@ -16,9 +16,12 @@ limitations under the License.
 package com.twitter.ambrose.server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.URL;
+import java.util.List;
 
+import com.google.common.collect.Lists;
+
+import org.mortbay.jetty.AbstractConnector;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Handler;
 import org.mortbay.jetty.Server;
@@ -26,6 +29,9 @@ import org.mortbay.jetty.bio.SocketConnector;
 import org.mortbay.jetty.handler.DefaultHandler;
 import org.mortbay.jetty.handler.HandlerList;
 import org.mortbay.jetty.handler.ResourceHandler;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.thread.QueuedThreadPool;
+import org.mortbay.thread.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,15 +47,78 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * #PORT_PARAM} system property. For a random port to be used, set {@value #PORT_PARAM} to zero or
  * {@value #PORT_RANDOM}.
  * <p/>
+ * The connector and the threads serving requests can be configured with the following system
+ * properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #CONNECTOR_PARAM}</code> - <code>{@value #CONNECTOR_NIO}</code> for a
+ * selector based connector, on which requests waiting for events don't hold a thread, or
+ * <code>{@value #CONNECTOR_BLOCKING}</code> for a connector holding a thread per connection.
+ * Defaults to <code>{@value #CONNECTOR_NIO}</code>.</li>
+ *     <li><code>{@value #ACCEPTORS_PARAM}</code> - number of threads accepting connections.
+ * Defaults to {@value #ACCEPTORS_DEFAULT}.</li>
+ *     <li><code>{@value #ACCEPT_QUEUE_SIZE_PARAM}</code> - max number of connections waiting to be
+ * accepted. Defaults to 0, the operating system's default.</li>
+ *     <li><code>{@value #MIN_THREADS_PARAM}</code> - number of threads kept to serve requests.
+ * Defaults to {@value #MIN_THREADS_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_THREADS_PARAM}</code> - max number of threads serving requests,
+ * including acceptors. Defaults to {@value #MAX_THREADS_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_QUEUED_PARAM}</code> - max number of requests waiting for a thread,
+ * beyond which requests are rejected. Defaults to 0, no limit.</li>
+ *     <li><code>{@value #THREAD_IDLE_TIMEOUT_MS_PARAM}</code> - time after which idle threads above
+ * the min are stopped. Defaults to {@value #THREAD_IDLE_TIMEOUT_MS_DEFAULT}.</li>
+ *     <li><code>{@value #IDLE_TIMEOUT_MS_PARAM}</code> - time after which idle connections are
+ * closed. Defaults to {@value #IDLE_TIMEOUT_MS_DEFAULT}, longer than requests wait for events.</li>
+ *   </ul>
+ * </pre>
+ * Event streams hold a thread each whichever the connector, so max threads bounds the number of
+ * clients streaming events at once.
+ * <p/>
  * The JSON API supports the following URIs:
  * <pre>
  *   <ul>
  *     <li><code>/clusters</code> - Returns map from cluster id to name.</li>
- *     <li><code>/workflows</code> - Returns workflow summaries.</li>
+ *     <li><code>/workflows</code> - Returns a page of workflow summaries, newest first, optionally
+ * filtered by <code>cluster</code>, <code>user</code> and <code>status</code>. The page starts at
+ * the <code>startKey</code> parameter, as returned in <code>nextPageStart</code> by the previous
+ * page, and holds up to <code>numResults</code> summaries, defaulting to the value of the
+ * <code>{@value APIHandler#PAGE_SIZE_PARAM}</code> system property or
+ * {@value APIHandler#PAGE_SIZE_DEFAULT}.</li>
  *     <li><code>/jobs</code> - Returns a workflow's jobs.</li>
- *     <li><code>/events</code> - Returns all workflow events.</li>
+ *     <li><code>/events</code> - Returns workflow events since a given event id. With a
+ * <code>waitMs</code> parameter, a request for which no events are available yet is held until one
+ * is committed or the given number of milliseconds elapse.</li>
+ *     <li><code>/events/stream</code> - Streams workflow events as Server-Sent Events as they are
+ * committed, starting after the event id given by the <code>Last-Event-ID</code> header or the
+ * <code>lastEventId</code> parameter.</li>
+ *     <li><code>/events/channel</code> - Opens a channel streaming the events of any number of
+ * workflows as Server-Sent Events. The first event, of type <code>channel</code>, holds the
+ * <code>channelId</code> of the channel. Each following message holds a <code>workflowId</code> and
+ * an <code>event</code>.</li>
+ *     <li><code>/events/channel/subscribe</code> - Subscribes the channel given by the
+ * <code>channelId</code> parameter to the events of a workflow after <code>lastEventId</code>, or
+ * to events committed from now on if it is omitted.</li>
+ *     <li><code>/events/channel/unsubscribe</code> - Unsubscribes a channel from a workflow.</li>
+ *     <li><code>/config?configurationId=</code> - Returns the configuration of a job, as referenced
+ * by the <code>configurationId</code> of its events. Not found unless the stats service stores
+ * configurations, see {@link com.twitter.ambrose.service.ConfigurationReadService}.</li>
+ *     <li><code>/metrics</code> - Returns request metrics per endpoint and metrics of the stored
+ * events, see {@link MetricsHandler}.</li>
+ *     <li><code>/replay</code> - Returns the state of a replayed workflow, see
+ * {@link com.twitter.ambrose.service.ReplayControlService}. A <code>seekMs</code> parameter moves
+ * the replay to the given number of milliseconds after the start of the recording, and a
+ * <code>speed</code> parameter sets the speed of the replay, 0 to pause it or <code>max</code> to
+ * serve all events at once. Not found unless the server replays a workflow, see
+ * {@link ReplayServer}.</li>
  *   </ul>
  * </pre>
+ * <p/>
+ * Responses of <code>/dag</code> and <code>/workflows</code> carry an <code>ETag</code> when the
+ * services version them, and requests whose <code>If-None-Match</code> header holds the current tag
+ * are answered with 304 Not Modified. JSON responses are compressed with gzip or deflate for
+ * clients accepting either, see {@link CompressingResponse} for its configuration. Clients whose
+ * <code>Accept</code> header prefers <code>application/x-jackson-smile</code> are sent Smile rather
+ * than JSON, see {@link com.twitter.ambrose.util.JSONUtil.Format}. Event streams are always sent as JSON.
  */
 public class ScriptStatusServer implements Runnable {
   private static int getConfiguredPort() {
@@ -65,6 +134,19 @@ public class ScriptStatusServer implements Runnable {
     }
   }
 
+  private static int getIntProperty(String name, int defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not a valid integer", name, value), e);
+    }
+  }
+
   /**
    * Name of system property used to configure port on which to bind HTTP server.
    */
@@ -77,10 +159,26 @@ public class ScriptStatusServer implements Runnable {
    * Value of {@link #PORT_PARAM} used to signal a random port should be used.
    */
   public static final String PORT_RANDOM = "random";
+  public static final String CONNECTOR_PARAM = "ambrose.server.connector";
+  public static final String CONNECTOR_NIO = "nio";
+  public static final String CONNECTOR_BLOCKING = "blocking";
+  public static final String ACCEPTORS_PARAM = "ambrose.server.acceptors";
+  public static final int ACCEPTORS_DEFAULT = 1;
+  public static final String ACCEPT_QUEUE_SIZE_PARAM = "ambrose.server.accept.queue.size";
+  public static final String MIN_THREADS_PARAM = "ambrose.server.min.threads";
+  public static final int MIN_THREADS_DEFAULT = 2;
+  public static final String MAX_THREADS_PARAM = "ambrose.server.max.threads";
+  public static final int MAX_THREADS_DEFAULT = 250;
+  public static final String MAX_QUEUED_PARAM = "ambrose.server.max.queued";
+  public static final String THREAD_IDLE_TIMEOUT_MS_PARAM = "ambrose.server.thread.idle.timeout.ms";
+  public static final int THREAD_IDLE_TIMEOUT_MS_DEFAULT = 60000;
+  public static final String IDLE_TIMEOUT_MS_PARAM = "ambrose.server.idle.timeout.ms";
+  public static final int IDLE_TIMEOUT_MS_DEFAULT = 120000;
   private static final Logger LOG = LoggerFactory.getLogger(ScriptStatusServer.class);
   private final WorkflowIndexReadService workflowIndexReadService;
   private final StatsReadService<Job> statsReadService;
   private final int port;
+  private final List<Handler> handlers = Lists.newArrayList();
   private Server server;
   private Thread serverThread;
 
@@ -95,6 +193,15 @@ public class ScriptStatusServer implements Runnable {
     return port;
   }
 
+  /**
+   * Adds a handler for requests not served by the web pages, such as requests writing stats. Added
+   * handlers are tried in the order they were added, before the JSON API. Handlers must be added
+   * before the server is started.
+   */
+  public void addHandler(Handler handler) {
+    handlers.add(handler);
+  }
+
   /**
    * Starts the server in it's own daemon thread.
    */
@@ -114,21 +221,9 @@ public class ScriptStatusServer implements Runnable {
    */
   @Override
   public void run() {
-    // override newServerSocket to log local port once bound
-    Connector connector = new SocketConnector() {
-      @Override
-      protected ServerSocket newServerSocket(String host, int port, int backlog)
-          throws IOException {
-        ServerSocket ss = super.newServerSocket(host, port, backlog);
-        int localPort = ss.getLocalPort();
-        LOG.info("Ambrose web server listening on port {}", localPort);
-        LOG.info("Browse to http://localhost:{}/ to see job progress", localPort);
-        return ss;
-      }
-    };
-    connector.setPort(port);
     server = new Server();
-    server.setConnectors(new Connector[]{connector});
+    server.setConnectors(new Connector[]{ createConnector() });
+    server.setThreadPool(createThreadPool());
 
     // this needs to be loaded via the jar'ed resources, not the relative dir
     URL resourceUrl = checkNotNull(
@@ -136,14 +231,15 @@ public class ScriptStatusServer implements Runnable {
     ResourceHandler resourceHandler = new ResourceHandler();
     resourceHandler.setWelcomeFiles(new String[]{ "workflow.html" });
     resourceHandler.setResourceBase(resourceUrl.toExternalForm());
+    List<Handler> handlers = Lists.newArrayList();
+    handlers.add(resourceHandler);
+    handlers.addAll(this.handlers);
+    handlers.add(new APIHandler(workflowIndexReadService, statsReadService));
+    handlers.add(new DefaultHandler());
     HandlerList handler = new HandlerList();
-    handler.setHandlers(new Handler[] {
-        resourceHandler,
-        new APIHandler(workflowIndexReadService, statsReadService),
-        new DefaultHandler()
-    });
+    handler.setHandlers(handlers.toArray(new Handler[handlers.size()]));
 
-    server.setHandler(handler);
+    server.setHandler(new MetricsHandler(handler, statsReadService));
     server.setStopAtShutdown(false);
 
     try {
@@ -154,6 +250,65 @@ public class ScriptStatusServer implements Runnable {
     }
   }
 
+  /**
+   * Creates the configured connector, overriding open to log local port once bound.
+   */
+  private Connector createConnector() {
+    String type = System.getProperty(CONNECTOR_PARAM, CONNECTOR_NIO);
+    AbstractConnector connector;
+    if (CONNECTOR_NIO.equalsIgnoreCase(type)) {
+      connector = new SelectChannelConnector() {
+        @Override
+        public void open() throws IOException {
+          super.open();
+          logListening(getLocalPort());
+        }
+      };
+    } else if (CONNECTOR_BLOCKING.equalsIgnoreCase(type)) {
+      connector = new SocketConnector() {
+        @Override
+        public void open() throws IOException {
+          super.open();
+          logListening(getLocalPort());
+        }
+      };
+    } else {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not one of '%s' or '%s'",
+          CONNECTOR_PARAM, type, CONNECTOR_NIO, CONNECTOR_BLOCKING));
+    }
+    connector.setPort(port);
+    connector.setAcceptors(getIntProperty(ACCEPTORS_PARAM, ACCEPTORS_DEFAULT));
+    connector.setAcceptQueueSize(getIntProperty(ACCEPT_QUEUE_SIZE_PARAM, 0));
+    connector.setMaxIdleTime(getIntProperty(IDLE_TIMEOUT_MS_PARAM, IDLE_TIMEOUT_MS_DEFAULT));
+    return connector;
+  }
+
+  /**
+   * Creates the configured thread pool, whose queue is only bounded if max queued is set.
+   */
+  static ThreadPool createThreadPool() {
+    int minThreads = getIntProperty(MIN_THREADS_PARAM, MIN_THREADS_DEFAULT);
+    int maxThreads = getIntProperty(MAX_THREADS_PARAM, MAX_THREADS_DEFAULT);
+    int maxQueued = getIntProperty(MAX_QUEUED_PARAM, 0);
+    int idleTimeoutMs =
+        getIntProperty(THREAD_IDLE_TIMEOUT_MS_PARAM, THREAD_IDLE_TIMEOUT_MS_DEFAULT);
+    if (maxQueued > 0) {
+      return new BoundedQueueThreadPool(minThreads, maxThreads, maxQueued, idleTimeoutMs);
+    }
+    QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads);
+    threadPool.setMinThreads(minThreads);
+    threadPool.setMaxIdleTimeMs(idleTimeoutMs);
+    threadPool.setDaemon(true);
+    threadPool.setName("ambrose-server");
+    return threadPool;
+  }
+
+  private static void logListening(int localPort) {
+    LOG.info("Ambrose web server listening on port {}", localPort);
+    LOG.info("Browse to http://localhost:{}/ to see job progress", localPort);
+  }
+
   /**
    * Stop the server.
    */
@@ -0,0 +1,231 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.Maps;
+
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.StoreMetricsReadService;
+
+/**
+ * Metrics of the server: request counts, error counts, response bytes and latency histograms per
+ * endpoint, along with the metrics of the events stored by the stats service if it reports them,
+ * see {@link StoreMetricsReadService}. Requests are recorded without locking.
+ * <p/>
+ * Metrics are rendered in the Prometheus text exposition format, or as an object to be serialized
+ * as json. Latency histograms have fixed buckets, given in seconds by {@link #LATENCY_BUCKETS}.
+ * Responses with a 5xx status and requests which failed with an exception are counted as errors,
+ * responses with a 4xx status as client errors.
+ */
+class ServerMetrics {
+  static final double[] LATENCY_BUCKETS =
+      { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+  private static final String PREFIX = "ambrose_";
+
+  private final ConcurrentMap<String, Endpoint> endpoints =
+      new ConcurrentSkipListMap<String, Endpoint>();
+  private final StatsReadService<Job> statsReadService;
+
+  /**
+   * @param statsReadService the service whose store metrics to report, if it implements
+   * {@link StoreMetricsReadService}.
+   */
+  ServerMetrics(StatsReadService<Job> statsReadService) {
+    this.statsReadService = statsReadService;
+  }
+
+  /**
+   * Records a handled request.
+   *
+   * @param endpoint name of the endpoint which handled the request.
+   * @param nanos time taken to handle the request.
+   * @param status status of the response, or a negative value if handling it failed.
+   * @param bytes number of bytes of the response body.
+   */
+  void record(String endpoint, long nanos, int status, long bytes) {
+    Endpoint metrics = endpoints.get(endpoint);
+    if (metrics == null) {
+      Endpoint newMetrics = new Endpoint();
+      metrics = endpoints.putIfAbsent(endpoint, newMetrics);
+      if (metrics == null) {
+        metrics = newMetrics;
+      }
+    }
+    metrics.requests.incrementAndGet();
+    if (status < 0 || status >= 500) {
+      metrics.errors.incrementAndGet();
+    } else if (status >= 400) {
+      metrics.clientErrors.incrementAndGet();
+    }
+    metrics.bytes.addAndGet(Math.max(bytes, 0));
+    metrics.nanos.addAndGet(nanos);
+    double seconds = nanos / 1e9;
+    int bucket = 0;
+    while (bucket < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[bucket]) {
+      bucket++;
+    }
+    metrics.buckets.incrementAndGet(bucket);
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text exposition format.
+   */
+  void writePrometheus(Writer out) throws IOException {
+    writeHeader(out, "http_requests_total", "counter", "Requests handled.");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      writeSample(out, "http_requests_total", endpointLabel(entry.getKey()),
+          entry.getValue().requests.get());
+    }
+    writeHeader(out, "http_request_errors_total", "counter",
+        "Requests which failed or were answered with a 5xx status.");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      writeSample(out, "http_request_errors_total", endpointLabel(entry.getKey()),
+          entry.getValue().errors.get());
+    }
+    writeHeader(out, "http_request_client_errors_total", "counter",
+        "Requests answered with a 4xx status.");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      writeSample(out, "http_request_client_errors_total", endpointLabel(entry.getKey()),
+          entry.getValue().clientErrors.get());
+    }
+    writeHeader(out, "http_response_bytes_total", "counter", "Bytes of response bodies sent.");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      writeSample(out, "http_response_bytes_total", endpointLabel(entry.getKey()),
+          entry.getValue().bytes.get());
+    }
+    writeHeader(out, "http_request_duration_seconds", "histogram",
+        "Time taken to handle requests.");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      String label = endpointLabel(entry.getKey());
+      Endpoint metrics = entry.getValue();
+      long count = 0;
+      for (int i = 0; i <= LATENCY_BUCKETS.length; i++) {
+        count += metrics.buckets.get(i);
+        String le = i < LATENCY_BUCKETS.length ? Double.toString(LATENCY_BUCKETS[i]) : "+Inf";
+        writeSample(out, "http_request_duration_seconds_bucket",
+            label + ",le=\"" + le + "\"", count);
+      }
+      writeSample(out, "http_request_duration_seconds_sum", label, metrics.nanos.get() / 1e9);
+      writeSample(out, "http_request_duration_seconds_count", label, count);
+    }
+
+    if (statsReadService instanceof StoreMetricsReadService) {
+      StoreMetricsReadService store = (StoreMetricsReadService) statsReadService;
+      Map<String, StoreMetricsReadService.WorkflowMetrics> workflows = store.getWorkflowMetrics();
+      writeHeader(out, "store_events", "gauge", "Events stored per workflow.");
+      for (Map.Entry<String, StoreMetricsReadService.WorkflowMetrics> entry
+          : workflows.entrySet()) {
+        writeSample(out, "store_events", label("workflow", entry.getKey()),
+            entry.getValue().getEvents());
+      }
+      writeHeader(out, "store_retained_bytes", "gauge",
+          "Estimated bytes held by the events stored per workflow.");
+      for (Map.Entry<String, StoreMetricsReadService.WorkflowMetrics> entry
+          : workflows.entrySet()) {
+        writeSample(out, "store_retained_bytes", label("workflow", entry.getKey()),
+            entry.getValue().getRetainedBytes());
+      }
+      writeHeader(out, "store_events_pushed_total", "counter", "Events pushed.");
+      writeSample(out, "store_events_pushed_total", null, store.getEventsPushed());
+      writeHeader(out, "store_events_pushed_per_second", "gauge",
+          "Mean events pushed per second over the last minute.");
+      writeSample(out, "store_events_pushed_per_second", null, store.getEventsPushedPerSecond());
+    }
+  }
+
+  /**
+   * Returns all metrics as an object to be serialized as json.
+   */
+  Map<String, Object> toJsonObject() throws IOException {
+    Map<String, Object> endpointsObject = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      Endpoint metrics = entry.getValue();
+      Map<String, Long> buckets = Maps.newLinkedHashMap();
+      long count = 0;
+      for (int i = 0; i <= LATENCY_BUCKETS.length; i++) {
+        count += metrics.buckets.get(i);
+        buckets.put(i < LATENCY_BUCKETS.length ? Double.toString(LATENCY_BUCKETS[i]) : "+Inf",
+            count);
+      }
+      Map<String, Object> latency = Maps.newLinkedHashMap();
+      latency.put("count", count);
+      latency.put("sumSeconds", metrics.nanos.get() / 1e9);
+      latency.put("buckets", buckets);
+      Map<String, Object> endpointObject = Maps.newLinkedHashMap();
+      endpointObject.put("requests", metrics.requests.get());
+      endpointObject.put("errors", metrics.errors.get());
+      endpointObject.put("clientErrors", metrics.clientErrors.get());
+      endpointObject.put("responseBytes", metrics.bytes.get());
+      endpointObject.put("latency", latency);
+      endpointsObject.put(entry.getKey(), endpointObject);
+    }
+    Map<String, Object> object = Maps.newLinkedHashMap();
+    object.put("endpoints", endpointsObject);
+
+    if (statsReadService instanceof StoreMetricsReadService) {
+      StoreMetricsReadService store = (StoreMetricsReadService) statsReadService;
+      Map<String, Object> storeObject = Maps.newLinkedHashMap();
+      storeObject.put("eventsPushed", store.getEventsPushed());
+      storeObject.put("eventsPushedPerSecond", store.getEventsPushedPerSecond());
+      storeObject.put("workflows", store.getWorkflowMetrics());
+      object.put("store", storeObject);
+    }
+    return object;
+  }
+
+  private static void writeHeader(Writer out, String name, String type, String help)
+      throws IOException {
+    out.write("# HELP " + PREFIX + name + " " + help + "\n");
+    out.write("# TYPE " + PREFIX + name + " " + type + "\n");
+  }
+
+  private static void writeSample(Writer out, String name, String labels, Object value)
+      throws IOException {
+    out.write(PREFIX + name);
+    if (labels != null) {
+      out.write("{" + labels + "}");
+    }
+    out.write(" " + value + "\n");
+  }
+
+  private static String endpointLabel(String endpoint) {
+    return label("endpoint", endpoint);
+  }
+
+  private static String label(String name, String value) {
+    return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+        + "\"";
+  }
+
+  private static class Endpoint {
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong clientErrors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    // counts per bucket, the last one counting requests slower than all bucket bounds
+    private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Service that serves job configurations stored through a {@link ConfigurationWriteService}. Jobs
+ * only carry the id of their configuration, so clients fetch configurations from this service when
+ * they need them.
+ */
+public interface ConfigurationReadService {
+
+  /**
+   * Get a stored job configuration.
+   *
+   * @param configurationId the id returned when the configuration was stored
+   * @return the configuration, or null if no configuration is stored with that id. The returned
+   * configuration is shared and must not be modified.
+   */
+  public Properties getConfiguration(String configurationId) throws IOException;
+}
@@ -0,0 +1,35 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Service that stores job configurations by their content. Equal configurations are stored once
+ * and get the same id, however many jobs and events refer to them, so a job can be sent with just
+ * the id of its configuration; see {@link com.twitter.ambrose.model.Job#getConfigurationId()}.
+ */
+public interface ConfigurationWriteService {
+
+  /**
+   * Store a job configuration.
+   *
+   * @param configuration the configuration to store, which must not be modified afterwards
+   * @return id of the configuration, derived from its content
+   */
+  public String putConfiguration(Properties configuration) throws IOException;
+}
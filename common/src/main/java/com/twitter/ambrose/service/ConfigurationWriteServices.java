@@ -0,0 +1,58 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.Job;
+
+/**
+ * Static helpers for {@link ConfigurationWriteService}, shared by the adapters which send jobs to a
+ * {@link StatsWriteService}.
+ */
+public final class ConfigurationWriteServices {
+  private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWriteServices.class);
+
+  private ConfigurationWriteServices() { }
+
+  /**
+   * Attaches a configuration to a job. If the stats service stores configurations by content, the
+   * job only carries the id of its configuration; otherwise, or if the configuration can't be
+   * stored, the job carries the configuration itself.
+   *
+   * @param statsWriteService service the job will be sent to.
+   * @param job job to attach the configuration to.
+   * @param configuration configuration of the job, which must not be modified afterwards.
+   */
+  public static void setConfiguration(StatsWriteService<?> statsWriteService, Job job,
+      Properties configuration) {
+    if (statsWriteService instanceof ConfigurationWriteService) {
+      try {
+        job.setConfigurationId(
+            ((ConfigurationWriteService) statsWriteService).putConfiguration(configuration));
+        job.setConfiguration(null);
+        return;
+      } catch (IOException e) {
+        LOG.error("Couldn't store configuration in StatsWriteService", e);
+      }
+    }
+    job.setConfiguration(configuration);
+  }
+}
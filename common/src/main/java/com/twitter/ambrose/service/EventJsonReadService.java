@@ -0,0 +1,37 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of {@link StatsReadService} implemented by services which keep the json of
+ * each event they store, so events can be served without being serialized again on every request.
+ */
+public interface EventJsonReadService {
+
+  /**
+   * Get all events for a given workflow since eventId, along with their json. To get the entire
+   * list of events, pass a negative eventId.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param eventId the eventId that all returned events will be greater than
+   * @return events ordered by eventId ascending, which may be written as they were serialized when
+   * pushed
+   */
+  public SerializedEventList getSerializedEventsSinceId(String workflowId, long eventId)
+      throws IOException;
+}
@@ -0,0 +1,55 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+/**
+ * Optional extension of {@link StatsReadService} implemented by services which notify listeners as
+ * events are committed, so readers may wait for new events instead of polling for them.
+ */
+public interface EventNotificationService {
+
+  /**
+   * Listener notified when events are committed to a workflow.
+   */
+  public interface Listener {
+
+    /**
+     * Called after one or more events were committed to a workflow, from the thread which pushed
+     * them. Implementations must return quickly and must not push events.
+     *
+     * @param workflowId the id the listener was added for
+     */
+    public void eventsCommitted(String workflowId);
+  }
+
+  /**
+   * Add a listener to be notified of events committed to a workflow from now on. Callers should
+   * read events after adding the listener, so events committed before it was added aren't missed.
+   *
+   * @param workflowId the id of the workflow to listen to, as passed to
+   * {@link StatsReadService#getEventsSinceId(String, long)}
+   * @param listener the listener to add
+   */
+  public void addEventListener(String workflowId, Listener listener);
+
+  /**
+   * Remove a listener previously added for a workflow.
+   *
+   * @param workflowId the id the listener was added for
+   * @param listener the listener to remove
+   */
+  public void removeEventListener(String workflowId, Listener listener);
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.twitter.ambrose.model.Event;
+
+/**
+ * Optional extension of {@link StatsReadService} implemented by services which can read a bounded
+ * number of events, so a page of events is served without loading every event after its cursor.
+ */
+public interface PagedEventReadService {
+
+  /**
+   * Get up to limit events for a given workflow since eventId. To get events from the start of the
+   * workflow, pass a negative eventId.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param eventId the eventId that all returned events will be greater than
+   * @param limit max number of events to return, or zero or less to return all of them
+   * @return a Collection of the first events since eventId, ordered by eventId ascending
+   */
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId, int limit)
+      throws IOException;
+}
@@ -0,0 +1,99 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of {@link StatsReadService} implemented by services which replay a recorded
+ * workflow. Events are served once the replay clock passes their timestamps, and the clock may be
+ * sped up, paused or moved to any time of the recording.
+ */
+public interface ReplayControlService {
+
+  /**
+   * @return the current state of the replay.
+   */
+  public State getReplayState() throws IOException;
+
+  /**
+   * Sets the speed of the replay clock relative to the wall clock.
+   *
+   * @param speed 1 to replay in real time, 0 to pause, or {@link Double#POSITIVE_INFINITY} to serve
+   * all events at once
+   */
+  public void setReplaySpeed(double speed) throws IOException;
+
+  /**
+   * Moves the replay clock to a time of the recording. Moving it back hides the events recorded
+   * since, though clients which already received them keep them.
+   *
+   * @param timestamp the time to move to, in milliseconds since the epoch as recorded
+   */
+  public void seekReplay(long timestamp) throws IOException;
+
+  /**
+   * State of a replay, as serialized by the server.
+   */
+  public static class State {
+    private final long startTime;
+    private final long endTime;
+    private final long time;
+    private final double speed;
+    private final int eventCount;
+    private final int visibleEventCount;
+
+    public State(long startTime, long endTime, long time, double speed, int eventCount,
+        int visibleEventCount) {
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.time = time;
+      this.speed = speed;
+      this.eventCount = eventCount;
+      this.visibleEventCount = visibleEventCount;
+    }
+
+    /**
+     * @return timestamp of the first event recorded.
+     */
+    public long getStartTime() { return startTime; }
+
+    /**
+     * @return timestamp of the last event recorded.
+     */
+    public long getEndTime() { return endTime; }
+
+    /**
+     * @return current time of the replay clock, which may be past the end time.
+     */
+    public long getTime() { return time; }
+
+    /**
+     * @return speed of the replay clock, which is infinite while all events are served.
+     */
+    public double getSpeed() { return speed; }
+
+    /**
+     * @return number of events recorded.
+     */
+    public int getEventCount() { return eventCount; }
+
+    /**
+     * @return number of events served so far.
+     */
+    public int getVisibleEventCount() { return visibleEventCount; }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.twitter.ambrose.model.Event;
+
+/**
+ * Immutable list of events which also holds the json each event was serialized to when it was
+ * pushed, so the list can be written without serializing its events again.
+ */
+public interface SerializedEventList extends List<Event> {
+
+  /**
+   * Write the events in this list to a stream as a json array encoded in UTF-8.
+   *
+   * @param out the stream to write to
+   */
+  public void writeJson(OutputStream out) throws IOException;
+
+  /**
+   * Write a single event in this list to a stream as json encoded in UTF-8.
+   *
+   * @param index the index of the event to write
+   * @param out the stream to write to
+   */
+  public void writeJson(int index, OutputStream out) throws IOException;
+
+  /**
+   * @return a view of the portion of this list between fromIndex, inclusive, and toIndex,
+   * exclusive
+   */
+  @Override
+  public SerializedEventList subList(int fromIndex, int toIndex);
+}
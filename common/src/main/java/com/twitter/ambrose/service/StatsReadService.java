@@ -47,5 +47,5 @@ public interface StatsReadService<T extends Job> {
    * @param eventId the eventId that all returned events will be greater than
    * @return a Collection of WorkflowEvents, ordered by eventId ascending
    */
-  public Collection<Event> getEventsSinceId(String workflowId, int eventId) throws IOException;
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId) throws IOException;
 }
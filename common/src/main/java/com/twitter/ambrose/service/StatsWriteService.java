@@ -42,7 +42,11 @@ public interface StatsWriteService<T extends Job> {
   public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<T>> dagNodeNameMap) throws IOException;
 
   /**
-   * Push an events for a given workflow.
+   * Push an events for a given workflow. Implementations which serve events assign the event the
+   * next id of a sequence shared by their workflows as it is committed, so events become visible in
+   * id order even if they are pushed concurrently, and the id it was created with is not used. Ids
+   * being unique across workflows, a reader following the current workflow by a null workflowId
+   * doesn't skip the events of the next one.
    *
    * @param workflowId the id of the workflow being updated
    * @param event the event bound to the workflow
@@ -0,0 +1,70 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Optional extension of {@link StatsReadService} implemented by services which report metrics of
+ * the events they store, so the server can expose them for sizing and alerting.
+ */
+public interface StoreMetricsReadService {
+
+  /**
+   * Get metrics of the events stored for each workflow the service holds.
+   *
+   * @return metrics keyed by workflow id
+   */
+  public Map<String, WorkflowMetrics> getWorkflowMetrics() throws IOException;
+
+  /**
+   * @return the number of events pushed to the service since it was created
+   */
+  public long getEventsPushed();
+
+  /**
+   * @return the mean number of events pushed per second over the last minute
+   */
+  public double getEventsPushedPerSecond();
+
+  /**
+   * Metrics of the events stored for a single workflow.
+   */
+  public static class WorkflowMetrics {
+    private final long events;
+    private final long retainedBytes;
+
+    public WorkflowMetrics(long events, long retainedBytes) {
+      this.events = events;
+      this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * @return the number of events stored for the workflow
+     */
+    public long getEvents() {
+      return events;
+    }
+
+    /**
+     * @return the estimated number of bytes held by the stored events
+     */
+    public long getRetainedBytes() {
+      return retainedBytes;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of {@link StatsReadService} and {@link WorkflowIndexReadService} implemented
+ * by services which version what they serve, so it may be cached and revalidated by version rather
+ * than read and serialized on every request. A version changes whenever what it versions changes,
+ * and is never reused by the same service instance for other content.
+ */
+public interface VersionedReadService {
+
+  /**
+   * Get the version of a workflow's DAG, as returned by
+   * {@link StatsReadService#getDagNodeNameMap(String)}.
+   *
+   * @param workflowId the id of the workflow
+   * @return the version of the DAG, or a negative value if it isn't versioned
+   */
+  public long getDagVersion(String workflowId) throws IOException;
+
+  /**
+   * Get the version of the workflow summaries, as returned by
+   * {@link WorkflowIndexReadService#getWorkflows}. A single version covers every page of
+   * summaries.
+   *
+   * @return the version of the summaries, or a negative value if they aren't versioned
+   */
+  public long getWorkflowsVersion() throws IOException;
+}
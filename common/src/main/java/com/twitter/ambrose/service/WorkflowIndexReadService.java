@@ -25,8 +25,10 @@ public interface WorkflowIndexReadService {
    * @param status workflow status.
    * @param userId user to filter on, or null if all users requested.
    * @param numResults how many results to return.
-   * @param startKey start key for the page of results to return.
+   * @param startKey start key for the page of results to return, as returned by a previous page in
+   * a format of the implementation's choosing, or null for the first page.
    * @return paginated list of workflow summaries.
+   * @throws IllegalArgumentException if startKey isn't a start key this service returned.
    */
   PaginatedList<WorkflowSummary> getWorkflows(String cluster, WorkflowSummary.Status status,
       String userId, int numResults, byte[] startKey) throws IOException;
@@ -0,0 +1,35 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Service that records the user who submitted each workflow. Services collecting the stats of
+ * workflows submitted by other users, such as a server receiving them from remote clients,
+ * implement this so workflow summaries name the user who submitted them rather than the user
+ * running the service.
+ */
+public interface WorkflowUserWriteService {
+
+  /**
+   * Record the user who submitted a workflow, creating the workflow if it isn't known yet.
+   *
+   * @param workflowId the id of the workflow
+   * @param userId the user who submitted the workflow
+   */
+  public void setWorkflowUser(String workflowId, String userId) throws IOException;
+}
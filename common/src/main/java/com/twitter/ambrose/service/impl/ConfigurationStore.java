@@ -0,0 +1,85 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * In-memory content-addressed store of job configurations. Configurations are keyed by a SHA-1
+ * hash of their sorted entries, so each distinct configuration is held once no matter how many jobs
+ * share it. The number of configurations may be bounded, in which case the least recently used are
+ * evicted first.
+ */
+class ConfigurationStore {
+  private final ConcurrentMap<String, Properties> configurations;
+
+  /**
+   * @param maxConfigurations max number of configurations held, or zero or less to hold all of
+   * them.
+   */
+  ConfigurationStore(int maxConfigurations) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (maxConfigurations > 0) {
+      builder.maximumSize(maxConfigurations);
+    }
+    this.configurations = builder.<String, Properties>build().asMap();
+  }
+
+  /**
+   * Stores a configuration unless an equal one is stored already.
+   *
+   * @param configuration the configuration to store.
+   * @return id of the configuration.
+   */
+  String put(Properties configuration) {
+    String id = hash(configuration);
+    configurations.putIfAbsent(id, configuration);
+    return id;
+  }
+
+  /**
+   * @param id id of a configuration.
+   * @return the configuration stored with the given id, or null if there is none.
+   */
+  Properties get(String id) {
+    return id == null ? null : configurations.get(id);
+  }
+
+  /**
+   * Returns the id of a configuration, which is a hex encoded SHA-1 hash of its entries in key
+   * order.
+   */
+  static String hash(Properties configuration) {
+    Map<String, String> sorted = Maps.newTreeMap();
+    for (String name : configuration.stringPropertyNames()) {
+      sorted.put(name, configuration.getProperty(name));
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, String> entry : sorted.entrySet()) {
+      hasher.putString(entry.getKey(), Charsets.UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), Charsets.UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Sets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.service.EventNotificationService;
+
+/**
+ * Registry of {@link EventNotificationService.Listener}s by workflowId, which may be null. Listeners
+ * are added and removed in constant time, so a listener may be added for each waiting request.
+ */
+class EventListeners {
+  private static final Logger LOG = LoggerFactory.getLogger(EventListeners.class);
+
+  private final ConcurrentMap<String, Set<EventNotificationService.Listener>> listeners =
+      new ConcurrentHashMap<String, Set<EventNotificationService.Listener>>();
+  private final Set<EventNotificationService.Listener> nullListeners = newListenerSet();
+
+  private static Set<EventNotificationService.Listener> newListenerSet() {
+    return Sets.newSetFromMap(
+        new ConcurrentHashMap<EventNotificationService.Listener, Boolean>());
+  }
+
+  void add(String workflowId, EventNotificationService.Listener listener) {
+    if (workflowId == null) {
+      nullListeners.add(listener);
+      return;
+    }
+    Set<EventNotificationService.Listener> set = listeners.get(workflowId);
+    if (set == null) {
+      Set<EventNotificationService.Listener> newSet = newListenerSet();
+      set = listeners.putIfAbsent(workflowId, newSet);
+      if (set == null) {
+        set = newSet;
+      }
+    }
+    set.add(listener);
+  }
+
+  void remove(String workflowId, EventNotificationService.Listener listener) {
+    get(workflowId).remove(listener);
+  }
+
+  /**
+   * Notifies the listeners added for workflowId. Exceptions thrown by listeners are logged, so one
+   * failing listener doesn't prevent others from being notified.
+   */
+  void notify(String workflowId) {
+    for (EventNotificationService.Listener listener : get(workflowId)) {
+      try {
+        listener.eventsCommitted(workflowId);
+      } catch (RuntimeException e) {
+        LOG.warn("Event listener failed for workflowId=" + workflowId, e);
+      }
+    }
+  }
+
+  /**
+   * Notifies the listeners of every workflowId, each with the workflowId they were added for.
+   */
+  void notifyAllWorkflows() {
+    for (String workflowId : listeners.keySet()) {
+      notify(workflowId);
+    }
+    notify(null);
+  }
+
+  private Set<EventNotificationService.Listener> get(String workflowId) {
+    if (workflowId == null) {
+      return nullListeners;
+    }
+    Set<EventNotificationService.Listener> set = listeners.get(workflowId);
+    return set != null ? set : Collections.<EventNotificationService.Listener>emptySet();
+  }
+}
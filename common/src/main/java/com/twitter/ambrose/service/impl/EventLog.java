@@ -0,0 +1,439 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.service.SerializedEventList;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Append-only log of the events of a single workflow, ordered by event id. Writes must be
+ * serialized by the caller, but reads never lock: readers take a slice of the currently published
+ * entry array, whose published elements are never modified in place.
+ * <p/>
+ * The log sequences the events added to it: each event is committed under the next id of its
+ * sequence, regardless of the id it was created with, and appended in amortized constant time. Ids
+ * thus increase in the order events are published, so a reader which has seen all events up to some
+ * id never misses an event added later. A sequence may be shared by the logs of several workflows,
+ * so ids are unique across them and a reader following one workflow and then another never skips
+ * the events of the second committed after those it has seen; ids of a log then have gaps. Events
+ * are dropped according to an {@link EventRetentionPolicy}; trimming publishes a new array, and is
+ * only done once enough events are eligible for removal to keep its cost amortized. Only progress
+ * events which are superseded, or which don't name their job, are ever dropped, so a reader joining
+ * late can still rebuild the current state of the workflow.
+ * <p/>
+ * Each event is serialized to json once, when it is added. The json is used to account for the
+ * size of retained events and is written as is by {@link EventList#writeJson(OutputStream)}, so
+ * serving events to many clients doesn't serialize them again. The json reflects the state of each
+ * event when it was added, even if its payload is modified later.
+ */
+class EventLog {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MIN_SUPERSEDED_TO_COMPACT = 16;
+  private static final String WORKFLOW_PROGRESS_KEY = "";
+  private static final String DELTA_KEY_PREFIX = "delta:";
+  private static final byte[] EMPTY_ARRAY = "[]".getBytes(Charsets.UTF_8);
+  private static final byte[] ARRAY_START = "[".getBytes(Charsets.UTF_8);
+  private static final byte[] ARRAY_SEPARATOR = ",".getBytes(Charsets.UTF_8);
+  private static final byte[] ARRAY_END = "]".getBytes(Charsets.UTF_8);
+
+  /**
+   * List without any events.
+   */
+  static final EventList EMPTY_LIST = new EventList(new Entry[0], 0, 0);
+
+  private final EventRetentionPolicy policy;
+  private final AtomicLong sequence;
+  private volatile Entries entries = new Entries(new Entry[INITIAL_CAPACITY], 0);
+  // only written by the writer, but read for metrics
+  private volatile long totalBytes = 0;
+
+  // state below is only accessed by the writer
+  private final Map<String, Long> latestProgressIds = Maps.newHashMap();
+  private long lastId = 0;
+  private int supersededCount = 0;
+  private long nextExpiryCheck = 0;
+  // limits past which to trim, raised above the policy's while retained events can't be dropped
+  private int maxEventsToTrim;
+  private long maxBytesToTrim;
+
+  EventLog() {
+    this(EventRetentionPolicy.UNBOUNDED);
+  }
+
+  EventLog(EventRetentionPolicy policy) {
+    this(policy, new AtomicLong());
+  }
+
+  /**
+   * @param policy which events to retain.
+   * @param sequence sequence ids are drawn from, which may be shared with other logs.
+   */
+  EventLog(EventRetentionPolicy policy, AtomicLong sequence) {
+    this.policy = policy;
+    this.sequence = sequence;
+    this.maxEventsToTrim = policy.getMaxEvents();
+    this.maxBytesToTrim = policy.getMaxBytes();
+  }
+
+  /**
+   * Commits an event to the log under the next id of its sequence. Callers must not invoke this
+   * method concurrently.
+   *
+   * @param event the event to add, which isn't modified.
+   * @return a copy of the event carrying the id it was committed under.
+   * @throws IOException if the event can't be serialized.
+   */
+  Event add(Event event) throws IOException {
+    Event committed = event.withId(sequence.incrementAndGet());
+    Entry entry = new Entry(committed, JSONUtil.toJsonBytes(committed));
+    lastId = committed.getId();
+    Entry[] array = entries.array;
+    int count = entries.size;
+    if (count == array.length) {
+      array = Arrays.copyOf(array, count * 2);
+    }
+    array[count++] = entry;
+    totalBytes += entry.json.length;
+    trackProgress(committed);
+    entries = new Entries(array, count);
+    if (shouldTrim(array, count)) {
+      trim();
+    }
+    return committed;
+  }
+
+  /**
+   * Returns the json the last committed event was serialized to. Callers must not invoke this
+   * method concurrently with {@link #add}.
+   *
+   * @return json of the last committed event, or null if it isn't retained.
+   */
+  byte[] getLastJson() {
+    Entries current = entries;
+    if (current.size == 0 || current.array[current.size - 1].event.getId() != lastId) {
+      return null;
+    }
+    return current.array[current.size - 1].json;
+  }
+
+  /**
+   * Returns all events whose id is greater than the given id, ordered by id. The returned list is an
+   * immutable view which is not affected by subsequent additions.
+   *
+   * @param eventId id that all returned events will be greater than.
+   * @return events since eventId.
+   */
+  EventList getEventsSinceId(long eventId) {
+    return getEventsSinceId(eventId, 0);
+  }
+
+  /**
+   * Returns the first events whose id is greater than the given id, ordered by id. The returned
+   * list is an immutable view which is not affected by subsequent additions.
+   *
+   * @param eventId id that all returned events will be greater than.
+   * @param limit max number of events to return, or zero or less for all of them.
+   * @return up to limit events since eventId.
+   */
+  EventList getEventsSinceId(long eventId, int limit) {
+    Entries current = entries;
+    int from = indexAfter(current.array, current.size, eventId);
+    int to = limit > 0 ? (int) Math.min((long) from + limit, current.size) : current.size;
+    return new EventList(current.array, from, to);
+  }
+
+  /**
+   * @return number of events in the log.
+   */
+  int size() {
+    return entries.size;
+  }
+
+  /**
+   * @return number of bytes of json held for the events in the log.
+   */
+  long retainedBytes() {
+    return totalBytes;
+  }
+
+  private void trackProgress(Event event) {
+    String key = getProgressKey(event);
+    if (key == null) {
+      return;
+    }
+    Long latestId = latestProgressIds.put(key, event.getId());
+    if (latestId != null) {
+      supersededCount++;
+    }
+  }
+
+  private boolean isSuperseded(Event event) {
+    String key = getProgressKey(event);
+    if (key == null) {
+      return false;
+    }
+    if (latestProgressIds.get(key) != event.getId()) {
+      return true;
+    }
+    if (event.getType() == Event.Type.JOB_PROGRESS_DELTA) {
+      // a delta is also superseded by a later full snapshot of its job
+      Long snapshotId = latestProgressIds.get(key.substring(DELTA_KEY_PREFIX.length()));
+      return snapshotId != null && snapshotId > event.getId();
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether an event may be dropped: a progress event which is superseded or doesn't name
+   * its job. Other events, and the latest progress of each job and of the workflow, are needed to
+   * rebuild the current state of the workflow.
+   */
+  private boolean isDroppable(Event event) {
+    switch (event.getType()) {
+      case WORKFLOW_PROGRESS:
+      case JOB_PROGRESS:
+      case JOB_PROGRESS_DELTA:
+        return getProgressKey(event) == null || isSuperseded(event);
+      default:
+        return false;
+    }
+  }
+
+  private boolean shouldTrim(Entry[] array, int count) {
+    if (policy.isCompact()
+        && supersededCount >= Math.max(MIN_SUPERSEDED_TO_COMPACT, count / 2)) {
+      return true;
+    }
+    if (maxEventsToTrim > 0 && count > maxEventsToTrim) {
+      return true;
+    }
+    if (maxBytesToTrim > 0 && totalBytes > maxBytesToTrim) {
+      return true;
+    }
+    if (policy.getMaxAgeMillis() > 0) {
+      long now = System.currentTimeMillis();
+      if (now >= nextExpiryCheck) {
+        nextExpiryCheck = now + Math.max(1, policy.getMaxAgeMillis() / 10);
+        return array[0].event.getTimestamp() < now - policy.getMaxAgeMillis();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Drops superseded events if compacting and droppable events which expired, then drops the oldest
+   * remaining droppable events until the log is back under 90% of its count and size limits. If the
+   * events which can't be dropped exceed a limit, the log is next trimmed once it grows by a tenth
+   * of that limit.
+   */
+  private void trim() {
+    Entry[] array = entries.array;
+    int count = entries.size;
+    long minTimestamp = policy.getMaxAgeMillis() > 0
+        ? System.currentTimeMillis() - policy.getMaxAgeMillis()
+        : Long.MIN_VALUE;
+
+    Entry[] kept = new Entry[count];
+    int keptCount = 0;
+    long keptBytes = 0;
+    for (int i = 0; i < count; i++) {
+      Entry entry = array[i];
+      if ((policy.isCompact() && isSuperseded(entry.event))
+          || (entry.event.getTimestamp() < minTimestamp && isDroppable(entry.event))) {
+        continue;
+      }
+      kept[keptCount++] = entry;
+      keptBytes += entry.json.length;
+    }
+
+    int maxEvents = policy.getMaxEvents();
+    int targetEvents = maxEvents - maxEvents / 10;
+    int excessEvents = maxEvents > 0 && keptCount > maxEvents ? keptCount - targetEvents : 0;
+    long maxBytes = policy.getMaxBytes();
+    long targetBytes = maxBytes - maxBytes / 10;
+    long excessBytes = maxBytes > 0 && keptBytes > maxBytes ? keptBytes - targetBytes : 0;
+    boolean overEvents = excessEvents > 0;
+    boolean overBytes = excessBytes > 0;
+    if (overEvents || overBytes) {
+      int size = 0;
+      for (int i = 0; i < keptCount; i++) {
+        Entry entry = kept[i];
+        if ((excessEvents > 0 || excessBytes > 0) && isDroppable(entry.event)) {
+          excessEvents--;
+          excessBytes -= entry.json.length;
+          keptBytes -= entry.json.length;
+        } else {
+          kept[size++] = entry;
+        }
+      }
+      keptCount = size;
+    }
+    maxEventsToTrim = overEvents && keptCount > targetEvents
+        ? Math.max(maxEvents, keptCount + maxEvents / 10)
+        : maxEvents;
+    maxBytesToTrim = overBytes && keptBytes > targetBytes
+        ? Math.max(maxBytes, keptBytes + maxBytes / 10)
+        : maxBytes;
+
+    Entry[] trimmed = new Entry[Math.max(INITIAL_CAPACITY, keptCount * 2)];
+    System.arraycopy(kept, 0, trimmed, 0, keptCount);
+    supersededCount = 0;
+    totalBytes = keptBytes;
+    entries = new Entries(trimmed, keptCount);
+  }
+
+  /**
+   * Returns the key identifying what a progress event reports on, or null if the event isn't a
+   * progress event.
+   */
+  private static String getProgressKey(Event event) {
+    switch (event.getType()) {
+      case WORKFLOW_PROGRESS:
+        return WORKFLOW_PROGRESS_KEY;
+      case JOB_PROGRESS:
+        Object payload = event.getPayload();
+        return payload instanceof DAGNode ? ((DAGNode) payload).getName() : null;
+      case JOB_PROGRESS_DELTA:
+        String nodeName = event instanceof Event.JobProgressDeltaEvent
+            ? ((Event.JobProgressDeltaEvent) event).getNodeName()
+            : null;
+        return nodeName != null ? DELTA_KEY_PREFIX + nodeName : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the index of the first entry, among the first count entries, whose event id is greater
+   * than eventId.
+   */
+  private static int indexAfter(Entry[] array, int count, long eventId) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (array[mid].event.getId() <= eventId) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static class Entry {
+    private final Event event;
+    // never modified, as it may be written by any number of readers
+    private final byte[] json;
+
+    private Entry(Event event, byte[] json) {
+      this.event = event;
+      this.json = json;
+    }
+  }
+
+  /**
+   * Entry array along with the number of entries published in it.
+   */
+  private static class Entries {
+    private final Entry[] array;
+    private final int size;
+
+    private Entries(Entry[] array, int size) {
+      this.array = array;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Immutable view of the events of a range of entries.
+   */
+  static class EventList extends AbstractList<Event>
+      implements SerializedEventList, RandomAccess {
+    private final Entry[] array;
+    private final int from;
+    private final int to;
+
+    private EventList(Entry[] array, int from, int to) {
+      this.array = array;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public Event get(int index) {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+      }
+      return array[from + index].event;
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+    @Override
+    public EventList subList(int fromIndex, int toIndex) {
+      if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+        throw new IndexOutOfBoundsException(
+            "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size());
+      }
+      return new EventList(array, from + fromIndex, from + toIndex);
+    }
+
+    /**
+     * Writes the events in this list to a stream as a json array, using the json they were
+     * serialized to when added.
+     */
+    @Override
+    public void writeJson(OutputStream out) throws IOException {
+      if (from == to) {
+        out.write(EMPTY_ARRAY);
+        return;
+      }
+      out.write(ARRAY_START);
+      for (int i = from; i < to; i++) {
+        if (i > from) {
+          out.write(ARRAY_SEPARATOR);
+        }
+        out.write(array[i].json);
+      }
+      out.write(ARRAY_END);
+    }
+
+    @Override
+    public void writeJson(int index, OutputStream out) throws IOException {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+      }
+      out.write(array[from + index].json);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+/**
+ * Limits on the events retained for a single workflow. A limit of zero or less disables that limit.
+ * When compaction is enabled, only the latest {@code JOB_PROGRESS} event of each job, the latest
+ * {@code JOB_PROGRESS_DELTA} event of each job if it follows that, and the latest
+ * {@code WORKFLOW_PROGRESS} event are retained, along with all other events. The count, size and
+ * age limits only evict superseded progress events, oldest first, so they may be exceeded by the
+ * events clients need to rebuild the current state of a workflow: job lifecycle events and the
+ * latest progress of each job and of the workflow.
+ * <p/>
+ * The policy used by {@link InMemoryStatsService} is read from the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MAX_EVENTS_PARAM}</code> - max number of events per workflow.</li>
+ *     <li><code>{@value #MAX_BYTES_PARAM}</code> - max size of events per workflow, in
+ * bytes of json.</li>
+ *     <li><code>{@value #MAX_AGE_SECONDS_PARAM}</code> - max age of events, in seconds.</li>
+ *     <li><code>{@value #COMPACT_PARAM}</code> - whether to drop superseded progress events.
+ * Defaults to false.</li>
+ *   </ul>
+ * </pre>
+ */
+public class EventRetentionPolicy {
+  public static final String MAX_EVENTS_PARAM = "ambrose.events.max.count";
+  public static final String MAX_BYTES_PARAM = "ambrose.events.max.bytes";
+  public static final String MAX_AGE_SECONDS_PARAM = "ambrose.events.max.age.seconds";
+  public static final String COMPACT_PARAM = "ambrose.events.compact";
+
+  /**
+   * Policy which retains all events.
+   */
+  public static final EventRetentionPolicy UNBOUNDED = new EventRetentionPolicy(0, 0, 0, false);
+
+  private static long getLong(String name) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not a valid number", name, value), e);
+    }
+  }
+
+  /**
+   * @return policy configured from system properties.
+   */
+  public static EventRetentionPolicy fromSystemProperties() {
+    return new EventRetentionPolicy((int) getLong(MAX_EVENTS_PARAM), getLong(MAX_BYTES_PARAM),
+        getLong(MAX_AGE_SECONDS_PARAM) * 1000, Boolean.getBoolean(COMPACT_PARAM));
+  }
+
+  private final int maxEvents;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final boolean compact;
+
+  public EventRetentionPolicy(int maxEvents, long maxBytes, long maxAgeMillis, boolean compact) {
+    this.maxEvents = maxEvents;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+    this.compact = compact;
+  }
+
+  public int getMaxEvents() { return maxEvents; }
+  public long getMaxBytes() { return maxBytes; }
+  public long getMaxAgeMillis() { return maxAgeMillis; }
+  public boolean isCompact() { return compact; }
+}
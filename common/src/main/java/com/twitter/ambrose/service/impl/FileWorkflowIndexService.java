@@ -0,0 +1,506 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Persistent implementation of WorkflowIndexReadService, which stores the summaries of workflows
+ * in a log file and serves them newest first, filtered by cluster, status and user. Each record in
+ * the log is laid out as follows, with integers in big-endian order:
+ * <pre>
+ *   int length   - length of the json payload in bytes
+ *   int checksum - CRC32 of the payload
+ *   byte[length] - json encoded cluster and summary
+ * </pre>
+ * A summary put for a workflow id supersedes the summary put before it. When the index is opened,
+ * the log is scanned and any trailing partial or corrupt record is truncated. The log is compacted
+ * to the current summaries once superseded records take up more space than current ones. If
+ * compaction fails, it isn't tried again until the log has doubled in size.
+ * <p/>
+ * The id, cluster, user, status and creation time of each summary are held in memory with the
+ * position of its record, in sorted indexes by creation time, by cluster, by user, by status, by
+ * cluster and status and by user and status, each listing summaries newest first within a value. A
+ * page is read by seeking the index matching the most filters given, preferring user over cluster,
+ * to the start key of the page in O(log n). Summaries which don't match the remaining filter, the
+ * cluster when both a user and a cluster are given, are skipped, and the summaries of the page are
+ * read from the log. Start keys are described in {@link WorkflowPages}. Pages are read
+ * concurrently, while puts and compactions exclude reads.
+ */
+public class FileWorkflowIndexService implements WorkflowIndexReadService, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(FileWorkflowIndexService.class);
+  private static final int HEADER_BYTES = 8;
+  /**
+   * Bytes of superseded records below which the log isn't compacted.
+   */
+  private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+  private static final TypeReference<Record> RECORD_TYPE = new TypeReference<Record>() { };
+
+  private final File file;
+  private final boolean fsync;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, Entry> entries = Maps.newHashMap();
+  private final Map<Index, NavigableSet<Entry>> indexes = new EnumMap<Index, NavigableSet<Entry>>(
+      Index.class);
+  private final Multiset<String> clusters = HashMultiset.create();
+  private FileChannel channel;
+  private long size;
+  private long liveBytes;
+  // size the log must reach before compaction is tried again after failing
+  private long minCompactSize;
+
+  public FileWorkflowIndexService(File file) throws IOException {
+    this(file, false);
+  }
+
+  /**
+   * Opens the index stored in the given file, creating the file if needed and recovering the
+   * summaries it holds.
+   *
+   * @param file file holding the log of summaries.
+   * @param fsync whether to force each summary to the storage device as it is put.
+   * @throws IOException if the file can't be opened or recovered.
+   */
+  public FileWorkflowIndexService(File file, boolean fsync) throws IOException {
+    this.file = file;
+    this.fsync = fsync;
+    for (Index index : Index.values()) {
+      indexes.put(index, new TreeSet<Entry>(index));
+    }
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    recover();
+    LOG.info("Opened index of {} workflows in {}", entries.size(), file);
+    maybeCompact();
+  }
+
+  /**
+   * Puts the summary of a workflow, superseding any summary of the same workflow.
+   *
+   * @param cluster cluster the workflow ran on, or null if unknown.
+   * @param summary summary of the workflow, whose id must not be null.
+   * @throws IOException if the summary can't be serialized or written.
+   */
+  public void putWorkflow(String cluster, WorkflowSummary summary) throws IOException {
+    checkNotNull(summary.getId(), "Workflow id must not be null");
+    byte[] payload = JSONUtil.toJsonBytes(new Record(cluster, summary));
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+    buffer.putInt(payload.length);
+    buffer.putInt(checksum(payload));
+    buffer.put(payload);
+    buffer.flip();
+    lock.writeLock().lock();
+    try {
+      long offset = size;
+      long position = size;
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      if (fsync) {
+        channel.force(false);
+      }
+      size = position;
+      index(new Entry(summary.getId(), cluster, summary.getUserId(), summary.getStatus(),
+          summary.getCreatedAt(), offset, buffer.limit()));
+      maybeCompact();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the clusters of the summaries held, each named by its id.
+   */
+  @Override
+  public Map<String, String> getClusters() {
+    lock.readLock().lock();
+    try {
+      Map<String, String> result = Maps.newTreeMap();
+      for (String cluster : clusters.elementSet()) {
+        if (cluster != null) {
+          result.put(cluster, cluster);
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a page of summaries, newest first.
+   *
+   * @param cluster cluster to return summaries of, or null for all clusters.
+   * @param status status to return summaries of, or null for all statuses.
+   * @param userId user to return summaries of, or null for all users.
+   * @param numResults max number of summaries to return, or 0 or less for all of them.
+   * @param startKey start key of the page, or null for the first page.
+   * @return summaries from startKey on, with the start of the next page if there are more.
+   * @throws IllegalArgumentException if startKey is malformed.
+   */
+  @Override
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster,
+      WorkflowSummary.Status status, String userId, int numResults, byte[] startKey)
+      throws IOException {
+    Entry probe = startKey == null
+        ? new Entry(null, cluster, userId, status, Long.MAX_VALUE, -1, 0)
+        : new Entry(WorkflowPages.getId(startKey), cluster, userId, status,
+            WorkflowPages.getCreatedAt(startKey), -1, 0);
+    Index index = userId != null ? (status != null ? Index.USER_STATUS : Index.USER)
+        : cluster != null ? (status != null ? Index.CLUSTER_STATUS : Index.CLUSTER)
+        : status != null ? Index.STATUS
+        : Index.CREATED_AT;
+
+    lock.readLock().lock();
+    try {
+      List<WorkflowSummary> summaries = Lists.newArrayList();
+      String nextPageStart = null;
+      for (Entry entry : indexes.get(index).tailSet(probe, true)) {
+        if (index.compareValues(entry, probe) != 0) {
+          break;
+        }
+        if (cluster != null && !cluster.equals(entry.cluster)) {
+          continue;
+        }
+        if (numResults > 0 && summaries.size() == numResults) {
+          nextPageStart = WorkflowPages.getPageStart(entry.createdAt, entry.id);
+          break;
+        }
+        summaries.add(read(entry).getSummary());
+      }
+      PaginatedList<WorkflowSummary> page = new PaginatedList<WorkflowSummary>(summaries);
+      page.setNextPageStart(nextPageStart);
+      return page;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of workflows whose summaries are held.
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      channel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void index(Entry entry) {
+    Entry superseded = entries.put(entry.id, entry);
+    if (superseded != null) {
+      for (NavigableSet<Entry> index : indexes.values()) {
+        index.remove(superseded);
+      }
+      clusters.remove(superseded.cluster);
+      liveBytes -= superseded.recordBytes;
+    }
+    for (NavigableSet<Entry> index : indexes.values()) {
+      index.add(entry);
+    }
+    clusters.add(entry.cluster);
+    liveBytes += entry.recordBytes;
+  }
+
+  private Record read(Entry entry) throws IOException {
+    ByteBuffer buffer = readRecord(entry);
+    byte[] payload = new byte[entry.recordBytes - HEADER_BYTES];
+    buffer.position(HEADER_BYTES);
+    buffer.get(payload);
+    return JSONUtil.toObject(JSONUtil.Format.JSON, payload, RECORD_TYPE);
+  }
+
+  /**
+   * @return buffer holding the record of entry, including its header.
+   */
+  private ByteBuffer readRecord(Entry entry) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(entry.recordBytes);
+    long position = entry.offset;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + file + " reading workflow " + entry.id);
+      }
+      position += read;
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Scans the log, indexing its records and truncating it after the last valid record.
+   */
+  private void recover() throws IOException {
+    long fileSize = channel.size();
+    long offset = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      while (fileSize - offset >= HEADER_BYTES) {
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length < 0 || length > fileSize - offset - HEADER_BYTES) {
+          break;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (checksum != checksum(payload)) {
+          break;
+        }
+        Record record = JSONUtil.toObject(JSONUtil.Format.JSON, payload, RECORD_TYPE);
+        WorkflowSummary summary = record.getSummary();
+        index(new Entry(summary.getId(), record.getCluster(), summary.getUserId(),
+            summary.getStatus(), summary.getCreatedAt(), offset, HEADER_BYTES + length));
+        offset += HEADER_BYTES + length;
+      }
+    } finally {
+      in.close();
+    }
+    if (offset < fileSize) {
+      LOG.warn("Truncating {} bytes of partial or corrupt records from {}", fileSize - offset, file);
+      channel.truncate(offset);
+    }
+    size = offset;
+  }
+
+  private boolean shouldCompact() {
+    long supersededBytes = size - liveBytes;
+    return supersededBytes >= COMPACT_MIN_BYTES && supersededBytes > liveBytes
+        && size >= minCompactSize;
+  }
+
+  /**
+   * Compacts the log if superseded records take up enough of it. If compaction fails, the index
+   * keeps using the log, and compaction is only tried again once the log has doubled in size.
+   */
+  private void maybeCompact() throws IOException {
+    if (shouldCompact() && !compact()) {
+      minCompactSize = size * 2;
+    }
+  }
+
+  /**
+   * Rewrites the current records, newest first, to a temporary file which then replaces the log.
+   *
+   * @return whether the log was replaced.
+   * @throws IOException if the log can't be reopened once replaced.
+   */
+  private boolean compact() throws IOException {
+    NavigableSet<Entry> newestFirst = indexes.get(Index.CREATED_AT);
+    long[] offsets = new long[newestFirst.size()];
+    File tmpFile = new File(file.getPath() + ".tmp");
+    long position = 0;
+    try {
+      FileChannel tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+      try {
+        tmpChannel.truncate(0);
+        int i = 0;
+        for (Entry entry : newestFirst) {
+          ByteBuffer buffer = readRecord(entry);
+          offsets[i++] = position;
+          while (buffer.hasRemaining()) {
+            position += tmpChannel.write(buffer, position);
+          }
+        }
+        tmpChannel.force(false);
+      } finally {
+        tmpChannel.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to write " + tmpFile + ", not compacting", e);
+      tmpFile.delete();
+      return false;
+    }
+    if (!tmpFile.renameTo(file)) {
+      LOG.warn("Failed to rename {} to {}, not compacting", tmpFile, file);
+      tmpFile.delete();
+      return false;
+    }
+    LOG.info("Compacted {} from {} to {} bytes", new Object[] { file, size, position });
+    channel.close();
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    int i = 0;
+    for (Entry entry : newestFirst) {
+      entry.offset = offsets[i++];
+    }
+    size = position;
+    minCompactSize = 0;
+    return true;
+  }
+
+  private static int checksum(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Indexes of summaries, each ordering summaries by some of their values and then newest first.
+   */
+  private static enum Index implements Comparator<Entry> {
+    CREATED_AT {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        return 0;
+      }
+    },
+    CLUSTER {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        return VALUE_ORDER.compare(left.cluster, right.cluster);
+      }
+    },
+    USER {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        return VALUE_ORDER.compare(left.userId, right.userId);
+      }
+    },
+    STATUS {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        return VALUE_ORDER.compare(left.status, right.status);
+      }
+    },
+    CLUSTER_STATUS {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        int result = CLUSTER.compareValues(left, right);
+        return result != 0 ? result : STATUS.compareValues(left, right);
+      }
+    },
+    USER_STATUS {
+      @Override
+      int compareValues(Entry left, Entry right) {
+        int result = USER.compareValues(left, right);
+        return result != 0 ? result : STATUS.compareValues(left, right);
+      }
+    };
+
+    private static final Ordering<Comparable> VALUE_ORDER = Ordering.natural().nullsFirst();
+
+    /**
+     * Compares the values of two entries this index orders summaries by, before their creation.
+     */
+    abstract int compareValues(Entry left, Entry right);
+
+    @Override
+    public int compare(Entry left, Entry right) {
+      int result = compareValues(left, right);
+      return result != 0
+          ? result
+          : WorkflowPages.compare(left.createdAt, left.id, right.createdAt, right.id);
+    }
+  }
+
+  /**
+   * Indexed fields and position of the record of a summary.
+   */
+  private static class Entry {
+    private final String id;
+    private final String cluster;
+    private final String userId;
+    private final WorkflowSummary.Status status;
+    private final long createdAt;
+    private final int recordBytes;
+    private long offset;
+
+    private Entry(String id, String cluster, String userId, WorkflowSummary.Status status,
+        long createdAt, long offset, int recordBytes) {
+      this.id = id;
+      this.cluster = cluster;
+      this.userId = userId;
+      this.status = status;
+      this.createdAt = createdAt;
+      this.offset = offset;
+      this.recordBytes = recordBytes;
+    }
+  }
+
+  /**
+   * Json payload of a record.
+   */
+  static class Record {
+    private final String cluster;
+    private final WorkflowSummary summary;
+
+    @JsonCreator
+    Record(@JsonProperty("cluster") String cluster,
+        @JsonProperty("summary") WorkflowSummary summary) {
+      this.cluster = cluster;
+      this.summary = summary;
+    }
+
+    public String getCluster() {
+      return cluster;
+    }
+
+    public WorkflowSummary getSummary() {
+      return summary;
+    }
+  }
+}
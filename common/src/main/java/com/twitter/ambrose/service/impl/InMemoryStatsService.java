@@ -15,18 +15,23 @@ limitations under the License.
 */
 package com.twitter.ambrose.service.impl;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,15 +41,32 @@ import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.PaginatedList;
 import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.ConfigurationWriteService;
+import com.twitter.ambrose.service.EventJsonReadService;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.PagedEventReadService;
+import com.twitter.ambrose.service.SerializedEventList;
 import com.twitter.ambrose.service.StatsReadService;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.StoreMetricsReadService;
+import com.twitter.ambrose.service.VersionedReadService;
 import com.twitter.ambrose.service.WorkflowIndexReadService;
-import com.twitter.ambrose.util.JSONUtil;
+import com.twitter.ambrose.service.WorkflowUserWriteService;
+import com.twitter.ambrose.util.AsyncJsonFileWriter;
 
 /**
  * In-memory implementation of both StatsReadService and StatsWriteService. Used when stats
- * collection and stats serving are happening within the same VM. This class is intended to run in a
- * VM that only handles a single workflow. Hence it ignores workflowId.
+ * collection and stats serving are happening within the same VM. State is partitioned by
+ * workflowId, so a single long-lived instance may collect and serve stats for many workflows at
+ * once. Each partition is guarded by its own monitor, so writers for one workflow never block
+ * readers or writers of another. Reads for a null workflowId are served from the workflow whose DAG
+ * was most recently sent, which keeps clients of single-workflow VMs working without an id. Event
+ * ids are drawn from a sequence shared by all workflows, so a client reading without an id keeps
+ * its last event id when the current workflow changes and still gets the events of the new one. Job
+ * configurations are shared by all workflows and held once per distinct configuration. DAGs and
+ * workflow summaries are versioned, so the server may cache their json. The number and size of the
+ * events held for each workflow, and the rate at which events are pushed, are reported as metrics.
  * <p/>
  * Upon job completion this class can optionally write all json data to disk. This is useful for
  * debugging. The written files can also be replayed in the Ambrose UI without re-running the Job
@@ -58,126 +80,531 @@ import com.twitter.ambrose.util.JSONUtil;
  * json.</li>
  *   </ul>
  * </pre>
+ * Json is written by background threads, configured as described in {@link AsyncJsonFileWriter}.
+ * The events retained for each workflow can be bounded using the system properties described in
+ * {@link EventRetentionPolicy}, and the job configurations held using the following:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MAX_CONFIGURATIONS_PARAM}</code> - max number of distinct configurations
+ * held, beyond which the least recently used are dropped. Defaults to
+ * {@value #MAX_CONFIGURATIONS_DEFAULT}; zero or less holds all of them.</li>
+ *   </ul>
+ * </pre>
+ * Long-lived instances drop finished workflows, and running workflows whose clients went away,
+ * through {@link #evictWorkflows}.
  */
 public class InMemoryStatsService implements StatsReadService, StatsWriteService<Job>,
-    WorkflowIndexReadService {
+    WorkflowIndexReadService, EventJsonReadService, PagedEventReadService,
+    EventNotificationService, VersionedReadService, StoreMetricsReadService,
+    ConfigurationReadService, ConfigurationWriteService, WorkflowUserWriteService {
   private static final Logger LOG = LoggerFactory.getLogger(InMemoryStatsService.class);
   private static final String DUMP_WORKFLOW_FILE_PARAM = "ambrose.write.dag.file";
   private static final String DUMP_EVENTS_FILE_PARAM = "ambrose.write.events.file";
-  private final WorkflowSummary summary = new WorkflowSummary(null,
-      System.getProperty("user.name", "unknown"), "unknown", null, 0, System.currentTimeMillis());
-  private final PaginatedList<WorkflowSummary> summaries =
-      new PaginatedList<WorkflowSummary>(ImmutableList.of(summary));
-  private boolean jobFailed = false;
-  private Map<String, DAGNode<Job>> dagNodeNameMap = Maps.newHashMap();
-  private SortedMap<Integer, Event> eventMap = new ConcurrentSkipListMap<Integer, Event>();
-  private Writer workflowWriter;
-  private Writer eventsWriter;
-  private boolean eventWritten = false;
+  public static final String MAX_CONFIGURATIONS_PARAM = "ambrose.configurations.max.count";
+  public static final int MAX_CONFIGURATIONS_DEFAULT = 10000;
+  /**
+   * Cluster the workflows of this service belong to.
+   */
+  private static final String CLUSTER = "default";
+  /**
+   * Partition key used for writes which don't specify a workflowId.
+   */
+  private static final String DEFAULT_WORKFLOW_KEY = "";
+  private final ConcurrentMap<String, WorkflowState> workflows =
+      new ConcurrentHashMap<String, WorkflowState>();
+  private volatile WorkflowState currentWorkflow;
+  private final EventRetentionPolicy retentionPolicy = EventRetentionPolicy.fromSystemProperties();
+  private final ConfigurationStore configurations = new ConfigurationStore(
+      Integer.getInteger(MAX_CONFIGURATIONS_PARAM, MAX_CONFIGURATIONS_DEFAULT));
+  private final EventListeners listeners = new EventListeners();
+  private final RateCounter pushedEvents = new RateCounter();
+  // versions of DAGs and of workflow summaries are drawn from the same sequence
+  private final AtomicLong versions = new AtomicLong();
+  private final AtomicLong eventIds = new AtomicLong();
+  private volatile long workflowsVersion = versions.incrementAndGet();
+  private AsyncJsonFileWriter workflowWriter;
+  private AsyncJsonFileWriter eventsWriter;
 
   public InMemoryStatsService() {
-    String dumpWorkflowFileName = System.getProperty(DUMP_WORKFLOW_FILE_PARAM);
-    String dumpEventsFileName = System.getProperty(DUMP_EVENTS_FILE_PARAM);
+    this(System.getProperty(DUMP_WORKFLOW_FILE_PARAM), System.getProperty(DUMP_EVENTS_FILE_PARAM));
+  }
 
+  /**
+   * @param dumpWorkflowFileName file in which to write the workflow json, or null to not write it.
+   * @param dumpEventsFileName file in which to write the events json, or null to not write them.
+   */
+  public InMemoryStatsService(String dumpWorkflowFileName, String dumpEventsFileName) {
     if (dumpWorkflowFileName != null) {
       try {
-        workflowWriter = new PrintWriter(dumpWorkflowFileName);
-      } catch (FileNotFoundException e) {
-        LOG.error("Could not create dag PrintWriter at " + dumpWorkflowFileName, e);
+        workflowWriter = AsyncJsonFileWriter.open(dumpWorkflowFileName, false);
+      } catch (IOException e) {
+        LOG.error("Could not create dag writer at " + dumpWorkflowFileName, e);
       }
     }
 
     if (dumpEventsFileName != null) {
       try {
-        eventsWriter = new PrintWriter(dumpEventsFileName);
-      } catch (FileNotFoundException e) {
-        LOG.error("Could not create events PrintWriter at " + dumpEventsFileName, e);
+        eventsWriter = AsyncJsonFileWriter.open(dumpEventsFileName, true);
+      } catch (IOException e) {
+        LOG.error("Could not create events writer at " + dumpEventsFileName, e);
       }
     }
   }
 
   @Override
-  public synchronized void sendDagNodeNameMap(String workflowId,
+  public void sendDagNodeNameMap(String workflowId,
       Map<String, DAGNode<Job>> dagNodeNameMap) throws IOException {
-    this.summary.setId(workflowId);
-    this.summary.setStatus(WorkflowSummary.Status.RUNNING);
-    this.summary.setProgress(0);
-    this.dagNodeNameMap = dagNodeNameMap;
+    WorkflowState state;
+    while (true) {
+      state = getOrCreateWorkflow(workflowId);
+      synchronized (state) {
+        if (state.evicted) {
+          continue;
+        }
+        // readers check versions before and after reading, so they never cache stale content
+        // under a current version
+        state.dagVersion = -1;
+        workflowsVersion = versions.incrementAndGet();
+        state.summary.setStatus(WorkflowSummary.Status.RUNNING);
+        state.summary.setProgress(0);
+        state.finishedAt = 0;
+        state.lastActiveAt = System.currentTimeMillis();
+        state.dagNodeNameMap = dagNodeNameMap;
+        state.dagVersion = versions.incrementAndGet();
+        break;
+      }
+    }
+    workflowsVersion = versions.incrementAndGet();
+    currentWorkflow = state;
+    // listeners of the current workflow now follow another one
+    listeners.notify(null);
     writeJsonDagNodenameMapToDisk(dagNodeNameMap);
   }
 
   @Override
-  public synchronized void pushEvent(String workflowId, Event event) throws IOException {
-    eventMap.put(event.getId(), event);
-    switch (event.getType()) {
-      case WORKFLOW_PROGRESS:
-        Event.WorkflowProgressEvent workflowProgressEvent = (Event.WorkflowProgressEvent) event;
-        String progressString =
-            workflowProgressEvent.getPayload().get(Event.WorkflowProgressField.workflowProgress);
-        int progress = Integer.parseInt(progressString);
-        summary.setProgress(progress);
-        if (progress == 100) {
-          summary.setStatus(jobFailed
-              ? WorkflowSummary.Status.FAILED
-              : WorkflowSummary.Status.SUCCEEDED);
+  public void pushEvent(String workflowId, Event event) throws IOException {
+    WorkflowState state;
+    boolean summaryChanged = false;
+    // room in the dump queue is reserved before locking, so the lock is never held while waiting
+    // for the writer, and committed events are queued while holding it, so the events of each
+    // workflow are dumped in event id order
+    boolean reserved = eventsWriter != null && eventsWriter.reserve();
+    try {
+      while (true) {
+        state = getOrCreateWorkflow(workflowId);
+        synchronized (state) {
+          // the workflow may have been evicted since it was looked up, in which case the event
+          // goes to the workflow replacing it
+          if (state.evicted) {
+            continue;
+          }
+          state.lastActiveAt = System.currentTimeMillis();
+          Event committed = state.events.add(event);
+          if (reserved) {
+            // the payload of the event is shared with the caller, which may keep modifying it, so
+            // the event is queued along with its bytes
+            byte[] json = eventsWriter.writesJson() ? state.events.getLastJson() : null;
+            if (json == null) {
+              json = eventsWriter.serialize(committed);
+            }
+            reserved = false;
+            eventsWriter.writeReserved(committed, json);
+          }
+          pushedEvents.mark();
+          switch (event.getType()) {
+            case WORKFLOW_PROGRESS:
+              Event.WorkflowProgressEvent workflowProgressEvent =
+                  (Event.WorkflowProgressEvent) event;
+              String progressString = workflowProgressEvent.getPayload()
+                  .get(Event.WorkflowProgressField.workflowProgress);
+              int progress = Integer.parseInt(progressString);
+              workflowsVersion = versions.incrementAndGet();
+              state.summary.setProgress(progress);
+              if (progress == 100) {
+                state.summary.setStatus(state.jobFailed
+                    ? WorkflowSummary.Status.FAILED
+                    : WorkflowSummary.Status.SUCCEEDED);
+                if (state.finishedAt == 0) {
+                  state.finishedAt = System.currentTimeMillis();
+                }
+              }
+              summaryChanged = true;
+              break;
+            case JOB_FAILED:
+              state.jobFailed = true;
+            default:
+              // nothing
+          }
+          break;
         }
-        break;
-      case JOB_FAILED:
-        jobFailed = true;
-      default:
-        // nothing
+      }
+    } finally {
+      if (reserved) {
+        eventsWriter.cancelReservation();
+      }
+    }
+    if (summaryChanged) {
+      workflowsVersion = versions.incrementAndGet();
+    }
+    notifyListeners(workflowId, state);
+  }
+
+  /**
+   * Records the user who submitted a workflow, in place of the user running this service, which
+   * workflows are otherwise recorded under.
+   */
+  @Override
+  public void setWorkflowUser(String workflowId, String userId) {
+    while (true) {
+      WorkflowState state = getOrCreateWorkflow(workflowId);
+      synchronized (state) {
+        if (state.evicted) {
+          continue;
+        }
+        if (!userId.equals(state.summary.getUserId())) {
+          workflowsVersion = versions.incrementAndGet();
+          state.summary.setUserId(userId);
+          workflowsVersion = versions.incrementAndGet();
+        }
+        return;
+      }
+    }
+  }
+
+  @Override
+  public Map<String, DAGNode<Job>> getDagNodeNameMap(String workflowId) {
+    WorkflowState state = getWorkflow(workflowId);
+    if (state == null) {
+      return ImmutableMap.of();
+    }
+    return state.dagNodeNameMap;
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long sinceId) {
+    return getEventsSinceId(workflowId, sinceId, 0);
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long sinceId, int limit) {
+    WorkflowState state = getWorkflow(workflowId);
+    if (state == null) {
+      return ImmutableList.of();
+    }
+    return state.events.getEventsSinceId(sinceId, limit);
+  }
+
+  @Override
+  public SerializedEventList getSerializedEventsSinceId(String workflowId, long sinceId) {
+    WorkflowState state = getWorkflow(workflowId);
+    if (state == null) {
+      return EventLog.EMPTY_LIST;
+    }
+    return state.events.getEventsSinceId(sinceId);
+  }
+
+  @Override
+  public void addEventListener(String workflowId, Listener listener) {
+    listeners.add(workflowId, listener);
+  }
+
+  @Override
+  public void removeEventListener(String workflowId, Listener listener) {
+    listeners.remove(workflowId, listener);
+  }
+
+  @Override
+  public long getDagVersion(String workflowId) {
+    WorkflowState state = getWorkflow(workflowId);
+    return state == null ? -1 : state.dagVersion;
+  }
+
+  @Override
+  public long getWorkflowsVersion() {
+    return workflowsVersion;
+  }
+
+  @Override
+  public Map<String, WorkflowMetrics> getWorkflowMetrics() {
+    Map<String, WorkflowMetrics> metrics = Maps.newTreeMap();
+    for (Map.Entry<String, WorkflowState> entry : workflows.entrySet()) {
+      EventLog events = entry.getValue().events;
+      metrics.put(entry.getKey(), new WorkflowMetrics(events.size(), events.retainedBytes()));
     }
-    writeJsonEventToDisk(event);
+    return metrics;
   }
 
   @Override
-  public synchronized Map<String, DAGNode<Job>> getDagNodeNameMap(String workflowId) {
-    return dagNodeNameMap;
+  public long getEventsPushed() {
+    return pushedEvents.getTotal();
   }
 
   @Override
-  public synchronized Collection<Event> getEventsSinceId(String workflowId, int sinceId) {
-    int minId = sinceId >= 0 ? sinceId + 1 : sinceId;
-    return eventMap.tailMap(minId).values();
+  public double getEventsPushedPerSecond() {
+    return pushedEvents.getRatePerSecond();
+  }
+
+  @Override
+  public String putConfiguration(Properties configuration) {
+    return configurations.put(configuration);
+  }
+
+  @Override
+  public Properties getConfiguration(String configurationId) {
+    return configurations.get(configurationId);
+  }
+
+  /**
+   * Adds previously recorded events to a workflow, without updating its summary or writing them to
+   * disk. This is used to replay the events of several workflows under a single one. Events are
+   * committed under new ids, in the order given; events already held by the
+   * workflow are skipped, so the events of a workflow may be restored along with those of others.
+   *
+   * @param workflowId the id of the workflow to add events to, or null for the current workflow.
+   * @param events the events to add.
+   * @throws IOException if events can't be added.
+   */
+  public void restoreEvents(String workflowId, Collection<? extends Event> events)
+      throws IOException {
+    WorkflowState state;
+    while (true) {
+      state = getWorkflow(workflowId);
+      if (state == null) {
+        state = getOrCreateWorkflow(workflowId);
+      }
+      synchronized (state) {
+        if (state.evicted) {
+          continue;
+        }
+        Set<Event> held = Sets.newSetFromMap(new IdentityHashMap<Event, Boolean>());
+        held.addAll(state.events.getEventsSinceId(-1));
+        for (Event event : events) {
+          if (!held.contains(event)) {
+            state.events.add(event);
+          }
+        }
+        break;
+      }
+    }
+    notifyListeners(workflowId, state);
+  }
+
+  /**
+   * Adds previously recorded DAG nodes to the DAG of a workflow, replacing nodes of the same name,
+   * without updating its summary or writing them to disk. This is used along with
+   * {@link #restoreEvents} to replay several workflows under a single one. The DAG is replaced by a
+   * merged copy under a new version, so the DAGs served before aren't modified.
+   *
+   * @param workflowId the id of the workflow to add nodes to, or null for the current workflow.
+   * @param dagNodeNameMap the nodes to add, by name.
+   */
+  public void restoreDagNodes(String workflowId, Map<String, DAGNode<Job>> dagNodeNameMap) {
+    while (true) {
+      WorkflowState state = getWorkflow(workflowId);
+      if (state == null) {
+        state = getOrCreateWorkflow(workflowId);
+      }
+      synchronized (state) {
+        if (state.evicted) {
+          continue;
+        }
+        Map<String, DAGNode<Job>> merged = Maps.newLinkedHashMap(state.dagNodeNameMap);
+        merged.putAll(dagNodeNameMap);
+        state.dagVersion = -1;
+        workflowsVersion = versions.incrementAndGet();
+        state.dagNodeNameMap = merged;
+        state.dagVersion = versions.incrementAndGet();
+        break;
+      }
+    }
+    workflowsVersion = versions.incrementAndGet();
   }
 
   @Override
   public Map<String, String> getClusters() throws IOException {
-    return ImmutableMap.of("default", "default");
+    return ImmutableMap.of(CLUSTER, CLUSTER);
   }
 
+  /**
+   * Returns the summaries of the workflows held, newest first, paged as described in
+   * {@link WorkflowPages}. All workflows belong to the <code>default</code> cluster.
+   */
   @Override
-  public synchronized PaginatedList<WorkflowSummary> getWorkflows(String cluster,
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster,
       WorkflowSummary.Status status, String userId, int numResults, byte[] startKey)
       throws IOException {
-    return summaries;
+    List<WorkflowSummary> summaries = Lists.newArrayListWithCapacity(workflows.size());
+    if (cluster == null || CLUSTER.equals(cluster)) {
+      for (WorkflowState state : workflows.values()) {
+        WorkflowSummary summary = state.getSummary();
+        if ((status == null || status == summary.getStatus())
+            && (userId == null || userId.equals(summary.getUserId()))) {
+          summaries.add(summary);
+        }
+      }
+    }
+    Collections.sort(summaries, WorkflowPages.NEWEST_FIRST);
+    return WorkflowPages.getPage(summaries, numResults, startKey);
   }
 
-  private void writeJsonDagNodenameMapToDisk(Map<String, DAGNode<Job>> dagNodeNameMap)
-      throws IOException {
-    if (workflowWriter != null && dagNodeNameMap != null) {
-      JSONUtil.writeJson(workflowWriter, dagNodeNameMap.values());
+  /**
+   * Drops the workflows which finished before the given time, as described in
+   * {@link #evictWorkflows}, leaving running workflows.
+   *
+   * @param finishedBefore time in milliseconds before which workflows must have finished.
+   * @return number of workflows dropped.
+   */
+  public int evictFinishedWorkflows(long finishedBefore) {
+    return evictWorkflows(finishedBefore, 0);
+  }
+
+  /**
+   * Drops the workflows which finished before the given time, and the running workflows which
+   * received no DAG or event since the given time, such as those whose client died, along with
+   * their DAGs and events, so a long-lived instance doesn't hold every workflow it ever collected.
+   * Reads without a workflowId find no workflow once the current workflow is dropped, until another
+   * DAG is sent. DAGs and events sent to a dropped workflow, even while it is being dropped, start
+   * a new workflow under the same id.
+   *
+   * @param finishedBefore time in milliseconds before which workflows must have finished.
+   * @param inactiveBefore time in milliseconds since which running workflows must have received
+   * nothing, or zero or less to keep running workflows.
+   * @return number of workflows dropped.
+   */
+  public int evictWorkflows(long finishedBefore, long inactiveBefore) {
+    int evicted = 0;
+    for (Map.Entry<String, WorkflowState> entry : workflows.entrySet()) {
+      WorkflowState state = entry.getValue();
+      // writers check whether the workflow was evicted while holding its lock, so they never
+      // commit to a workflow no longer held
+      synchronized (state) {
+        if (!state.isEvictable(finishedBefore, inactiveBefore)
+            || !workflows.remove(entry.getKey(), state)) {
+          continue;
+        }
+        state.evicted = true;
+      }
+      if (state == currentWorkflow) {
+        currentWorkflow = null;
+      }
+      evicted++;
     }
+    if (evicted > 0) {
+      workflowsVersion = versions.incrementAndGet();
+    }
+    return evicted;
+  }
+
+  /**
+   * Returns the summary of a workflow, or of the current workflow if workflowId is null.
+   *
+   * @param workflowId the id of the workflow.
+   * @return a copy of the summary, or null if the workflow is unknown.
+   */
+  public WorkflowSummary getWorkflowSummary(String workflowId) {
+    WorkflowState state = getWorkflow(workflowId);
+    return state == null ? null : state.getSummary();
+  }
+
+  /**
+   * Returns the state of the given workflow, or of the current workflow if workflowId is null.
+   */
+  private WorkflowState getWorkflow(String workflowId) {
+    if (workflowId == null) {
+      return currentWorkflow;
+    }
+    return workflows.get(workflowId);
+  }
+
+  /**
+   * Returns the state of the given workflow, creating it if missing. The state may be evicted by
+   * the time the caller locks it, which callers must check.
+   */
+  WorkflowState getOrCreateWorkflow(String workflowId) {
+    String key = workflowId == null ? DEFAULT_WORKFLOW_KEY : workflowId;
+    WorkflowState state = workflows.get(key);
+    if (state == null) {
+      WorkflowState newState = new WorkflowState(workflowId, retentionPolicy, eventIds);
+      state = workflows.putIfAbsent(key, newState);
+      if (state == null) {
+        state = newState;
+        if (currentWorkflow == null) {
+          currentWorkflow = state;
+        }
+        workflowsVersion = versions.incrementAndGet();
+      }
+    }
+    return state;
   }
 
-  private void writeJsonEventToDisk(Event event) throws IOException {
-    if (eventsWriter != null && event != null) {
-      eventsWriter.write(!eventWritten ? "[ " : ", ");
-      JSONUtil.writeJson(eventsWriter, event);
-      eventsWriter.flush();
-      eventWritten = true;
+  /**
+   * Notifies listeners of a workflow which events were committed to, including listeners of the
+   * current workflow if it is that workflow.
+   */
+  private void notifyListeners(String workflowId, WorkflowState state) {
+    if (workflowId != null) {
+      listeners.notify(workflowId);
+    }
+    if (state == currentWorkflow) {
+      listeners.notify(null);
     }
   }
 
+  private void writeJsonDagNodenameMapToDisk(Map<String, DAGNode<Job>> dagNodeNameMap)
+      throws IOException {
+    if (workflowWriter != null && dagNodeNameMap != null) {
+      // nodes are modified by the runtime as jobs run, so they are serialized as sent
+      List<DAGNode<Job>> nodes = ImmutableList.copyOf(dagNodeNameMap.values());
+      workflowWriter.write(nodes, workflowWriter.serialize(nodes));
+    }
+  }
+
+  /**
+   * Writes all pending json to disk and closes the files being written.
+   */
   public void flushJsonToDisk() throws IOException {
     if (workflowWriter != null) {
       workflowWriter.close();
     }
     if (eventsWriter != null) {
-      if (eventWritten) {
-        eventsWriter.write(" ]\n");
-      }
       eventsWriter.close();
     }
   }
+
+  /**
+   * Stats collected for a single workflow. Mutations are guarded by the instance monitor; the
+   * event log may be read without locking.
+   */
+  static class WorkflowState {
+    private final WorkflowSummary summary;
+    private final EventLog events;
+    private volatile Map<String, DAGNode<Job>> dagNodeNameMap = Maps.newHashMap();
+    private volatile long dagVersion = -1;
+    private boolean jobFailed = false;
+    // time the workflow finished at, or 0 while it runs
+    private long finishedAt = 0;
+    // time the last DAG or event was received at
+    private long lastActiveAt = System.currentTimeMillis();
+    // whether the workflow was removed from the workflows held
+    private boolean evicted = false;
+
+    private WorkflowState(String workflowId, EventRetentionPolicy retentionPolicy,
+        AtomicLong eventIds) {
+      this.events = new EventLog(retentionPolicy, eventIds);
+      this.summary = new WorkflowSummary(workflowId, System.getProperty("user.name", "unknown"),
+          "unknown", null, 0, System.currentTimeMillis());
+    }
+
+    private synchronized boolean isEvictable(long finishedBefore, long inactiveBefore) {
+      return finishedAt > 0 ? finishedAt < finishedBefore : lastActiveAt < inactiveBefore;
+    }
+
+    /**
+     * Returns a copy of the summary, so callers may serialize it while the workflow is updated.
+     */
+    private synchronized WorkflowSummary getSummary() {
+      return new WorkflowSummary(summary.getId(), summary.getUserId(), summary.getName(),
+          summary.getStatus(), summary.getProgress(), summary.getCreatedAt());
+    }
+  }
 }
@@ -0,0 +1,80 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events and the rate at which they occur over the last minute. Occurrences are counted in
+ * one-second buckets of a ring, which are reused once they fall out of the window, so marking never
+ * locks. The rate is approximate: an occurrence marked while its bucket is being reused may be lost.
+ */
+class RateCounter {
+  private static final int WINDOW_SECONDS = 60;
+
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+  private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+
+  /**
+   * Counts an occurrence at the current time.
+   */
+  void mark() {
+    mark(System.currentTimeMillis());
+  }
+
+  void mark(long timeMillis) {
+    total.incrementAndGet();
+    long second = timeMillis / 1000;
+    int index = (int) (second % WINDOW_SECONDS);
+    long bucketSecond = seconds.get(index);
+    if (bucketSecond > second) {
+      // the bucket was already reused for a later second, so this occurrence is out of the window
+      return;
+    }
+    if (bucketSecond != second && seconds.compareAndSet(index, bucketSecond, second)) {
+      counts.set(index, 0);
+    }
+    counts.incrementAndGet(index);
+  }
+
+  /**
+   * @return number of occurrences counted since this counter was created.
+   */
+  long getTotal() {
+    return total.get();
+  }
+
+  /**
+   * @return mean number of occurrences per second over the last full minute.
+   */
+  double getRatePerSecond() {
+    return getRatePerSecond(System.currentTimeMillis());
+  }
+
+  double getRatePerSecond(long timeMillis) {
+    long current = timeMillis / 1000;
+    long count = 0;
+    for (int i = 0; i < WINDOW_SECONDS; i++) {
+      long second = seconds.get(i);
+      if (second < current && second >= current - WINDOW_SECONDS) {
+        count += counts.get(i);
+      }
+    }
+    return (double) count / WINDOW_SECONDS;
+  }
+}
@@ -0,0 +1,634 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.collect.Lists;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.ConfigurationWriteService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * StatsWriteService which sends DAGs, events and job configurations to a remote Ambrose server over
+ * HTTP, so clients don't need to serve them themselves. Objects are serialized on the calling
+ * thread and queued, and a background thread sends them, so callers never wait on the network.
+ * <p/>
+ * The queue is a lock-free bounded queue. Once it is full, events are dropped or coalesced according
+ * to an {@link OverflowPolicy}, and counted in {@link #getDroppedCount()}. Full job progress events
+ * are queued even then, as the job progress deltas which follow them are against them. DAGs and
+ * configurations don't count towards the size of the queue, as there are few of them and workflows
+ * can't be shown without them. Queued objects are sent in batches of up to {@code batchSize}, consecutive events of
+ * a workflow sharing a single request. Requests failing with an I/O error or a server error are
+ * retried with exponential backoff and full jitter, and dropped once retries are exhausted. Objects
+ * pushed once the service is closed, or still queued when it gives up sending, are dropped too.
+ * Dropped DAGs and configurations are counted in {@link #getDroppedObjectCount()}. Connections are
+ * kept alive between requests by {@link HttpURLConnection}'s connection cache.
+ * <p/>
+ * Objects are posted to the following URIs below the server's base URL:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #DAG_PATH}?workflowId=&userId=</code> - the DAG of a workflow, as a JSON
+ * array of its nodes.</li>
+ *     <li><code>{@value #EVENTS_PATH}?workflowId=&userId=</code> - events of a workflow, as newline
+ * delimited JSON, one event per line.</li>
+ *     <li><code>{@value #CONFIGURATION_PATH}?configurationId=</code> - a job configuration, as a
+ * JSON object.</li>
+ *   </ul>
+ * </pre>
+ * The workflowId parameter is omitted for a null workflowId. The userId parameter is the user
+ * running the client, which submitted the workflow, so the server records workflows under their
+ * user rather than its own. Configuration ids are computed locally,
+ * as the same hash of their content a server storing configurations computes.
+ * <p/>
+ * The following system properties configure services created with {@link #open()}:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #URL_PARAM}</code> - base URL of the Ambrose server. Required.</li>
+ *     <li><code>{@value #QUEUE_SIZE_PARAM}</code> - max number of events waiting to be sent.
+ * Defaults to {@value #QUEUE_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #BATCH_SIZE_PARAM}</code> - max number of objects sent per batch.
+ * Defaults to {@value #BATCH_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_RETRIES_PARAM}</code> - number of times a failed request is retried.
+ * Defaults to {@value #MAX_RETRIES_DEFAULT}.</li>
+ *     <li><code>{@value #RETRY_DELAY_MS_PARAM}</code> - base delay before retrying, doubled on each
+ * retry up to {@value #MAX_RETRY_DELAY_MS}. Defaults to {@value #RETRY_DELAY_MS_DEFAULT}.</li>
+ *     <li><code>{@value #TIMEOUT_MS_PARAM}</code> - connect and read timeout of requests.
+ * Defaults to {@value #TIMEOUT_MS_DEFAULT}.</li>
+ *     <li><code>{@value #CLOSE_TIMEOUT_MS_PARAM}</code> - max time to wait for queued objects to be
+ * sent when closing. Defaults to {@value #CLOSE_TIMEOUT_MS_DEFAULT}.</li>
+ *     <li><code>{@value #OVERFLOW_PARAM}</code> - one of {@link OverflowPolicy}. Defaults to
+ * {@code COALESCE}.</li>
+ *   </ul>
+ * </pre>
+ */
+public class RemoteStatsWriteService implements StatsWriteService<Job>, ConfigurationWriteService,
+    Closeable {
+  /**
+   * What to do with events pushed while the queue is full.
+   */
+  public static enum OverflowPolicy {
+    /** Drop the event. */
+    DROP,
+    /**
+     * Replace the pending progress of the same job or workflow by progress events of the same type
+     * which would directly follow it, whether or not the queue is full, and drop other events while
+     * it is. A job progress delta replaces a pending delta, as deltas are cumulative against the
+     * last full progress of their job, and a full job progress replaces a pending full one. Workflow
+     * progress is never replaced by progress pushed after an event of the workflow other than
+     * progress, such as a job failure, so the server sees the final progress after the events
+     * which preceded it. Assumes the events of a job are pushed by one thread at a time, as
+     * adapters do.
+     */
+    COALESCE
+  }
+
+  public static final String URL_PARAM = "ambrose.remote.url";
+  public static final String QUEUE_SIZE_PARAM = "ambrose.remote.queue.size";
+  public static final String BATCH_SIZE_PARAM = "ambrose.remote.batch.size";
+  public static final String MAX_RETRIES_PARAM = "ambrose.remote.max.retries";
+  public static final String RETRY_DELAY_MS_PARAM = "ambrose.remote.retry.delay.ms";
+  public static final String TIMEOUT_MS_PARAM = "ambrose.remote.timeout.ms";
+  public static final String CLOSE_TIMEOUT_MS_PARAM = "ambrose.remote.close.timeout.ms";
+  public static final String OVERFLOW_PARAM = "ambrose.remote.overflow";
+  public static final int QUEUE_SIZE_DEFAULT = 10000;
+  public static final int BATCH_SIZE_DEFAULT = 500;
+  public static final int MAX_RETRIES_DEFAULT = 5;
+  public static final long RETRY_DELAY_MS_DEFAULT = 100;
+  public static final long MAX_RETRY_DELAY_MS = 10000;
+  public static final int TIMEOUT_MS_DEFAULT = 10000;
+  public static final long CLOSE_TIMEOUT_MS_DEFAULT = 10000;
+  public static final String DAG_PATH = "/ingest/dag";
+  public static final String EVENTS_PATH = "/ingest/events";
+  public static final String CONFIGURATION_PATH = "/ingest/configuration";
+  public static final String EVENTS_CONTENT_TYPE = "application/x-ndjson";
+
+  private static final Logger LOG = LoggerFactory.getLogger(RemoteStatsWriteService.class);
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static <T extends Enum<T>> T getEnum(String name, Class<T> enumClass, T defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(enumClass, value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not one of %s", name, value, enumClass.getSimpleName()), e);
+    }
+  }
+
+  /**
+   * Opens a service configured from system properties.
+   *
+   * @return a started service.
+   * @throws IllegalArgumentException if {@value #URL_PARAM} isn't set to a valid URL.
+   */
+  public static RemoteStatsWriteService open() {
+    String url = System.getProperty(URL_PARAM);
+    if (url == null) {
+      throw new IllegalArgumentException(String.format("Parameter '%s' is not set", URL_PARAM));
+    }
+    try {
+      return new RemoteStatsWriteService(new URL(url),
+          Integer.getInteger(QUEUE_SIZE_PARAM, QUEUE_SIZE_DEFAULT),
+          Integer.getInteger(BATCH_SIZE_PARAM, BATCH_SIZE_DEFAULT),
+          Integer.getInteger(MAX_RETRIES_PARAM, MAX_RETRIES_DEFAULT),
+          Long.getLong(RETRY_DELAY_MS_PARAM, RETRY_DELAY_MS_DEFAULT),
+          Integer.getInteger(TIMEOUT_MS_PARAM, TIMEOUT_MS_DEFAULT),
+          Long.getLong(CLOSE_TIMEOUT_MS_PARAM, CLOSE_TIMEOUT_MS_DEFAULT),
+          getEnum(OVERFLOW_PARAM, OverflowPolicy.class, OverflowPolicy.COALESCE));
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not a valid URL", URL_PARAM, url), e);
+    }
+  }
+
+  private final String baseUrl;
+  private final String userId = System.getProperty("user.name");
+  private final int queueSize;
+  private final int batchSize;
+  private final int maxRetries;
+  private final long retryDelayMs;
+  private final int timeoutMs;
+  private final long closeTimeoutMs;
+  private final OverflowPolicy overflowPolicy;
+  private final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+  // number of events queued, which exceeds queueSize briefly while a push backs out, and while
+  // full job progress events are queued past it
+  private final AtomicInteger queuedEvents = new AtomicInteger();
+  // last entry queued for each job and workflow, while it is queued
+  private final ConcurrentMap<String, Entry> lastEntries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong droppedObjectCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final Random random = new Random();
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  public RemoteStatsWriteService(URL baseUrl) {
+    this(baseUrl, QUEUE_SIZE_DEFAULT, BATCH_SIZE_DEFAULT, MAX_RETRIES_DEFAULT,
+        RETRY_DELAY_MS_DEFAULT, TIMEOUT_MS_DEFAULT, CLOSE_TIMEOUT_MS_DEFAULT,
+        OverflowPolicy.COALESCE);
+  }
+
+  public RemoteStatsWriteService(URL baseUrl, int queueSize, int batchSize, int maxRetries,
+      long retryDelayMs, int timeoutMs, long closeTimeoutMs, OverflowPolicy overflowPolicy) {
+    String url = baseUrl.toExternalForm();
+    this.baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.queueSize = queueSize;
+    this.batchSize = batchSize;
+    this.maxRetries = maxRetries;
+    this.retryDelayMs = retryDelayMs;
+    this.timeoutMs = timeoutMs;
+    this.closeTimeoutMs = closeTimeoutMs;
+    this.overflowPolicy = overflowPolicy;
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendQueued();
+      }
+    }, "RemoteStatsWriteService-" + this.baseUrl);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues the DAG to be sent. A DAG replaces the DAG of the same workflow still queued, if any.
+   */
+  @Override
+  public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<Job>> dagNodeNameMap)
+      throws IOException {
+    if (closed) {
+      dropObject(Entry.Kind.DAG, workflowId);
+      return;
+    }
+    byte[] json = JSONUtil.toJsonBytes(dagNodeNameMap.values());
+    String key = "dag\u0000" + workflowId;
+    Entry last = lastEntries.get(key);
+    if (last != null && last.replace(json)) {
+      return;
+    }
+    Entry entry = new Entry(Entry.Kind.DAG, workflowId, key, null, json);
+    lastEntries.put(key, entry);
+    enqueue(entry);
+  }
+
+  /**
+   * Queues the event to be sent, unless it is coalesced or dropped as described by the overflow
+   * policy. Full job progress events are never dropped while the service is open.
+   */
+  @Override
+  public void pushEvent(String workflowId, Event event) throws IOException {
+    if (closed) {
+      drop(1);
+      return;
+    }
+    byte[] json = JSONUtil.toJsonBytes(event);
+    Event.Type type = event.getType();
+    String key = overflowPolicy == OverflowPolicy.COALESCE ? coalesceKey(workflowId, event) : null;
+    Event.Type coalesceType = key != null && (type == Event.Type.JOB_PROGRESS
+        || type == Event.Type.JOB_PROGRESS_DELTA || type == Event.Type.WORKFLOW_PROGRESS)
+        ? type : null;
+    if (coalesceType != null) {
+      Entry last = lastEntries.get(key);
+      if (last != null && last.coalesceType == coalesceType && last.replace(json)) {
+        coalescedCount.incrementAndGet();
+        return;
+      }
+    }
+    if (queuedEvents.incrementAndGet() > queueSize && type != Event.Type.JOB_PROGRESS) {
+      queuedEvents.decrementAndGet();
+      drop(1);
+      return;
+    }
+    Entry entry = new Entry(Entry.Kind.EVENT, workflowId, key, coalesceType, json);
+    if (key != null) {
+      lastEntries.put(key, entry);
+    }
+    if (overflowPolicy == OverflowPolicy.COALESCE && coalesceType == null) {
+      // workflow progress queued before this event must not take the value of progress pushed
+      // after it, or a final progress could reach the server ahead of a job failure
+      lastEntries.remove(workflowKey(workflowId));
+    }
+    enqueue(entry);
+  }
+
+  /**
+   * Returns the id of the configuration and queues it to be sent.
+   */
+  @Override
+  public String putConfiguration(Properties configuration) throws IOException {
+    String id = ConfigurationStore.hash(configuration);
+    if (closed) {
+      dropObject(Entry.Kind.CONFIGURATION, id);
+      return id;
+    }
+    enqueue(new Entry(Entry.Kind.CONFIGURATION, id, null, null,
+        JSONUtil.toJsonBytes(configuration)));
+    return id;
+  }
+
+  /**
+   * @return number of events dropped, either because the queue was full or because they couldn't
+   * be sent.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return number of DAGs and configurations dropped, either because the service was closed or
+   * because they couldn't be sent.
+   */
+  public long getDroppedObjectCount() {
+    return droppedObjectCount.get();
+  }
+
+  /**
+   * @return number of progress events coalesced with a queued one.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * Sends all queued objects, waiting up to the close timeout for them to be sent. Objects pushed
+   * after this method is called are dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join(closeTimeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing connection to " + baseUrl, e);
+    }
+    if (thread.isAlive()) {
+      LOG.warn("Gave up sending to {} after {} ms with {} objects queued",
+          new Object[] { baseUrl, closeTimeoutMs, queue.size() });
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Returns the key of the job or workflow an event is about, for events which may be coalesced
+   * or which must not be reordered with those which are.
+   */
+  private static String coalesceKey(String workflowId, Event event) {
+    Object payload = event.getPayload();
+    if (event instanceof Event.JobProgressDeltaEvent) {
+      return "job\u0000" + workflowId + "\u0000"
+          + ((Event.JobProgressDeltaEvent) event).getNodeName();
+    } else if (payload instanceof DAGNode) {
+      return "job\u0000" + workflowId + "\u0000" + ((DAGNode<?>) payload).getName();
+    } else if (event.getType() == Event.Type.WORKFLOW_PROGRESS) {
+      return workflowKey(workflowId);
+    }
+    return null;
+  }
+
+  private static String workflowKey(String workflowId) {
+    return "workflow\u0000" + workflowId;
+  }
+
+  private void enqueue(Entry entry) {
+    queue.offer(entry);
+    LockSupport.unpark(thread);
+    // the sender may have exited between the check of closed and the offer, leaving the entry
+    // queued forever, so it is taken back unless the sender already took it
+    if (closed && queue.remove(entry)) {
+      discard(entry);
+    }
+  }
+
+  /**
+   * Counts an entry which won't be sent as dropped, unless it was already taken to be sent.
+   */
+  private void discard(Entry entry) {
+    if (entry.take(lastEntries) == null) {
+      return;
+    }
+    if (entry.kind == Entry.Kind.EVENT) {
+      queuedEvents.decrementAndGet();
+      drop(1);
+    } else {
+      dropObject(entry.kind, entry.id);
+    }
+  }
+
+  private void drop(int count) {
+    long dropped = droppedCount.addAndGet(count);
+    if (dropped == count || dropped / 1000 != (dropped - count) / 1000) {
+      LOG.warn("Dropped {} events for {} so far", dropped, baseUrl);
+    }
+  }
+
+  private void dropObject(Entry.Kind kind, String id) {
+    droppedObjectCount.incrementAndGet();
+    LOG.warn("Dropped {} {} for {}", new Object[] { kind, id, baseUrl });
+  }
+
+  private void sendQueued() {
+    List<Entry> batch = Lists.newArrayListWithCapacity(batchSize);
+    try {
+      while (true) {
+        Entry entry;
+        while (batch.size() < batchSize && (entry = queue.poll()) != null) {
+          batch.add(entry);
+        }
+        if (batch.isEmpty()) {
+          if (closed) {
+            return;
+          }
+          LockSupport.parkNanos(this, PARK_NANOS);
+          if (Thread.interrupted()) {
+            return;
+          }
+          continue;
+        }
+        sendBatch(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while sending to " + baseUrl, e);
+    } finally {
+      closed = true;
+      for (Entry entry : batch) {
+        discard(entry);
+      }
+      Entry entry;
+      while ((entry = queue.poll()) != null) {
+        discard(entry);
+      }
+    }
+  }
+
+  /**
+   * Sends a batch in order, posting consecutive events of a workflow in a single request.
+   */
+  private void sendBatch(List<Entry> batch) throws InterruptedException {
+    int i = 0;
+    while (i < batch.size()) {
+      Entry first = batch.get(i);
+      if (first.kind != Entry.Kind.EVENT) {
+        byte[] json = first.take(lastEntries);
+        if (json != null) {
+          String path = first.kind == Entry.Kind.DAG
+              ? DAG_PATH + query("workflowId", first.id, "userId", userId)
+              : CONFIGURATION_PATH + query("configurationId", first.id);
+          boolean sent = false;
+          try {
+            sent = post(path, "application/json", json);
+          } finally {
+            if (!sent) {
+              dropObject(first.kind, first.id);
+            }
+          }
+        }
+        i++;
+        continue;
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      int count = 0;
+      for (; i < batch.size() && batch.get(i).kind == Entry.Kind.EVENT
+          && equal(batch.get(i).id, first.id); i++) {
+        queuedEvents.decrementAndGet();
+        byte[] json = batch.get(i).take(lastEntries);
+        body.write(json, 0, json.length);
+        body.write('\n');
+        count++;
+      }
+      boolean sent = false;
+      try {
+        sent = post(EVENTS_PATH + query("workflowId", first.id, "userId", userId),
+            EVENTS_CONTENT_TYPE, body.toByteArray());
+      } finally {
+        if (!sent) {
+          drop(count);
+        }
+      }
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /**
+   * Returns the query string of the given names and values, omitting null values.
+   */
+  private static String query(String... namesAndValues) {
+    StringBuilder query = new StringBuilder();
+    try {
+      for (int i = 0; i < namesAndValues.length; i += 2) {
+        String value = namesAndValues[i + 1];
+        if (value != null) {
+          query.append(query.length() == 0 ? '?' : '&').append(namesAndValues[i]).append('=')
+              .append(URLEncoder.encode(value, "UTF-8"));
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return query.toString();
+  }
+
+  /**
+   * Posts a request body, retrying I/O and server errors with exponential backoff and full jitter.
+   *
+   * @return whether the server accepted the request.
+   */
+  private boolean post(String path, String contentType, byte[] body)
+      throws InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      int status;
+      try {
+        status = postOnce(new URL(baseUrl + path), contentType, body);
+      } catch (IOException e) {
+        status = -1;
+        if (attempt == maxRetries) {
+          LOG.warn("Failed to post to " + baseUrl + path, e);
+        }
+      }
+      if (status >= 200 && status < 300) {
+        return true;
+      }
+      boolean retryable = status < 0 || status >= 500 || status == 429;
+      if (!retryable || attempt >= maxRetries) {
+        if (status >= 0) {
+          LOG.warn("Server rejected post to {} with status {}", baseUrl + path, status);
+        }
+        return false;
+      }
+      long delay = Math.min(MAX_RETRY_DELAY_MS, retryDelayMs << Math.min(attempt, 30));
+      Thread.sleep((long) (random.nextDouble() * delay));
+    }
+  }
+
+  private int postOnce(URL url, String contentType, byte[] body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(timeoutMs);
+    connection.setReadTimeout(timeoutMs);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", contentType + "; charset=UTF-8");
+    connection.setFixedLengthStreamingMode(body.length);
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+    int status = connection.getResponseCode();
+    // responses are read to the end, so the connection is kept alive for the next request
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      try {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) >= 0) {
+          // discard
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Json of a queued object, which may be replaced until the object is taken to be sent.
+   */
+  private static class Entry {
+    enum Kind { DAG, EVENT, CONFIGURATION }
+
+    private final Kind kind;
+    // workflowId, or configurationId of configurations
+    private final String id;
+    private final String key;
+    // type of the events which may replace this event, or null if none may
+    private final Event.Type coalesceType;
+    private final AtomicReference<byte[]> json;
+
+    private Entry(Kind kind, String id, String key, Event.Type coalesceType, byte[] json) {
+      this.kind = kind;
+      this.id = id;
+      this.key = key;
+      this.coalesceType = coalesceType;
+      this.json = new AtomicReference<byte[]>(json);
+    }
+
+    /**
+     * Replaces the json of this entry unless it was taken.
+     */
+    boolean replace(byte[] newJson) {
+      while (true) {
+        byte[] current = json.get();
+        if (current == null) {
+          return false;
+        }
+        if (json.compareAndSet(current, newJson)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Takes the json of this entry to be sent, after which it is no longer the last entry of its
+     * key and can't be replaced.
+     */
+    byte[] take(ConcurrentMap<String, Entry> lastEntries) {
+      if (key != null) {
+        lastEntries.remove(key, this);
+      }
+      return json.getAndSet(null);
+    }
+  }
+}
@@ -0,0 +1,442 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.ReplayControlService;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.VersionedReadService;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.util.EventFileReader;
+import com.twitter.ambrose.util.JsonFileReader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Read service which replays a workflow recorded by {@link InMemoryStatsService} to
+ * <code>ambrose.write.dag.file</code> and <code>ambrose.write.events.file</code>, serving its events
+ * as if the workflow were running. Events become visible once the replay clock passes their
+ * timestamps, and listeners are notified as they do, so clients waiting for events receive them as
+ * they would have live. The clock runs at a configurable speed relative to the wall clock, may be
+ * paused or run at max speed, and may be moved to any time of the recording.
+ * <p/>
+ * Files are loaded lazily, the first time they are accessed. The events file, which must be JSON,
+ * is scanned once to index the position, id and timestamp of each event, and events are then bound
+ * from their positions as they are requested, so recordings of any length are replayed without
+ * being held in memory. The last DAG of the DAG file is served as the workflow's DAG. Events are
+ * replayed in the order they were recorded, each becoming visible once all events recorded before
+ * it are. The recording is served as the only workflow, whichever workflowId is requested.
+ */
+public class ReplayStatsService implements StatsReadService<Job>, WorkflowIndexReadService,
+    EventNotificationService, VersionedReadService, ReplayControlService, Closeable {
+  /**
+   * Default max number of events returned by a single call to {@link #getEventsSinceId}, beyond
+   * which clients get the remaining events by asking again.
+   */
+  public static final int MAX_EVENTS_DEFAULT = 1000;
+  private static final Logger LOG = LoggerFactory.getLogger(ReplayStatsService.class);
+  private static final TypeReference<List<DAGNode<Job>>> DAG_TYPE =
+      new TypeReference<List<DAGNode<Job>>>() { };
+
+  private final File dagFile;
+  private final File eventsFile;
+  private final String workflowId;
+  private final int maxEvents;
+  private final EventListeners listeners = new EventListeners();
+  private final Object lock = new Object();
+  private Map<String, DAGNode<Job>> dagNodeNameMap;
+  private EventIndex index;
+  private Thread notifier;
+  private boolean closed;
+  // the replay clock reads clockTime at clockWallTime, and advances at speed from then on
+  private long clockTime = Long.MIN_VALUE;
+  private long clockWallTime;
+  private double speed;
+
+  public ReplayStatsService(File dagFile, File eventsFile) {
+    this(dagFile, eventsFile, 1, MAX_EVENTS_DEFAULT);
+  }
+
+  /**
+   * @param dagFile DAG dump to serve the last DAG of, or null to serve an empty DAG.
+   * @param eventsFile events dump to replay.
+   * @param speed initial speed of the replay clock, see {@link #setReplaySpeed(double)}.
+   * @param maxEvents max number of events returned by a single call to {@link #getEventsSinceId}.
+   */
+  public ReplayStatsService(File dagFile, File eventsFile, double speed, int maxEvents) {
+    checkArgument(speed >= 0, "speed must not be negative: %s", speed);
+    checkArgument(maxEvents > 0, "maxEvents must be positive: %s", maxEvents);
+    this.dagFile = dagFile;
+    this.eventsFile = checkNotNull(eventsFile, "eventsFile");
+    this.workflowId = eventsFile.getName();
+    this.speed = speed;
+    this.maxEvents = maxEvents;
+  }
+
+  @Override
+  public Map<String, DAGNode<Job>> getDagNodeNameMap(String workflowId) throws IOException {
+    synchronized (lock) {
+      if (dagNodeNameMap == null) {
+        dagNodeNameMap = readDag(dagFile);
+      }
+      return dagNodeNameMap;
+    }
+  }
+
+  /**
+   * Returns the events recorded after eventId which the replay clock has passed, in the order they
+   * were recorded, up to the max number of events of this service.
+   */
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId) throws IOException {
+    EventIndex index;
+    int visible;
+    synchronized (lock) {
+      index = getIndex();
+      visible = index.countUntil(getClockTime());
+    }
+    List<Event> events = Lists.newArrayList();
+    for (int i = index.firstAfterId(eventId); i < visible && events.size() < maxEvents; i++) {
+      if (index.ids[i] > eventId) {
+        events.add(index.read(i));
+      }
+    }
+    return events;
+  }
+
+  @Override
+  public Map<String, String> getClusters() throws IOException {
+    return ImmutableMap.of("default", "default");
+  }
+
+  /**
+   * Returns the summary of the replayed workflow, whose id is the name of the events file. It is
+   * running until all its events are visible, and its progress is the share of events visible.
+   */
+  @Override
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster, WorkflowSummary.Status status,
+      String userId, int numResults, byte[] startKey) throws IOException {
+    State state = getReplayState();
+    WorkflowSummary.Status replayStatus = state.getVisibleEventCount() < state.getEventCount()
+        ? WorkflowSummary.Status.RUNNING
+        : WorkflowSummary.Status.SUCCEEDED;
+    if ((status != null && status != replayStatus) || userId != null || startKey != null) {
+      return new PaginatedList<WorkflowSummary>(ImmutableList.<WorkflowSummary>of());
+    }
+    int progress = state.getEventCount() == 0
+        ? 100
+        : (int) (100L * state.getVisibleEventCount() / state.getEventCount());
+    return new PaginatedList<WorkflowSummary>(ImmutableList.of(new WorkflowSummary(
+        workflowId, null, workflowId, replayStatus, progress, state.getStartTime())));
+  }
+
+  @Override
+  public void addEventListener(String workflowId, Listener listener) {
+    listeners.add(workflowId, listener);
+  }
+
+  @Override
+  public void removeEventListener(String workflowId, Listener listener) {
+    listeners.remove(workflowId, listener);
+  }
+
+  /**
+   * Returns 1, as the DAG of a recording never changes.
+   */
+  @Override
+  public long getDagVersion(String workflowId) {
+    return 1;
+  }
+
+  /**
+   * Returns -1, as the summary changes as the replay progresses.
+   */
+  @Override
+  public long getWorkflowsVersion() {
+    return -1;
+  }
+
+  @Override
+  public State getReplayState() throws IOException {
+    synchronized (lock) {
+      EventIndex index = getIndex();
+      long time = Double.isInfinite(speed) ? index.endTime : getClockTime();
+      return new State(index.startTime, index.endTime, time, speed, index.size,
+          index.countUntil(getClockTime()));
+    }
+  }
+
+  @Override
+  public void setReplaySpeed(double speed) throws IOException {
+    checkArgument(speed >= 0, "speed must not be negative: %s", speed);
+    synchronized (lock) {
+      EventIndex index = getIndex();
+      // leaving max speed, the clock resumes from the last event
+      setClock(Double.isInfinite(this.speed) ? index.endTime : getClockTime());
+      this.speed = speed;
+      lock.notifyAll();
+    }
+    LOG.info("Replaying {} at speed {}", eventsFile, speed);
+  }
+
+  /**
+   * Moves the replay clock, which resumes at speed 1 if it was running at max speed.
+   */
+  @Override
+  public void seekReplay(long timestamp) throws IOException {
+    synchronized (lock) {
+      getIndex();
+      setClock(timestamp);
+      if (Double.isInfinite(speed)) {
+        speed = 1;
+      }
+      lock.notifyAll();
+    }
+    LOG.info("Replaying {} from {}", eventsFile, timestamp);
+  }
+
+  /**
+   * Stops notifying listeners and closes the events file.
+   */
+  @Override
+  public void close() throws IOException {
+    EventIndex index;
+    synchronized (lock) {
+      closed = true;
+      index = this.index;
+      lock.notifyAll();
+    }
+    if (notifier != null) {
+      notifier.interrupt();
+    }
+    if (index != null) {
+      index.reader.close();
+    }
+  }
+
+  /**
+   * Returns the index of the events file, building it and starting the replay clock at the start
+   * of the recording if this is the first access. Must be called holding the lock.
+   */
+  private EventIndex getIndex() throws IOException {
+    if (closed) {
+      throw new IOException("Replay of " + eventsFile + " is closed");
+    }
+    if (index == null) {
+      long startMs = System.currentTimeMillis();
+      index = EventIndex.build(eventsFile);
+      LOG.info("Indexed {} events of {} in {} ms", new Object[] {
+          index.size, eventsFile, System.currentTimeMillis() - startMs });
+      setClock(index.startTime);
+      notifier = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          notifyListeners();
+        }
+      }, "ambrose-replay-notifier");
+      notifier.setDaemon(true);
+      notifier.start();
+    }
+    return index;
+  }
+
+  private void setClock(long time) {
+    clockTime = time;
+    clockWallTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the time of the replay clock, which is past every event at max speed. Must be called
+   * holding the lock.
+   */
+  private long getClockTime() {
+    if (Double.isInfinite(speed)) {
+      return Long.MAX_VALUE;
+    }
+    long elapsed = (long) ((System.currentTimeMillis() - clockWallTime) * speed);
+    return clockTime + elapsed;
+  }
+
+  /**
+   * Notifies listeners whenever the number of visible events changes, until closed. Waits until the
+   * next event is due rather than polling, and is woken when the clock is changed.
+   */
+  private void notifyListeners() {
+    int notified = 0;
+    while (true) {
+      synchronized (lock) {
+        int visible;
+        while (!closed && (visible = index.countUntil(getClockTime())) == notified) {
+          long waitMs = 0;
+          if (visible < index.size && speed > 0) {
+            double dueMs = (index.times[visible] - getClockTime()) / speed;
+            waitMs = Math.max(1, (long) Math.ceil(dueMs));
+          }
+          try {
+            lock.wait(waitMs);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (closed) {
+          return;
+        }
+        notified = index.countUntil(getClockTime());
+      }
+      listeners.notifyAllWorkflows();
+    }
+  }
+
+  private static Map<String, DAGNode<Job>> readDag(File dagFile) throws IOException {
+    Map<String, DAGNode<Job>> dagNodeNameMap = Maps.newLinkedHashMap();
+    if (dagFile == null || !dagFile.isFile()) {
+      return dagNodeNameMap;
+    }
+    // the dump holds each DAG sent, the last of which is the workflow's DAG
+    List<DAGNode<Job>> nodes = null;
+    JsonFileReader<List<DAGNode<Job>>> reader =
+        new JsonFileReader<List<DAGNode<Job>>>(dagFile, DAG_TYPE);
+    try {
+      for (List<DAGNode<Job>> next = reader.read(); next != null; next = reader.read()) {
+        nodes = next;
+      }
+    } finally {
+      reader.close();
+    }
+    if (nodes != null) {
+      for (DAGNode<Job> node : nodes) {
+        dagNodeNameMap.put(node.getName(), node);
+      }
+    }
+    return dagNodeNameMap;
+  }
+
+  /**
+   * Position, id and timestamp of each event of an events file, in the order they were recorded,
+   * held in arrays of primitives so large recordings are indexed compactly. Timestamps and ids are
+   * indexed by their running max, so both may be searched although events recorded by concurrent
+   * threads aren't strictly ordered.
+   */
+  private static class EventIndex {
+    private final EventFileReader reader;
+    private long[] starts = new long[1024];
+    private long[] ends = new long[1024];
+    private long[] ids = new long[1024];
+    private long[] maxIds = new long[1024];
+    private long[] times = new long[1024];
+    private int size;
+    private long startTime;
+    private long endTime;
+
+    private EventIndex(EventFileReader reader) {
+      this.reader = reader;
+    }
+
+    static EventIndex build(File eventsFile) throws IOException {
+      EventFileReader reader = new EventFileReader(eventsFile);
+      try {
+        EventIndex index = new EventIndex(reader);
+        for (EventFileReader.Position position = reader.scan(); position != null;
+            position = reader.scan()) {
+          index.add(position);
+        }
+        return index;
+      } catch (IOException e) {
+        reader.close();
+        throw e;
+      }
+    }
+
+    private void add(EventFileReader.Position position) {
+      if (size == starts.length) {
+        int capacity = size * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        maxIds = Arrays.copyOf(maxIds, capacity);
+        times = Arrays.copyOf(times, capacity);
+      }
+      long time = size == 0
+          ? position.getTimestamp()
+          : Math.max(times[size - 1], position.getTimestamp());
+      if (size == 0) {
+        startTime = time;
+      }
+      starts[size] = position.getStart();
+      ends[size] = position.getEnd();
+      ids[size] = position.getId();
+      maxIds[size] = size == 0 ? position.getId() : Math.max(maxIds[size - 1], position.getId());
+      times[size] = time;
+      endTime = time;
+      size++;
+    }
+
+    /**
+     * @return number of events visible at the given time.
+     */
+    int countUntil(long time) {
+      return upperBound(times, time);
+    }
+
+    /**
+     * @return index of the first event which may have an id greater than eventId.
+     */
+    int firstAfterId(long eventId) {
+      return upperBound(maxIds, eventId);
+    }
+
+    private int upperBound(long[] values, long value) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values[mid] <= value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    Event read(int i) throws IOException {
+      return reader.read(new EventFileReader.Position(starts[i], ends[i], ids[i], times[i]));
+    }
+  }
+}
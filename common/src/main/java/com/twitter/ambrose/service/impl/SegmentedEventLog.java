@@ -0,0 +1,373 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Durable log of the events of a single workflow, stored in a directory of rolling segment files.
+ * Each record in a segment is laid out as follows, with integers in big-endian order:
+ * <pre>
+ *   int length   - length of the json payload in bytes
+ *   int checksum - CRC32 of the event id and payload
+ *   long eventId - id of the event
+ *   byte[length] - json encoded event
+ * </pre>
+ * Events are committed under the next ids of a sequence, which may be shared by the logs of several
+ * workflows, regardless of the ids they were created with. Opening a log advances its sequence
+ * past the last id found in the existing segments, so ids of a log keep increasing across restarts.
+ * A new segment is started once the current one would exceed its max size, numbered one past the
+ * highest numbered segment, so a missing segment file never leads to an existing one being
+ * overwritten. When a log is opened, all segments are scanned in the order of their numbers and any
+ * trailing partial or corrupt record is truncated, so a log left behind by a crashed process can be
+ * reopened and appended to.
+ * <p/>
+ * A sparse in-memory index maps the highest event id written before a record to the position of
+ * that record. Readers use it to seek close to the first event they want without decoding the
+ * events before it, and read segments through memory mapped buffers without locking. Appends must
+ * not be invoked concurrently.
+ */
+class SegmentedEventLog implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedEventLog.class);
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{1,10}\\.log");
+  private static final int HEADER_BYTES = 16;
+  private static final int INDEX_INTERVAL_BYTES = 4096;
+
+  private final File dir;
+  private final long maxSegmentBytes;
+  private final boolean fsync;
+  private final AtomicLong sequence;
+  private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+  private final ConcurrentNavigableMap<Long, Position> index =
+      new ConcurrentSkipListMap<Long, Position>();
+  // only written by the appender, but read for metrics
+  private volatile long maxEventId = 0;
+  private volatile long eventCount = 0;
+  private long lastIndexedOffset = -1;
+
+  /**
+   * Opens the log in the given directory, creating the directory if needed and recovering any
+   * existing segments.
+   *
+   * @param dir directory holding the segment files.
+   * @param maxSegmentBytes size after which a new segment is started.
+   * @param fsync whether to force each record to the storage device as it is appended.
+   * @throws IOException if the segments can't be opened or recovered.
+   */
+  SegmentedEventLog(File dir, long maxSegmentBytes, boolean fsync) throws IOException {
+    this(dir, maxSegmentBytes, fsync, new AtomicLong());
+  }
+
+  /**
+   * Opens the log in the given directory, creating the directory if needed and recovering any
+   * existing segments.
+   *
+   * @param dir directory holding the segment files.
+   * @param maxSegmentBytes size after which a new segment is started.
+   * @param fsync whether to force each record to the storage device as it is appended.
+   * @param sequence sequence ids are drawn from, which may be shared with other logs.
+   * @throws IOException if the segments can't be opened or recovered.
+   */
+  SegmentedEventLog(File dir, long maxSegmentBytes, boolean fsync, AtomicLong sequence)
+      throws IOException {
+    this.dir = dir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.fsync = fsync;
+    this.sequence = sequence;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    String[] names = dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return SEGMENT_NAME.matcher(name).matches();
+      }
+    });
+    int[] numbers = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      numbers[i] = Integer.parseInt(
+          names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()));
+    }
+    Arrays.sort(numbers);
+    for (int number : numbers) {
+      recover(openSegment(number));
+    }
+    if (segments.isEmpty()) {
+      openSegment(0);
+    }
+    while (true) {
+      long last = sequence.get();
+      if (last >= maxEventId || sequence.compareAndSet(last, maxEventId)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Appends an event to the log under the next id of its sequence.
+   *
+   * @param event the event to append, which isn't modified.
+   * @return a copy of the event carrying the id it was committed under.
+   * @throws IOException if the event can't be serialized or written.
+   */
+  Event append(Event event) throws IOException {
+    Event committed = event.withId(sequence.incrementAndGet());
+    byte[] payload = JSONUtil.toJsonBytes(committed);
+    int recordBytes = HEADER_BYTES + payload.length;
+    Segment segment = segments.get(segments.size() - 1);
+    if (segment.size > 0 && segment.size + recordBytes > maxSegmentBytes) {
+      segment = openSegment(segment.number + 1);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(recordBytes);
+    buffer.putInt(payload.length);
+    buffer.putInt(checksum(committed.getId(), payload, 0, payload.length));
+    buffer.putLong(committed.getId());
+    buffer.put(payload);
+    buffer.flip();
+    long offset = segment.size;
+    while (buffer.hasRemaining()) {
+      offset += segment.channel.write(buffer, offset);
+    }
+    if (fsync) {
+      segment.channel.force(false);
+    }
+    indexRecord(segment, segment.size, committed.getId());
+    segment.size = offset;
+    return committed;
+  }
+
+  /**
+   * Returns all events whose id is greater than the given id, in the order they were appended.
+   *
+   * @param eventId id that all returned events will be greater than.
+   * @return events since eventId.
+   * @throws IOException if the events can't be read.
+   */
+  List<Event> getEventsSinceId(long eventId) throws IOException {
+    return getEventsSinceId(eventId, 0);
+  }
+
+  /**
+   * Returns the first events whose id is greater than the given id, in the order they were
+   * appended. Records after the last returned event aren't decoded. The checksum of each returned
+   * event is verified.
+   *
+   * @param eventId id that all returned events will be greater than.
+   * @param limit max number of events to return, or zero or less for all of them.
+   * @return up to limit events since eventId.
+   * @throws IOException if the events can't be read, or a record is corrupt.
+   */
+  List<Event> getEventsSinceId(long eventId, int limit) throws IOException {
+    List<Event> events = Lists.newArrayList();
+    // ids start at 1, so reading since any lower id reads from the first record
+    Map.Entry<Long, Position> start = index.floorEntry(Math.max(eventId, 0));
+    if (start == null) {
+      return events;
+    }
+    Position position = start.getValue();
+    long offset = position.offset;
+    for (int i = position.segmentIndex; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      ByteBuffer buffer = segment.map();
+      buffer.position((int) offset);
+      while (buffer.remaining() >= HEADER_BYTES) {
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        long id = buffer.getLong();
+        if (length < 0 || length > buffer.remaining()) {
+          throw new IOException(String.format(
+              "Corrupt record length %d at offset %d of segment %d of %s",
+              length, buffer.position() - HEADER_BYTES, segment.number, dir));
+        }
+        if (id > eventId) {
+          byte[] payload = new byte[length];
+          buffer.get(payload);
+          if (checksum != checksum(id, payload, 0, length)) {
+            throw new IOException(String.format("Checksum mismatch of event %d in segment %d of %s",
+                id, segment.number, dir));
+          }
+          events.add(Event.fromJson(new String(payload, Charsets.UTF_8)));
+          if (events.size() == limit) {
+            return events;
+          }
+        } else {
+          buffer.position(buffer.position() + length);
+        }
+      }
+      offset = 0;
+    }
+    return events;
+  }
+
+  /**
+   * @return number of events in the log.
+   */
+  long size() {
+    return eventCount;
+  }
+
+  /**
+   * @return number of bytes of all segments of the log.
+   */
+  long sizeBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.size;
+    }
+    return bytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Segment segment : segments) {
+      segment.channel.close();
+    }
+  }
+
+  private File segmentFile(int number) {
+    return new File(dir, String.format("%010d%s", number, SEGMENT_SUFFIX));
+  }
+
+  /**
+   * Opens the segment file of the given number, adding it after the segments opened so far.
+   */
+  private Segment openSegment(int number) throws IOException {
+    Segment segment = new Segment(segments.size(), number,
+        new RandomAccessFile(segmentFile(number), "rw").getChannel());
+    segments.add(segment);
+    return segment;
+  }
+
+  /**
+   * Adds an index entry for a record if it starts a segment, or enough bytes were written since the
+   * last entry.
+   */
+  private void indexRecord(Segment segment, long offset, long eventId) {
+    if (offset == 0 || offset - lastIndexedOffset >= INDEX_INTERVAL_BYTES) {
+      index.put(maxEventId, new Position(segment.index, offset));
+      lastIndexedOffset = offset;
+    }
+    maxEventId = Math.max(maxEventId, eventId);
+    eventCount++;
+  }
+
+  /**
+   * Scans a segment, indexing its records and truncating it after the last valid record.
+   */
+  private void recover(Segment segment) throws IOException {
+    long fileSize = segment.channel.size();
+    ByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+    long offset = 0;
+    while (buffer.remaining() >= HEADER_BYTES) {
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      long id = buffer.getLong();
+      if (length < 0 || length > buffer.remaining()) {
+        break;
+      }
+      byte[] payload = new byte[length];
+      buffer.get(payload);
+      if (checksum != checksum(id, payload, 0, length)) {
+        break;
+      }
+      indexRecord(segment, offset, id);
+      offset += HEADER_BYTES + length;
+    }
+    if (offset < fileSize) {
+      LOG.warn("Truncating {} bytes of partial or corrupt records from segment {} of {}",
+          new Object[] { fileSize - offset, segment.number, dir });
+      segment.channel.truncate(offset);
+    }
+    segment.size = offset;
+  }
+
+  private static int checksum(long eventId, byte[] payload, int offset, int length) {
+    CRC32 crc = new CRC32();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (eventId >>> shift));
+    }
+    crc.update(payload, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static class Position {
+    // index of the segment in segments, which differs from its number if segment files are missing
+    private final int segmentIndex;
+    private final long offset;
+
+    private Position(int segmentIndex, long offset) {
+      this.segmentIndex = segmentIndex;
+      this.offset = offset;
+    }
+  }
+
+  private static class Segment {
+    // index of the segment in segments
+    private final int index;
+    // number the segment file is named by
+    private final int number;
+    private final FileChannel channel;
+    private volatile long size;
+    private MappedByteBuffer mapped;
+
+    private Segment(int index, int number, FileChannel channel) {
+      this.index = index;
+      this.number = number;
+      this.channel = channel;
+    }
+
+    /**
+     * Returns a buffer over the records written to this segment so far, mapping the segment again
+     * if it grew since it was last mapped.
+     */
+    private synchronized ByteBuffer map() throws IOException {
+      long committed = size;
+      if (mapped == null || mapped.capacity() < committed) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, committed);
+      }
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.limit((int) committed);
+      return buffer;
+    }
+  }
+}
@@ -0,0 +1,568 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.ConfigurationWriteService;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.PagedEventReadService;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.StoreMetricsReadService;
+import com.twitter.ambrose.service.VersionedReadService;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Implementation of both StatsReadService and StatsWriteService which persists DAGs and events to
+ * disk, so they survive restarts of the process serving them. Each workflow is stored in its own
+ * directory below a base directory, named by the url encoded workflowId after a
+ * <code>w-</code> prefix, which holds the workflow's DAG and summary as json and its events in a
+ * {@link SegmentedEventLog}. Workflows found below the base directory are recovered lazily, the
+ * first time they are accessed. Job configurations are stored once per distinct configuration in a
+ * directory shared by all workflows, named by the id of the configuration. DAGs are versioned from
+ * the time they are sent or recovered, so the server may cache their json. Metrics are reported for
+ * the workflows opened so far, with the size of their segments as retained bytes.
+ * <p/>
+ * Summaries of all stored workflows are served, newest first, reading the summaries of workflows
+ * not opened yet from disk. Those are cached, and only read again once their file changed. A
+ * summary is written when the workflow's DAG is sent, when its status changes and when its first
+ * job fails, so the status a workflow finishes with is known after it is reopened; its progress is
+ * only written along with one of those.
+ * <p/>
+ * Events and DAGs written without a workflowId are stored as a workflow of their own. Reads without
+ * a workflowId are served from the workflow whose DAG was most recently sent, as with
+ * {@link InMemoryStatsService}, or from the workflow written without a workflowId until a DAG is
+ * sent. Event ids are drawn from a sequence shared by the workflows opened, advanced past the ids
+ * of each workflow as it is opened, so ids keep increasing when the current workflow changes.
+ */
+public class SegmentedFileStatsService implements StatsReadService<Job>, StatsWriteService<Job>,
+    WorkflowIndexReadService, PagedEventReadService, EventNotificationService,
+    VersionedReadService, StoreMetricsReadService, ConfigurationReadService,
+    ConfigurationWriteService, Closeable {
+  /**
+   * Default size after which a new event log segment is started.
+   */
+  public static final long MAX_SEGMENT_BYTES_DEFAULT = 64 * 1024 * 1024;
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedFileStatsService.class);
+  private static final String DEFAULT_WORKFLOW_DIR = "_default";
+  // prefix of the directories of workflows, so their names never clash with other directories
+  private static final String WORKFLOW_DIR_PREFIX = "w-";
+  private static final String DAG_FILE = "dag.json";
+  private static final String SUMMARY_FILE = "summary.json";
+  private static final String CLUSTER = "default";
+  private static final String EVENTS_DIR = "events";
+  private static final String CONFIGURATIONS_DIR = "_configurations";
+  private static final TypeReference<List<DAGNode<Job>>> DAG_TYPE =
+      new TypeReference<List<DAGNode<Job>>>() { };
+  private static final TypeReference<Properties> CONFIGURATION_TYPE =
+      new TypeReference<Properties>() { };
+  private static final TypeReference<StoredSummary> SUMMARY_TYPE =
+      new TypeReference<StoredSummary>() { };
+
+  private final File baseDir;
+  private final long maxSegmentBytes;
+  private final boolean fsync;
+  private final ConcurrentMap<String, WorkflowFiles> workflows =
+      new ConcurrentHashMap<String, WorkflowFiles>();
+  // workflow whose DAG was most recently sent, if any
+  private volatile WorkflowFiles currentWorkflow;
+  // caches configurations read from or written to disk
+  private final ConfigurationStore configurations = new ConfigurationStore(Integer.getInteger(
+      InMemoryStatsService.MAX_CONFIGURATIONS_PARAM,
+      InMemoryStatsService.MAX_CONFIGURATIONS_DEFAULT));
+  private final EventListeners listeners = new EventListeners();
+  private final AtomicLong dagVersions = new AtomicLong();
+  private final AtomicLong eventIds = new AtomicLong();
+  private final RateCounter pushedEvents = new RateCounter();
+  // summaries read from disk of workflows not opened, by directory name
+  private final ConcurrentMap<String, CachedSummary> cachedSummaries =
+      new ConcurrentHashMap<String, CachedSummary>();
+
+  public SegmentedFileStatsService(File baseDir) {
+    this(baseDir, MAX_SEGMENT_BYTES_DEFAULT, false);
+  }
+
+  /**
+   * @param baseDir directory below which workflows are stored.
+   * @param maxSegmentBytes size after which a new event log segment is started.
+   * @param fsync whether to force each event to the storage device as it is pushed.
+   */
+  public SegmentedFileStatsService(File baseDir, long maxSegmentBytes, boolean fsync) {
+    checkArgument(maxSegmentBytes > 0 && maxSegmentBytes <= Integer.MAX_VALUE,
+        "maxSegmentBytes must be positive and at most %s", Integer.MAX_VALUE);
+    this.baseDir = baseDir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.fsync = fsync;
+  }
+
+  @Override
+  public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<Job>> dagNodeNameMap)
+      throws IOException {
+    WorkflowFiles files = getWorkflow(workflowId, true);
+    synchronized (files) {
+      writeJsonAtomically(new File(files.dir, DAG_FILE), dagNodeNameMap.values());
+      files.dagVersion = -1;
+      files.dagNodeNameMap = dagNodeNameMap;
+      files.dagVersion = dagVersions.incrementAndGet();
+      long createdAt = files.summary == null
+          ? System.currentTimeMillis()
+          : files.summary.getCreatedAt();
+      files.summary = new WorkflowSummary(workflowId, System.getProperty("user.name", "unknown"),
+          "unknown", WorkflowSummary.Status.RUNNING, 0, createdAt);
+      files.jobFailed = false;
+      writeSummary(files);
+    }
+    currentWorkflow = files;
+    // listeners of the current workflow now follow another one
+    listeners.notify(null);
+  }
+
+  @Override
+  public void pushEvent(String workflowId, Event event) throws IOException {
+    WorkflowFiles files = getWorkflow(workflowId, true);
+    synchronized (files) {
+      files.events.append(event);
+      updateSummary(files, event);
+    }
+    pushedEvents.mark();
+    if (workflowId != null) {
+      listeners.notify(workflowId);
+    }
+    if (files == currentWorkflow || workflowId == null) {
+      listeners.notify(null);
+    }
+  }
+
+  /**
+   * Updates the summary of a workflow with an event, writing it if its status changed or its first
+   * job failed.
+   */
+  private void updateSummary(WorkflowFiles files, Event event) throws IOException {
+    if (event.getType() == Event.Type.JOB_FAILED && !files.jobFailed) {
+      files.jobFailed = true;
+      if (files.summary != null) {
+        writeSummary(files);
+      }
+    }
+    if (event.getType() != Event.Type.WORKFLOW_PROGRESS || files.summary == null) {
+      return;
+    }
+    Event.WorkflowProgressEvent progressEvent = (Event.WorkflowProgressEvent) event;
+    int progress = Integer.parseInt(
+        progressEvent.getPayload().get(Event.WorkflowProgressField.workflowProgress));
+    files.summary.setProgress(progress);
+    if (progress == 100) {
+      files.summary.setStatus(files.jobFailed
+          ? WorkflowSummary.Status.FAILED
+          : WorkflowSummary.Status.SUCCEEDED);
+      writeSummary(files);
+    }
+  }
+
+  @Override
+  public Map<String, DAGNode<Job>> getDagNodeNameMap(String workflowId) throws IOException {
+    WorkflowFiles files = getWorkflow(workflowId);
+    if (files == null) {
+      return ImmutableMap.of();
+    }
+    synchronized (files) {
+      if (files.dagNodeNameMap == null) {
+        File dagFile = new File(files.dir, DAG_FILE);
+        if (!dagFile.isFile()) {
+          return ImmutableMap.of();
+        }
+        List<DAGNode<Job>> nodes =
+            JSONUtil.toObject(JSONUtil.readFile(dagFile.getPath()), DAG_TYPE);
+        Map<String, DAGNode<Job>> dagNodeNameMap = Maps.newLinkedHashMap();
+        for (DAGNode<Job> node : nodes) {
+          dagNodeNameMap.put(node.getName(), node);
+        }
+        files.dagNodeNameMap = dagNodeNameMap;
+        files.dagVersion = dagVersions.incrementAndGet();
+      }
+      return files.dagNodeNameMap;
+    }
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId) throws IOException {
+    return getEventsSinceId(workflowId, eventId, 0);
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId, int limit)
+      throws IOException {
+    WorkflowFiles files = getWorkflow(workflowId);
+    if (files == null) {
+      return ImmutableList.of();
+    }
+    return files.events.getEventsSinceId(eventId, limit);
+  }
+
+  @Override
+  public void addEventListener(String workflowId, Listener listener) {
+    listeners.add(workflowId, listener);
+  }
+
+  @Override
+  public void removeEventListener(String workflowId, Listener listener) {
+    listeners.remove(workflowId, listener);
+  }
+
+  /**
+   * Returns the version of a workflow's DAG, which is only known once the DAG was read or sent.
+   */
+  @Override
+  public long getDagVersion(String workflowId) throws IOException {
+    WorkflowFiles files = getWorkflow(workflowId);
+    return files == null ? -1 : files.dagVersion;
+  }
+
+  /**
+   * Returns -1, as summaries of workflows written by other processes may change at any time.
+   */
+  @Override
+  public long getWorkflowsVersion() {
+    return -1;
+  }
+
+  /**
+   * Returns metrics of the workflows opened so far. The workflow of the null id is keyed by
+   * <code>_default</code>.
+   */
+  @Override
+  public Map<String, WorkflowMetrics> getWorkflowMetrics() throws IOException {
+    Map<String, WorkflowMetrics> metrics = Maps.newTreeMap();
+    for (Map.Entry<String, WorkflowFiles> entry : workflows.entrySet()) {
+      SegmentedEventLog events = entry.getValue().events;
+      metrics.put(getWorkflowId(entry.getKey()),
+          new WorkflowMetrics(events.size(), events.sizeBytes()));
+    }
+    return metrics;
+  }
+
+  @Override
+  public long getEventsPushed() {
+    return pushedEvents.getTotal();
+  }
+
+  @Override
+  public double getEventsPushedPerSecond() {
+    return pushedEvents.getRatePerSecond();
+  }
+
+  @Override
+  public String putConfiguration(Properties configuration) throws IOException {
+    String id = ConfigurationStore.hash(configuration);
+    if (configurations.get(id) == null) {
+      File file = getConfigurationFile(id);
+      synchronized (configurations) {
+        if (!file.isFile()) {
+          File dir = file.getParentFile();
+          if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dir);
+          }
+          writeJsonAtomically(file, configuration);
+        }
+      }
+      configurations.put(configuration);
+    }
+    return id;
+  }
+
+  @Override
+  public Properties getConfiguration(String configurationId) throws IOException {
+    Properties configuration = configurations.get(configurationId);
+    if (configuration == null && configurationId != null) {
+      File file = getConfigurationFile(configurationId);
+      if (!file.isFile()) {
+        return null;
+      }
+      configuration = JSONUtil.toObject(JSONUtil.readFile(file.getPath()), CONFIGURATION_TYPE);
+      configurations.put(configuration);
+    }
+    return configuration;
+  }
+
+  /**
+   * Closes the files of all workflows opened so far.
+   */
+  @Override
+  public void close() throws IOException {
+    for (WorkflowFiles files : workflows.values()) {
+      synchronized (files) {
+        files.events.close();
+      }
+    }
+    workflows.clear();
+    currentWorkflow = null;
+  }
+
+  /**
+   * Returns the ids of all workflows stored below the base directory.
+   */
+  public List<String> getWorkflowIds() throws IOException {
+    List<String> workflowIds = Lists.newArrayList();
+    File[] dirs = baseDir.listFiles();
+    if (dirs != null) {
+      for (File dir : dirs) {
+        if (dir.isDirectory() && dir.getName().startsWith(WORKFLOW_DIR_PREFIX)) {
+          workflowIds.add(getWorkflowId(dir.getName()));
+        }
+      }
+    }
+    return workflowIds;
+  }
+
+  @Override
+  public Map<String, String> getClusters() {
+    return ImmutableMap.of(CLUSTER, CLUSTER);
+  }
+
+  /**
+   * Returns the summaries of the workflows stored, newest first, paged as described in
+   * {@link WorkflowPages}. All workflows belong to the <code>default</code> cluster. Workflows
+   * whose DAG was never sent have no summary, and aren't returned.
+   */
+  @Override
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster, WorkflowSummary.Status status,
+      String userId, int numResults, byte[] startKey) throws IOException {
+    List<WorkflowSummary> summaries = Lists.newArrayList();
+    if (cluster == null || CLUSTER.equals(cluster)) {
+      Set<String> dirNames = Sets.newHashSet();
+      for (String workflowId : getWorkflowIds()) {
+        dirNames.add(getDirName(workflowId));
+        WorkflowSummary summary = getWorkflowSummary(workflowId);
+        if (summary != null
+            && (status == null || status == summary.getStatus())
+            && (userId == null || userId.equals(summary.getUserId()))) {
+          summaries.add(summary);
+        }
+      }
+      // forget the summaries of workflows whose directory was removed
+      cachedSummaries.keySet().retainAll(dirNames);
+    }
+    Collections.sort(summaries, WorkflowPages.NEWEST_FIRST);
+    return WorkflowPages.getPage(summaries, numResults, startKey);
+  }
+
+  /**
+   * Returns a copy of the summary of a workflow, or null if it has none. Unless the workflow was
+   * opened, the summary is read from disk if its file changed since it was last read.
+   */
+  private WorkflowSummary getWorkflowSummary(String workflowId) throws IOException {
+    String dirName = getDirName(workflowId);
+    WorkflowFiles files = workflows.get(dirName);
+    if (files != null) {
+      synchronized (files) {
+        return files.summary == null ? null : copy(files.summary);
+      }
+    }
+    File file = new File(new File(baseDir, dirName), SUMMARY_FILE);
+    long lastModified = file.lastModified();
+    long length = file.length();
+    CachedSummary cached = cachedSummaries.get(dirName);
+    if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+      StoredSummary stored = readSummary(file.getParentFile());
+      if (stored == null) {
+        cachedSummaries.remove(dirName);
+        return null;
+      }
+      cached = new CachedSummary(lastModified, length, copy(stored));
+      cachedSummaries.put(dirName, cached);
+    }
+    return copy(cached.summary);
+  }
+
+  private static WorkflowSummary copy(WorkflowSummary summary) {
+    return new WorkflowSummary(summary.getId(), summary.getUserId(), summary.getName(),
+        summary.getStatus(), summary.getProgress(), summary.getCreatedAt());
+  }
+
+  private static StoredSummary readSummary(File dir) throws IOException {
+    File file = new File(dir, SUMMARY_FILE);
+    if (!file.isFile()) {
+      return null;
+    }
+    return JSONUtil.toObject(JSONUtil.readFile(file.getPath()), SUMMARY_TYPE);
+  }
+
+  private static void writeSummary(WorkflowFiles files) throws IOException {
+    writeJsonAtomically(new File(files.dir, SUMMARY_FILE),
+        new StoredSummary(files.summary, files.jobFailed));
+  }
+
+  private static String getDirName(String workflowId) throws IOException {
+    return workflowId == null
+        ? DEFAULT_WORKFLOW_DIR
+        : WORKFLOW_DIR_PREFIX + URLEncoder.encode(workflowId, "UTF-8");
+  }
+
+  private static String getWorkflowId(String dirName) throws IOException {
+    return dirName.startsWith(WORKFLOW_DIR_PREFIX)
+        ? URLDecoder.decode(dirName.substring(WORKFLOW_DIR_PREFIX.length()), "UTF-8")
+        : dirName;
+  }
+
+  private File getConfigurationFile(String configurationId) throws IOException {
+    return new File(new File(baseDir, CONFIGURATIONS_DIR),
+        URLEncoder.encode(configurationId, "UTF-8") + ".json");
+  }
+
+  /**
+   * Writes object as json to a temporary file which is then renamed to file, so readers never see
+   * a partially written file.
+   */
+  private static void writeJsonAtomically(File file, Object object) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    JSONUtil.writeJson(tmpFile.getPath(), object);
+    if (!tmpFile.renameTo(file)) {
+      file.delete();
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tmpFile + " to " + file);
+      }
+    }
+  }
+
+  /**
+   * Returns the files of a workflow to read from, or of the current workflow if workflowId is null
+   * and a DAG was sent. Returns null if the workflow doesn't exist.
+   */
+  private WorkflowFiles getWorkflow(String workflowId) throws IOException {
+    WorkflowFiles current = currentWorkflow;
+    if (workflowId == null && current != null) {
+      return current;
+    }
+    return getWorkflow(workflowId, false);
+  }
+
+  /**
+   * Returns the files of a workflow, opening them if needed. Returns null if the workflow doesn't
+   * exist and create is false.
+   */
+  private WorkflowFiles getWorkflow(String workflowId, boolean create) throws IOException {
+    String dirName = getDirName(workflowId);
+    WorkflowFiles files = workflows.get(dirName);
+    if (files == null) {
+      synchronized (workflows) {
+        files = workflows.get(dirName);
+        if (files == null) {
+          File dir = new File(baseDir, dirName);
+          if (!create && !dir.isDirectory()) {
+            return null;
+          }
+          LOG.info("Opening workflow {} in {}", workflowId, dir);
+          files = new WorkflowFiles(dir,
+              new SegmentedEventLog(new File(dir, EVENTS_DIR), maxSegmentBytes, fsync, eventIds));
+          StoredSummary stored = readSummary(dir);
+          if (stored != null) {
+            files.summary = copy(stored);
+            files.jobFailed = stored.isJobFailed();
+          }
+          workflows.put(dirName, files);
+          cachedSummaries.remove(dirName);
+        }
+      }
+    }
+    return files;
+  }
+
+  private static class WorkflowFiles {
+    private final File dir;
+    private final SegmentedEventLog events;
+    private volatile Map<String, DAGNode<Job>> dagNodeNameMap;
+    private volatile long dagVersion = -1;
+    // guarded by the instance monitor
+    private WorkflowSummary summary;
+    private boolean jobFailed = false;
+
+    private WorkflowFiles(File dir, SegmentedEventLog events) {
+      this.dir = dir;
+      this.events = events;
+    }
+  }
+
+  private static class CachedSummary {
+    private final long lastModified;
+    private final long length;
+    private final WorkflowSummary summary;
+
+    private CachedSummary(long lastModified, long length, WorkflowSummary summary) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.summary = summary;
+    }
+  }
+
+  /**
+   * Summary as written to disk, along with whether a job of the workflow failed since its DAG was
+   * sent, which decides the status it finishes with.
+   */
+  private static class StoredSummary extends WorkflowSummary {
+    private boolean jobFailed;
+
+    @SuppressWarnings("unused")
+    private StoredSummary() {
+    }
+
+    private StoredSummary(WorkflowSummary summary, boolean jobFailed) {
+      super(summary.getId(), summary.getUserId(), summary.getName(), summary.getStatus(),
+          summary.getProgress(), summary.getCreatedAt());
+      this.jobFailed = jobFailed;
+    }
+
+    public boolean isJobFailed() {
+      return jobFailed;
+    }
+
+    public void setJobFailed(boolean jobFailed) {
+      this.jobFailed = jobFailed;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.File;
+
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsWriteService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Creates the service storing the stats of embedded servers, as chosen by system properties. The
+ * following properties are read:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #STORE_PARAM}</code> - <code>{@value #STORE_MEMORY}</code> to hold stats in
+ * memory with {@link InMemoryStatsService}, or <code>{@value #STORE_SEGMENTED}</code> to persist
+ * them with {@link SegmentedFileStatsService}. Defaults to <code>{@value #STORE_MEMORY}</code>.</li>
+ *     <li><code>{@value #STORE_DIR_PARAM}</code> - directory below which the segmented store keeps
+ * its workflows. Defaults to <code>{@value #STORE_DIR_DEFAULT}</code> in the working
+ * directory.</li>
+ *     <li><code>{@value #STORE_FSYNC_PARAM}</code> - whether the segmented store forces each event
+ * to the storage device as it is pushed. Defaults to false.</li>
+ *   </ul>
+ * </pre>
+ */
+public final class StatsServiceFactory {
+  public static final String STORE_PARAM = "ambrose.store";
+  public static final String STORE_MEMORY = "memory";
+  public static final String STORE_SEGMENTED = "segmented";
+  public static final String STORE_DIR_PARAM = "ambrose.store.dir";
+  public static final String STORE_DIR_DEFAULT = "ambrose-store";
+  public static final String STORE_FSYNC_PARAM = "ambrose.store.fsync";
+
+  private StatsServiceFactory() { }
+
+  /**
+   * Creates the service configured by system properties. Both services also implement
+   * {@link com.twitter.ambrose.service.StatsReadService} and
+   * {@link com.twitter.ambrose.service.WorkflowIndexReadService}, so the returned service can be
+   * served by {@link com.twitter.ambrose.server.ScriptStatusServer}.
+   *
+   * @return new stats service.
+   * @throws IllegalArgumentException if {@value #STORE_PARAM} names an unknown store.
+   */
+  public static StatsWriteService<Job> fromSystemProperties() {
+    String store = System.getProperty(STORE_PARAM, STORE_MEMORY);
+    if (STORE_SEGMENTED.equals(store)) {
+      File dir = new File(System.getProperty(STORE_DIR_PARAM, STORE_DIR_DEFAULT));
+      return new SegmentedFileStatsService(dir, SegmentedFileStatsService.MAX_SEGMENT_BYTES_DEFAULT,
+          Boolean.getBoolean(STORE_FSYNC_PARAM));
+    }
+    checkArgument(STORE_MEMORY.equals(store), "Unknown %s: %s", STORE_PARAM, store);
+    return new InMemoryStatsService();
+  }
+}
@@ -0,0 +1,157 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Longs;
+
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Helpers to page through workflow summaries, which are listed newest first, by descending
+ * <code>createdAt</code> and then by id. The start key of a page is the position of its first
+ * summary in that order: the big-endian <code>createdAt</code>, then a byte which is 0 if the id is
+ * null and 1 otherwise, then the UTF-8 id, so null and empty ids start distinct pages. It is
+ * handed to clients as {@link PaginatedList#getNextPageStart()} encoded in base64, as the
+ * <code>startKey</code> parameter of <code>/workflows</code> is decoded.
+ */
+public final class WorkflowPages {
+  /**
+   * Order in which summaries are listed, newest first.
+   */
+  public static final Comparator<WorkflowSummary> NEWEST_FIRST =
+      new Comparator<WorkflowSummary>() {
+        @Override
+        public int compare(WorkflowSummary left, WorkflowSummary right) {
+          return WorkflowPages.compare(
+              left.getCreatedAt(), left.getId(), right.getCreatedAt(), right.getId());
+        }
+      };
+
+  private static final byte NULL_ID = 0;
+  private static final byte NON_NULL_ID = 1;
+
+  private WorkflowPages() { }
+
+  /**
+   * Compares positions in the order summaries are listed. Null ids come first.
+   */
+  static int compare(long leftCreatedAt, String leftId, long rightCreatedAt, String rightId) {
+    int result = Longs.compare(rightCreatedAt, leftCreatedAt);
+    return result != 0 ? result : Ordering.natural().nullsFirst().compare(leftId, rightId);
+  }
+
+  /**
+   * @return the start key of the page starting at summary.
+   */
+  public static byte[] getStartKey(WorkflowSummary summary) {
+    return getStartKey(summary.getCreatedAt(), summary.getId());
+  }
+
+  static byte[] getStartKey(long createdAt, String id) {
+    byte[] idBytes = id == null ? new byte[0] : id.getBytes(Charsets.UTF_8);
+    return ByteBuffer.allocate(9 + idBytes.length)
+        .putLong(createdAt)
+        .put(id == null ? NULL_ID : NON_NULL_ID)
+        .put(idBytes)
+        .array();
+  }
+
+  /**
+   * @return the start key of the page starting at summary, encoded as sent to clients.
+   */
+  public static String getPageStart(WorkflowSummary summary) {
+    return getPageStart(summary.getCreatedAt(), summary.getId());
+  }
+
+  static String getPageStart(long createdAt, String id) {
+    return BaseEncoding.base64().encode(getStartKey(createdAt, id));
+  }
+
+  /**
+   * @return the <code>createdAt</code> of the first summary of the page starting at startKey.
+   * @throws IllegalArgumentException if startKey is malformed.
+   */
+  static long getCreatedAt(byte[] startKey) {
+    checkStartKey(startKey);
+    return ByteBuffer.wrap(startKey).getLong();
+  }
+
+  /**
+   * @return the id of the first summary of the page starting at startKey, which may be null.
+   * @throws IllegalArgumentException if startKey is malformed.
+   */
+  static String getId(byte[] startKey) {
+    checkStartKey(startKey);
+    return startKey[8] == NULL_ID
+        ? null
+        : new String(startKey, 9, startKey.length - 9, Charsets.UTF_8);
+  }
+
+  private static void checkStartKey(byte[] startKey) {
+    checkArgument(startKey.length >= 9, "Invalid start key of %s bytes", startKey.length);
+    checkArgument(startKey[8] == NON_NULL_ID || (startKey[8] == NULL_ID && startKey.length == 9),
+        "Invalid start key id marker %s", startKey[8]);
+  }
+
+  /**
+   * Returns a page of summaries listed newest first.
+   *
+   * @param summaries summaries sorted by {@link #NEWEST_FIRST}.
+   * @param numResults max number of summaries in the page, or 0 or less for all of them.
+   * @param startKey start key of the page, or null for the first page.
+   * @return summaries from startKey on, with the start of the next page if there are more.
+   * @throws IllegalArgumentException if startKey is malformed.
+   */
+  public static PaginatedList<WorkflowSummary> getPage(List<WorkflowSummary> summaries,
+      int numResults, byte[] startKey) {
+    int from = 0;
+    if (startKey != null) {
+      long createdAt = getCreatedAt(startKey);
+      String id = getId(startKey);
+      // summaries are sorted, so the first summary at or after the start key is found by bisection
+      int low = 0;
+      int high = summaries.size();
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        WorkflowSummary summary = summaries.get(mid);
+        if (compare(summary.getCreatedAt(), summary.getId(), createdAt, id) < 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      from = low;
+    }
+    int to = numResults > 0 ? Math.min(from + numResults, summaries.size()) : summaries.size();
+    PaginatedList<WorkflowSummary> page =
+        new PaginatedList<WorkflowSummary>(Lists.newArrayList(summaries.subList(from, to)));
+    if (to < summaries.size()) {
+      page.setNextPageStart(getPageStart(summaries.get(to)));
+    }
+    return page;
+  }
+}
@@ -0,0 +1,447 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes objects as JSON to a file from a background thread. Objects are queued and serialized by
+ * the background thread, so they must not be modified once written. Callers writing objects which
+ * they keep modifying serialize them first with {@link #serialize(Object)}, and write the bytes
+ * along with them. The background thread writes queued objects in
+ * batches, flushing once {@code batchSize} objects have been written since the last flush or
+ * {@code flushIntervalMillis} has elapsed (group commit).
+ * <p/>
+ * Callers which must queue objects in a given order while holding a lock reserve room in the queue
+ * with {@link #reserve()} before taking the lock, and queue each object with
+ * {@link #writeReserved}, which never waits, so they don't hold the lock while the queue is full.
+ * Objects written after the writer is closed are dropped and counted, see
+ * {@link #getDroppedCount()}.
+ * <p/>
+ * Objects are either written as elements of a single JSON array, which is terminated when the
+ * writer is closed, or one after another as separate JSON values. Objects may also be written in
+ * Smile rather than indented JSON, see {@link JSONUtil.Format}, in which case they are always
+ * written one after another, to be read back with {@link JSONUtil#readValues}.
+ * <p/>
+ * The following system properties configure writers created with {@link #open(String, boolean)}:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #QUEUE_SIZE_PARAM}</code> - max number of objects waiting to be written.
+ * Defaults to {@value #QUEUE_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #BATCH_SIZE_PARAM}</code> - number of objects written between flushes.
+ * Defaults to {@value #BATCH_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #FLUSH_INTERVAL_MS_PARAM}</code> - max time between flushes of written
+ * objects. Defaults to {@value #FLUSH_INTERVAL_MS_DEFAULT}.</li>
+ *     <li><code>{@value #FSYNC_PARAM}</code> - one of {@link FsyncPolicy}. Defaults to
+ * {@code NEVER}.</li>
+ *     <li><code>{@value #OVERFLOW_PARAM}</code> - one of {@link OverflowPolicy}. Defaults to
+ * {@code BLOCK}.</li>
+ *     <li><code>{@value #FORMAT_PARAM}</code> - one of {@link JSONUtil.Format}. Defaults to
+ * {@code JSON}.</li>
+ *   </ul>
+ * </pre>
+ */
+public class AsyncJsonFileWriter implements Closeable {
+  /**
+   * When to force written data to the storage device.
+   */
+  public static enum FsyncPolicy {
+    /** Leave it to the operating system. */
+    NEVER,
+    /** After each flush. */
+    FLUSH,
+    /** Only when the writer is closed. */
+    CLOSE
+  }
+
+  /**
+   * What to do with objects written while the queue is full.
+   */
+  public static enum OverflowPolicy {
+    /** Block the caller until there is room in the queue. */
+    BLOCK,
+    /** Drop the object and count it in {@link #getDroppedCount()}. */
+    DROP
+  }
+
+  public static final String QUEUE_SIZE_PARAM = "ambrose.write.queue.size";
+  public static final String BATCH_SIZE_PARAM = "ambrose.write.batch.size";
+  public static final String FLUSH_INTERVAL_MS_PARAM = "ambrose.write.flush.interval.ms";
+  public static final String FSYNC_PARAM = "ambrose.write.fsync";
+  public static final String OVERFLOW_PARAM = "ambrose.write.overflow";
+  public static final String FORMAT_PARAM = "ambrose.write.format";
+  public static final int QUEUE_SIZE_DEFAULT = 10000;
+  public static final int BATCH_SIZE_DEFAULT = 100;
+  public static final long FLUSH_INTERVAL_MS_DEFAULT = 1000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncJsonFileWriter.class);
+  private static final byte[] ARRAY_START = "[ ".getBytes(Charsets.UTF_8);
+  private static final byte[] ARRAY_SEPARATOR = ", ".getBytes(Charsets.UTF_8);
+  private static final byte[] ARRAY_END = " ]\n".getBytes(Charsets.UTF_8);
+
+  private static <T extends Enum<T>> T getEnum(String name, Class<T> enumClass, T defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(enumClass, value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format(
+          "Parameter '%s' value '%s' is not one of %s", name, value, enumClass.getSimpleName()), e);
+    }
+  }
+
+  /**
+   * Opens a writer configured from system properties.
+   *
+   * @param fileName file to write to.
+   * @param asArray whether to write objects as elements of a single JSON array.
+   * @return a started writer.
+   * @throws IOException if the file can't be opened.
+   */
+  public static AsyncJsonFileWriter open(String fileName, boolean asArray) throws IOException {
+    return new AsyncJsonFileWriter(fileName, asArray,
+        Integer.getInteger(QUEUE_SIZE_PARAM, QUEUE_SIZE_DEFAULT),
+        Integer.getInteger(BATCH_SIZE_PARAM, BATCH_SIZE_DEFAULT),
+        Long.getLong(FLUSH_INTERVAL_MS_PARAM, FLUSH_INTERVAL_MS_DEFAULT),
+        getEnum(FSYNC_PARAM, FsyncPolicy.class, FsyncPolicy.NEVER),
+        getEnum(OVERFLOW_PARAM, OverflowPolicy.class, OverflowPolicy.BLOCK),
+        getEnum(FORMAT_PARAM, JSONUtil.Format.class, JSONUtil.Format.JSON));
+  }
+
+  private final String fileName;
+  private final boolean asArray;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final FsyncPolicy fsyncPolicy;
+  private final OverflowPolicy overflowPolicy;
+  private final JSONUtil.Format format;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+  // permits for the objects which may still be queued
+  private final Semaphore capacity;
+  // held to queue objects, and exclusively to close the writer
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private final FileOutputStream fileStream;
+  private final OutputStream out;
+  private final Thread thread;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private volatile boolean closed = false;
+  private boolean written = false;
+
+  public AsyncJsonFileWriter(String fileName, boolean asArray, int queueSize, int batchSize,
+      long flushIntervalMillis, FsyncPolicy fsyncPolicy, OverflowPolicy overflowPolicy)
+      throws IOException {
+    this(fileName, asArray, queueSize, batchSize, flushIntervalMillis, fsyncPolicy, overflowPolicy,
+        JSONUtil.Format.JSON);
+  }
+
+  public AsyncJsonFileWriter(String fileName, boolean asArray, int queueSize, int batchSize,
+      long flushIntervalMillis, FsyncPolicy fsyncPolicy, OverflowPolicy overflowPolicy,
+      JSONUtil.Format format) throws IOException {
+    this.fileName = fileName;
+    this.asArray = asArray && format == JSONUtil.Format.JSON;
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.fsyncPolicy = fsyncPolicy;
+    this.overflowPolicy = overflowPolicy;
+    this.format = format;
+    this.capacity = new Semaphore(queueSize);
+    this.fileStream = new FileOutputStream(fileName);
+    this.out = new BufferedOutputStream(fileStream);
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeQueued();
+      }
+    }, "AsyncJsonFileWriter-" + fileName);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues an object to be serialized and written.
+   *
+   * @param object the object to write, which must not be modified afterwards.
+   * @return true if the object was queued, false if it was dropped because the queue is full or
+   * the writer is closed.
+   * @throws IOException if interrupted while waiting for room in the queue.
+   */
+  public boolean write(Object object) throws IOException {
+    return write(object, null);
+  }
+
+  /**
+   * Queues an object to be written, along with the bytes it was already serialized to.
+   *
+   * @param object the object to write.
+   * @param json bytes of the object written as is, either returned by {@link #serialize(Object)}
+   * or, if {@link #writesJson()}, compact JSON encoded in UTF-8. Null to serialize the object when
+   * writing it, in which case it must not be modified afterwards.
+   * @return true if the object was queued, false if it was dropped because the queue is full or
+   * the writer is closed.
+   * @throws IOException if interrupted while waiting for room in the queue.
+   */
+  public boolean write(Object object, byte[] json) throws IOException {
+    return reserve() && writeReserved(object, json);
+  }
+
+  /**
+   * Reserves room in the queue for one object, waiting for room if the overflow policy is
+   * {@link OverflowPolicy#BLOCK}. Each successful reservation must be followed by a call to either
+   * {@link #writeReserved} or {@link #cancelReservation()}.
+   *
+   * @return true if room was reserved, false if the object must be dropped because the queue is
+   * full or the writer is closed.
+   * @throws IOException if interrupted while waiting for room in the queue.
+   */
+  public boolean reserve() throws IOException {
+    if (closed) {
+      droppedCount.incrementAndGet();
+      return false;
+    }
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          while (!capacity.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+              droppedCount.incrementAndGet();
+              return false;
+            }
+          }
+          return true;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while queueing json for " + fileName, e);
+        }
+      case DROP:
+      default:
+        if (capacity.tryAcquire()) {
+          return true;
+        }
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 1000 == 0) {
+          LOG.warn("Write queue for {} is full, dropped {} objects so far", fileName, dropped);
+        }
+        return false;
+    }
+  }
+
+  /**
+   * Queues an object into room reserved by {@link #reserve()}, without waiting.
+   *
+   * @param object the object to write.
+   * @param json bytes of the object written as is, or null to serialize the object when writing
+   * it, see {@link #write(Object, byte[])}.
+   * @return true if the object was queued, false if it was dropped because the writer was closed
+   * since room was reserved.
+   */
+  public boolean writeReserved(Object object, byte[] json) {
+    closeLock.readLock().lock();
+    try {
+      if (!closed) {
+        queue.add(new Pending(object, json));
+        return true;
+      }
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    capacity.release();
+    droppedCount.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Serializes an object on the calling thread as this writer writes it, as indented JSON or in
+   * its format, so the object may be modified once written along with the returned bytes.
+   *
+   * @param object the object to serialize.
+   * @return bytes to write along with the object.
+   * @throws IOException if the object can't be serialized.
+   */
+  public byte[] serialize(Object object) throws IOException {
+    return format == JSONUtil.Format.JSON
+        ? JSONUtil.toPrettyJsonBytes(object)
+        : JSONUtil.toBytes(format, object);
+  }
+
+  /**
+   * @return whether this writer writes JSON, so compact JSON of an object may be written as is.
+   */
+  public boolean writesJson() {
+    return format == JSONUtil.Format.JSON;
+  }
+
+  /**
+   * Gives back room reserved by {@link #reserve()} which wasn't used.
+   */
+  public void cancelReservation() {
+    capacity.release();
+  }
+
+  /**
+   * @return number of objects dropped because the queue was full, the writer was closed or they
+   * couldn't be written.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Writes all queued objects, terminates the JSON array if writing one, and closes the file.
+   * Waits for objects being queued concurrently; objects written after this method is called are
+   * dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!setClosed()) {
+      return;
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing " + fileName, e);
+    }
+  }
+
+  /**
+   * Marks the writer closed once no objects are being queued, after which none are queued.
+   *
+   * @return false if the writer was already closed.
+   */
+  private boolean setClosed() {
+    closeLock.writeLock().lock();
+    try {
+      boolean wasClosed = closed;
+      closed = true;
+      return !wasClosed;
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+  }
+
+  private void writeQueued() {
+    List<Pending> batch = Lists.newArrayListWithCapacity(batchSize);
+    int unflushed = 0;
+    long lastFlush = System.currentTimeMillis();
+    try {
+      while (!closed || !queue.isEmpty()) {
+        Pending pending = queue.poll(Math.min(flushIntervalMillis, 100), TimeUnit.MILLISECONDS);
+        if (pending != null) {
+          batch.add(pending);
+          queue.drainTo(batch, batchSize - 1);
+          capacity.release(batch.size());
+          for (Pending element : batch) {
+            byte[] json = getBytes(element);
+            if (json != null) {
+              writeElement(json);
+              unflushed++;
+            }
+          }
+          batch.clear();
+        }
+        long now = System.currentTimeMillis();
+        if (unflushed > 0 && (unflushed >= batchSize || now - lastFlush >= flushIntervalMillis)) {
+          flush(fsyncPolicy == FsyncPolicy.FLUSH);
+          unflushed = 0;
+          lastFlush = now;
+        }
+      }
+      if (asArray && written) {
+        out.write(ARRAY_END);
+      }
+      flush(fsyncPolicy != FsyncPolicy.NEVER);
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while writing " + fileName, e);
+    } catch (IOException e) {
+      LOG.error("Failed to write " + fileName, e);
+    } finally {
+      // objects left after a failure are lost, including those of the batch being written
+      setClosed();
+      int drained = queue.drainTo(batch);
+      capacity.release(drained);
+      droppedCount.addAndGet(batch.size());
+      try {
+        out.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close " + fileName, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the bytes to write for a queued object, or null if it can't be serialized.
+   */
+  private byte[] getBytes(Pending pending) {
+    if (pending.json != null) {
+      return pending.json;
+    }
+    try {
+      return serialize(pending.object);
+    } catch (IOException e) {
+      droppedCount.incrementAndGet();
+      LOG.error("Failed to serialize object for " + fileName, e);
+      return null;
+    }
+  }
+
+  private void writeElement(byte[] json) throws IOException {
+    if (asArray) {
+      out.write(written ? ARRAY_SEPARATOR : ARRAY_START);
+    }
+    out.write(json);
+    written = true;
+  }
+
+  private void flush(boolean sync) throws IOException {
+    out.flush();
+    if (sync) {
+      fileStream.getFD().sync();
+    }
+  }
+
+  /**
+   * Object queued to be written, along with its bytes if it was serialized already.
+   */
+  private static class Pending {
+    private final Object object;
+    private final byte[] json;
+
+    private Pending(Object object, byte[] json) {
+      this.object = object;
+      this.json = json;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import com.twitter.ambrose.model.Event;
+
+/**
+ * Reads the events of an events dump, such as written to <code>ambrose.write.events.file</code>,
+ * one at a time in constant memory. Reads may be limited to a range of event ids. Events of JSON
+ * files outside the range are skipped by scanning their top level fields for the id, without
+ * binding their payloads, and events within it are then bound from the bytes scanned. Events of
+ * Smile files are bound and then filtered. The positions of the events of JSON files may be
+ * scanned to index them, and events bound later from their positions.
+ */
+public class EventFileReader extends JsonFileReader<Event> {
+  private static final TypeReference<Event> TYPE = new TypeReference<Event>() { };
+
+  private final long minId;
+  private final long maxId;
+
+  public EventFileReader(File file) throws IOException {
+    this(file, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param file the file to read.
+   * @param minId smallest id of events to read.
+   * @param maxId largest id of events to read.
+   * @throws IOException if the file can't be opened.
+   */
+  public EventFileReader(File file, long minId, long maxId) throws IOException {
+    super(file, TYPE);
+    this.minId = minId;
+    this.maxId = maxId;
+  }
+
+  /**
+   * Reads the next event whose id is within range.
+   *
+   * @return the event read, or null once all events were read.
+   * @throws IOException if the file can't be read or parsed.
+   */
+  @Override
+  public Event read() throws IOException {
+    boolean filtered = minId != Long.MIN_VALUE || maxId != Long.MAX_VALUE;
+    while (nextValue()) {
+      if (!filtered) {
+        return readValue();
+      }
+      Event event;
+      if (getFormat() == JSONUtil.Format.JSON) {
+        Position position = scanValue();
+        if (position.getId() >= 0 && !inRange(position.getId())) {
+          continue;
+        }
+        event = read(position);
+      } else {
+        event = readValue();
+      }
+      if (inRange(event.getId())) {
+        return event;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Scans the next event of a JSON file for its position, id and timestamp without binding it. The
+   * id range of the reader doesn't apply.
+   *
+   * @return the position of the event, or null once all events were read.
+   * @throws IOException if the file isn't JSON, or can't be read or parsed.
+   */
+  public Position scan() throws IOException {
+    if (getFormat() != JSONUtil.Format.JSON) {
+      throw new IOException("Events of " + getFormat() + " files can't be scanned");
+    }
+    return nextValue() ? scanValue() : null;
+  }
+
+  /**
+   * Binds the event at a position scanned by this reader or by another reader of the same file.
+   * The parser isn't disturbed, so events may be read in any order while scanning.
+   */
+  public Event read(Position position) throws IOException {
+    return readValue(position.getStart(), position.getEnd());
+  }
+
+  private boolean inRange(long id) {
+    return id >= minId && id <= maxId;
+  }
+
+  /**
+   * Reads the top level fields of the event the parser is at, skipping all others.
+   */
+  private Position scanValue() throws IOException {
+    JsonParser parser = getParser();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException("Expected an event, found " + parser.getCurrentToken(),
+          parser.getTokenLocation());
+    }
+    long start = getTokenOffset();
+    long id = -1;
+    long timestamp = -1;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("id".equals(name) && parser.getCurrentToken().isNumeric()) {
+        id = parser.getLongValue();
+      } else if ("timestamp".equals(name) && parser.getCurrentToken().isNumeric()) {
+        timestamp = parser.getLongValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return new Position(start, getTokenOffset() + 1, id, timestamp);
+  }
+
+  /**
+   * Byte range of an event in a JSON file, along with its id and timestamp.
+   */
+  public static class Position {
+    private final long start;
+    private final long end;
+    private final long id;
+    private final long timestamp;
+
+    public Position(long start, long end, long id, long timestamp) {
+      this.start = start;
+      this.end = end;
+      this.id = id;
+      this.timestamp = timestamp;
+    }
+
+    /**
+     * @return offset of the first byte of the event, which may be preceded by the separator of
+     * array elements.
+     */
+    public long getStart() { return start; }
+
+    /**
+     * @return offset following the last byte of the event.
+     */
+    public long getEnd() { return end; }
+
+    /**
+     * @return id of the event, or -1 if it has none.
+     */
+    public long getId() { return id; }
+
+    /**
+     * @return timestamp of the event, or -1 if it has none.
+     */
+    public long getTimestamp() { return timestamp; }
+  }
+}
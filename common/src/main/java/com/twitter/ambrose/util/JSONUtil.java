@@ -17,108 +17,364 @@ package com.twitter.ambrose.util;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Charsets;
+
+import com.twitter.ambrose.model.ModelModule;
 
 /**
  * Helper method for dealing with JSON in a common way.
+ * <p/>
+ * JSON is written compactly, as served to clients and held in memory, except for files, which are
+ * written indented for people to read. Output streams are written to directly, through Jackson's
+ * recycled buffers, rather than through an intermediate writer or string. Readers are built once
+ * per type and reused. The model classes sent with every event are serialized and deserialized by
+ * the hand-written serializers of {@link ModelModule} rather than reflectively.
+ * <p/>
+ * Objects may also be encoded as Smile, Jackson's binary encoding of the JSON data model, which is
+ * smaller than JSON text and cheaper to parse.
  *
  * @author billg
  */
 public class JSONUtil {
   /**
-   * Writes object to the writer as JSON using Jackson and adds a new-line before flushing.
+   * Encodings of the JSON data model objects may be serialized to.
+   */
+  public static enum Format {
+    JSON("application/json"),
+    SMILE("application/x-jackson-smile");
+
+    private final String contentType;
+
+    private Format(String contentType) {
+      this.contentType = contentType;
+    }
+
+    /**
+     * @return the media type of content in this format.
+     */
+    public String getContentType() {
+      return contentType;
+    }
+  }
+
+  /**
+   * Writes object to the stream as compact JSON encoded as UTF-8. The stream isn't closed.
+   *
+   * @param out the stream to write the JSON to
+   * @param object the object to write as JSON
+   * @throws IOException if the object can't be serialized as JSON or written to the stream
+   */
+  public static void writeJson(OutputStream out, Object object) throws IOException {
+    compactWriter.writeValue(out, object);
+  }
+
+  /**
+   * Writes object to the writer as compact JSON. The writer isn't closed.
    *
    * @param writer the writer to write the JSON to
    * @param object the object to write as JSON
    * @throws IOException if the object can't be serialized as JSON or written to the writer
    */
   public static void writeJson(Writer writer, Object object) throws IOException {
-    mapper.writeValue(writer, object);
+    compactWriter.writeValue(writer, object);
   }
 
+  /**
+   * Writes object to a file as indented JSON encoded as UTF-8.
+   *
+   * @param fileName the file to write the JSON to
+   * @param object the object to write as JSON
+   * @throws IOException if the object can't be serialized as JSON or written to the file
+   */
   public static void writeJson(String fileName, Object object) throws IOException {
-    Writer writer = new PrintWriter(fileName);
+    OutputStream out = new FileOutputStream(fileName);
     try {
-      JSONUtil.writeJson(writer, object);
+      prettyWriter.writeValue(out, object);
     } finally {
-      writer.close();
+      out.close();
     }
   }
 
   /**
-   * Serializes object to JSON string.
+   * Serializes object to compact JSON string.
    *
    * @param object object to serialize.
    * @return json string.
    * @throws IOException
    */
   public static String toJson(Object object) throws IOException {
-    StringWriter writer = new StringWriter();
-    writeJson(writer, object);
-    return writer.toString();
+    return compactWriter.writeValueAsString(object);
+  }
+
+  /**
+   * Serializes object to compact JSON encoded as UTF-8.
+   *
+   * @param object object to serialize.
+   * @return json bytes.
+   * @throws IOException
+   */
+  public static byte[] toJsonBytes(Object object) throws IOException {
+    return compactWriter.writeValueAsBytes(object);
+  }
+
+  /**
+   * Serializes object to indented JSON encoded as UTF-8, for files people read.
+   *
+   * @param object object to serialize.
+   * @return json bytes.
+   * @throws IOException
+   */
+  public static byte[] toPrettyJsonBytes(Object object) throws IOException {
+    return prettyWriter.writeValueAsBytes(object);
+  }
+
+  /**
+   * Writes object to the stream in the given format, compactly. The stream isn't closed.
+   *
+   * @param format the format to write the object in
+   * @param out the stream to write to
+   * @param object the object to write
+   * @throws IOException if the object can't be serialized or written to the stream
+   */
+  public static void writeValue(Format format, OutputStream out, Object object)
+      throws IOException {
+    getWriter(format).writeValue(out, object);
+  }
+
+  /**
+   * Serializes object to the given format, compactly.
+   *
+   * @param format the format to serialize the object to
+   * @param object object to serialize.
+   * @return serialized bytes.
+   * @throws IOException if the object can't be serialized
+   */
+  public static byte[] toBytes(Format format, Object object) throws IOException {
+    return getWriter(format).writeValueAsBytes(object);
+  }
+
+  /**
+   * Parses an object from bytes in the given format.
+   *
+   * @param format the format of the bytes
+   * @param bytes serialized object
+   * @param type type reference describing type of object to parse. Callers should hold type
+   * references in constants, as readers are cached by type.
+   * @param <T> type of object to parse.
+   * @return object parsed from bytes.
+   * @throws IOException if the bytes can't be parsed
+   */
+  public static <T> T toObject(Format format, byte[] bytes, TypeReference<T> type)
+      throws IOException {
+    return getReader(format, type).readValue(bytes);
+  }
+
+  /**
+   * Parses a sequence of objects written one after another in the given format, as written by
+   * {@link AsyncJsonFileWriter} when not writing an array. The stream isn't closed.
+   *
+   * @param format the format of the stream
+   * @param in the stream to read from
+   * @param type type reference describing type of objects to parse.
+   * @param <T> type of objects to parse.
+   * @return iterator over the objects, which are parsed as it advances.
+   * @throws IOException if the stream can't be read
+   */
+  public static <T> Iterator<T> readValues(Format format, InputStream in, TypeReference<T> type)
+      throws IOException {
+    return getReader(format, type).readValues(in);
+  }
+
+  /**
+   * Creates a streaming parser of content in the given format, to be bound with
+   * {@link #readValue(Format, JsonParser, TypeReference)}. The stream isn't closed when the parser
+   * is.
+   *
+   * @param format the format of the stream
+   * @param in the stream to parse
+   * @return a parser positioned before the first token.
+   * @throws IOException if the stream can't be read
+   */
+  public static JsonParser createParser(Format format, InputStream in) throws IOException {
+    return getMapper(format).getFactory().createParser(in);
+  }
+
+  /**
+   * Binds the value the parser is positioned at, leaving the parser at its last token.
+   *
+   * @param format the format the parser reads
+   * @param parser parser positioned at the first token of the value, or before it
+   * @param type type reference describing type of object to parse.
+   * @param <T> type of object to parse.
+   * @return the object parsed, or null if the parser has no more tokens.
+   * @throws IOException if the value can't be parsed
+   */
+  public static <T> T readValue(Format format, JsonParser parser, TypeReference<T> type)
+      throws IOException {
+    return getReader(format, type).readValue(parser);
   }
 
   /**
    * Parse JSON string to object.
    *
    * @param json string containing JSON.
-   * @param type type reference describing type of object to parse from json.
+   * @param type type reference describing type of object to parse from json. Callers should hold
+   * type references in constants, as readers are cached by type.
    * @param <T> type of object to parse from json.
    * @return object parsed from json.
    * @throws IOException
    */
   public static <T> T toObject(String json, TypeReference<T> type) throws IOException {
       try {
-        return mapper.readValue(json, type);
+        return getReader(mapper.getTypeFactory().constructType(type)).readValue(json);
       } catch (JsonParseException e) {
         throw new IOException(String.format("Failed to parse json '%s'", json), e);
       }
   }
 
   public static <T> T toObject(String json, JavaType type) throws IOException {
-    return mapper.readValue(json, type);
+    return getReader(type).readValue(json);
+  }
+
+  /**
+   * Converts object to a JSON tree.
+   *
+   * @param object object to convert.
+   * @return tree the object would be serialized as.
+   */
+  public static JsonNode toJsonNode(Object object) {
+    return mapper.valueToTree(object);
+  }
+
+  /**
+   * Converts JSON tree to object.
+   *
+   * @param node tree to convert.
+   * @param type class of object to convert the tree to.
+   * @param <T> type of object to convert the tree to.
+   * @return object bound from the tree.
+   * @throws IOException if the tree can't be bound to type.
+   */
+  public static <T> T toObject(JsonNode node, Class<T> type) throws IOException {
+    return mapper.treeToValue(node, type);
   }
 
+  /**
+   * Reads a whole file into a string. Files too large to hold in memory, such as event dumps of
+   * long running scripts, should be read with a {@link JsonFileReader} instead.
+   *
+   * @param path path of the file to read.
+   * @return content of the file decoded as UTF-8.
+   * @throws IOException if the file can't be read.
+   */
   public static String readFile(String path) throws IOException {
     FileInputStream stream = new FileInputStream(new File(path));
     try {
       FileChannel fc = stream.getChannel();
       MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-      return Charset.defaultCharset().decode(bb).toString();
+      return Charsets.UTF_8.decode(bb).toString();
     } finally {
       stream.close();
     }
   }
 
-  private static final ObjectMapper mapper = new ObjectMapper();
+  private static ObjectReader getReader(JavaType type) {
+    return getReader(mapper, readers, type);
+  }
+
+  private static ObjectReader getReader(Format format, TypeReference<?> type) {
+    JavaType javaType = mapper.getTypeFactory().constructType(type);
+    if (format == Format.JSON) {
+      return getReader(javaType);
+    }
+    return getReader(smileMapper, smileReaders, javaType);
+  }
+
+  /**
+   * Returns the cached reader of type, building it if missing. The cache must be read before the
+   * reader is built: a reader built while mixins are added then lands in the cache being replaced,
+   * rather than in the one replacing it.
+   */
+  private static ObjectReader getReader(ObjectMapper formatMapper,
+      ConcurrentMap<JavaType, ObjectReader> cache, JavaType type) {
+    ObjectReader reader = cache.get(type);
+    if (reader == null) {
+      reader = formatMapper.reader(type);
+      cache.put(type, reader);
+    }
+    return reader;
+  }
+
+  private static ObjectWriter getWriter(Format format) {
+    return format == Format.JSON ? compactWriter : smileWriter;
+  }
+
+  private static ObjectMapper getMapper(Format format) {
+    return format == Format.JSON ? mapper : smileMapper;
+  }
+
+  private static final ObjectMapper mapper = configure(new ObjectMapper());
+  private static final ObjectMapper smileMapper = configure(new ObjectMapper(new SmileFactory()));
+  // writers and readers hold the mapper's configuration as of when they were built, so they are
+  // rebuilt when mixins are added. Reader caches are replaced rather than cleared, so readers built
+  // concurrently from the old configuration are dropped with the old cache.
+  private static volatile ConcurrentMap<JavaType, ObjectReader> readers;
+  private static volatile ConcurrentMap<JavaType, ObjectReader> smileReaders;
+  private static volatile ObjectWriter compactWriter;
+  private static volatile ObjectWriter prettyWriter;
+  private static volatile ObjectWriter smileWriter;
 
   static {
+    buildWriters();
+  }
+
+  private static ObjectMapper configure(ObjectMapper mapper) {
     mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-    mapper.enable(SerializationFeature.INDENT_OUTPUT);
     mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
     mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT, false);
     mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     mapper.disable(SerializationFeature.CLOSE_CLOSEABLE);
     mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
     mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    mapper.registerModule(new ModelModule());
+    return mapper;
+  }
+
+  private static void buildWriters() {
+    compactWriter = mapper.writer();
+    prettyWriter = mapper.writer().with(SerializationFeature.INDENT_OUTPUT);
+    smileWriter = smileMapper.writer();
+    readers = new ConcurrentHashMap<JavaType, ObjectReader>();
+    smileReaders = new ConcurrentHashMap<JavaType, ObjectReader>();
   }
 
-  public static void mixinAnnotatons(Class<?> target, Class<?> mixinSource) {
+  public static synchronized void mixinAnnotatons(Class<?> target, Class<?> mixinSource) {
     mapper.addMixInAnnotations(target, mixinSource);
+    smileMapper.addMixInAnnotations(target, mixinSource);
+    buildWriters();
   }
 }
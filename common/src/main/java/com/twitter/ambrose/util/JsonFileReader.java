@@ -0,0 +1,224 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+/**
+ * Reads the objects of a file one at a time with Jackson's streaming parser, so files of any size
+ * are read in constant memory. The file may hold a single JSON array, whose elements are read, or
+ * values written one after another, as written by {@link AsyncJsonFileWriter}. Values which are
+ * themselves collections, such as the DAGs of a DAG dump, are always read one after another. Smile
+ * files are told apart from JSON by their header. An array which isn't terminated, as left by a
+ * writer which didn't close, ends at the end of the file.
+ * <p/>
+ * Instances are not thread safe.
+ *
+ * @param <T> type of objects read.
+ */
+public class JsonFileReader<T> implements Closeable {
+  private static final byte[] SMILE_HEADER = { ':', ')', '\n' };
+
+  private final File file;
+  private final TypeReference<T> type;
+  private final FileInputStream stream;
+  private final FileChannel channel;
+  private final JSONUtil.Format format;
+  private final JsonParser parser;
+  private final boolean collectionValues;
+  private boolean inArray;
+  private boolean started;
+  private boolean finished;
+
+  /**
+   * @param file the file to read.
+   * @param type type reference describing type of objects to read.
+   * @throws IOException if the file can't be opened.
+   */
+  public JsonFileReader(File file, TypeReference<T> type) throws IOException {
+    this.file = file;
+    this.type = type;
+    this.stream = new FileInputStream(file);
+    this.channel = stream.getChannel();
+    try {
+      this.format = detectFormat(channel);
+      this.parser = JSONUtil.createParser(format, Channels.newInputStream(channel));
+      // the channel stays open for values read again after the parser reached the end of the file
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
+    JavaType javaType = TypeFactory.defaultInstance().constructType(type);
+    this.collectionValues = javaType.isArrayType() || javaType.isCollectionLikeType();
+  }
+
+  private static JSONUtil.Format detectFormat(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(SMILE_HEADER.length);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        return JSONUtil.Format.JSON;
+      }
+    }
+    return Arrays.equals(header.array(), SMILE_HEADER)
+        ? JSONUtil.Format.SMILE
+        : JSONUtil.Format.JSON;
+  }
+
+  /**
+   * Reads the next object of the file.
+   *
+   * @return the object read, or null once all objects were read.
+   * @throws IOException if the file can't be read or parsed.
+   */
+  public T read() throws IOException {
+    return nextValue() ? readValue() : null;
+  }
+
+  /**
+   * Skips the next object of the file without binding it.
+   *
+   * @return false if there was no object left to skip.
+   * @throws IOException if the file can't be read or parsed.
+   */
+  public boolean skip() throws IOException {
+    if (!nextValue()) {
+      return false;
+    }
+    parser.skipChildren();
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    finished = true;
+    try {
+      parser.close();
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * @return the format of the file.
+   */
+  public JSONUtil.Format getFormat() {
+    return format;
+  }
+
+  /**
+   * @return the parser, positioned at the first token of the current value once
+   * {@link #nextValue()} returned true.
+   */
+  protected JsonParser getParser() {
+    return parser;
+  }
+
+  /**
+   * Advances the parser to the first token of the next value.
+   *
+   * @return false once all values were read.
+   */
+  protected boolean nextValue() throws IOException {
+    if (finished) {
+      return false;
+    }
+    JsonToken token;
+    try {
+      token = parser.nextToken();
+    } catch (JsonParseException e) {
+      // an array left unterminated by a writer which didn't close ends at the end of the file
+      if (inArray && offset(parser.getCurrentLocation()) >= channel.size()) {
+        finished = true;
+        return false;
+      }
+      throw e;
+    }
+    if (!started) {
+      started = true;
+      if (token == JsonToken.START_ARRAY && !collectionValues) {
+        inArray = true;
+        token = parser.nextToken();
+      }
+    }
+    if (token == null || (inArray && token == JsonToken.END_ARRAY)) {
+      finished = true;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the offset in the file of the parser's current token.
+   */
+  protected long getTokenOffset() {
+    return offset(parser.getTokenLocation());
+  }
+
+  private static long offset(JsonLocation location) {
+    // parsers of bytes may report their offset in bytes as the offset in chars, which are the same
+    // for the UTF-8 files they read
+    return location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset();
+  }
+
+  /**
+   * Binds the current value, leaving the parser at its last token.
+   */
+  protected T readValue() throws IOException {
+    return JSONUtil.readValue(format, parser, type);
+  }
+
+  /**
+   * Binds a value by reading the given byte range of the file again, without disturbing the
+   * parser. The range must end with a complete value, which may be preceded by the separator of
+   * array elements.
+   */
+  protected T readValue(long start, long end) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of " + file + " at " + (start + buffer.position()));
+      }
+    }
+    byte[] bytes = buffer.array();
+    // token offsets of some parsers include the separator preceding the token
+    int valueStart = 0;
+    while (valueStart < bytes.length
+        && (bytes[valueStart] == ',' || Character.isWhitespace(bytes[valueStart]))) {
+      valueStart++;
+    }
+    if (valueStart > 0) {
+      bytes = Arrays.copyOfRange(bytes, valueStart, bytes.length);
+    }
+    return JSONUtil.toObject(format, bytes, type);
+  }
+}
@@ -21,6 +21,7 @@ define([
   'ambrose/core',
   'ambrose/graph',
   'ambrose/client',
+  'ambrose/channel',
   'ambrose/dashboard',
   'ambrose/workflow',
   'ambrose/view',
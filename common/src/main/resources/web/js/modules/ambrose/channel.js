@@ -0,0 +1,150 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+/**
+ * This module defines the EventChannel class, which multiplexes the events of several workflows on
+ * a single connection to an Ambrose server. Views share the channel of their Client, and subscribe
+ * to the workflows they display.
+ */
+define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
+  // key under which subscriptions to the current workflow, whose id is null, are held
+  function subscriptionKey(workflowId) {
+    return workflowId == null ? '' : String(workflowId);
+  }
+
+  // EventChannel ctor
+  var EventChannel = Ambrose.EventChannel = function(client) {
+    return new Ambrose.EventChannel.fn.init(client);
+  };
+
+  /**
+   * Returns the channel shared by all users of a client, opening it if needed.
+   *
+   * @param client client whose channel to return.
+   * @return an EventChannel.
+   */
+  EventChannel.forClient = function(client) {
+    if (client.eventChannel == null) client.eventChannel = EventChannel(client);
+    return client.eventChannel;
+  };
+
+  /**
+   * EventChannel prototype.
+   */
+  EventChannel.fn = EventChannel.prototype = {
+    /**
+     * Constructs a new EventChannel, opening its connection to the server.
+     *
+     * @param client client to use when opening the channel and subscribing to workflows.
+     */
+    init: function(client) {
+      var self = this;
+      self.client = client;
+      self.channelId = null;
+      self.subscriptions = {};
+      self.source = client.getEventChannel();
+      if (self.source == null) return;
+
+      // the server assigns an id to each connection, which starts without subscriptions
+      self.source.addEventListener('channel', function(message) {
+        self.channelId = JSON.parse(message.data).channelId;
+        console.info('Event channel opened:', self.channelId);
+        $.each(self.subscriptions, function(key, subscription) {
+          self.sendSubscribe(subscription);
+        });
+      });
+
+      self.source.onmessage = function(message) {
+        var data = JSON.parse(message.data);
+        var subscription = self.subscriptions[subscriptionKey(data.workflowId)];
+        if (subscription == null) return;
+        var event = data.event;
+        if (subscription.lastEventId != null && event.id <= subscription.lastEventId) return;
+        subscription.lastEventId = event.id;
+        subscription.onEvent(event);
+      };
+
+      self.source.onerror = function() {
+        // the channel reconnects by itself unless it was closed
+        if (self.source.readyState != EventSource.CLOSED) return;
+        console.warn('Event channel closed:', self);
+        var subscriptions = self.subscriptions;
+        self.subscriptions = {};
+        self.channelId = null;
+        if (client.eventChannel === self) client.eventChannel = null;
+        $.each(subscriptions, function(key, subscription) {
+          if (subscription.onClose != null) subscription.onClose();
+        });
+      };
+    },
+
+    /**
+     * @return true if the channel is connected or connecting.
+     */
+    isOpen: function() {
+      return this.source != null && this.source.readyState != EventSource.CLOSED;
+    },
+
+    /**
+     * Subscribes to the events of a workflow, replacing any previous subscription to it.
+     *
+     * @param workflowId id of workflow for which to receive events.
+     * @param lastEventId receive events which occurred after the event associated with this id. If
+     * null, only events which occur from now on are received.
+     * @param onEvent function called with each event of the workflow, in order.
+     * @param onClose function called if the channel is closed for good, so its caller may fall back
+     * to requesting events.
+     * @return this.
+     */
+    subscribe: function(workflowId, lastEventId, onEvent, onClose) {
+      var subscription = this.subscriptions[subscriptionKey(workflowId)] = {
+        workflowId: workflowId,
+        lastEventId: lastEventId,
+        onEvent: onEvent,
+        onClose: onClose,
+      };
+      if (this.channelId != null) this.sendSubscribe(subscription);
+      return this;
+    },
+
+    /**
+     * Unsubscribes from the events of a workflow.
+     *
+     * @param workflowId id of workflow for which to stop receiving events.
+     * @return this.
+     */
+    unsubscribe: function(workflowId) {
+      var key = subscriptionKey(workflowId);
+      if (this.subscriptions[key] == null) return this;
+      delete this.subscriptions[key];
+      if (this.channelId != null) this.client.unsubscribeEvents(this.channelId, workflowId);
+      return this;
+    },
+
+    /**
+     * Sends a subscription to the server, resuming after the last event it delivered.
+     */
+    sendSubscribe: function(subscription) {
+      this.client.subscribeEvents(this.channelId, subscription.workflowId,
+        subscription.lastEventId);
+    },
+  };
+
+  // bind prototype to ctor
+  EventChannel.fn.init.prototype = EventChannel.fn;
+  return EventChannel;
+});
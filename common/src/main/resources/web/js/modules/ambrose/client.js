@@ -41,6 +41,9 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
       var workflowsUri = 'workflows';
       var jobsUri = 'dag';
       var eventsUri = 'events';
+      var eventStreamUri = 'events/stream';
+      var eventChannelUri = 'events/channel';
+      var configurationUri = 'config';
 
       if (baseUri == null) {
         // look for 'localdata' param in current href
@@ -51,6 +54,8 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
           workflowsUri = 'data/workflows.json';
           jobsUri = 'data/jobs.json';
           eventsUri = 'data/events.json';
+          eventStreamUri = null;
+          eventChannelUri = null;
         }
       } else {
         // resolve relative paths given base uri
@@ -59,12 +64,20 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
         workflowsUri = new URI(workflowsUri).absoluteTo(uri);
         jobsUri = new URI(jobsUri).absoluteTo(uri);
         eventsUri = new URI(eventsUri).absoluteTo(uri);
+        eventStreamUri = new URI(eventStreamUri).absoluteTo(uri);
+        eventChannelUri = new URI(eventChannelUri).absoluteTo(uri);
+        configurationUri = new URI(configurationUri).absoluteTo(uri);
       }
 
       this.clustersUri = new URI(clustersUri);
       this.workflowsUri = new URI(workflowsUri);
       this.jobsUri = new URI(jobsUri);
       this.eventsUri = new URI(eventsUri);
+      this.eventStreamUri = eventStreamUri == null ? null : new URI(eventStreamUri);
+      this.eventChannelUri = eventChannelUri == null ? null : new URI(eventChannelUri);
+      this.eventChannelSubscribeUri = new URI(eventChannelUri + '/subscribe');
+      this.eventChannelUnsubscribeUri = new URI(eventChannelUri + '/unsubscribe');
+      this.configurationUri = new URI(configurationUri);
     },
 
     /**
@@ -122,15 +135,103 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
      * @param workflowId id of workflow for which to retrieve events.
      * @param lastEventId retrieve events which occurred after the event associated with this id. If
      * null, defaults to -1.
+     * @param limit max number of events to retrieve. If defined, the server responds with a page
+     * object containing fields 'events', 'cursor' and 'hasMore' instead of an array of events.
+     * @param cursor cursor returned with the previous page of events. If defined, takes precedence
+     * over lastEventId.
+     * @param waitMs if defined and no events are available yet, the server holds the request until
+     * an event arrives or this many milliseconds elapse.
      * @return a jQuery Promise on which success and error callbacks may be registered.
      */
-    getEvents: function(workflowId, lastEventId) {
+    getEvents: function(workflowId, lastEventId, limit, cursor, waitMs) {
       if (lastEventId == null) lastEventId = -1;
-      return this.sendRequest(this.eventsUri, {
+      var params = {
         workflowId: workflowId,
         lastEventId: lastEventId,
+      };
+      if (limit != null) params.limit = limit;
+      if (cursor != null) params.cursor = cursor;
+      if (waitMs != null) params.waitMs = waitMs;
+      return this.sendRequest(this.eventsUri, params);
+    },
+
+    /**
+     * Opens a stream of workflow events from server, which delivers each event as soon as the
+     * server receives it. The stream reconnects by itself, resuming after the last event it
+     * delivered.
+     *
+     * @param workflowId id of workflow for which to stream events.
+     * @param lastEventId stream events which occurred after the event associated with this id. If
+     * null, defaults to -1.
+     * @return an EventSource whose message events carry one workflow event as json, or null if
+     * event streams aren't supported by the browser or the data source.
+     */
+    getEventStream: function(workflowId, lastEventId) {
+      if (this.eventStreamUri == null || window.EventSource == null) return null;
+      if (lastEventId == null) lastEventId = -1;
+      var params = {
+        workflowId: workflowId,
+        lastEventId: lastEventId,
+      };
+      return new EventSource(new URI(this.eventStreamUri).addSearch(params).unicode());
+    },
+
+    /**
+     * Opens a channel through which server streams the events of any number of workflows. The
+     * channel delivers no events until it is subscribed to workflows. Its first event, of type
+     * 'channel', carries the 'channelId' to subscribe with. The channel reconnects by itself, in
+     * which case it gets a new id and no subscriptions.
+     *
+     * @return an EventSource whose message events carry a 'workflowId' and an 'event' as json, or
+     * null if event channels aren't supported by the browser or the data source.
+     */
+    getEventChannel: function() {
+      if (this.eventChannelUri == null || window.EventSource == null) return null;
+      return new EventSource(this.eventChannelUri.unicode());
+    },
+
+    /**
+     * Subscribes an event channel to the events of a workflow.
+     *
+     * @param channelId id of the channel.
+     * @param workflowId id of workflow for which to stream events.
+     * @param lastEventId stream events which occurred after the event associated with this id. If
+     * null, only events which occur from now on are streamed.
+     * @return a jQuery Promise on which success and error callbacks may be registered.
+     */
+    subscribeEvents: function(channelId, workflowId, lastEventId) {
+      var params = {
+        channelId: channelId,
+        workflowId: workflowId,
+      };
+      if (lastEventId != null) params.lastEventId = lastEventId;
+      return this.sendRequest(this.eventChannelSubscribeUri, params);
+    },
+
+    /**
+     * Unsubscribes an event channel from the events of a workflow.
+     *
+     * @param channelId id of the channel.
+     * @param workflowId id of workflow for which to stop streaming events.
+     * @return a jQuery Promise on which success and error callbacks may be registered.
+     */
+    unsubscribeEvents: function(channelId, workflowId) {
+      return this.sendRequest(this.eventChannelUnsubscribeUri, {
+        channelId: channelId,
+        workflowId: workflowId,
       });
     },
+
+    /**
+     * Submits asynchronous request for a job configuration from server. Jobs carry only the id of
+     * their configuration, so configurations are fetched separately when needed.
+     *
+     * @param configurationId id of the configuration, as found in the job's configurationId field.
+     * @return a jQuery Promise on which success and error callbacks may be registered.
+     */
+    getConfiguration: function(configurationId) {
+      return this.sendRequest(this.configurationUri, { configurationId: configurationId });
+    },
   };
 
   // Bind prototype to ctor
@@ -17,7 +17,9 @@ limitations under the License.
 /**
  * Ambrose dashboard module.
  */
-define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
+define(['lib/jquery', './core', './client', './channel'], function(
+  $, Ambrose, Client, EventChannel
+) {
   var statusSet = [
     'running',
     'succeeded',
@@ -46,6 +48,9 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
       self.currentStartKey = '';
       self.nextStartKey = '';
       self.prevStartKeys = [];
+      self.pageOffset = 0;
+      self.prevPageOffsets = [];
+      self.subscribedWorkflowIds = [];
 
       // build status menu
       $.each(statusSet, function(index, id) {
@@ -135,6 +140,7 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
 
     prevPage: function() {
       this.currentStartKey = this.prevStartKeys.pop();
+      this.pageOffset = this.prevPageOffsets.pop();
       this.loadFlows();
       return this;
     },
@@ -142,6 +148,9 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
     nextPage: function() {
       this.prevStartKeys.push(this.currentStartKey);
       this.currentStartKey = this.nextStartKey;
+      // pages hold as many workflows as the server is configured to return
+      this.prevPageOffsets.push(this.pageOffset);
+      this.pageOffset += this.pageLength;
       this.loadFlows();
       return this;
     },
@@ -163,8 +172,10 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
     renderFlows: function(data) {
       var self = this;
       var workflows = data.results;
+      self.unsubscribeFlows();
       var $workflows = $('#workflows').empty();
-      var pageOffset = self.prevStartKeys.length * 10;
+      var pageOffset = self.pageOffset;
+      self.pageLength = workflows.length;
       $.each(workflows, function(i, workflow) {
         var $tr = $('<tr>').appendTo($workflows).attr('id', 'workflow_' + workflow.id)
           .click(function() {
@@ -176,8 +187,9 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
         $('<td>').text(createdAt).appendTo($tr);
         $('<td>').text(workflow.name).appendTo($tr);
         $('<td>').text(workflow.status.toLowerCase()).appendTo($tr);
-        $('<div class="bar">').width(workflow.progress + '%').appendTo(
+        var $bar = $('<div class="bar">').width(workflow.progress + '%').appendTo(
           $('<div class="progress">').appendTo($('<td>').appendTo($tr)));
+        if (workflow.status == 'RUNNING') self.subscribeFlow(workflow.id, $bar);
       });
       if (self.nextStartKey != null && self.nextStartKey != '') {
         $('#page-next-link').removeClass('disabled');
@@ -191,6 +203,35 @@ define(['lib/jquery', './core', './client'], function($, Ambrose, Client) {
       }
       return this;
     },
+
+    /**
+     * Updates the progress bar of a running workflow as its progress events arrive, if the server
+     * supports event channels.
+     *
+     * @param workflowId id of the workflow.
+     * @param $bar progress bar of the workflow.
+     */
+    subscribeFlow: function(workflowId, $bar) {
+      var channel = EventChannel.forClient(this.client);
+      if (!channel.isOpen()) return;
+      this.subscribedWorkflowIds.push(workflowId);
+      channel.subscribe(workflowId, null, function(event) {
+        if (event.type == 'WORKFLOW_PROGRESS') $bar.width(event.payload.workflowProgress + '%');
+      });
+    },
+
+    /**
+     * Stops updating the progress bars of the workflows rendered so far.
+     */
+    unsubscribeFlows: function() {
+      var channel = this.client.eventChannel;
+      if (channel != null) {
+        $.each(this.subscribedWorkflowIds, function(i, workflowId) {
+          channel.unsubscribe(workflowId);
+        });
+      }
+      this.subscribedWorkflowIds = [];
+    },
   };
 
   // bind prototype to ctor
@@ -19,12 +19,18 @@ limitations under the License.
  * events from an Ambrose server. The Workflow acts as a controller and owner of job
  * state. Callbacks may be bound to events triggered on the Workflow to react to state changes.
  */
-define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
-  $, URI, Ambrose, Client, Graph
+define(['lib/jquery', 'lib/uri', './core', './client', './channel', './graph'], function(
+  $, URI, Ambrose, Client, EventChannel, Graph
 ) {
   // Maximum number of consecutive client failures before event polling is stopped.
   var MAX_CLIENT_FAILURES = 10;
 
+  // Max number of events requested at once when the number of events to process isn't limited.
+  var EVENTS_PAGE_SIZE = 500;
+
+  // Max time (ms) the server may hold a request for events until new events arrive.
+  var EVENTS_WAIT_MS = 25000;
+
   // return data.job, throwing error if it's undefined
   function getJob(data) {
     var job = data.job;
@@ -64,6 +70,7 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
       this.jobsByName = {};
       this.jobsById = {};
       this.lastEventId = -1;
+      this.eventCursor = null;
       this.current = {
         selected: null,
         mouseover: null,
@@ -109,6 +116,8 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
       // define callbacks
       var self = this;
       var handleError = function(textStatus, errorThrown) {
+        // requests are aborted when polling is stopped
+        if (textStatus == 'abort') return;
         console.error('Failed to load jobs:', textStatus, errorThrown);
         self.trigger('error.loadJobs', [null, textStatus, errorThrown]);
       };
@@ -201,7 +210,13 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
     },
 
     /**
-     * Starts event polling if not already started.
+     * Starts event polling if not already started. If the number of events to process isn't
+     * limited, events are streamed from the server as they arrive, through the event channel shared
+     * with other users of the client, or else through a stream of their own. If neither is
+     * supported, events are long polled: the server holds each request until new events arrive,
+     * and the next request is sent as soon as the previous one completes. Otherwise, and for
+     * servers which respond with plain arrays of events such as local demo data, events are polled
+     * at the given frequency.
      *
      * @param frequency poll events at this frequency (ms). Defaults to 1000.
      * @param maxEvents max number of events to process on each request. Defaults to -1 (no limit).
@@ -209,46 +224,246 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
      */
     startEventPolling: function(frequency, maxEvents) {
       var self = this;
-      if (self.eventPollingIntervalId != null) return;
+      if (self.eventPolling != null) return;
       if (frequency == null) frequency = 1000;
       if (maxEvents == null) maxEvents = -1;
       console.info('Starting event polling');
       self.clientFailureCount = 0;
-      var pollEvents = function() { self.pollEvents(maxEvents); };
-      self.eventPollingIntervalId = setInterval(pollEvents, frequency);
+      var polling = self.eventPolling = {
+        frequency: frequency,
+        maxEvents: maxEvents,
+        timeoutId: null,
+        request: null,
+        stream: null,
+        channel: null,
+      };
       self.trigger('eventPollingStarted');
-      // poll once right now to kick things off
-      pollEvents();
+      if (maxEvents <= 0 && !self.isComplete()) {
+        var channel = EventChannel.forClient(self.client);
+        if (channel.isOpen()) {
+          polling.channel = channel;
+          self.listenToEventChannel(polling);
+          return this;
+        }
+        polling.stream = self.client.getEventStream(self.id, self.lastEventId);
+      }
+      if (polling.stream != null) {
+        self.listenToEventStream(polling);
+      } else {
+        // poll once right now to kick things off
+        self.scheduleEventPoll(0);
+      }
       return this;
     },
 
     /**
-     * Stops event polling if running.
+     * Stops event polling if running, aborting any pending request or open stream.
      *
      * @return this.
      */
     stopEventPolling: function() {
-      if (this.eventPollingIntervalId == null) return;
+      var polling = this.eventPolling;
+      if (polling == null) return;
       console.info('Stopping event polling');
-      clearInterval(this.eventPollingIntervalId);
-      this.eventPollingIntervalId = null;
+      this.eventPolling = null;
+      clearTimeout(polling.timeoutId);
+      if (polling.request != null) polling.request.abort();
+      if (polling.stream != null) polling.stream.close();
+      if (polling.channel != null) polling.channel.unsubscribe(this.id);
       this.trigger('eventPollingStopped');
       return this;
     },
 
+    /**
+     * Subscribes to the events of this workflow through an event channel. Once the workflow is
+     * complete, the subscription is dropped and 'workflowComplete' event is triggered. If the
+     * channel can't be opened, or is closed by the server, events are streamed or polled instead.
+     *
+     * @param polling state of the event polling the subscription belongs to.
+     */
+    listenToEventChannel: function(polling) {
+      var self = this;
+      polling.channel.subscribe(self.id, self.lastEventId, function(event) {
+        if (self.eventPolling !== polling) return;
+        self.processStreamedEvent(event);
+      }, function() {
+        if (self.eventPolling !== polling) return;
+        console.warn('Event channel closed, streaming events instead:', self);
+        polling.channel = null;
+        polling.stream = self.client.getEventStream(self.id, self.lastEventId);
+        if (polling.stream != null) {
+          self.listenToEventStream(polling);
+        } else {
+          self.scheduleEventPoll(0);
+        }
+      });
+    },
+
+    /**
+     * Processes events delivered by an event stream. Once the workflow is complete, the stream is
+     * closed and 'workflowComplete' event is triggered. If the stream can't be opened, or is closed
+     * by the server, events are polled instead.
+     *
+     * @param polling state of the event polling the stream belongs to.
+     */
+    listenToEventStream: function(polling) {
+      var self = this;
+      var stream = polling.stream;
+      stream.onmessage = function(message) {
+        if (self.eventPolling !== polling) return;
+        self.processStreamedEvent(JSON.parse(message.data));
+      };
+      stream.onerror = function() {
+        if (self.eventPolling !== polling) return;
+        // the stream reconnects by itself unless it was closed
+        if (stream.readyState != EventSource.CLOSED) return;
+        console.warn('Event stream closed, polling events instead:', self);
+        polling.stream = null;
+        self.scheduleEventPoll(0);
+      };
+    },
+
+    /**
+     * Processes a single event pushed by the server, stopping event polling and triggering
+     * 'workflowComplete' event once the workflow is complete.
+     *
+     * @param event the event to process.
+     */
+    processStreamedEvent: function(event) {
+      this.clientFailureCount = 0;
+      var events = [event];
+      this.processEvents(events, -1);
+      this.trigger('eventsPolled', [events, 'success', null]);
+      if (this.isComplete()) {
+        console.info('Workflow complete');
+        this.stopEventPolling();
+        this.trigger('workflowComplete');
+      }
+    },
+
+    /**
+     * Polls events after the given delay, then schedules the next poll as long as polling isn't
+     * stopped.
+     *
+     * @param delay time (ms) to wait before polling.
+     */
+    scheduleEventPoll: function(delay) {
+      var self = this;
+      var polling = self.eventPolling;
+      polling.timeoutId = setTimeout(function() {
+        if (self.eventPolling !== polling) return;
+        var waitMs = polling.maxEvents > 0 ? null : EVENTS_WAIT_MS;
+        var request = polling.request = self.pollEvents(polling.maxEvents, waitMs);
+        if (request == null) return;
+        request.always(function(data, textStatus) {
+          polling.request = null;
+          if (self.eventPolling !== polling) return;
+          // servers responding with pages hold requests until events arrive, or have more events
+          var paged = textStatus == 'success' && data != null && !$.isArray(data);
+          self.scheduleEventPoll(paged && polling.maxEvents <= 0 ? 0 : polling.frequency);
+        });
+      }, delay);
+    },
+
+    /**
+     * Processes events sequentially, triggering events in set {'workflowProgress', 'jobStarted',
+     * 'jobProgress', 'jobComplete', 'jobFailed'}. Events which were already processed are skipped.
+     *
+     * @param events events to process, ordered by id.
+     * @param maxEvents max number of events to process. Defaults to -1 (no limit).
+     */
+    processEvents: function(events, maxEvents) {
+      if (maxEvents == null) maxEvents = -1;
+      var self = this;
+      var eventCount = 0;
+      $.each(events, function(i, event) {
+        // validate event data
+        var id = event.id;
+        var type = event.type;
+        var data = event.payload;
+        if (!id || !type || !data) {
+          console.error('Invalid event data:', self, event);
+          return;
+        }
+
+        // skip events we've already processed
+        if (id <= self.lastEventId) return;
+
+        // don't process more than specified number of events
+        if (maxEvents > 0 && eventCount >= maxEvents) return;
+
+        // check for workflow event
+        if (type == 'WORKFLOW_PROGRESS') {
+          self.setProgress(data.workflowProgress);
+          return;
+        }
+
+        // collect job data
+        var node = data;
+        var job = node.job;
+        job.name = node.name;
+
+        // retrieve and update job with new data; deltas only carry changed fields
+        job = (type == 'JOB_PROGRESS_DELTA') ? self.patchJob(job) : self.updateJob(job);
+        self.jobsById[job.id] = job;
+
+        // process job event
+        switch (type) {
+        case 'JOB_STARTED':
+          console.info('Job started:', job);
+          job.status = 'RUNNING';
+          break;
+        case 'JOB_PROGRESS_DELTA':
+          type = 'JOB_PROGRESS';
+          // fall through
+        case 'JOB_PROGRESS':
+          console.info('Job progress:', job);
+          if (job.isComplete == 'true') {
+            if (job.isSuccessful == 'true') {
+              job.status = 'COMPLETE';
+            } else {
+              job.status = 'FAILED';
+            }
+          }
+          break;
+        case 'JOB_FINISHED':
+          // TODO(Andy Schlaikjer): rename JOB_FINISHED to JOB_COMPLETE in server
+          type = 'JOB_COMPLETE';
+          console.info('Job complete:', job);
+          job.status = 'COMPLETE';
+          break;
+        case 'JOB_FAILED':
+          console.info('Job failed:', job);
+          job.status = 'FAILED';
+          break;
+        default:
+          console.error("Unsupported event type '" + type + "':", self, event);
+          return;
+        }
+
+        // update state and trigger event
+        eventCount++;
+        self.lastEventId = id;
+        self.trigger(type.toLowerCase().camelCase(), [job, event]);
+      });
+    },
+
     /**
      * Initiates asynchronous request for new Workflow events from server. First, tests Workflow
      * completion status. If complete, event polling is stopped and 'workflowComplete' event is
      * triggered. Otherwise, events from last event id are requested. On request failure,
      * 'error.pollEvents' event is triggered. On success, one or more Workflow events are processed
      * sequentially, triggering events in set {'workflowProgress', 'jobStarted', 'jobProgress',
-     * 'jobComplete', 'jobFailed'}.
+     * 'jobComplete', 'jobFailed'}. Events are requested in pages of at most maxEvents events, or
+     * of EVENTS_PAGE_SIZE events if maxEvents is not limited.
      *
      * @param maxEvents max number of events to process. Defaults to -1.
+     * @param waitMs if defined, max time (ms) the server may hold the request until new events
+     * arrive.
      * @return Promise configured with error and success callbacks which update state of this
      * Workflow and trigger events.
      */
-    pollEvents: function(maxEvents) {
+    pollEvents: function(maxEvents, waitMs) {
       if (maxEvents == null) maxEvents = -1;
 
       // stop polling if all jobs are done
@@ -262,6 +477,8 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
       // error handler
       var self = this;
       var handleError = function(textStatus, errorThrown) {
+        // requests are aborted when polling is stopped
+        if (textStatus == 'abort') return;
         console.error('Failed to poll events:', self, textStatus, errorThrown);
         if (++self.clientFailureCount > MAX_CLIENT_FAILURES)
           self.stopEventPolling();
@@ -278,82 +495,22 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
         // reset client failure count
         self.clientFailureCount = 0;
 
-        // process events
-        var eventCount = 0;
-        $.each(data, function(i, event) {
-          // validate event data
-          var id = event.id;
-          var type = event.type;
-          var data = event.payload;
-          if (!id || !type || !data) {
-            console.error('Invalid event data:', self, event);
-            return;
-          }
-
-          // skip events we've already processed
-          if (id <= self.lastEventId) return;
-
-          // don't process more than specified number of events
-          if (maxEvents > 0 && eventCount >= maxEvents) return;
-
-          // check for workflow event
-          if (type == 'WORKFLOW_PROGRESS') {
-            self.setProgress(data.workflowProgress);
-            return;
-          }
-
-          // collect job data
-          var node = data;
-          var job = node.job;
-          job.name = node.name;
-
-          // retrieve and update job with new data
-          job = self.updateJob(job);
-          self.jobsById[job.id] = job;
-
-          // process job event
-          switch (type) {
-          case 'JOB_STARTED':
-            console.info('Job started:', job);
-            job.status = 'RUNNING';
-            break;
-          case 'JOB_PROGRESS':
-            console.info('Job progress:', job);
-            if (job.isComplete == 'true') {
-              if (job.isSuccessful == 'true') {
-                job.status = 'COMPLETE';
-              } else {
-                job.status = 'FAILED';
-              }
-            }
-            break;
-          case 'JOB_FINISHED':
-            // TODO(Andy Schlaikjer): rename JOB_FINISHED to JOB_COMPLETE in server
-            type = 'JOB_COMPLETE';
-            console.info('Job complete:', job);
-            job.status = 'COMPLETE';
-            break;
-          case 'JOB_FAILED':
-            console.info('Job failed:', job);
-            job.status = 'FAILED';
-            break;
-          default:
-            console.error("Unsupported event type '" + type + "':", self, event);
-            return;
-          }
+        // local demo data is a plain array of events, server responses are pages
+        var events = data;
+        if (!$.isArray(data)) {
+          events = data.events || [];
+          self.eventCursor = data.cursor;
+        }
 
-          // update state and trigger event
-          eventCount++;
-          self.lastEventId = id;
-          self.trigger(type.toLowerCase().camelCase(), [job, event]);
-        });
+        self.processEvents(events, maxEvents);
 
         // update state and trigger event
-        self.trigger('eventsPolled', [data, textStatus, null]);
+        self.trigger('eventsPolled', [events, textStatus, null]);
       };
 
       // initiate request
-      return this.client.getEvents(this.id, this.lastEventId)
+      var limit = maxEvents > 0 ? maxEvents : EVENTS_PAGE_SIZE;
+      return this.client.getEvents(this.id, this.lastEventId, limit, this.eventCursor, waitMs)
         .error(function(jqXHR, textStatus, errorThrown) {
           handleError(textStatus, errorThrown);
         })
@@ -394,6 +551,32 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
       return $.extend(this.findJob(data), data);
     },
 
+    /**
+     * Applies a JSON merge patch to the existing job whose name or id matches that defined by
+     * data. Nested objects are patched recursively and null fields are removed, so only the
+     * fields present in data are changed.
+     *
+     * @param data merge patch containing job name or id fields and changed fields.
+     * @return the updated job object.
+     * @throws Error if no existing job with matching name or id exists.
+     */
+    patchJob: function(data) {
+      var merge = function(target, patch) {
+        $.each(patch, function(key, value) {
+          if (value === null) {
+            delete target[key];
+          } else if ($.isPlainObject(value)) {
+            if (!$.isPlainObject(target[key])) target[key] = {};
+            merge(target[key], value);
+          } else {
+            target[key] = value;
+          }
+        });
+        return target;
+      };
+      return merge(this.findJob(data), data);
+    },
+
     /**
      * Retrieves existing job object given data containing job name or id fields.
      *
@@ -0,0 +1,79 @@
+package com.twitter.ambrose.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Checks that the {@link HadoopJobSerializer} of each runtime writes the Job subclass of the
+ * runtime as Jackson's bean serializer would.
+ */
+public class HadoopJobSerializerTestUtils {
+
+  /**
+   * Fills in a map reduce job state for a job to serialize.
+   */
+  public static <T extends MapReduceJobState> T mapReduceJobState(T state) {
+    state.setJobId("job_1");
+    state.setMapProgress(0.5f);
+    return state;
+  }
+
+  /**
+   * @return counters for a job to serialize, including a null group.
+   */
+  public static Map<String, CounterGroup> counterGroupMap() {
+    Map<String, CounterGroup.CounterInfo> counterInfoMap = Maps.newLinkedHashMap();
+    counterInfoMap.put("MAP_INPUT_RECORDS",
+        new CounterGroup.CounterInfo("MAP_INPUT_RECORDS", "Map input records", 123));
+    Map<String, CounterGroup> counterGroupMap = Maps.newLinkedHashMap();
+    counterGroupMap.put("Task", new CounterGroup("Task", "Task Counters", counterInfoMap));
+    counterGroupMap.put("Empty", null);
+    return counterGroupMap;
+  }
+
+  /**
+   * Asserts that DAG nodes of a job and of an empty job are serialized as the bean serializer
+   * would. The job is given a configuration, a configuration id and metrics first.
+   *
+   * @param job job with the fields of its runtime set, from {@link #mapReduceJobState} and
+   * {@link #counterGroupMap()}.
+   * @param emptyJob job of the same class with no fields set.
+   */
+  public static void assertSerializedAsBean(Job job, Job emptyJob) throws IOException {
+    ObjectMapper beanMapper = new ObjectMapper()
+        .setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+          @Override
+          public Object findSerializer(Annotated a) {
+            return null;
+          }
+        })
+        .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    // the subtype is named by its JsonTypeName annotation
+    beanMapper.registerSubtypes(job.getClass());
+
+    Properties properties = new Properties();
+    properties.setProperty("someprop", "propvalue");
+    job.setConfiguration(properties);
+    job.setConfigurationId("configuration-1");
+    Map<String, Number> metrics = Maps.newHashMap();
+    metrics.put("somemetric", 6);
+    job.setMetrics(metrics);
+
+    DAGNode<Job> node = new DAGNode<Job>("dag name", job);
+    assertEquals(beanMapper.writeValueAsString(node), node.toJson());
+    DAGNode<Job> emptyNode = new DAGNode<Job>("empty", emptyJob);
+    assertEquals(beanMapper.writeValueAsString(emptyNode), emptyNode.toJson());
+  }
+}
@@ -0,0 +1,80 @@
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.twitter.ambrose.model.ModelTestUtils.assertJobEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link JobProgressEncoder}.
+ */
+public class JobProgressEncoderTest {
+  private JobProgressEncoder encoder;
+  private Map<String, Number> metrics;
+  private DAGNode<Job> node;
+  private Job snapshot;
+
+  @Before
+  public void setup() throws IOException {
+    Properties properties = new Properties();
+    for (int i = 0; i < 100; i++) {
+      properties.setProperty("some.property." + i, "value " + i);
+    }
+    metrics = Maps.newHashMap();
+    metrics.put("mapProgress", 0);
+    metrics.put("reduceProgress", 0);
+    node = new DAGNode<Job>("scope-1", new Job("job-1", properties, metrics));
+    encoder = new JobProgressEncoder();
+
+    Event first = encoder.encode(node);
+    assertEquals(Event.Type.JOB_PROGRESS, first.getType());
+    snapshot = Job.fromJson(node.getJob().toJson());
+  }
+
+  private Event.JobProgressDeltaEvent encodeDelta() throws IOException {
+    Event event = Event.fromJson(encoder.encode(node).toJson());
+    assertEquals(Event.Type.JOB_PROGRESS_DELTA, event.getType());
+    return (Event.JobProgressDeltaEvent) event;
+  }
+
+  @Test
+  public void testDelta() throws IOException {
+    metrics.put("mapProgress", 50);
+    Event.JobProgressDeltaEvent delta = encodeDelta();
+    assertEquals("scope-1", delta.getNodeName());
+    assertEquals(1, ((Map) delta.getJobDelta()).size());
+    assertTrue(delta.toJson().length() * 10 < node.getJob().toJson().length());
+    assertJobEquals(node.getJob(), JobProgressEncoder.applyDelta(snapshot, delta));
+  }
+
+  @Test
+  public void testDeltaIsCumulative() throws IOException {
+    metrics.put("mapProgress", 50);
+    encodeDelta();
+    metrics.put("mapProgress", 0);
+    metrics.put("reduceProgress", 10);
+    node.getJob().getConfiguration().remove("some.property.0");
+    Event.JobProgressDeltaEvent delta = encodeDelta();
+    assertJobEquals(node.getJob(), JobProgressEncoder.applyDelta(snapshot, delta));
+    Map<?, ?> metricsDelta = (Map) ((Map) delta.getJobDelta()).get("metrics");
+    assertEquals(0, metricsDelta.get("mapProgress"));
+  }
+
+  @Test
+  public void testLargeChangeSendsSnapshot() throws IOException {
+    node.getJob().setConfiguration(new Properties());
+    assertEquals(Event.Type.JOB_PROGRESS, encoder.encode(node).getType());
+    metrics.put("mapProgress", 50);
+    assertEquals(Event.Type.JOB_PROGRESS_DELTA, encoder.encode(node).getType());
+    encoder.reset();
+    assertEquals(Event.Type.JOB_PROGRESS, encoder.encode(node).getType());
+  }
+}
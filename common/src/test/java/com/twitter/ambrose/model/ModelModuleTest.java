@@ -0,0 +1,99 @@
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link ModelModule}, comparing its output to that of Jackson's bean serializers.
+ */
+public class ModelModuleTest {
+  private static final TypeReference<Event<?>> EVENT_TYPE = new TypeReference<Event<?>>() { };
+
+  private final ObjectMapper beanMapper = new ObjectMapper()
+      .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+  private static DAGNode<Job> node(String name) {
+    Properties properties = new Properties();
+    properties.setProperty("mapred.job.name", name);
+    Map<String, Number> metrics = Maps.newHashMap();
+    metrics.put("mapProgress", 0.5);
+    metrics.put("numberMaps", 3);
+    Job job = new Job("job_" + name, properties, metrics);
+    job.setConfigurationId("configuration-1");
+    DAGNode<Job> node = new DAGNode<Job>(name, job);
+    node.setSuccessors(Lists.<DAGNode<? extends Job>>newArrayList(new DAGNode<Job>("next", null)));
+    return node;
+  }
+
+  private void assertSameJson(Object value, TypeReference<?> type) throws IOException {
+    String json = JSONUtil.toJson(value);
+    assertEquals(beanMapper.writeValueAsString(value), json);
+    Object valueAgain = JSONUtil.toObject(json, type);
+    assertEquals(json, JSONUtil.toJson(valueAgain));
+    assertEquals(json, beanMapper.writeValueAsString(valueAgain));
+  }
+
+  @Test
+  public void testEvents() throws IOException {
+    assertSameJson(new Event.JobStartedEvent(node("scope-1")), EVENT_TYPE);
+    assertSameJson(new Event.JobProgressEvent(new DAGNode<Job>("scope-2", null)), EVENT_TYPE);
+    assertSameJson(new Event.JobFinishedEvent(node("scope-3")), EVENT_TYPE);
+    assertSameJson(new Event.JobFailedEvent(node("scope-4")), EVENT_TYPE);
+    assertSameJson(new Event.JobProgressDeltaEvent("scope-5",
+        ImmutableMap.of("metrics", ImmutableMap.of("mapProgress", 1))), EVENT_TYPE);
+    assertSameJson(new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "10")), EVENT_TYPE);
+  }
+
+  @Test
+  public void testEventIdAndTimestamp() throws IOException {
+    Event<?> event = Event.fromJson(
+        new Event.JobStartedEvent(node("scope-1")).withId(42).toJson());
+    assertEquals(42, event.getId());
+    event = Event.fromJson("{\"type\":\"WORKFLOW_PROGRESS\",\"timestamp\":7,\"id\":3,"
+        + "\"unknown\":[1,{}],\"payload\":{\"workflowProgress\":\"50\"}}");
+    assertEquals(3, event.getId());
+    assertEquals(7, event.getTimestamp());
+    assertEquals("50", ((Map<?, ?>) event.getPayload())
+        .get(Event.WorkflowProgressField.workflowProgress));
+  }
+
+  @Test
+  public void testHadoopState() throws IOException {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setJobId("job_1");
+    state.setTrackingURL("http://tracker/job_1");
+    state.setMapProgress(0.25f);
+    state.setJobStartTime(1357020000000L);
+    state.setTotalMappers(10);
+    state.setComplete(true);
+    assertSameJson(state, new TypeReference<MapReduceJobState>() { });
+
+    Map<String, CounterGroup.CounterInfo> counterInfoMap = Maps.newLinkedHashMap();
+    counterInfoMap.put("MAP_INPUT_RECORDS",
+        new CounterGroup.CounterInfo("MAP_INPUT_RECORDS", "Map input records", 123));
+    counterInfoMap.put("NO_DISPLAY_NAME", new CounterGroup.CounterInfo("NO_DISPLAY_NAME", null, 0));
+    assertSameJson(Arrays.asList(new CounterGroup("Task", "Task Counters", counterInfoMap),
+        new CounterGroup("Empty", null, null)), new TypeReference<List<CounterGroup>>() { });
+  }
+}
@@ -0,0 +1,48 @@
+package com.twitter.ambrose.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link APIHandler}.
+ */
+public class APIHandlerTest {
+  private static HttpServletRequest request(final String accept) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(), new Class[] { HttpServletRequest.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("getHeader") && "Accept".equals(args[0])
+                ? accept : null;
+          }
+        });
+  }
+
+  private static void assertFormat(JSONUtil.Format expected, String accept) {
+    assertEquals(accept, expected, APIHandler.getFormat(request(accept)));
+  }
+
+  @Test
+  public void testGetFormat() {
+    assertFormat(JSONUtil.Format.JSON, null);
+    assertFormat(JSONUtil.Format.JSON, "*/*");
+    assertFormat(JSONUtil.Format.JSON, "application/json");
+    assertFormat(JSONUtil.Format.JSON, "text/html,application/xhtml+xml,*/*;q=0.8");
+    assertFormat(JSONUtil.Format.SMILE, "application/x-jackson-smile");
+    assertFormat(JSONUtil.Format.SMILE, "application/x-jackson-smile, application/json;q=0.5");
+    assertFormat(JSONUtil.Format.SMILE, "application/json;q=0.9, Application/X-Jackson-Smile");
+    assertFormat(JSONUtil.Format.JSON, "application/x-jackson-smile;q=0.5, application/json");
+    assertFormat(JSONUtil.Format.JSON, "application/x-jackson-smile;q=0");
+    assertFormat(JSONUtil.Format.JSON, "application/x-jackson-smile;q=bad");
+  }
+}
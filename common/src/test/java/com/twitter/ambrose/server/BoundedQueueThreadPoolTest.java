@@ -0,0 +1,132 @@
+package com.twitter.ambrose.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mortbay.thread.QueuedThreadPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BoundedQueueThreadPool}.
+ */
+public class BoundedQueueThreadPoolTest {
+  private final CountDownLatch started = new CountDownLatch(2);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private BoundedQueueThreadPool pool;
+
+  @After
+  public void cleanup() throws Exception {
+    release.countDown();
+    if (pool != null) {
+      pool.stop();
+    }
+  }
+
+  private Runnable blockingJob() {
+    return new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  @Test
+  public void testRejectsWhenQueueFull() throws Exception {
+    pool = new BoundedQueueThreadPool(2, 1, 60000);
+    pool.start();
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(2, pool.getThreads());
+    assertEquals(0, pool.getIdleThreads());
+    assertFalse(pool.isLowOnThreads());
+
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(pool.isLowOnThreads());
+    assertFalse(pool.dispatch(blockingJob()));
+
+    // once threads free up, queued work runs and new work is accepted again
+    final CountDownLatch ran = new CountDownLatch(1);
+    release.countDown();
+    assertTrue(dispatchUntilAccepted(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    }));
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testIdleThreadsTimeOut() throws Exception {
+    pool = new BoundedQueueThreadPool(2, 1, 50);
+    pool.start();
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(2, pool.getThreads());
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pool.getThreads() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getThreads());
+  }
+
+  @Test
+  public void testMinThreadsKept() throws Exception {
+    pool = new BoundedQueueThreadPool(1, 2, 1, 50);
+    pool.start();
+    assertEquals(1, pool.getThreads());
+
+    // threads are still started up to the max before jobs are queued
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(pool.dispatch(blockingJob()));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(2, pool.getThreads());
+    assertTrue(pool.dispatch(blockingJob()));
+    assertFalse(pool.dispatch(blockingJob()));
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pool.getThreads() > 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(200);
+    assertEquals(1, pool.getThreads());
+  }
+
+  @Test
+  public void testCreatedWhenMaxQueuedSet() {
+    assertTrue(ScriptStatusServer.createThreadPool() instanceof QueuedThreadPool);
+    System.setProperty(ScriptStatusServer.MAX_QUEUED_PARAM, "10");
+    try {
+      assertTrue(ScriptStatusServer.createThreadPool() instanceof BoundedQueueThreadPool);
+    } finally {
+      System.clearProperty(ScriptStatusServer.MAX_QUEUED_PARAM);
+    }
+  }
+
+  private boolean dispatchUntilAccepted(Runnable job) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!pool.dispatch(job)) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,134 @@
+package com.twitter.ambrose.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CompressingResponse}.
+ */
+public class CompressingResponseTest {
+  private static final String BODY = Strings.repeat("{\"mapred.job.name\" : \"job\"}\n", 100);
+
+  private ByteArrayOutputStream body;
+  private Map<String, Object> headers;
+  private HttpServletResponse response;
+
+  private static HttpServletRequest request(final String acceptEncoding) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(), new Class[] { HttpServletRequest.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("getHeader") ? acceptEncoding : null;
+          }
+        });
+  }
+
+  @Before
+  public void setup() {
+    body = new ByteArrayOutputStream();
+    headers = Maps.newHashMap();
+    final ServletOutputStream out = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    };
+    response = (HttpServletResponse) Proxy.newProxyInstance(
+        HttpServletResponse.class.getClassLoader(), new Class[] { HttpServletResponse.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getOutputStream")) {
+              return out;
+            } else if (name.equals("getCharacterEncoding")) {
+              return "UTF-8";
+            } else if (name.equals("setHeader") || name.equals("addHeader")) {
+              headers.put((String) args[0], args[1]);
+            } else if (name.equals("setContentLength")) {
+              headers.put("Content-Length", args[0]);
+            }
+            return null;
+          }
+        });
+  }
+
+  private void write(CompressingResponse compressingResponse, String text) throws IOException {
+    PrintWriter writer = compressingResponse.getWriter();
+    writer.write(text);
+    writer.close();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+  }
+
+  @Test
+  public void testGetEncoding() {
+    assertNull(CompressingResponse.getEncoding(request(null)));
+    assertNull(CompressingResponse.getEncoding(request("identity")));
+    assertEquals("gzip", CompressingResponse.getEncoding(request("gzip, deflate")));
+    assertEquals("deflate", CompressingResponse.getEncoding(request("gzip;q=0, deflate")));
+    assertEquals("deflate", CompressingResponse.getEncoding(request("gzip;q=0.5,deflate")));
+    assertEquals("gzip", CompressingResponse.getEncoding(request("*")));
+    assertNull(CompressingResponse.getEncoding(request("*;q=0")));
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    write(new CompressingResponse(response, "gzip", 1024, 6), BODY);
+    assertEquals("gzip", headers.get("Content-Encoding"));
+    assertEquals("Accept-Encoding", headers.get("Vary"));
+    assertTrue(body.size() * 10 < BODY.length());
+    assertEquals(BODY, read(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testETagOfCompressedBody() throws IOException {
+    CompressingResponse compressingResponse = new CompressingResponse(response, "gzip", 1024, 6);
+    compressingResponse.setHeader("ETag", "\"abc-1\"");
+    write(compressingResponse, BODY);
+    assertEquals("\"abc-1-gzip\"", headers.get("ETag"));
+  }
+
+  @Test
+  public void testDeflate() throws IOException {
+    write(new CompressingResponse(response, "deflate", 1024, 9), BODY);
+    assertEquals("deflate", headers.get("Content-Encoding"));
+    assertEquals(BODY, read(new InflaterInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testSmallBodyNotCompressed() throws IOException {
+    write(new CompressingResponse(response, "gzip", 1024, 6), "[ ]");
+    assertNull(headers.get("Content-Encoding"));
+    assertEquals(3, headers.get("Content-Length"));
+    assertEquals("[ ]", new String(body.toByteArray(), Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,146 @@
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.impl.InMemoryStatsService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link EventChannelHub} and {@link EventChannel}.
+ */
+public class EventChannelHubTest {
+  private static final long POLL_MS = 5000;
+
+  private InMemoryStatsService service;
+  private EventChannelHub hub;
+
+  private static Event event() {
+    return new Event.JobProgressEvent(new DAGNode<Job>("job", null));
+  }
+
+  private static List<Long> ids(EventChannel.Batch batch) {
+    List<Long> ids = Lists.newArrayList();
+    for (Event event : batch.getEvents()) {
+      ids.add(event.getId());
+    }
+    return ids;
+  }
+
+  @Before
+  public void setup() {
+    service = new InMemoryStatsService();
+    hub = new EventChannelHub(service);
+  }
+
+  @After
+  public void cleanup() {
+    hub.stop();
+  }
+
+  @Test
+  public void testSubscribe() throws IOException, InterruptedException {
+    service.pushEvent("a", event());
+    service.pushEvent("a", event());
+    EventChannel fromStart = hub.open();
+    EventChannel fromNow = hub.open();
+    hub.subscribe(fromStart, "a", 0L);
+    hub.subscribe(fromNow, "a", null);
+    assertEquals(ImmutableList.of(1L, 2L), ids(fromStart.poll(POLL_MS)));
+
+    service.pushEvent("a", event());
+    service.pushEvent("b", event());
+    assertEquals(ImmutableList.of(3L), ids(fromStart.poll(POLL_MS)));
+    EventChannel.Batch batch = fromNow.poll(POLL_MS);
+    assertEquals("a", batch.getWorkflowId());
+    assertEquals(ImmutableList.of(3L), ids(batch));
+  }
+
+  @Test
+  public void testDispatchInBatches() throws IOException, InterruptedException {
+    int count = 2 * APIHandler.MAX_EVENTS_LIMIT + 1;
+    for (int i = 0; i < count; i++) {
+      service.pushEvent("a", event());
+    }
+    EventChannel channel = hub.open();
+    hub.subscribe(channel, "a", 0L);
+    long lastEventId = 0;
+    while (lastEventId < count) {
+      List<Long> ids = ids(channel.poll(POLL_MS));
+      assertTrue(ids.size() <= APIHandler.MAX_EVENTS_LIMIT);
+      assertEquals(lastEventId + 1, (long) ids.get(0));
+      lastEventId = ids.get(ids.size() - 1);
+    }
+    assertEquals(count, lastEventId);
+  }
+
+  @Test
+  public void testMultiplexedWorkflows() throws IOException, InterruptedException {
+    EventChannel channel = hub.open();
+    hub.subscribe(channel, "a", null);
+    hub.subscribe(channel, "b", null);
+    service.pushEvent("a", event());
+    assertEquals("a", channel.poll(POLL_MS).getWorkflowId());
+    service.pushEvent("b", event());
+    assertEquals("b", channel.poll(POLL_MS).getWorkflowId());
+
+    hub.unsubscribe(channel, "a");
+    service.pushEvent("a", event());
+    service.pushEvent("b", event());
+    EventChannel.Batch batch = channel.poll(POLL_MS);
+    assertEquals("b", batch.getWorkflowId());
+    assertEquals(ImmutableList.of(4L), ids(batch));
+  }
+
+  @Test
+  public void testFollowCurrentWorkflow() throws IOException, InterruptedException {
+    service.sendDagNodeNameMap("a", ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("a", event());
+    service.pushEvent("a", event());
+    EventChannel channel = hub.open();
+    hub.subscribe(channel, null, 0L);
+    assertEquals(ImmutableList.of(1L, 2L), ids(channel.poll(POLL_MS)));
+
+    // the subscription moves on to the next workflow without skipping its events
+    service.sendDagNodeNameMap("b", ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("b", event());
+    EventChannel.Batch batch = channel.poll(POLL_MS);
+    assertNull(batch.getWorkflowId());
+    assertEquals(ImmutableList.of(3L), ids(batch));
+  }
+
+  @Test
+  public void testClose() throws IOException, InterruptedException {
+    EventChannel channel = hub.open();
+    hub.subscribe(channel, "a", null);
+    assertEquals(channel, hub.get(channel.getId()));
+    hub.close(channel);
+    assertTrue(channel.isClosed());
+    assertNull(hub.get(channel.getId()));
+    assertNull(channel.poll(POLL_MS));
+  }
+
+  @Test
+  public void testChannelEvictedWhenFull() throws InterruptedException {
+    EventChannel channel = new EventChannel("id", 2);
+    assertTrue(channel.offer("a", ImmutableList.of(event(), event())));
+    assertFalse(channel.offer("a", ImmutableList.of(event())));
+    assertTrue(channel.isClosed());
+    assertNull(channel.poll(POLL_MS));
+  }
+}
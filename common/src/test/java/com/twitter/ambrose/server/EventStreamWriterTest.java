@@ -0,0 +1,46 @@
+package com.twitter.ambrose.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link EventStreamWriter}.
+ */
+public class EventStreamWriterTest {
+
+  @Test
+  public void testWriteEvents() throws IOException {
+    Event event = new Event.JobStartedEvent(new DAGNode<Job>("a", null)).withId(42);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EventStreamWriter writer = new EventStreamWriter(out);
+    writer.writeEvents(ImmutableList.of(event, event.withId(43)));
+    writer.writeHeartbeat();
+    String stream = out.toString("UTF-8");
+
+    String[] frames = stream.split("\n\n");
+    assertEquals(3, frames.length);
+    assertEquals(":", frames[2]);
+    assertTrue(frames[0].startsWith("id: 42\ndata: "));
+    assertTrue(frames[1].startsWith("id: 43\ndata: "));
+    StringBuilder json = new StringBuilder();
+    List<String> lines = ImmutableList.copyOf(frames[0].split("\n"));
+    for (String line : lines.subList(1, lines.size())) {
+      assertTrue("Not a data line: " + line, line.startsWith("data: "));
+      json.append(line.substring("data: ".length())).append('\n');
+    }
+    assertEquals(JSONUtil.toJson(event), json.toString().trim());
+  }
+}
@@ -0,0 +1,199 @@
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.impl.InMemoryStatsService;
+
+/**
+ * Times /dag requests to a {@link ScriptStatusServer} while viewers hold long polls of /events
+ * open, as browsers showing a running workflow do, and reports the p50, p99 and max latency of
+ * the requests. No events are pushed, so long polls wait until they time out, holding a
+ * connection each, and a thread each with the blocking connector. Long polls are held by
+ * non-blocking sockets, so the client needs no thread per viewer. Each viewer count is run against
+ * a new server configured with the system properties of {@link ScriptStatusServer}. Run with the
+ * test classpath of this module, optionally passing the number of /dag requests per run and the
+ * viewer counts:
+ * <pre>
+ * $ java -cp ... -Dambrose.server.max.threads=50 -Dambrose.server.connector=nio \
+ *     com.twitter.ambrose.server.ServerLoadBenchmark 1000 0 1000 4000
+ * </pre>
+ * Requests are sent by {@value #REQUEST_THREADS} threads, after {@value #WARMUP_REQUESTS}
+ * requests warming up the server. Requests which fail or take longer than
+ * {@value #TIMEOUT_MS} ms are counted as failed.
+ */
+public class ServerLoadBenchmark {
+  private static final int REQUEST_THREADS = 20;
+  private static final int WARMUP_REQUESTS = 200;
+  private static final int TIMEOUT_MS = 5000;
+  private static final int DAG_NODES = 20;
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    List<Integer> viewerCounts = Lists.newArrayList();
+    for (int i = 1; i < args.length; i++) {
+      viewerCounts.add(Integer.parseInt(args[i]));
+    }
+    if (viewerCounts.isEmpty()) {
+      viewerCounts = Arrays.asList(0, 1000, 4000);
+    }
+
+    System.out.println(String.format("%d /dag requests from %d threads, connector %s",
+        requests, REQUEST_THREADS, System.getProperty(ScriptStatusServer.CONNECTOR_PARAM,
+            ScriptStatusServer.CONNECTOR_NIO)));
+    System.out.println(String.format("%8s %10s %10s %10s %8s", "viewers", "p50 ms", "p99 ms",
+        "max ms", "failed"));
+    for (int viewers : viewerCounts) {
+      run(requests, viewers);
+    }
+  }
+
+  private static void run(int requests, int viewers) throws Exception {
+    InMemoryStatsService service = new InMemoryStatsService(null, null);
+    service.sendDagNodeNameMap(null, dag());
+    int port = freePort();
+    System.setProperty(ScriptStatusServer.PORT_PARAM, Integer.toString(port));
+    ScriptStatusServer server = new ScriptStatusServer(service, service);
+    server.start();
+    List<SocketChannel> polls = Lists.newArrayListWithCapacity(viewers);
+    try {
+      awaitListening(port);
+      byte[] poll = ("GET /events?lastEventId=-1&waitMs=60000 HTTP/1.1\r\n"
+          + "Host: localhost\r\n\r\n").getBytes(Charsets.UTF_8);
+      for (int i = 0; i < viewers; i++) {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        channel.write(ByteBuffer.wrap(poll));
+        channel.configureBlocking(false);
+        polls.add(channel);
+      }
+      // lets the server read and suspend the long polls
+      Thread.sleep(1000);
+
+      URL url = new URL("http://localhost:" + port + "/dag");
+      time(url, WARMUP_REQUESTS);
+      long[] latencies = time(url, requests);
+      int failed = 0;
+      while (failed < latencies.length && latencies[failed] < 0) {
+        failed++;
+      }
+      long[] succeeded = Arrays.copyOfRange(latencies, failed, latencies.length);
+      System.out.println(String.format("%8d %10s %10s %10s %8d", viewers,
+          percentile(succeeded, 0.5), percentile(succeeded, 0.99), percentile(succeeded, 1),
+          failed));
+    } finally {
+      for (SocketChannel channel : polls) {
+        channel.close();
+      }
+      server.stop();
+    }
+  }
+
+  /**
+   * Sends requests from all request threads.
+   *
+   * @return sorted latencies in ms, with -1 for failed requests.
+   */
+  private static long[] time(final URL url, final int requests) throws InterruptedException {
+    final long[] latencies = new long[requests];
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(REQUEST_THREADS);
+    for (int t = 0; t < REQUEST_THREADS; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          int i;
+          while ((i = next.getAndIncrement()) < requests) {
+            long start = System.nanoTime();
+            latencies[i] = get(url) ? (System.nanoTime() - start) / 1000000 : -1;
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    done.await();
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static boolean get(URL url) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(TIMEOUT_MS);
+      connection.setReadTimeout(TIMEOUT_MS);
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return false;
+      }
+      // responses are read to the end, so the connection is kept alive for the next request
+      InputStream in = connection.getInputStream();
+      try {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) >= 0) {
+          // discard
+        }
+      } finally {
+        in.close();
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static String percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return "-";
+    }
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return Long.toString(sorted[Math.max(0, index)]);
+  }
+
+  private static Map<String, DAGNode<Job>> dag() {
+    Map<String, DAGNode<Job>> dag = Maps.newLinkedHashMap();
+    for (int i = 0; i < DAG_NODES; i++) {
+      Map<String, Number> metrics = Maps.newHashMap();
+      metrics.put("mapProgress", 0.5);
+      metrics.put("reduceProgress", 0.0);
+      dag.put("scope-" + i,
+          new DAGNode<Job>("scope-" + i, new Job("job_" + i, null, metrics)));
+    }
+    return dag;
+  }
+
+  private static int freePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static void awaitListening(int port) throws InterruptedException {
+    while (true) {
+      try {
+        new Socket("localhost", port).close();
+        return;
+      } catch (IOException e) {
+        Thread.sleep(50);
+      }
+    }
+  }
+}
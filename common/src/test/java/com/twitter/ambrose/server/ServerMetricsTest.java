@@ -0,0 +1,75 @@
+package com.twitter.ambrose.server;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.service.impl.InMemoryStatsService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ServerMetrics}.
+ */
+public class ServerMetricsTest {
+  private ServerMetrics metrics;
+
+  @Before
+  public void setup() {
+    metrics = new ServerMetrics(new InMemoryStatsService());
+  }
+
+  private String prometheus() throws IOException {
+    StringWriter out = new StringWriter();
+    metrics.writePrometheus(out);
+    return out.toString();
+  }
+
+  @Test
+  public void testPrometheus() throws IOException {
+    metrics.record("/dag", 2000000, 200, 100);
+    metrics.record("/dag", 20000000, 500, 10);
+    metrics.record("static", 1000, 404, 0);
+    String text = prometheus();
+    assertTrue(text.contains("# TYPE ambrose_http_requests_total counter\n"));
+    assertTrue(text.contains("ambrose_http_requests_total{endpoint=\"/dag\"} 2\n"));
+    assertTrue(text.contains("ambrose_http_request_errors_total{endpoint=\"/dag\"} 1\n"));
+    assertTrue(text.contains("ambrose_http_request_client_errors_total{endpoint=\"static\"} 1\n"));
+    assertTrue(text.contains("ambrose_http_response_bytes_total{endpoint=\"/dag\"} 110\n"));
+    assertTrue(text.contains(
+        "ambrose_http_request_duration_seconds_bucket{endpoint=\"/dag\",le=\"0.001\"} 0\n"));
+    assertTrue(text.contains(
+        "ambrose_http_request_duration_seconds_bucket{endpoint=\"/dag\",le=\"0.0025\"} 1\n"));
+    assertTrue(text.contains(
+        "ambrose_http_request_duration_seconds_bucket{endpoint=\"/dag\",le=\"0.025\"} 2\n"));
+    assertTrue(text.contains(
+        "ambrose_http_request_duration_seconds_bucket{endpoint=\"/dag\",le=\"+Inf\"} 2\n"));
+    assertTrue(text.contains("ambrose_http_request_duration_seconds_count{endpoint=\"/dag\"} 2\n"));
+    assertTrue(text.contains("ambrose_store_events_pushed_total 0\n"));
+  }
+
+  @Test
+  public void testJson() throws IOException {
+    metrics.record("/events", 1000, -1, 0);
+    Map<String, Object> object = metrics.toJsonObject();
+    Map<?, ?> endpoint = (Map) ((Map) object.get("endpoints")).get("/events");
+    assertEquals(1L, endpoint.get("requests"));
+    assertEquals(1L, endpoint.get("errors"));
+    assertTrue(object.containsKey("store"));
+  }
+
+  @Test
+  public void testEndpoints() {
+    assertEquals("/dag", MetricsHandler.getEndpoint("/dag"));
+    assertEquals("/events", MetricsHandler.getEndpoint("/events"));
+    assertEquals("/ingest/dag", MetricsHandler.getEndpoint("/ingest/dag"));
+    assertEquals("/ingest/events", MetricsHandler.getEndpoint("/ingest/events"));
+    assertEquals("/ingest/configuration", MetricsHandler.getEndpoint("/ingest/configuration"));
+    assertEquals("/replay", MetricsHandler.getEndpoint("/replay"));
+    assertEquals("static", MetricsHandler.getEndpoint("/index.html"));
+  }
+}
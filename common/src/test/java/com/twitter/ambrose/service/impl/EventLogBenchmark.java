@@ -0,0 +1,182 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import com.twitter.ambrose.model.Event;
+
+/**
+ * Times concurrent pollers reading the events of a workflow while they are pushed, from an
+ * {@link EventLog} and from the synchronized skip list map which held them before. Each poller
+ * repeatedly reads the last events of the workflow and copies them to an array, as /events did,
+ * while a single writer pushes events at a bounded rate. Run with the test classpath of this
+ * module, optionally passing the duration of each run in ms and the poller counts:
+ * <pre>
+ * $ java -cp ... com.twitter.ambrose.service.impl.EventLogBenchmark 3000 1 8 64
+ * </pre>
+ * Each store and poller count is run twice, and the second run, after the JIT warmed up, reported.
+ */
+public class EventLogBenchmark {
+  private static final int PREFILLED_EVENTS = 10000;
+  // events read per poll, as a client polling each second reads those pushed since
+  private static final int WINDOW = 100;
+  private static final int EVENTS_PER_WRITER_PAUSE = 100;
+
+  /**
+   * Events of a workflow, written by one writer and polled by many readers.
+   */
+  private interface Store {
+    void push(Event event) throws IOException;
+
+    Collection<Event> getEventsSinceId(long eventId);
+  }
+
+  /**
+   * Store as it was before EventLog: writes and reads share a monitor, and reads return a view of
+   * the skip list.
+   */
+  private static class SkipListStore implements Store {
+    private final SortedMap<Integer, Event> eventMap = new ConcurrentSkipListMap<Integer, Event>();
+    private int lastId = 0;
+
+    @Override
+    public synchronized void push(Event event) {
+      Event committed = event.withId(++lastId);
+      eventMap.put((int) committed.getId(), committed);
+    }
+
+    @Override
+    public synchronized Collection<Event> getEventsSinceId(long eventId) {
+      return eventMap.tailMap((int) eventId + 1).values();
+    }
+  }
+
+  /**
+   * Store as it is now: writes are serialized by a monitor, reads don't lock.
+   */
+  private static class EventLogStore implements Store {
+    private final EventLog log = new EventLog();
+
+    @Override
+    public synchronized void push(Event event) throws IOException {
+      log.add(event);
+    }
+
+    @Override
+    public Collection<Event> getEventsSinceId(long eventId) {
+      return log.getEventsSinceId(eventId);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+    List<Integer> pollerCounts = Lists.newArrayList();
+    for (int i = 1; i < args.length; i++) {
+      pollerCounts.add(Integer.parseInt(args[i]));
+    }
+    if (pollerCounts.isEmpty()) {
+      pollerCounts.add(1);
+      pollerCounts.add(8);
+      pollerCounts.add(64);
+    }
+
+    System.out.println(String.format("%d cpus, %d ms per run",
+        Runtime.getRuntime().availableProcessors(), durationMs));
+    System.out.println(String.format("%-10s %8s %14s %14s", "store", "pollers", "polls/s",
+        "pushes/s"));
+    for (int pollers : pollerCounts) {
+      for (boolean skipList : new boolean[] { true, false }) {
+        Result result = null;
+        for (int run = 0; run < 2; run++) {
+          result = run(skipList ? new SkipListStore() : new EventLogStore(), pollers, durationMs);
+        }
+        System.out.println(String.format("%-10s %8d %14.0f %14.0f",
+            skipList ? "skiplist" : "eventlog", pollers, result.polls * 1000.0 / durationMs,
+            result.pushes * 1000.0 / durationMs));
+      }
+    }
+  }
+
+  private static class Result {
+    private final long polls;
+    private final long pushes;
+
+    private Result(long polls, long pushes) {
+      this.polls = polls;
+      this.pushes = pushes;
+    }
+  }
+
+  private static Result run(final Store store, int pollers, long durationMs) throws Exception {
+    final Event event = new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "50"));
+    for (int i = 0; i < PREFILLED_EVENTS; i++) {
+      store.push(event);
+    }
+    final AtomicLong pushed = new AtomicLong(PREFILLED_EVENTS);
+    final AtomicLong polls = new AtomicLong();
+    final AtomicBoolean stopped = new AtomicBoolean();
+    final CountDownLatch started = new CountDownLatch(1);
+    List<Thread> threads = Lists.newArrayList();
+
+    threads.add(new Thread() {
+      @Override
+      public void run() {
+        try {
+          started.await();
+          while (!stopped.get()) {
+            for (int i = 0; i < EVENTS_PER_WRITER_PAUSE; i++) {
+              store.push(event);
+            }
+            pushed.addAndGet(EVENTS_PER_WRITER_PAUSE);
+            // bounds the rate of pushes, so the log doesn't grow without bound
+            Thread.sleep(1);
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    for (int i = 0; i < pollers; i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            started.await();
+            long count = 0;
+            while (!stopped.get()) {
+              Collection<Event> events = store.getEventsSinceId(pushed.get() - WINDOW);
+              Event[] copy = events.toArray(new Event[events.size()]);
+              if (copy.length == 0) {
+                throw new IllegalStateException("Missing events");
+              }
+              count++;
+            }
+            polls.addAndGet(count);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    started.countDown();
+    Thread.sleep(durationMs);
+    stopped.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return new Result(polls.get(), pushed.get() - PREFILLED_EVENTS);
+  }
+}
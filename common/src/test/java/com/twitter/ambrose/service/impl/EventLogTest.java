@@ -0,0 +1,246 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.JobProgressEncoder;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link EventLog}.
+ */
+public class EventLogTest {
+  private EventLog log;
+
+  private static Event event(int id) {
+    return new Event<DAGNode<Job>>(id, Event.Type.JOB_PROGRESS, 0, null);
+  }
+
+  private static Event event(int id, Event.Type type, String jobName, long timestamp) {
+    return new Event<DAGNode<Job>>(id, type, timestamp, new DAGNode<Job>(jobName, null));
+  }
+
+  private static void assertIds(List<Event> events, int... ids) {
+    assertEquals("Wrong number of events returned", ids.length, events.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals("Wrong eventId found", ids[i], events.get(i).getId());
+    }
+  }
+
+  @Before
+  public void setup() {
+    log = new EventLog();
+  }
+
+  @Test
+  public void testAppend() throws IOException {
+    for (int id = 1; id <= 100; id++) {
+      log.add(event(id));
+    }
+    assertEquals(100, log.size());
+    assertEquals(100, log.getEventsSinceId(-1).size());
+    assertIds(log.getEventsSinceId(97), 98, 99, 100);
+    assertTrue(log.getEventsSinceId(100).isEmpty());
+  }
+
+  @Test
+  public void testIdsAssignedAtCommit() throws IOException {
+    Event first = event(5);
+    assertEquals(1, log.add(first).getId());
+    assertEquals(5, first.getId());
+    List<Event> before = log.getEventsSinceId(-1);
+    log.add(event(3));
+    log.add(event(3));
+    Event committed = log.add(new Event.JobStartedEvent(new DAGNode<Job>("a", null)));
+    assertEquals(Event.JobStartedEvent.class, committed.getClass());
+    assertIds(log.getEventsSinceId(-1), 1, 2, 3, 4);
+    assertIds(log.getEventsSinceId(2), 3, 4);
+    assertIds(before, 1);
+  }
+
+  @Test
+  public void testSliceNotAffectedByAppend() throws IOException {
+    log.add(event(1));
+    List<Event> before = log.getEventsSinceId(-1);
+    for (int id = 2; id <= 40; id++) {
+      log.add(event(id));
+    }
+    assertIds(before, 1);
+  }
+
+  @Test
+  public void testWriteJson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    log.getEventsSinceId(-1).writeJson(out);
+    assertEquals("[]", out.toString("UTF-8"));
+
+    DAGNode<Job> node = new DAGNode<Job>("a", null);
+    for (int id = 1; id <= 3; id++) {
+      log.add(new Event<DAGNode<Job>>(id, Event.Type.JOB_PROGRESS, 0, node));
+    }
+    node.setSuccessors(ImmutableList.<DAGNode<? extends Job>>of(new DAGNode<Job>("b", null)));
+    out.reset();
+    log.getEventsSinceId(1).writeJson(out);
+    String json = out.toString("UTF-8");
+    assertIds(JSONUtil.toObject(json, new TypeReference<List<Event>>() { }), 2, 3);
+    assertFalse("Modified payload was serialized: " + json, json.contains("successorNames"));
+  }
+
+  @Test
+  public void testLimit() throws IOException {
+    for (int id = 1; id <= 5; id++) {
+      log.add(event(id));
+    }
+    assertIds(log.getEventsSinceId(1, 2), 2, 3);
+    assertIds(log.getEventsSinceId(3, 10), 4, 5);
+    assertIds(log.getEventsSinceId(3, 0), 4, 5);
+    assertTrue(log.getEventsSinceId(5, 1).isEmpty());
+  }
+
+  @Test
+  public void testSubList() throws IOException {
+    for (int id = 1; id <= 5; id++) {
+      log.add(event(id));
+    }
+    EventLog.EventList events = log.getEventsSinceId(1).subList(1, 3);
+    assertIds(events, 3, 4);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    events.writeJson(out);
+    assertIds(JSONUtil.toObject(out.toString("UTF-8"), new TypeReference<List<Event>>() { }), 3, 4);
+    assertTrue(events.subList(2, 2).isEmpty());
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    log = new EventLog(new EventRetentionPolicy(0, 0, 0, true));
+    log.add(event(1, Event.Type.JOB_STARTED, "a", 0));
+    log.add(event(2, Event.Type.JOB_STARTED, "b", 0));
+    int id = 3;
+    for (int i = 0; i < 50; i++) {
+      log.add(event(id++, Event.Type.JOB_PROGRESS, "a", 0));
+      log.add(event(id++, Event.Type.JOB_PROGRESS, "b", 0));
+    }
+    log.add(event(id, Event.Type.JOB_FINISHED, "a", 0));
+
+    List<Event> events = log.getEventsSinceId(-1);
+    assertTrue("Too many events retained: " + events.size(), events.size() < 40);
+    assertIds(events.subList(0, 2), 1, 2);
+    assertIds(events.subList(events.size() - 3, events.size()), id - 2, id - 1, id);
+  }
+
+  @Test
+  public void testMaxEvents() throws IOException {
+    log = new EventLog(new EventRetentionPolicy(10, 0, 0, false));
+    for (int id = 1; id <= 11; id++) {
+      log.add(event(id));
+    }
+    assertIds(log.getEventsSinceId(-1), 3, 4, 5, 6, 7, 8, 9, 10, 11);
+  }
+
+  @Test
+  public void testMaxAge() throws Exception {
+    log = new EventLog(new EventRetentionPolicy(0, 0, 10, false));
+    long now = System.currentTimeMillis();
+    log.add(event(1, Event.Type.JOB_STARTED, "a", now - 1000));
+    Thread.sleep(5);
+    log.add(event(2, Event.Type.JOB_PROGRESS, "a", now - 1000));
+    Thread.sleep(5);
+    log.add(event(3, Event.Type.JOB_PROGRESS, "a", System.currentTimeMillis()));
+    // the expired job start is kept, as it is needed to rebuild the state of the job
+    assertIds(log.getEventsSinceId(-1), 1, 3);
+  }
+
+  @Test
+  public void testRebuildStateAfterTrim() throws IOException {
+    log = new EventLog(new EventRetentionPolicy(20, 0, 0, false));
+    EventLog fullLog = new EventLog();
+    JobProgressEncoder encoder = new JobProgressEncoder();
+    List<Event> events = Lists.newArrayList();
+    events.add(new Event.JobStartedEvent(node("a", 0)));
+    events.add(new Event.JobStartedEvent(node("b", 0)));
+    events.add(encoder.encode(node("b", 10)));
+    events.add(new Event.JobFailedEvent(node("b", 10)));
+    for (int i = 0; i <= 100; i++) {
+      events.add(encoder.encode(node("a", i)));
+      if (i % 10 == 0) {
+        events.add(new Event.WorkflowProgressEvent(ImmutableMap.of(
+            Event.WorkflowProgressField.workflowProgress, Integer.toString(i / 2))));
+      }
+    }
+    events.add(new Event.JobFinishedEvent(node("a", 100)));
+    for (Event event : events) {
+      log.add(event);
+      fullLog.add(event);
+    }
+
+    assertTrue("Too many events retained: " + log.size(), log.size() <= 20);
+    List<Event> retained = log.getEventsSinceId(-1);
+    assertEquals(Event.Type.JOB_PROGRESS_DELTA, retained.get(retained.size() - 3).getType());
+    assertEquals(rebuild(fullLog.getEventsSinceId(-1)), rebuild(log.getEventsSinceId(-1)));
+  }
+
+  private static DAGNode<Job> node(String name, int mapProgress) {
+    Map<String, Number> metrics = Maps.newHashMap();
+    metrics.put("mapProgress", mapProgress);
+    metrics.put("mapInputRecords", 1000 * mapProgress);
+    // a configuration large enough for progress to be sent as deltas
+    Properties configuration = new Properties();
+    for (int i = 0; i < 10; i++) {
+      configuration.setProperty("mapred.property." + i, "value " + i);
+    }
+    return new DAGNode<Job>(name, new Job("job_" + name, configuration, metrics));
+  }
+
+  /**
+   * Rebuilds the state of a workflow from its events as a client would, failing if a delta has no
+   * full progress of its job to apply to.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> rebuild(List<Event> events) throws IOException {
+    Map<String, Job> jobs = Maps.newHashMap();
+    Map<String, String> state = Maps.newTreeMap();
+    for (Event event : events) {
+      switch (event.getType()) {
+        case JOB_PROGRESS:
+          DAGNode<Job> node = (DAGNode<Job>) event.getPayload();
+          jobs.put(node.getName(), node.getJob());
+          state.put(node.getName() + ".metrics", String.valueOf(node.getJob().getMetrics()));
+          break;
+        case JOB_PROGRESS_DELTA:
+          Event.JobProgressDeltaEvent delta = (Event.JobProgressDeltaEvent) event;
+          Job base = jobs.get(delta.getNodeName());
+          assertNotNull("No full progress for delta " + delta.getId(), base);
+          state.put(delta.getNodeName() + ".metrics",
+              String.valueOf(JobProgressEncoder.applyDelta(base, delta).getMetrics()));
+          break;
+        case WORKFLOW_PROGRESS:
+          state.put("workflow", String.valueOf(event.getPayload()));
+          break;
+        default:
+          state.put(((DAGNode<Job>) event.getPayload()).getName() + ".status",
+              event.getType().name());
+      }
+    }
+    return state;
+  }
+}
@@ -0,0 +1,116 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Times writing /events responses from the json cached by {@link EventLog} against serializing the
+ * events again for each response, as /events did before. Events are job progress events carrying
+ * a configuration and metrics like those of Hadoop jobs. Run with the test classpath of this module,
+ * optionally passing the number of responses to write per case and the events per response:
+ * <pre>
+ * $ java -cp ... com.twitter.ambrose.service.impl.EventSerializationBenchmark 5000 100
+ * </pre>
+ * Responses are written to a reused buffer. CPU time and allocated bytes of the writing thread are
+ * reported per response, for the best of five rounds after a round warming up the JIT.
+ */
+public class EventSerializationBenchmark {
+  private static final int ROUNDS = 5;
+
+  private interface Writer {
+    void write(EventLog.EventList events, OutputStream out) throws IOException;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int responses = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int eventsPerResponse = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+    EventLog log = new EventLog();
+    for (int i = 0; i < eventsPerResponse; i++) {
+      log.add(new Event.JobProgressEvent(node(i)));
+    }
+    EventLog.EventList events = log.getEventsSinceId(-1);
+
+    Writer cached = new Writer() {
+      @Override
+      public void write(EventLog.EventList events, OutputStream out) throws IOException {
+        events.writeJson(out);
+      }
+    };
+    Writer serialized = new Writer() {
+      @Override
+      public void write(EventLog.EventList events, OutputStream out) throws IOException {
+        JSONUtil.writeJson(out, events.toArray(new Event[events.size()]));
+      }
+    };
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long responseBytes = count(cached, events);
+    if (responseBytes != count(serialized, events)) {
+      throw new IllegalStateException("Cached and serialized responses differ in size");
+    }
+    System.out.println(String.format("%d responses of %d events, %d bytes each", responses,
+        eventsPerResponse, responseBytes));
+    System.out.println(String.format("%-12s %16s %22s", "writer", "cpu us/response",
+        "allocated KB/response"));
+    // responses are copied to a reused buffer, as a servlet's output buffer would
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) responseBytes);
+    for (boolean cache : new boolean[] { true, false }) {
+      Writer writer = cache ? cached : serialized;
+      long bestCpu = Long.MAX_VALUE;
+      long bestAllocated = Long.MAX_VALUE;
+      for (int round = 0; round <= ROUNDS; round++) {
+        long thread = Thread.currentThread().getId();
+        long cpu = threads.getCurrentThreadCpuTime();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < responses; i++) {
+          out.reset();
+          writer.write(events, out);
+        }
+        // round 0 warms up
+        if (round > 0) {
+          bestCpu = Math.min(bestCpu, threads.getCurrentThreadCpuTime() - cpu);
+          bestAllocated =
+              Math.min(bestAllocated, threads.getThreadAllocatedBytes(thread) - allocated);
+        }
+      }
+      System.out.println(String.format("%-12s %16.1f %22.1f", cache ? "cached" : "serialized",
+          bestCpu / 1e3 / responses, bestAllocated / 1024.0 / responses));
+    }
+  }
+
+  private static long count(Writer writer, EventLog.EventList events) throws IOException {
+    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    writer.write(events, out);
+    return out.getCount();
+  }
+
+  private static DAGNode<Job> node(int index) {
+    Properties configuration = new Properties();
+    for (int i = 0; i < 50; i++) {
+      configuration.setProperty("mapred.property." + i, "value of property " + i);
+    }
+    Map<String, Number> metrics = Maps.newHashMap();
+    metrics.put("mapProgress", 0.5);
+    metrics.put("reduceProgress", 0.0);
+    metrics.put("numberMaps", 30);
+    metrics.put("numberReduces", 5);
+    metrics.put("hdfsBytesWritten", 123456789L);
+    Job job = new Job("job_" + index, configuration, metrics);
+    return new DAGNode<Job>("scope-" + index, job);
+  }
+}
@@ -0,0 +1,194 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.model.WorkflowSummary.Status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FileWorkflowIndexService}.
+ */
+public class FileWorkflowIndexServiceTest {
+  private File dir;
+  private File file;
+  private FileWorkflowIndexService service;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDir();
+    file = new File(dir, "workflows.log");
+    service = new FileWorkflowIndexService(file);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    service.close();
+    for (File child : dir.listFiles()) {
+      child.delete();
+    }
+    dir.delete();
+  }
+
+  private static WorkflowSummary summary(String id, String userId, Status status, int progress,
+      long createdAt) {
+    return new WorkflowSummary(id, userId, "name-" + id, status, progress, createdAt);
+  }
+
+  private static List<String> ids(PaginatedList<WorkflowSummary> page) {
+    List<String> ids = Lists.newArrayList();
+    for (WorkflowSummary summary : page.getResults()) {
+      ids.add(summary.getId());
+    }
+    return ids;
+  }
+
+  private List<String> getWorkflows(String cluster, Status status, String userId)
+      throws IOException {
+    return ids(service.getWorkflows(cluster, status, userId, 0, null));
+  }
+
+  @Test
+  public void testFilters() throws IOException {
+    service.putWorkflow("c1", summary("w1", "alice", Status.SUCCEEDED, 100, 1));
+    service.putWorkflow("c1", summary("w2", "bob", Status.RUNNING, 50, 2));
+    service.putWorkflow("c2", summary("w3", "alice", Status.RUNNING, 10, 3));
+    service.putWorkflow("c2", summary("w4", "bob", Status.FAILED, 20, 4));
+
+    assertEquals(ImmutableMap.of("c1", "c1", "c2", "c2"), service.getClusters());
+    assertEquals(ImmutableList.of("w4", "w3", "w2", "w1"), getWorkflows(null, null, null));
+    assertEquals(ImmutableList.of("w2", "w1"), getWorkflows("c1", null, null));
+    assertEquals(ImmutableList.of("w3", "w1"), getWorkflows(null, null, "alice"));
+    assertEquals(ImmutableList.of("w3", "w2"), getWorkflows(null, Status.RUNNING, null));
+    assertEquals(ImmutableList.of("w3"), getWorkflows("c2", Status.RUNNING, "alice"));
+    assertEquals(ImmutableList.of("w2"), getWorkflows("c1", Status.RUNNING, null));
+    assertEquals(ImmutableList.of("w4"), getWorkflows(null, Status.FAILED, "bob"));
+    assertTrue(getWorkflows("c1", Status.FAILED, null).isEmpty());
+    assertTrue(getWorkflows("c3", null, null).isEmpty());
+
+    // a summary put again supersedes the previous one in every index
+    service.putWorkflow("c1", summary("w3", "alice", Status.SUCCEEDED, 100, 3));
+    assertEquals(ImmutableList.of("w2"), getWorkflows(null, Status.RUNNING, null));
+    assertEquals(ImmutableList.of("w3", "w2", "w1"), getWorkflows("c1", null, null));
+    assertEquals(ImmutableList.of("w3", "w1"), getWorkflows("c1", Status.SUCCEEDED, null));
+    assertEquals(ImmutableList.of("w3", "w1"), getWorkflows(null, Status.SUCCEEDED, "alice"));
+    assertEquals(ImmutableMap.of("c1", "c1", "c2", "c2"), service.getClusters());
+    assertEquals(4, service.size());
+  }
+
+  @Test
+  public void testPagination() throws IOException {
+    List<String> expected = Lists.newArrayList();
+    for (int i = 0; i < 25; i++) {
+      // pairs of workflows created at the same time are ordered by id
+      service.putWorkflow("c1", summary("w" + (char) ('a' + i), "alice",
+          i % 2 == 0 ? Status.RUNNING : Status.SUCCEEDED, 0, 1000 - i / 2));
+      expected.add("w" + (char) ('a' + i));
+    }
+
+    List<String> ids = Lists.newArrayList();
+    byte[] startKey = null;
+    int pages = 0;
+    do {
+      PaginatedList<WorkflowSummary> page = service.getWorkflows("c1", null, null, 10, startKey);
+      ids.addAll(ids(page));
+      startKey = page.getNextPageStart() == null
+          ? null
+          : BaseEncoding.base64().decode(page.getNextPageStart());
+      pages++;
+    } while (startKey != null);
+    assertEquals(3, pages);
+    assertEquals(expected, ids);
+
+    PaginatedList<WorkflowSummary> page = service.getWorkflows(null, Status.RUNNING, null, 5, null);
+    assertEquals(ImmutableList.of("wa", "wc", "we", "wg", "wi"), ids(page));
+    page = service.getWorkflows(null, Status.RUNNING, null, 5,
+        BaseEncoding.base64().decode(page.getNextPageStart()));
+    assertEquals(ImmutableList.of("wk", "wm", "wo", "wq", "ws"), ids(page));
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+    service.putWorkflow("c1", summary("w1", "alice", Status.RUNNING, 50, 1));
+    service.putWorkflow(null, summary("w2", "bob", Status.RUNNING, 50, 2));
+    service.putWorkflow("c1", summary("w1", "alice", Status.SUCCEEDED, 100, 1));
+    service.close();
+
+    service = new FileWorkflowIndexService(file);
+    assertEquals(ImmutableList.of("w2", "w1"), getWorkflows(null, null, null));
+    WorkflowSummary summary = service.getWorkflows("c1", null, null, 1, null).getResults().get(0);
+    assertEquals(Status.SUCCEEDED, summary.getStatus());
+    assertEquals("name-w1", summary.getName());
+    assertEquals(ImmutableMap.of("c1", "c1"), service.getClusters());
+    service.close();
+
+    // a partial record left by a crash is truncated, recovering the summary it superseded
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 5);
+    } finally {
+      raf.close();
+    }
+    service = new FileWorkflowIndexService(file);
+    assertEquals(Status.RUNNING,
+        service.getWorkflows("c1", null, null, 1, null).getResults().get(0).getStatus());
+    service.putWorkflow("c1", summary("w3", "carol", Status.RUNNING, 0, 3));
+    assertEquals(ImmutableList.of("w3", "w2", "w1"), getWorkflows(null, null, null));
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    for (int progress = 0; progress < 10000; progress++) {
+      service.putWorkflow("c1", summary("w1", "alice", Status.RUNNING, progress % 100, 1));
+      service.putWorkflow("c1", summary("w2", "bob", Status.RUNNING, progress % 100, 2));
+    }
+    assertTrue("Log wasn't compacted", file.length() < 2 * 1024 * 1024);
+    assertEquals(99, service.getWorkflows(null, null, "alice", 1, null)
+        .getResults().get(0).getProgress());
+    service.close();
+
+    service = new FileWorkflowIndexService(file);
+    assertEquals(ImmutableList.of("w2", "w1"), getWorkflows(null, null, null));
+    assertNull(service.getWorkflows(null, null, null, 2, null).getNextPageStart());
+  }
+
+  @Test
+  public void testFailedCompaction() throws IOException {
+    // the temporary file of compactions can't be written while a directory takes its name
+    File tmpFile = new File(file.getPath() + ".tmp");
+    File blocker = new File(tmpFile, "blocker");
+    assertTrue(tmpFile.mkdir());
+    Files.touch(blocker);
+    for (int progress = 0; progress < 10000; progress++) {
+      service.putWorkflow("c1", summary("w1", "alice", Status.RUNNING, progress % 100, 1));
+    }
+    assertTrue("Log was compacted", file.length() > 1024 * 1024);
+    assertEquals(ImmutableList.of("w1"), getWorkflows(null, null, null));
+
+    assertTrue(blocker.delete());
+    assertTrue(tmpFile.delete());
+    for (int progress = 0; progress < 20000; progress++) {
+      service.putWorkflow("c1", summary("w1", "alice", Status.RUNNING, progress % 100, 1));
+    }
+    assertTrue("Log wasn't compacted", file.length() < 1024 * 1024);
+    assertEquals(99, service.getWorkflows(null, null, "alice", 1, null)
+        .getResults().get(0).getProgress());
+  }
+}
@@ -18,15 +18,31 @@ package com.twitter.ambrose.service.impl;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.StoreMetricsReadService;
+import com.twitter.ambrose.util.JSONUtil;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -48,6 +64,22 @@ public class InMemoryStatsServiceTest {
     service = new InMemoryStatsService();
   }
 
+  @Test
+  public void testConfigurations() {
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.name", "job 1");
+    Properties equalConfiguration = new Properties();
+    equalConfiguration.putAll(configuration);
+    Properties otherConfiguration = new Properties();
+    otherConfiguration.setProperty("mapred.job.name", "job 2");
+
+    String id = service.putConfiguration(configuration);
+    assertEquals(id, service.putConfiguration(equalConfiguration));
+    assertFalse(id.equals(service.putConfiguration(otherConfiguration)));
+    assertSame(configuration, service.getConfiguration(id));
+    assertNull(service.getConfiguration("unknown"));
+  }
+
   @Test
   public void testGetAllEvents() throws IOException {
     for(Event event : testEvents) {
@@ -72,23 +104,294 @@ public class InMemoryStatsServiceTest {
 
     // first, peek at the first eventId
     Collection<Event> allEvents = service.getEventsSinceId(workflowId, -1);
-    int sinceId = allEvents.iterator().next().getId();
+    long sinceId = allEvents.iterator().next().getId();
 
     // get all events since the first
     Collection<Event> events = service.getEventsSinceId(workflowId, sinceId);
     Iterator<Event> foundEvents = events.iterator();
 
     assertEquals("Wrong number of events returned", testEvents.length - 1, events.size());
-    for(Event sentEvent : testEvents) {
-      if (sentEvent.getId() <= sinceId) { continue; }
+    for (int i = 1; i < testEvents.length; i++) {
+      assertEqualWorkflows(testEvents[i], foundEvents.next());
+    }
+    assertFalse("Wrong number of events returned", foundEvents.hasNext());
+  }
+
+  @Test
+  public void testIdsIncreaseAcrossWorkflows() throws IOException {
+    service.pushEvent(workflowId, testEvents[2]);
+    service.pushEvent("id2", testEvents[1]);
+    service.pushEvent(workflowId, testEvents[0]);
 
+    Iterator<Event> events = service.getEventsSinceId(workflowId, -1).iterator();
+    assertEquals("Wrong eventId found", 1, events.next().getId());
+    assertEquals("Wrong eventId found", 3, events.next().getId());
+    assertEquals("Wrong eventId found", 2,
+        service.getEventsSinceId("id2", -1).iterator().next().getId());
+  }
+
+  @Test
+  public void testCurrentWorkflowSwitchedDuringPoll() throws IOException {
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    for (Event event : testEvents) {
+      service.pushEvent(workflowId, event);
+    }
+    long lastEventId = 0;
+    for (Event event : service.getEventsSinceId(null, lastEventId)) {
+      lastEventId = event.getId();
+    }
+    assertEquals(testEvents.length, lastEventId);
+
+    // a client polling without a workflowId follows the next workflow from its last event id
+    service.sendDagNodeNameMap("id2", ImmutableMap.<String, DAGNode<Job>>of());
+    for (Event event : testEvents) {
+      service.pushEvent("id2", event);
+    }
+    Collection<Event> events = service.getEventsSinceId(null, lastEventId);
+    assertEquals("Wrong number of events returned", testEvents.length, events.size());
+    Iterator<Event> foundEvents = events.iterator();
+    for (Event sentEvent : testEvents) {
       assertEqualWorkflows(sentEvent, foundEvents.next());
     }
-    assertFalse("Wrong number of events returned", foundEvents.hasNext());
+  }
+
+  @Test
+  public void testRestoreEvents() throws IOException {
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent(workflowId, testEvents[0]);
+    service.pushEvent("id2", testEvents[1]);
+    service.pushEvent("id2", testEvents[2]);
+
+    List<Event> events = Lists.newArrayList(service.getEventsSinceId(workflowId, -1));
+    events.addAll(service.getEventsSinceId("id2", -1));
+    service.restoreEvents(null, events);
+
+    Iterator<Event> restored = service.getEventsSinceId(workflowId, -1).iterator();
+    long lastEventId = 0;
+    for (int i = 0; i < testEvents.length; i++) {
+      Event found = restored.next();
+      assertTrue("Event ids not increasing", found.getId() > lastEventId);
+      lastEventId = found.getId();
+      assertEqualWorkflows(testEvents[i], found);
+    }
+    assertFalse("Wrong number of events returned", restored.hasNext());
+    assertEquals("Wrong eventId found", 2,
+        service.getEventsSinceId("id2", -1).iterator().next().getId());
+  }
+
+  @Test
+  public void testWorkflowsArePartitioned() throws IOException {
+    Map<String, DAGNode<Job>> dag = ImmutableMap.of("a", new DAGNode<Job>("a", null));
+    service.sendDagNodeNameMap(workflowId, dag);
+    service.pushEvent(workflowId, testEvents[0]);
+    service.pushEvent("id2", testEvents[1]);
+
+    assertEquals(dag, service.getDagNodeNameMap(workflowId));
+    assertTrue("Unexpected dag for id2", service.getDagNodeNameMap("id2").isEmpty());
+
+    Collection<Event> events = service.getEventsSinceId(workflowId, -1);
+    assertEquals("Wrong number of events returned", 1, events.size());
+    assertEqualWorkflows(testEvents[0], events.iterator().next());
+
+    events = service.getEventsSinceId("id2", -1);
+    assertEquals("Wrong number of events returned", 1, events.size());
+    assertEqualWorkflows(testEvents[1], events.iterator().next());
+
+    assertTrue("Unexpected events", service.getEventsSinceId("unknown", -1).isEmpty());
+  }
+
+  @Test
+  public void testGetWorkflows() throws IOException {
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("id2", testEvents[0]);
+
+    List<WorkflowSummary> summaries =
+        service.getWorkflows(null, null, null, 10, null).getResults();
+    assertEquals("Wrong number of workflows returned", 2, summaries.size());
+    assertTrue("Unexpected workflows",
+        service.getWorkflows("other", null, null, 10, null).getResults().isEmpty());
+    assertTrue("Unexpected workflows",
+        service.getWorkflows(null, null, "unknown", 10, null).getResults().isEmpty());
+  }
+
+  @Test
+  public void testGetWorkflowsPaginated() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      service.pushEvent("id" + i, testEvents[0]);
+    }
+    List<WorkflowSummary> all = service.getWorkflows(null, null, null, 0, null).getResults();
+    assertEquals("Wrong number of workflows returned", 5, all.size());
+
+    PaginatedList<WorkflowSummary> page = service.getWorkflows("default", null, null, 2, null);
+    assertEquals(all.get(0).getId(), page.getResults().get(0).getId());
+    assertEquals(all.get(1).getId(), page.getResults().get(1).getId());
+    page = service.getWorkflows("default", null, null, 3,
+        BaseEncoding.base64().decode(page.getNextPageStart()));
+    assertEquals("Wrong number of workflows returned", 3, page.getResults().size());
+    assertEquals(all.get(2).getId(), page.getResults().get(0).getId());
+    assertNull("Unexpected next page", page.getNextPageStart());
+  }
+
+  @Test
+  public void testEventListeners() throws IOException {
+    final List<String> notified = Lists.newArrayList();
+    EventNotificationService.Listener listener = new EventNotificationService.Listener() {
+      @Override
+      public void eventsCommitted(String workflowId) {
+        notified.add(workflowId);
+      }
+    };
+    service.addEventListener(workflowId, listener);
+    service.addEventListener(null, listener);
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent(workflowId, testEvents[0]);
+    service.pushEvent("id2", testEvents[1]);
+    assertEquals(Lists.newArrayList(null, workflowId, null), notified);
+
+    service.removeEventListener(workflowId, listener);
+    service.removeEventListener(null, listener);
+    service.pushEvent(workflowId, testEvents[2]);
+    assertEquals("Removed listener was notified", 3, notified.size());
+  }
+
+  @Test
+  public void testVersions() throws IOException {
+    assertEquals(-1, service.getDagVersion(workflowId));
+    long workflowsVersion = service.getWorkflowsVersion();
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    long dagVersion = service.getDagVersion(workflowId);
+    assertTrue(dagVersion >= 0);
+    assertEquals(dagVersion, service.getDagVersion(null));
+    assertTrue(service.getWorkflowsVersion() > workflowsVersion);
+
+    workflowsVersion = service.getWorkflowsVersion();
+    service.pushEvent(workflowId, testEvents[0]);
+    assertEquals(dagVersion, service.getDagVersion(workflowId));
+    assertEquals(workflowsVersion, service.getWorkflowsVersion());
+    service.pushEvent(workflowId, new Event.WorkflowProgressEvent(
+        ImmutableMap.of(Event.WorkflowProgressField.workflowProgress, "50")));
+    assertTrue(service.getWorkflowsVersion() > workflowsVersion);
+
+    service.sendDagNodeNameMap("id2", ImmutableMap.<String, DAGNode<Job>>of());
+    assertTrue(service.getDagVersion("id2") > dagVersion);
+    assertEquals(service.getDagVersion("id2"), service.getDagVersion(null));
+  }
+
+  @Test
+  public void testRestoreDagNodes() throws IOException {
+    // restoring creates the workflow if there is none yet
+    service.restoreDagNodes(null, ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    assertEquals(ImmutableList.of("a"),
+        Lists.newArrayList(service.getDagNodeNameMap(null).keySet()));
+
+    Map<String, DAGNode<Job>> dag = ImmutableMap.of("b", new DAGNode<Job>("b", null));
+    service.sendDagNodeNameMap(workflowId, dag);
+    long dagVersion = service.getDagVersion(null);
+    long workflowsVersion = service.getWorkflowsVersion();
+    service.restoreDagNodes(null, ImmutableMap.of("c", new DAGNode<Job>("c", null)));
+    assertTrue(service.getDagVersion(null) > dagVersion);
+    assertTrue(service.getWorkflowsVersion() > workflowsVersion);
+    assertEquals(ImmutableList.of("b", "c"),
+        Lists.newArrayList(service.getDagNodeNameMap(null).keySet()));
+    // the DAG sent isn't modified
+    assertEquals(1, dag.size());
+  }
+
+  @Test
+  public void testDumpsStateAsSent() throws IOException {
+    File dagFile = File.createTempFile("ambrose-dag", ".json");
+    File eventsFile = File.createTempFile("ambrose-events", ".json");
+    try {
+      service = new InMemoryStatsService(dagFile.getPath(), eventsFile.getPath());
+      Job job = new Job("job_1", null, null);
+      DAGNode<Job> node = new DAGNode<Job>("a", job);
+      service.sendDagNodeNameMap(workflowId, ImmutableMap.of("a", node));
+      service.pushEvent(workflowId, new Event.JobStartedEvent(node));
+      // runtimes keep modifying the nodes they sent
+      job.setId("job_2");
+      service.flushJsonToDisk();
+
+      assertTrue(JSONUtil.readFile(dagFile.getPath()).contains("job_1"));
+      assertFalse(JSONUtil.readFile(dagFile.getPath()).contains("job_2"));
+      assertTrue(JSONUtil.readFile(eventsFile.getPath()).contains("job_1"));
+      assertFalse(JSONUtil.readFile(eventsFile.getPath()).contains("job_2"));
+    } finally {
+      dagFile.delete();
+      eventsFile.delete();
+    }
   }
 
   private void assertEqualWorkflows(Event expected, Event found) {
-    assertEquals("Wrong eventId found", expected.getId(), found.getId());
+    assertEquals("Wrong eventType found", expected.getType(), found.getType());
     assertEquals("Wrong eventData found", expected.getPayload(), found.getPayload());
   }
+
+  @Test
+  public void testWorkflowMetrics() throws IOException {
+    assertTrue(service.getWorkflowMetrics().isEmpty());
+    for (Event event : testEvents) {
+      service.pushEvent(workflowId, event);
+    }
+    StoreMetricsReadService.WorkflowMetrics metrics = service.getWorkflowMetrics().get(workflowId);
+    assertEquals(testEvents.length, metrics.getEvents());
+    assertTrue(metrics.getRetainedBytes() > 0);
+    assertEquals(testEvents.length, service.getEventsPushed());
+  }
+
+  @Test
+  public void testEvictWorkflows() throws IOException {
+    service.sendDagNodeNameMap("finished", ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("finished", new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "100")));
+    service.sendDagNodeNameMap("running", ImmutableMap.<String, DAGNode<Job>>of());
+    long now = System.currentTimeMillis() + 1;
+
+    assertEquals(0, service.evictWorkflows(0, 0));
+    assertEquals(1, service.evictFinishedWorkflows(now));
+    assertNull(service.getWorkflowSummary("finished"));
+    // a running workflow is only dropped once it received nothing for long enough
+    assertEquals(0, service.evictWorkflows(now, 0));
+    assertEquals(0, service.evictWorkflows(now, now - 60000));
+    assertEquals(1, service.evictWorkflows(now, now));
+    assertNull(service.getWorkflowSummary("running"));
+    assertTrue(service.getWorkflowMetrics().isEmpty());
+  }
+
+  @Test
+  public void testPushWhileEvicting() throws IOException {
+    final AtomicBoolean evict = new AtomicBoolean();
+    // evicts the workflow between its lookup and the commit of what is sent to it
+    service = new InMemoryStatsService() {
+      @Override
+      WorkflowState getOrCreateWorkflow(String workflowId) {
+        WorkflowState state = super.getOrCreateWorkflow(workflowId);
+        if (evict.getAndSet(false)) {
+          assertEquals(1, evictWorkflows(0, Long.MAX_VALUE));
+        }
+        return state;
+      }
+    };
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    evict.set(true);
+    service.pushEvent(workflowId, testEvents[0]);
+    assertEquals(1, service.getEventsSinceId(workflowId, -1).size());
+
+    evict.set(true);
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    assertEquals(WorkflowSummary.Status.RUNNING,
+        service.getWorkflowSummary(workflowId).getStatus());
+  }
+
+  @Test
+  public void testPushRate() {
+    RateCounter counter = new RateCounter();
+    long now = 1000000000L;
+    for (int i = 0; i < 120; i++) {
+      counter.mark(now - 500);
+    }
+    counter.mark(now);
+    counter.mark(now - 61000);
+    assertEquals(122, counter.getTotal());
+    assertEquals(2.0, counter.getRatePerSecond(now), 0.001);
+  }
 }
@@ -0,0 +1,275 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RemoteStatsWriteService}, run against a local stand-in server which records
+ * the requests it receives.
+ */
+public class RemoteStatsWriteServiceTest {
+  private static final String WORKFLOW_ID = "id-123";
+
+  private Server server;
+  private SelectChannelConnector connector;
+  private final List<String> requests = new CopyOnWriteArrayList<String>();
+  private final AtomicInteger failures = new AtomicInteger();
+  private volatile CountDownLatch received = new CountDownLatch(0);
+  private volatile CountDownLatch release = new CountDownLatch(0);
+  private RemoteStatsWriteService service;
+
+  @Before
+  public void setup() throws Exception {
+    server = new Server();
+    connector = new SelectChannelConnector();
+    connector.setPort(0);
+    server.setConnectors(new Connector[] { connector });
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, HttpServletRequest request, HttpServletResponse response,
+          int dispatch) throws IOException {
+        String body = new String(ByteStreams.toByteArray(request.getInputStream()), Charsets.UTF_8);
+        received.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        if (failures.getAndDecrement() > 0) {
+          response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } else {
+          requests.add(target + "?" + request.getQueryString() + "\n" + body);
+          response.setStatus(HttpServletResponse.SC_OK);
+        }
+        ((Request) request).setHandled(true);
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    release.countDown();
+    if (service != null) {
+      service.close();
+    }
+    server.stop();
+  }
+
+  private RemoteStatsWriteService open(int queueSize,
+      RemoteStatsWriteService.OverflowPolicy overflowPolicy) throws IOException {
+    return new RemoteStatsWriteService(new URL("http://localhost:" + connector.getLocalPort()),
+        queueSize, 100, 3, 1, 5000, 10000, overflowPolicy);
+  }
+
+  private static Event progress(String nodeName, int mapProgress) {
+    Job job = new Job("job_" + nodeName, null,
+        ImmutableMap.<String, Number>of("mapProgress", mapProgress));
+    return new Event.JobProgressEvent(new DAGNode<Job>(nodeName, job));
+  }
+
+  private static Event delta(String nodeName, int mapProgress) {
+    return new Event.JobProgressDeltaEvent(nodeName,
+        ImmutableMap.of("metrics", ImmutableMap.of("mapProgress", mapProgress)));
+  }
+
+  private static Event workflowProgress(int progress) {
+    return new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, Integer.toString(progress)));
+  }
+
+  /**
+   * Pushes an event and waits until the stand-in server holds its request, so events pushed next
+   * stay queued until the server is released.
+   */
+  private void blockSender() throws Exception {
+    received = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    service.pushEvent(WORKFLOW_ID, progress("blocking", 0));
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSend() throws IOException {
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.DROP);
+    service.sendDagNodeNameMap(WORKFLOW_ID,
+        ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.name", "job 1");
+    assertEquals(ConfigurationStore.hash(configuration),
+        service.putConfiguration(configuration));
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    service.pushEvent(WORKFLOW_ID, progress("a", 2));
+    service.close();
+
+    assertTrue(requests.get(0).startsWith(RemoteStatsWriteService.DAG_PATH + "?workflowId=id-123"));
+    assertTrue(requests.get(0).contains("&userId=" + System.getProperty("user.name")));
+    assertTrue(requests.get(1).startsWith(RemoteStatsWriteService.CONFIGURATION_PATH));
+    String events = requests.get(requests.size() - 1);
+    assertTrue(events.startsWith(RemoteStatsWriteService.EVENTS_PATH + "?workflowId=id-123"));
+    int lines = 0;
+    for (String line : events.substring(events.indexOf('\n') + 1).split("\n")) {
+      Event event = Event.fromJson(line);
+      assertEquals(Event.Type.JOB_PROGRESS, event.getType());
+      lines++;
+    }
+    assertTrue(lines > 0);
+    assertEquals(0, service.getDroppedCount());
+  }
+
+  @Test
+  public void testRetry() throws IOException {
+    failures.set(2);
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.DROP);
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    service.close();
+    assertEquals(1, requests.size());
+    assertEquals(0, service.getDroppedCount());
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+    service = open(2, RemoteStatsWriteService.OverflowPolicy.DROP);
+    blockSender();
+    long startMs = System.currentTimeMillis();
+    for (int i = 1; i <= 5; i++) {
+      service.pushEvent(WORKFLOW_ID, delta("a", i));
+    }
+    assertTrue("Push blocked", System.currentTimeMillis() - startMs < 1000);
+    assertEquals(3, service.getDroppedCount());
+    release.countDown();
+    service.close();
+    assertEquals(2, requests.size());
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.COALESCE);
+    blockSender();
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    service.pushEvent(WORKFLOW_ID, progress("a", 2));
+    service.pushEvent(WORKFLOW_ID, progress("b", 1));
+    service.pushEvent(WORKFLOW_ID,
+        new Event.JobProgressDeltaEvent("a", ImmutableMap.of("mapProgress", 3)));
+    service.pushEvent(WORKFLOW_ID, progress("a", 4));
+    service.pushEvent(WORKFLOW_ID, progress("a", 5));
+    assertEquals(2, service.getCoalescedCount());
+    release.countDown();
+    service.close();
+
+    String[] lines = requests.get(1).split("\n");
+    assertEquals(5, lines.length);
+    assertEquals(Event.Type.JOB_PROGRESS, Event.fromJson(lines[1]).getType());
+    assertTrue(lines[1].contains("\"mapProgress\":2"));
+    assertEquals(Event.Type.JOB_PROGRESS_DELTA, Event.fromJson(lines[3]).getType());
+    assertTrue(lines[4].contains("\"mapProgress\":5"));
+    assertEquals(0, service.getDroppedCount());
+  }
+
+  @Test
+  public void testCoalesceDeltas() throws Exception {
+    service = open(2, RemoteStatsWriteService.OverflowPolicy.COALESCE);
+    blockSender();
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    for (int i = 2; i <= 10; i++) {
+      service.pushEvent(WORKFLOW_ID, delta("a", i));
+    }
+    assertEquals(8, service.getCoalescedCount());
+    assertEquals(0, service.getDroppedCount());
+    // the queue is full, yet full progress isn't dropped, unlike deltas of other jobs
+    service.pushEvent(WORKFLOW_ID, progress("b", 1));
+    service.pushEvent(WORKFLOW_ID, delta("c", 1));
+    assertEquals(1, service.getDroppedCount());
+    // a delta never replaces full progress
+    service.pushEvent(WORKFLOW_ID, delta("b", 2));
+    assertEquals(8, service.getCoalescedCount());
+    assertEquals(2, service.getDroppedCount());
+    release.countDown();
+    service.close();
+
+    String[] lines = requests.get(1).split("\n");
+    assertEquals(4, lines.length);
+    assertEquals(Event.Type.JOB_PROGRESS, Event.fromJson(lines[1]).getType());
+    assertEquals(Event.Type.JOB_PROGRESS_DELTA, Event.fromJson(lines[2]).getType());
+    assertTrue(lines[2].contains("\"mapProgress\":10"));
+    assertEquals(Event.Type.JOB_PROGRESS, Event.fromJson(lines[3]).getType());
+    assertTrue(lines[3].contains("\"job_b\""));
+  }
+
+  @Test
+  public void testNoCoalesceAcrossFailure() throws Exception {
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.COALESCE);
+    blockSender();
+    service.pushEvent(WORKFLOW_ID, workflowProgress(50));
+    service.pushEvent(WORKFLOW_ID, new Event.JobFailedEvent(
+        new DAGNode<Job>("a", new Job("job_a", null, null))));
+    service.pushEvent(WORKFLOW_ID, workflowProgress(100));
+    assertEquals(0, service.getCoalescedCount());
+    release.countDown();
+    service.close();
+
+    String[] lines = requests.get(1).split("\n");
+    assertEquals(4, lines.length);
+    assertEquals(Event.Type.WORKFLOW_PROGRESS, Event.fromJson(lines[1]).getType());
+    assertTrue(lines[1].contains("\"50\""));
+    assertEquals(Event.Type.JOB_FAILED, Event.fromJson(lines[2]).getType());
+    assertEquals(Event.Type.WORKFLOW_PROGRESS, Event.fromJson(lines[3]).getType());
+    assertTrue(lines[3].contains("\"100\""));
+  }
+
+  @Test
+  public void testDropAfterClose() throws IOException {
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.DROP);
+    service.close();
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    service.sendDagNodeNameMap(WORKFLOW_ID,
+        ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    service.putConfiguration(new Properties());
+    assertTrue(requests.isEmpty());
+    assertEquals(1, service.getDroppedCount());
+    assertEquals(2, service.getDroppedObjectCount());
+  }
+
+  @Test
+  public void testDropObjectsAfterRetries() throws IOException {
+    failures.set(Integer.MAX_VALUE);
+    service = open(100, RemoteStatsWriteService.OverflowPolicy.DROP);
+    service.sendDagNodeNameMap(WORKFLOW_ID,
+        ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    service.putConfiguration(new Properties());
+    service.pushEvent(WORKFLOW_ID, progress("a", 1));
+    service.close();
+    assertTrue(requests.isEmpty());
+    assertEquals(1, service.getDroppedCount());
+    assertEquals(2, service.getDroppedObjectCount());
+  }
+}
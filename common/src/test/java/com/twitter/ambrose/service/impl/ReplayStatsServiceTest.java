@@ -0,0 +1,133 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.ReplayControlService;
+import com.twitter.ambrose.util.AsyncJsonFileWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ReplayStatsService}.
+ */
+public class ReplayStatsServiceTest {
+  private static final long START_TIME = 1100;
+
+  private File dagFile;
+  private File eventsFile;
+  private ReplayStatsService service;
+
+  private static AsyncJsonFileWriter writer(File file, boolean asArray) throws IOException {
+    return new AsyncJsonFileWriter(file.getPath(), asArray, 1000, 10, 10,
+        AsyncJsonFileWriter.FsyncPolicy.NEVER, AsyncJsonFileWriter.OverflowPolicy.BLOCK);
+  }
+
+  private static void assertIds(Collection<Event> events, long... ids) {
+    assertEquals("Wrong number of events returned", ids.length, events.size());
+    Iterator<Event> iterator = events.iterator();
+    for (long id : ids) {
+      assertEquals("Wrong eventId found", id, iterator.next().getId());
+    }
+  }
+
+  @Before
+  public void setup() throws IOException {
+    dagFile = File.createTempFile("ambrose-dag", ".json");
+    eventsFile = File.createTempFile("ambrose-events", ".json");
+    AsyncJsonFileWriter dagWriter = writer(dagFile, false);
+    dagWriter.write(ImmutableList.of(new DAGNode<Job>("a", null)));
+    dagWriter.write(ImmutableList.of(new DAGNode<Job>("a", null), new DAGNode<Job>("b", null)));
+    dagWriter.close();
+    // events 1 to 10 recorded 100 ms apart from START_TIME
+    AsyncJsonFileWriter eventsWriter = writer(eventsFile, true);
+    for (int id = 1; id <= 10; id++) {
+      eventsWriter.write(new Event<DAGNode<Job>>(id, Event.Type.JOB_PROGRESS,
+          START_TIME + 100 * (id - 1), new DAGNode<Job>("job-" + id, null)));
+    }
+    eventsWriter.close();
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    if (service != null) {
+      service.close();
+    }
+    dagFile.delete();
+    eventsFile.delete();
+  }
+
+  @Test
+  public void testMaxSpeed() throws IOException {
+    service = new ReplayStatsService(dagFile, eventsFile, Double.POSITIVE_INFINITY, 1000);
+    assertIds(service.getEventsSinceId(null, -1), 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    assertIds(service.getEventsSinceId("any", 7), 8, 9, 10);
+    ReplayControlService.State state = service.getReplayState();
+    assertEquals(START_TIME, state.getStartTime());
+    assertEquals(START_TIME + 900, state.getEndTime());
+    assertEquals(10, state.getVisibleEventCount());
+    WorkflowSummary summary =
+        service.getWorkflows(null, null, null, 10, null).getResults().get(0);
+    assertEquals(WorkflowSummary.Status.SUCCEEDED, summary.getStatus());
+    assertEquals(100, summary.getProgress());
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    service = new ReplayStatsService(dagFile, eventsFile, 0, 1000);
+    assertIds(service.getEventsSinceId(null, -1), 1);
+    service.seekReplay(START_TIME + 450);
+    assertIds(service.getEventsSinceId(null, -1), 1, 2, 3, 4, 5);
+    assertIds(service.getEventsSinceId(null, 3), 4, 5);
+    service.seekReplay(START_TIME + 100);
+    assertIds(service.getEventsSinceId(null, -1), 1, 2);
+    assertEquals(WorkflowSummary.Status.RUNNING,
+        service.getWorkflows(null, null, null, 10, null).getResults().get(0).getStatus());
+  }
+
+  @Test
+  public void testMaxEvents() throws IOException {
+    service = new ReplayStatsService(dagFile, eventsFile, Double.POSITIVE_INFINITY, 3);
+    assertIds(service.getEventsSinceId(null, -1), 1, 2, 3);
+    assertIds(service.getEventsSinceId(null, 3), 4, 5, 6);
+    assertIds(service.getEventsSinceId(null, 9), 10);
+  }
+
+  @Test
+  public void testListenersNotified() throws Exception {
+    service = new ReplayStatsService(dagFile, eventsFile, 0, 1000);
+    service.getEventsSinceId(null, -1);
+    final CountDownLatch latch = new CountDownLatch(1);
+    service.addEventListener("id-123", new EventNotificationService.Listener() {
+      @Override
+      public void eventsCommitted(String workflowId) {
+        latch.countDown();
+      }
+    });
+    service.seekReplay(START_TIME + 200);
+    assertTrue("Listener wasn't notified", latch.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testLastDag() throws IOException {
+    service = new ReplayStatsService(dagFile, eventsFile);
+    assertEquals(ImmutableList.of("a", "b"),
+        ImmutableList.copyOf(service.getDagNodeNameMap(null).keySet()));
+  }
+}
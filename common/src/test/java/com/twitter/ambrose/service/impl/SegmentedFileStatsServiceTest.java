@@ -0,0 +1,327 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowSummary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link SegmentedFileStatsService}.
+ */
+public class SegmentedFileStatsServiceTest {
+  private static final String WORKFLOW_ID = "id-123";
+  private static final String WORKFLOW_DIR = "w-" + WORKFLOW_ID;
+
+  private File dir;
+  private SegmentedFileStatsService service;
+
+  private static Event event(long id) {
+    return new Event<DAGNode<Job>>(id, Event.Type.JOB_PROGRESS, 0,
+        new DAGNode<Job>("job-" + id, null));
+  }
+
+  private static void assertIds(Collection<Event> events, long... ids) {
+    assertEquals("Wrong number of events returned", ids.length, events.size());
+    Iterator<Event> iterator = events.iterator();
+    for (long id : ids) {
+      assertEquals("Wrong eventId found", id, iterator.next().getId());
+    }
+  }
+
+  private static File[] segmentFiles(File workflowDir) {
+    File[] files = new File(workflowDir, "events").listFiles();
+    Arrays.sort(files);
+    return files;
+  }
+
+  @Before
+  public void setup() {
+    dir = Files.createTempDir();
+    service = new SegmentedFileStatsService(dir, 1024, false);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    service.close();
+    delete(dir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testGetEventsSinceId() throws IOException {
+    for (int id = 1; id <= 100; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+    }
+    assertEquals(100, service.getEventsSinceId(WORKFLOW_ID, -1).size());
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, 97), 98, 99, 100);
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, 10, 2), 11, 12);
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, 98, 5), 99, 100);
+    assertTrue(service.getEventsSinceId(WORKFLOW_ID, 100).isEmpty());
+    assertTrue(segmentFiles(new File(dir, WORKFLOW_DIR)).length > 1);
+  }
+
+  @Test
+  public void testUnknownWorkflow() throws IOException {
+    assertTrue(service.getEventsSinceId("unknown", -1).isEmpty());
+    assertTrue(service.getDagNodeNameMap("unknown").isEmpty());
+    assertTrue(service.getWorkflowIds().isEmpty());
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+    Map<String, DAGNode<Job>> dagNodeNameMap =
+        ImmutableMap.of("a", new DAGNode<Job>("a", null), "b", new DAGNode<Job>("b", null));
+    service.sendDagNodeNameMap(WORKFLOW_ID, dagNodeNameMap);
+    for (int id = 1; id <= 50; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+    }
+    service.close();
+
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    assertEquals(dagNodeNameMap.keySet(), service.getDagNodeNameMap(WORKFLOW_ID).keySet());
+    assertEquals(50, service.getEventsSinceId(WORKFLOW_ID, -1).size());
+    service.pushEvent(WORKFLOW_ID, event(51));
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, 49), 50, 51);
+    assertEquals(1, service.getWorkflowIds().size());
+    assertEquals(WORKFLOW_ID, service.getWorkflowIds().get(0));
+  }
+
+  @Test
+  public void testMissingSegmentNotOverwritten() throws IOException {
+    for (int id = 1; id <= 50; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+    }
+    service.close();
+    File workflowDir = new File(dir, WORKFLOW_DIR);
+    File[] segments = segmentFiles(workflowDir);
+    assertTrue(segments.length > 2);
+    assertTrue(segments[1].delete());
+
+    // new segments are numbered past the last one, rather than by the number of segments left
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    List<Long> ids = Lists.newArrayList();
+    for (Event event : service.getEventsSinceId(WORKFLOW_ID, -1)) {
+      ids.add(event.getId());
+    }
+    for (long id = 51; id <= 100; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+      ids.add(id);
+    }
+    File[] rolled = segmentFiles(workflowDir);
+    String expected = String.format("%010d.log", segments.length);
+    assertEquals(expected, rolled[segments.length - 1].getName());
+    List<Long> read = Lists.newArrayList();
+    for (Event event : service.getEventsSinceId(WORKFLOW_ID, -1)) {
+      read.add(event.getId());
+    }
+    assertEquals(ids, read);
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, 99), 100);
+  }
+
+  @Test
+  public void testCurrentWorkflowSwitchedDuringPoll() throws IOException {
+    service.sendDagNodeNameMap("a", ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("a", event(1));
+    service.pushEvent("a", event(2));
+    assertIds(service.getEventsSinceId(null, 0), 1, 2);
+
+    // a client polling without a workflowId follows the next workflow from its last event id
+    service.sendDagNodeNameMap("b", ImmutableMap.<String, DAGNode<Job>>of());
+    service.pushEvent("b", event(1));
+    assertIds(service.getEventsSinceId(null, 2), 3);
+    service.close();
+
+    // ids keep increasing once the workflows are reopened
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    service.pushEvent("a", event(1));
+    assertIds(service.getEventsSinceId("a", 2), 3);
+    service.pushEvent("b", event(2));
+    assertIds(service.getEventsSinceId("b", 3), 4);
+  }
+
+  @Test
+  public void testSummaries() throws IOException {
+    service.sendDagNodeNameMap("a", ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    service.sendDagNodeNameMap(WORKFLOW_ID, ImmutableMap.of("b", new DAGNode<Job>("b", null)));
+    service.pushEvent(WORKFLOW_ID, event(1));
+    service.pushEvent(WORKFLOW_ID, new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "100")));
+    // reads without a workflowId are served from the workflow whose DAG was sent last
+    assertEquals(ImmutableList.of("b"),
+        ImmutableList.copyOf(service.getDagNodeNameMap(null).keySet()));
+    assertEquals(2, service.getEventsSinceId(null, -1).size());
+    service.close();
+
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    List<WorkflowSummary> summaries =
+        service.getWorkflows(null, null, null, 0, null).getResults();
+    assertEquals(2, summaries.size());
+    List<WorkflowSummary> succeeded =
+        service.getWorkflows("default", WorkflowSummary.Status.SUCCEEDED, null, 0, null)
+            .getResults();
+    assertEquals(1, succeeded.size());
+    assertEquals(WORKFLOW_ID, succeeded.get(0).getId());
+    assertEquals(100, succeeded.get(0).getProgress());
+    assertTrue(service.getWorkflows("other", null, null, 0, null).getResults().isEmpty());
+  }
+
+  @Test
+  public void testJobFailedSurvivesReopen() throws IOException {
+    service.sendDagNodeNameMap(WORKFLOW_ID, ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    service.pushEvent(WORKFLOW_ID, new Event.JobFailedEvent(new DAGNode<Job>("a", null)));
+    service.close();
+
+    // the workflow finishes after the process serving it restarted
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    service.pushEvent(WORKFLOW_ID, new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "100")));
+    List<WorkflowSummary> summaries =
+        service.getWorkflows(null, null, null, 0, null).getResults();
+    assertEquals(1, summaries.size());
+    assertEquals(WorkflowSummary.Status.FAILED, summaries.get(0).getStatus());
+    assertEquals(WorkflowSummary.class, summaries.get(0).getClass());
+  }
+
+  @Test
+  public void testSummariesWrittenByOtherProcess() throws IOException {
+    service.sendDagNodeNameMap(WORKFLOW_ID, ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    service.close();
+
+    // summaries of workflows not opened are cached until their file changes
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    List<WorkflowSummary> summaries =
+        service.getWorkflows(null, null, null, 0, null).getResults();
+    assertEquals(WorkflowSummary.Status.RUNNING, summaries.get(0).getStatus());
+    SegmentedFileStatsService writer = new SegmentedFileStatsService(dir, 1024, false);
+    try {
+      writer.pushEvent(WORKFLOW_ID, new Event.WorkflowProgressEvent(ImmutableMap.of(
+          Event.WorkflowProgressField.workflowProgress, "100")));
+    } finally {
+      writer.close();
+    }
+    summaries = service.getWorkflows(null, null, null, 0, null).getResults();
+    assertEquals(1, summaries.size());
+    assertEquals(WorkflowSummary.Status.SUCCEEDED, summaries.get(0).getStatus());
+
+    delete(new File(dir, WORKFLOW_DIR));
+    assertTrue(service.getWorkflows(null, null, null, 0, null).getResults().isEmpty());
+  }
+
+  @Test
+  public void testReservedNames() throws IOException {
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.name", "job 1");
+    String configurationId = service.putConfiguration(configuration);
+    service.pushEvent("_configurations", event(1));
+    service.pushEvent("_default", event(1));
+    service.pushEvent(null, event(1));
+    service.close();
+
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    assertEquals(ImmutableSet.of("_configurations", "_default"),
+        ImmutableSet.copyOf(service.getWorkflowIds()));
+    assertEquals(1, service.getEventsSinceId("_configurations", -1).size());
+    assertEquals(1, service.getEventsSinceId("_default", -1).size());
+    assertEquals(1, service.getEventsSinceId(null, -1).size());
+    assertEquals(configuration, service.getConfiguration(configurationId));
+  }
+
+  @Test
+  public void testCorruptRecordDetected() throws IOException {
+    for (int id = 1; id <= 3; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+    }
+    assertEquals(3, service.getEventsSinceId(WORKFLOW_ID, -1).size());
+
+    File[] segments = segmentFiles(new File(dir, WORKFLOW_DIR));
+    RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw");
+    try {
+      // flip a byte in the payload of the last event
+      long position = file.length() - 2;
+      file.seek(position);
+      int value = file.read();
+      file.seek(position);
+      file.write(value ^ 0xff);
+    } finally {
+      file.close();
+    }
+
+    assertFalse(service.getEventsSinceId(WORKFLOW_ID, -1, 2).isEmpty());
+    try {
+      service.getEventsSinceId(WORKFLOW_ID, -1);
+      fail("Corrupt record wasn't detected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch"));
+    }
+  }
+
+  @Test
+  public void testConfigurations() throws IOException {
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.name", "job 1");
+    String id = service.putConfiguration(configuration);
+    assertEquals(id, service.putConfiguration((Properties) configuration.clone()));
+    service.close();
+
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    assertEquals(configuration, service.getConfiguration(id));
+    assertNull(service.getConfiguration("unknown"));
+    assertTrue(service.getWorkflowIds().isEmpty());
+  }
+
+  @Test
+  public void testTruncatedTailRecovered() throws IOException {
+    for (int id = 1; id <= 3; id++) {
+      service.pushEvent(WORKFLOW_ID, event(id));
+    }
+    service.close();
+
+    File[] segments = segmentFiles(new File(dir, WORKFLOW_DIR));
+    RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw");
+    try {
+      file.setLength(file.length() - 5);
+    } finally {
+      file.close();
+    }
+
+    service = new SegmentedFileStatsService(dir, 1024, false);
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, -1), 1, 2);
+    service.pushEvent(WORKFLOW_ID, event(3));
+    assertIds(service.getEventsSinceId(WORKFLOW_ID, -1), 1, 2, 3);
+  }
+}
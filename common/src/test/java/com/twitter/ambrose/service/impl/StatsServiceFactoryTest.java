@@ -0,0 +1,61 @@
+package com.twitter.ambrose.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsWriteService;
+
+import static org.junit.Assert.assertTrue;
+
+public class StatsServiceFactoryTest {
+  @After
+  public void tearDown() {
+    System.clearProperty(StatsServiceFactory.STORE_PARAM);
+    System.clearProperty(StatsServiceFactory.STORE_DIR_PARAM);
+  }
+
+  @Test
+  public void testDefaultStore() {
+    assertTrue(StatsServiceFactory.fromSystemProperties() instanceof InMemoryStatsService);
+  }
+
+  @Test
+  public void testSegmentedStore() throws IOException {
+    File dir = Files.createTempDir();
+    System.setProperty(StatsServiceFactory.STORE_PARAM, StatsServiceFactory.STORE_SEGMENTED);
+    System.setProperty(StatsServiceFactory.STORE_DIR_PARAM, dir.getPath());
+    StatsWriteService<Job> service = StatsServiceFactory.fromSystemProperties();
+    try {
+      assertTrue(service instanceof SegmentedFileStatsService);
+      service.sendDagNodeNameMap("id-1", ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+      assertTrue(new File(dir, "w-id-1").isDirectory());
+    } finally {
+      ((SegmentedFileStatsService) service).close();
+      delete(dir);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStore() {
+    System.setProperty(StatsServiceFactory.STORE_PARAM, "nosuchstore");
+    StatsServiceFactory.fromSystemProperties();
+  }
+}
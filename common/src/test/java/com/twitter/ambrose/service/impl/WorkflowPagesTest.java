@@ -0,0 +1,69 @@
+package com.twitter.ambrose.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.model.WorkflowSummary.Status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link WorkflowPages}.
+ */
+public class WorkflowPagesTest {
+  private static WorkflowSummary summary(String id, long createdAt) {
+    return new WorkflowSummary(id, "alice", "name-" + id, Status.RUNNING, 0, createdAt);
+  }
+
+  @Test
+  public void testStartKeys() {
+    for (String id : Arrays.asList(null, "", "w1")) {
+      byte[] startKey = WorkflowPages.getStartKey(summary(id, 42));
+      assertEquals(42, WorkflowPages.getCreatedAt(startKey));
+      assertEquals(id, WorkflowPages.getId(startKey));
+    }
+  }
+
+  @Test
+  public void testNullAndEmptyIdsPaged() {
+    List<WorkflowSummary> summaries = Lists.newArrayList(
+        summary("w1", 1), summary("", 2), summary(null, 2), summary("w2", 2), summary(null, 3));
+    Collections.sort(summaries, WorkflowPages.NEWEST_FIRST);
+
+    // a page of one summary at a time visits each of them, including a null id starting a page
+    List<String> ids = Lists.newArrayList();
+    byte[] startKey = null;
+    do {
+      PaginatedList<WorkflowSummary> page = WorkflowPages.getPage(summaries, 1, startKey);
+      assertEquals(1, page.getResults().size());
+      ids.add(page.getResults().get(0).getId());
+      startKey = page.getNextPageStart() == null
+          ? null
+          : BaseEncoding.base64().decode(page.getNextPageStart());
+    } while (startKey != null);
+    assertEquals(Arrays.asList(null, null, "", "w2", "w1"), ids);
+  }
+
+  @Test
+  public void testMalformedStartKeys() {
+    List<WorkflowSummary> summaries = Lists.newArrayList(summary("w1", 1));
+    for (byte[] startKey : Arrays.asList(new byte[8], new byte[] { 0, 0, 0, 0, 0, 0, 0, 1, 2 },
+        new byte[] { 0, 0, 0, 0, 0, 0, 0, 1, 0, 'a' })) {
+      try {
+        WorkflowPages.getPage(summaries, 1, startKey);
+        fail("Accepted malformed start key " + Arrays.toString(startKey));
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.twitter.ambrose.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link AsyncJsonFileWriter}.
+ */
+public class AsyncJsonFileWriterTest {
+  private File file;
+
+  @Before
+  public void setup() throws IOException {
+    file = File.createTempFile("ambrose-events", ".json");
+  }
+
+  @After
+  public void cleanup() {
+    file.delete();
+  }
+
+  private AsyncJsonFileWriter open(int queueSize, AsyncJsonFileWriter.OverflowPolicy overflow)
+      throws IOException {
+    return new AsyncJsonFileWriter(file.getPath(), true, queueSize, 10, 10,
+        AsyncJsonFileWriter.FsyncPolicy.CLOSE, overflow);
+  }
+
+  @Test
+  public void testWriteArray() throws IOException {
+    AsyncJsonFileWriter writer = open(1000, AsyncJsonFileWriter.OverflowPolicy.BLOCK);
+    for (int i = 0; i < 250; i++) {
+      writer.write(ImmutableMap.of("id", i));
+    }
+    writer.close();
+    assertFalse(writer.write(ImmutableMap.of("id", -1)));
+
+    List<Map<String, Integer>> values = JSONUtil.toObject(JSONUtil.readFile(file.getPath()),
+        new TypeReference<List<Map<String, Integer>>>() { });
+    assertEquals(250, values.size());
+    for (int i = 0; i < 250; i++) {
+      assertEquals(Integer.valueOf(i), values.get(i).get("id"));
+    }
+  }
+
+  @Test
+  public void testReserve() throws IOException {
+    AsyncJsonFileWriter writer = open(1, AsyncJsonFileWriter.OverflowPolicy.DROP);
+    // the writer thread may take the first object at any time, so the queue is filled by reserving
+    assertTrue(writer.reserve());
+    assertFalse(writer.reserve());
+    assertEquals(1, writer.getDroppedCount());
+    writer.cancelReservation();
+    assertTrue(writer.reserve());
+    // json given along with an object is written as is
+    assertTrue(writer.writeReserved(ImmutableMap.of("id", -1),
+        "{\"id\":0}".getBytes(Charsets.UTF_8)));
+    writer.close();
+    assertFalse(writer.write(ImmutableMap.of("id", 1)));
+    assertEquals(2, writer.getDroppedCount());
+
+    List<Map<String, Integer>> values = JSONUtil.toObject(JSONUtil.readFile(file.getPath()),
+        new TypeReference<List<Map<String, Integer>>>() { });
+    assertEquals(1, values.size());
+    assertEquals(Integer.valueOf(0), values.get(0).get("id"));
+  }
+
+  @Test
+  public void testSerializeOnCaller() throws IOException {
+    AsyncJsonFileWriter writer = open(10, AsyncJsonFileWriter.OverflowPolicy.BLOCK);
+    Map<String, Integer> value = Maps.newHashMap();
+    value.put("id", 0);
+    assertTrue(writer.write(value, writer.serialize(value)));
+    // the object may be modified once its bytes are queued
+    value.put("id", 1);
+    writer.close();
+
+    List<Map<String, Integer>> values = JSONUtil.toObject(JSONUtil.readFile(file.getPath()),
+        new TypeReference<List<Map<String, Integer>>>() { });
+    assertEquals(1, values.size());
+    assertEquals(Integer.valueOf(0), values.get(0).get("id"));
+  }
+
+  @Test
+  public void testWriteWhileClosing() throws Exception {
+    final AsyncJsonFileWriter writer = open(10, AsyncJsonFileWriter.OverflowPolicy.BLOCK);
+    final AtomicInteger queued = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 1000; i++) {
+              if (writer.write(ImmutableMap.of("id", i))) {
+                queued.incrementAndGet();
+              }
+            }
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    while (queued.get() < 100) {
+      Thread.sleep(1);
+    }
+    writer.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // every object is either written or counted as dropped
+    List<Map<String, Integer>> values = JSONUtil.toObject(JSONUtil.readFile(file.getPath()),
+        new TypeReference<List<Map<String, Integer>>>() { });
+    assertEquals(queued.get(), values.size());
+    assertEquals(4000, values.size() + writer.getDroppedCount());
+  }
+
+  @Test
+  public void testWriteEmptyArray() throws IOException {
+    open(10, AsyncJsonFileWriter.OverflowPolicy.BLOCK).close();
+    assertEquals("", JSONUtil.readFile(file.getPath()));
+  }
+}
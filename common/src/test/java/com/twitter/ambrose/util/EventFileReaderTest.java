@@ -0,0 +1,125 @@
+package com.twitter.ambrose.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link EventFileReader} and {@link JsonFileReader}.
+ */
+public class EventFileReaderTest {
+  private File file;
+
+  @Before
+  public void setup() throws IOException {
+    file = File.createTempFile("ambrose-events", ".json");
+  }
+
+  @After
+  public void cleanup() {
+    file.delete();
+  }
+
+  private void writeEvents(int count, boolean asArray) throws IOException {
+    AsyncJsonFileWriter writer = new AsyncJsonFileWriter(file.getPath(), asArray, 1000, 10, 10,
+        AsyncJsonFileWriter.FsyncPolicy.NEVER, AsyncJsonFileWriter.OverflowPolicy.BLOCK);
+    for (int id = 1; id <= count; id++) {
+      Job job = new Job("job_" + id, null, ImmutableMap.<String, Number>of("mapProgress", id));
+      writer.write(new Event.JobProgressEvent(new DAGNode<Job>("scope-" + id, job)).withId(id));
+    }
+    writer.close();
+  }
+
+  private static void assertIds(EventFileReader reader, long... ids) throws IOException {
+    try {
+      for (long id : ids) {
+        Event event = reader.read();
+        assertEquals(id, event.getId());
+        assertEquals("scope-" + id, ((DAGNode<?>) event.getPayload()).getName());
+      }
+      assertNull(reader.read());
+      assertNull(reader.read());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testReadAll() throws IOException {
+    writeEvents(5, true);
+    assertIds(new EventFileReader(file), 1, 2, 3, 4, 5);
+    writeEvents(3, false);
+    assertIds(new EventFileReader(file), 1, 2, 3);
+  }
+
+  @Test
+  public void testReadRange() throws IOException {
+    writeEvents(100, true);
+    assertIds(new EventFileReader(file, 42, 45), 42, 43, 44, 45);
+    assertIds(new EventFileReader(file, 99, Long.MAX_VALUE), 99, 100);
+    assertIds(new EventFileReader(file, 101, 200));
+  }
+
+  @Test
+  public void testSkip() throws IOException {
+    writeEvents(3, true);
+    EventFileReader reader = new EventFileReader(file);
+    assertTrue(reader.skip());
+    assertTrue(reader.skip());
+    assertIds(reader, 3);
+    assertFalse(reader.skip());
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    assertIds(new EventFileReader(file));
+  }
+
+  @Test
+  public void testUnterminatedArray() throws IOException {
+    writeEvents(3, true);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 3);
+    } finally {
+      raf.close();
+    }
+    assertIds(new EventFileReader(file), 1, 2, 3);
+  }
+
+  @Test
+  public void testReadDags() throws IOException {
+    AsyncJsonFileWriter writer = AsyncJsonFileWriter.open(file.getPath(), false);
+    writer.write(ImmutableList.of(new DAGNode<Job>("a", null)));
+    writer.write(ImmutableList.of(new DAGNode<Job>("a", null), new DAGNode<Job>("b", null)));
+    writer.close();
+
+    JsonFileReader<List<DAGNode<Job>>> reader = new JsonFileReader<List<DAGNode<Job>>>(file,
+        new TypeReference<List<DAGNode<Job>>>() { });
+    try {
+      assertEquals(1, reader.read().size());
+      assertEquals("b", reader.read().get(1).getName());
+      assertNull(reader.read());
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.twitter.ambrose.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+
+/**
+ * Times serializing and parsing events in each {@link JSONUtil.Format}, and reports the size of
+ * their encoding. Events are job progress events carrying a configuration and metrics like those
+ * of Hadoop jobs. Run with the test classpath of this module, optionally passing the number of
+ * iterations per round and the number of events:
+ * <pre>
+ * $ java -cp ... com.twitter.ambrose.util.FormatBenchmark 2000 100
+ * </pre>
+ * The best of five rounds is reported, after a round warming up the JIT.
+ */
+public class FormatBenchmark {
+  private static final int ROUNDS = 5;
+  private static final TypeReference<List<Event<?>>> EVENTS_TYPE =
+      new TypeReference<List<Event<?>>>() { };
+
+  public static void main(String[] args) throws IOException {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int eventCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+    List<Event<?>> events = Lists.newArrayList();
+    for (int i = 0; i < eventCount; i++) {
+      events.add(new Event.JobProgressEvent(node(i)).withId(i + 1));
+    }
+
+    System.out.println(String.format("%d iterations of %d events", iterations, eventCount));
+    System.out.println(String.format("%-8s %10s %16s %16s", "format", "bytes", "serialize ms",
+        "parse ms"));
+    for (JSONUtil.Format format : JSONUtil.Format.values()) {
+      byte[] bytes = null;
+      long bestSerialize = Long.MAX_VALUE;
+      long bestParse = Long.MAX_VALUE;
+      for (int round = 0; round <= ROUNDS; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          // events are encoded one at a time, as they are pushed
+          for (Event<?> event : events) {
+            JSONUtil.toBytes(format, event);
+          }
+        }
+        long serialized = System.nanoTime();
+        bytes = JSONUtil.toBytes(format, events.toArray(new Event[events.size()]));
+        long parseStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          JSONUtil.toObject(format, bytes, EVENTS_TYPE);
+        }
+        long parsed = System.nanoTime();
+        // round 0 warms up
+        if (round > 0) {
+          bestSerialize = Math.min(bestSerialize, serialized - start);
+          bestParse = Math.min(bestParse, parsed - parseStart);
+        }
+      }
+      System.out.println(String.format("%-8s %10d %16.1f %16.1f", format, bytes.length,
+          bestSerialize / 1e6, bestParse / 1e6));
+    }
+  }
+
+  private static DAGNode<Job> node(int index) {
+    Properties configuration = new Properties();
+    for (int i = 0; i < 50; i++) {
+      configuration.setProperty("mapred.property." + i, "value of property " + i);
+    }
+    Map<String, Number> metrics = Maps.newHashMap();
+    metrics.put("mapProgress", 0.5);
+    metrics.put("reduceProgress", 0.0);
+    metrics.put("numberMaps", 30);
+    metrics.put("numberReduces", 5);
+    metrics.put("hdfsBytesWritten", 123456789L);
+    return new DAGNode<Job>("scope-" + index, new Job("job_" + index, configuration, metrics));
+  }
+}
@@ -1,8 +1,14 @@
 package com.twitter.ambrose.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Map;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 
@@ -10,6 +16,7 @@ import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * Unit tests for JSONUtil.
@@ -26,6 +33,50 @@ public class JSONUtilTest {
   @Test
   public void test() throws IOException {
     test("Testing", "\"Testing\"");
-    test(ImmutableMap.of("key", "value"), "{\n  \"key\" : \"value\"\n}");
+    test(ImmutableMap.of("key", "value"), "{\"key\":\"value\"}");
+  }
+
+  @Test
+  public void testFilesIndented() throws IOException {
+    File file = File.createTempFile("json-util-test", ".json");
+    try {
+      JSONUtil.writeJson(file.getPath(), ImmutableMap.of("key", "value"));
+      assertEquals("{\n  \"key\" : \"value\"\n}", JSONUtil.readFile(file.getPath()));
+      assertEquals("{\n  \"key\" : \"value\"\n}",
+          new String(JSONUtil.toPrettyJsonBytes(ImmutableMap.of("key", "value")), Charsets.UTF_8));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testFormats() throws IOException {
+    TypeReference<Map<String, Object>> type = new TypeReference<Map<String, Object>>() { };
+    Map<String, Object> first = ImmutableMap.<String, Object>of("key", "value", "count", 1);
+    Map<String, Object> second = ImmutableMap.<String, Object>of("key", "other");
+    for (JSONUtil.Format format : JSONUtil.Format.values()) {
+      assertEquals(first, JSONUtil.toObject(format, JSONUtil.toBytes(format, first), type));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      JSONUtil.writeValue(format, out, first);
+      JSONUtil.writeValue(format, out, second);
+      Iterator<Map<String, Object>> values =
+          JSONUtil.readValues(format, new ByteArrayInputStream(out.toByteArray()), type);
+      assertEquals(first, values.next());
+      assertEquals(second, values.next());
+      assertFalse(values.hasNext());
+    }
+  }
+
+  @Test
+  public void testSmile() throws IOException {
+    TypeReference<Map<String, Object>> type = new TypeReference<Map<String, Object>>() { };
+    Map<String, Object> value = ImmutableMap.<String, Object>of("key", "value", "count", 1);
+    byte[] smile = JSONUtil.toBytes(JSONUtil.Format.SMILE, value);
+    // smile content starts with its ":)\n" header, rather than json text
+    assertEquals(':', smile[0]);
+    assertEquals(')', smile[1]);
+    assertEquals('\n', smile[2]);
+    assertEquals(value, JSONUtil.toObject(JSONUtil.Format.SMILE, smile, type));
   }
 }
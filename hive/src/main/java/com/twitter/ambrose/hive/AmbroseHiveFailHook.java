@@ -33,8 +33,8 @@ import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
-import com.twitter.ambrose.hive.reporter.EmbeddedAmbroseHiveProgressReporter;
-import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getEmbeddedProgressReporter;
+import com.twitter.ambrose.hive.reporter.AmbroseHiveProgressReporter;
+import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getProgressReporter;
 
 /**
  * Hook invoked when a job fails. Updates job event to 'FAILED' and waits for
@@ -55,7 +55,7 @@ public class AmbroseHiveFailHook implements ExecuteWithHookContext {
     Properties allConfProps = conf.getAllProperties();
     String queryId = AmbroseHiveUtil.getHiveQueryId(conf);
 
-    EmbeddedAmbroseHiveProgressReporter reporter = getEmbeddedProgressReporter();
+    AmbroseHiveProgressReporter reporter = getProgressReporter();
 
     List<TaskRunner> completeTaskList = hookContext.getCompleteTaskList();
     Field _taskResultField = accessTaskResultField();
@@ -68,7 +68,7 @@ public class AmbroseHiveFailHook implements ExecuteWithHookContext {
         DAGNode<Job> dagNode = reporter.getDAGNodeFromNodeId(nodeId);
         
         HiveJob job = (HiveJob) dagNode.getJob();
-        job.setConfiguration(allConfProps);
+        reporter.setJobConfiguration(job, allConfProps);
         MapReduceJobState mrJobState = getJobState(job);
         mrJobState.setSuccessful(false);
         reporter.addJob((Job) job);
@@ -77,6 +77,10 @@ public class AmbroseHiveFailHook implements ExecuteWithHookContext {
     }
 
     reporter.restoreEventStack();
+    if (!reporter.isServingStats()) {
+      reporter.stopServer();
+      return;
+    }
     String sleepTime = System.getProperty(POST_SCRIPT_SLEEP_SECS_PARAM, "10");
     try {
       int sleepTimeSeconds = Integer.parseInt(sleepTime);
@@ -34,8 +34,8 @@ import org.apache.hadoop.hive.ql.MapRedStats;
 import org.apache.hadoop.hive.ql.session.SessionState;
 
 import com.twitter.ambrose.model.Workflow;
-import com.twitter.ambrose.hive.reporter.EmbeddedAmbroseHiveProgressReporter;
-import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getEmbeddedProgressReporter;
+import com.twitter.ambrose.hive.reporter.AmbroseHiveProgressReporter;
+import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getProgressReporter;
 
 /**
  * Hook invoked when a workflow succeeds. If the last statement (workflow) of
@@ -66,7 +66,7 @@ public class AmbroseHiveFinishHook implements HiveDriverRunHook {
   public void postDriverRun(HiveDriverRunHookContext hookContext) {
 
     Configuration conf = hookContext.getConf();
-    EmbeddedAmbroseHiveProgressReporter reporter = getEmbeddedProgressReporter();
+    AmbroseHiveProgressReporter reporter = getProgressReporter();
     String workflowVersion = reporter.getWorkflowVersion();
 
     String queryId = AmbroseHiveUtil.getHiveQueryId(conf);
@@ -85,6 +85,10 @@ public class AmbroseHiveFinishHook implements HiveDriverRunHook {
     }
 
     reporter.restoreEventStack();
+    if (!reporter.isServingStats()) {
+      reporter.stopServer();
+      return;
+    }
     String sleepTime = System.getProperty(POST_SCRIPT_SLEEP_SECS_PARAM, "10");
     try {
       int sleepTimeSeconds = Integer.parseInt(sleepTime);
@@ -117,7 +121,7 @@ public class AmbroseHiveFinishHook implements HiveDriverRunHook {
   }
 
   private void displayStatistics() {
-    EmbeddedAmbroseHiveProgressReporter reporter = getEmbeddedProgressReporter();
+    AmbroseHiveProgressReporter reporter = getProgressReporter();
     Map<String, String> jobIdToNodeId = reporter.getJobIdToNodeId();
     LOG.info("MapReduce Jobs Launched: ");
     List<MapRedStats> lastMapRedStats = SessionState.get().getLastMapRedStatsList();
@@ -15,7 +15,7 @@ limitations under the License.
 */
 package com.twitter.ambrose.hive;
 
-import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getEmbeddedProgressReporter;
+import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getProgressReporter;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -27,7 +27,7 @@ import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
 import org.apache.hadoop.hive.ql.hooks.HookContext;
 
 import com.google.common.collect.Maps;
-import com.twitter.ambrose.hive.reporter.EmbeddedAmbroseHiveProgressReporter;
+import com.twitter.ambrose.hive.reporter.AmbroseHiveProgressReporter;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Event.WorkflowProgressField;
@@ -54,7 +54,7 @@ public class AmbroseHivePreHook implements ExecuteWithHookContext {
     public void run(HookContext hookContext) throws Exception {
 
         String queryId = AmbroseHiveUtil.getHiveQueryId(hookContext.getConf());
-        EmbeddedAmbroseHiveProgressReporter reporter = getEmbeddedProgressReporter();
+        AmbroseHiveProgressReporter reporter = getProgressReporter();
         HiveDAGTransformer transformer = new HiveDAGTransformer(hookContext);
        
         //conditional tasks may be filtered out by Hive at runtime. We them as
@@ -82,7 +82,7 @@ public class AmbroseHivePreHook implements ExecuteWithHookContext {
      * @param reporter
      * @param queryId
      */
-    private void waitBetween(HookContext hookContext, EmbeddedAmbroseHiveProgressReporter reporter, String queryId) {
+    private void waitBetween(HookContext hookContext, AmbroseHiveProgressReporter reporter, String queryId) {
 
         Configuration conf = hookContext.getConf();
         boolean justStarted = conf.getBoolean(SCRIPT_STARTED_PARAM, true);
@@ -94,9 +94,12 @@ public class AmbroseHivePreHook implements ExecuteWithHookContext {
             int sleepTimeMs = conf.getInt(WF_BETWEEN_SLEEP_SECS_PARAM, 10);
             try {
 
-                LOG.info("One workflow complete, sleeping for " + sleepTimeMs
-                        + " sec(s) before moving to the next one if exists. Hit ctrl-c to exit.");
-                Thread.sleep(sleepTimeMs * 1000L);
+                // viewers of a remote server still see the workflow once the client moves on
+                if (reporter.isServingStats()) {
+                    LOG.info("One workflow complete, sleeping for " + sleepTimeMs
+                            + " sec(s) before moving to the next one if exists. Hit ctrl-c to exit.");
+                    Thread.sleep(sleepTimeMs * 1000L);
+                }
                 
                 //send progressbar reset event
                 Map<WorkflowProgressField, String> eventData = Maps.newHashMapWithExpectedSize(1);
@@ -113,7 +116,7 @@ public class AmbroseHivePreHook implements ExecuteWithHookContext {
     }
 
     private void sendFilteredJobsStatus(String queryId, 
-        EmbeddedAmbroseHiveProgressReporter reporter, Map<String, DAGNode<Job>> nodeIdToDAGNode) {
+        AmbroseHiveProgressReporter reporter, Map<String, DAGNode<Job>> nodeIdToDAGNode) {
         
         if (nodeIdToDAGNode == null) {
             return;
@@ -30,13 +30,14 @@ import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.RunningJob;
 
 import com.google.common.collect.Maps;
-import com.twitter.ambrose.hive.reporter.EmbeddedAmbroseHiveProgressReporter;
+import com.twitter.ambrose.hive.reporter.AmbroseHiveProgressReporter;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Event.WorkflowProgressField;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.JobProgressEncoder;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
-import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getEmbeddedProgressReporter;
+import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getProgressReporter;
 
 /**
  * Hook that is invoked every <tt>hive.exec.counters.pull.interval</tt> seconds
@@ -57,6 +58,7 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
   private final JobClient jobClient;
   private RunningJob rj;
   private MapReduceJobState jobProgress;
+  private final JobProgressEncoder progressEncoder = new JobProgressEncoder();
 
   private String nodeId;
   private JobID jobId;
@@ -92,7 +94,7 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
 
   private void send(String jobIDStr, Map<String, Double> counterValues) {
 
-    EmbeddedAmbroseHiveProgressReporter reporter = getEmbeddedProgressReporter();
+    AmbroseHiveProgressReporter reporter = getProgressReporter();
     Configuration conf = SessionState.get().getConf();
     String queryId = AmbroseHiveUtil.getHiveQueryId(conf);
     Map<String, DAGNode<Job>> nodeIdToDAGNode = reporter.getNodeIdToDAGNode();
@@ -116,7 +118,7 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
       boolean isUpdated = updateJobState();
       if (isUpdated && !reporter.getCompletedJobIds().contains(jobIDStr)) {
         
-        Event<DAGNode<? extends Job>> event = null;
+        Event event = null;
         job.setMapReduceJobState(jobProgress);
         if (jobProgress.isComplete()) {
           event = new Event.JobFinishedEvent(dagNode);
@@ -127,11 +129,11 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
           }
           reporter.addCompletedJobIds(jobIDStr);
           job.setJobStats(counterValues, mappers, reducers);
-          job.setConfiguration(((HiveConf) conf).getAllProperties());
+          reporter.setJobConfiguration(job, ((HiveConf) conf).getAllProperties());
           reporter.addJob(job);
         }
         else {
-          event = new Event.JobProgressEvent(dagNode);
+          event = progressEncoder.encode(dagNode);
         }
         reporter.addJobIdToProgress(jobIDStr, getJobProgress());
         pushWorkflowProgress(queryId, reporter);
@@ -143,7 +145,7 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
     }
   }
 
-  private void pushWorkflowProgress(String queryId, EmbeddedAmbroseHiveProgressReporter reporter) {
+  private void pushWorkflowProgress(String queryId, AmbroseHiveProgressReporter reporter) {
     eventData.put(WorkflowProgressField.workflowProgress,
         Integer.toString(reporter.getOverallProgress()));
     reporter.pushEvent(queryId, new Event.WorkflowProgressEvent(eventData));
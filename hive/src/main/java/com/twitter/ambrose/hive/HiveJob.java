@@ -25,7 +25,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.HadoopJobSerializer;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.hadoop.CounterGroup;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
@@ -41,6 +43,7 @@ import com.twitter.ambrose.util.JSONUtil;
  * 
  */
 @JsonTypeName("hive")
+@JsonSerialize(using = HiveJob.Serializer.class, include = JsonSerialize.Inclusion.NON_NULL)
 public class HiveJob extends Job {
 
   private static final Log LOG = LogFactory.getLog(HiveJob.class);
@@ -144,6 +147,27 @@ public class HiveJob extends Job {
       @JsonSubTypes.Type(value = com.twitter.ambrose.hive.HiveJob.class, name = "hive") })
   private static class AnnotationMixinClass {}
 
+  /**
+   * Serializes HiveJobs without reflection.
+   */
+  public static class Serializer extends HadoopJobSerializer<HiveJob> {
+    @Override
+    protected String[] getAliases(HiveJob job) { return job.getAliases(); }
+
+    @Override
+    protected String[] getFeatures(HiveJob job) { return job.getFeatures(); }
+
+    @Override
+    protected MapReduceJobState getMapReduceJobState(HiveJob job) {
+      return job.getMapReduceJobState();
+    }
+
+    @Override
+    protected Map<String, CounterGroup> getCounterGroupMap(HiveJob job) {
+      return job.getCounterGroupMap();
+    }
+  }
+
   private Double getCounterValue(Map<String, Double> counterNameToValue, MetricsCounter hjc) {
     String[] keys = MetricsCounter.get(hjc);
     return (counterNameToValue.get(keys[0]) == null) ? counterNameToValue.get(keys[1])
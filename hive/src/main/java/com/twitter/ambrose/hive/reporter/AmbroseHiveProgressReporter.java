@@ -18,8 +18,8 @@ package com.twitter.ambrose.hive.reporter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -31,6 +31,7 @@ import org.apache.commons.logging.LogFactory;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.ConfigurationWriteServices;
 import com.twitter.ambrose.service.StatsWriteService;
 
 /**
@@ -41,7 +42,8 @@ import com.twitter.ambrose.service.StatsWriteService;
  * of the running Hive script.
  * <br><br>
  * See {@link EmbeddedAmbroseHiveProgressReporter} for a sublclass that can be used to run an
- * embedded Ambrose web server from Hive client process.
+ * embedded Ambrose web server from Hive client process, and
+ * {@link RemoteAmbroseHiveProgressReporter} for one sending stats to a remote Ambrose server.
  * 
  * @author Lorand Bendig <lbendig@gmail.com>
  * 
@@ -60,12 +62,6 @@ public abstract class AmbroseHiveProgressReporter {
   private int totalMRJobs;
   private String workflowVersion;
 
-  /** holds all events within a script (for all workflows) */
-  protected SortedMap<Integer, Event<?>> allEvents = new ConcurrentSkipListMap<Integer, Event<?>>();
-
-  /** holds all dagNodes within a script (for all workflows) */
-  protected SortedMap<String, DAGNode<Job>> allDagNodes = new ConcurrentSkipListMap<String, DAGNode<Job>>();
- 
   private StatsWriteService statsWriteService;
 
   AmbroseHiveProgressReporter(StatsWriteService statsWriteService) {
@@ -97,6 +93,22 @@ public abstract class AmbroseHiveProgressReporter {
    * to replay all the workflows when the script finishes
    */
   public abstract void restoreEventStack();
+
+  /**
+   * @return whether stats are served from the Hive client VM, which then has to keep running for
+   * them to be seen once the script completes
+   */
+  public abstract boolean isServingStats();
+
+  /**
+   * Stops serving or sending stats once the script completed or failed
+   */
+  public abstract void stopServer();
+
+  /**
+   * Writes the json of the collected events and DAG to disk, if configured to
+   */
+  public abstract void flushJsonToDisk();
   
   protected StatsWriteService<? extends Job> getStatsWriteService() {
     return statsWriteService;
@@ -177,6 +189,14 @@ public abstract class AmbroseHiveProgressReporter {
     }
   }
 
+  /**
+   * Attaches a configuration to a job; see
+   * {@link ConfigurationWriteServices#setConfiguration(StatsWriteService, Job, Properties)}.
+   */
+  public void setJobConfiguration(Job job, Properties configuration) {
+    ConfigurationWriteServices.setConfiguration(statsWriteService, job, configuration);
+  }
+
   public void sendDagNodeNameMap(String queryId, Map<String, DAGNode<Job>> nodeIdToDAGNode) {
     try {
       statsWriteService.sendDagNodeNameMap(queryId, nodeIdToDAGNode);
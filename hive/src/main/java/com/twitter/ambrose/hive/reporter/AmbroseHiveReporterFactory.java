@@ -15,12 +15,15 @@ limitations under the License.
 */
 package com.twitter.ambrose.hive.reporter;
 
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+
 /**
  * Factory class that takes care of creating a singleton instance of
  * {@link AmbroseHiveProgressReporter}. Hooks are retrieving the global
  * reporter instance from here through the lifecycle of the Hive script
  * 
  * @see EmbeddedAmbroseHiveProgressReporter
+ * @see RemoteAmbroseHiveProgressReporter
  * 
  * @author Lorand Bendig <lbendig@gmail.com>
  *
@@ -34,8 +37,27 @@ public class AmbroseHiveReporterFactory {
       new EmbeddedAmbroseHiveProgressReporter();
   }
 
+  private static class RemoteReporterHolder {
+    private static final RemoteAmbroseHiveProgressReporter INSTANCE =
+      new RemoteAmbroseHiveProgressReporter();
+  }
+
   public static EmbeddedAmbroseHiveProgressReporter getEmbeddedProgressReporter() {
     return EmbeddedReporterHolder.INSTANCE;
   }
 
+  public static RemoteAmbroseHiveProgressReporter getRemoteProgressReporter() {
+    return RemoteReporterHolder.INSTANCE;
+  }
+
+  /**
+   * Returns the remote reporter if <code>{@value RemoteStatsWriteService#URL_PARAM}</code> is set,
+   * and the embedded one otherwise
+   */
+  public static AmbroseHiveProgressReporter getProgressReporter() {
+    return System.getProperty(RemoteStatsWriteService.URL_PARAM) != null
+        ? getRemoteProgressReporter()
+        : getEmbeddedProgressReporter();
+  }
+
 }
@@ -16,14 +16,21 @@ limitations under the License.
 package com.twitter.ambrose.hive.reporter;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.util.SortedMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.twitter.ambrose.hive.AmbroseHiveUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowSummary;
 import com.twitter.ambrose.server.ScriptStatusServer;
 import com.twitter.ambrose.service.impl.InMemoryStatsService;
 
@@ -42,59 +49,63 @@ public class EmbeddedAmbroseHiveProgressReporter extends AmbroseHiveProgressRepo
   private InMemoryStatsService service;
   private ScriptStatusServer server;
 
-  /**
-   * internal eventMap field unfolded from InMemoryStatsService
-   * Needed to be able to save events of workflows and restore all of the
-   * when script is replayed at the end
-   */
-  private SortedMap<Integer, Event<?>> _eventMap;
-
   EmbeddedAmbroseHiveProgressReporter() {
     super(new InMemoryStatsService());
     this.service = (InMemoryStatsService) getStatsWriteService();
     this.server = new ScriptStatusServer(service, service);
     this.server.start();
-    initInternal();
-  }
-  
-  @SuppressWarnings("unchecked")
-  private void initInternal() {
-    try {
-      Field eventMapField = AmbroseHiveUtil
-          .getInternalField(InMemoryStatsService.class, "eventMap");
-      _eventMap = (SortedMap<Integer, Event<?>>) eventMapField.get(service);
-    }
-    catch (Exception e) {
-      LOG.fatal("Can't access to eventMap/dagNodeNameMap fields at "
-          + InMemoryStatsService.class.getName() + "!");
-      throw new RuntimeException("Incompatible Hive API found!", e);
-    }
   }
-  
+
   /**
-   * Saves events and DAGNodes for a given workflow
+   * Saves events and DAGNodes for a given workflow. InMemoryStatsService keeps
+   * them in the workflow's own partition, subject to its retention policy, so
+   * there's nothing to copy here.
    */
   @Override
   public void saveEventStack() {
-    allEvents.putAll(_eventMap);
-    allDagNodes.putAll(service.getDagNodeNameMap(null));
   }
 
   /**
    * Restores events and DAGNodes of all workflows within a script This enables
-   * to replay all the workflows when the script finishes
+   * to replay all the workflows when the script finishes. Events are restored
+   * in the order they were created. DAG nodes are merged into the DAG of the
+   * current workflow under a new version, so /dag serves them.
    */
   @Override
   public void restoreEventStack() {
-    _eventMap.putAll(allEvents);
-    service.getDagNodeNameMap(null).putAll(allDagNodes);
+    Map<String, DAGNode<Job>> allDagNodes = Maps.newHashMap();
+    List<Event> allEvents = Lists.newArrayList();
+    try {
+      for (WorkflowSummary summary : service.getWorkflows(null, null, null, 0, null).getResults()) {
+        allEvents.addAll(service.getEventsSinceId(summary.getId(), -1));
+        allDagNodes.putAll(service.getDagNodeNameMap(summary.getId()));
+      }
+      Collections.sort(allEvents, new Comparator<Event>() {
+        @Override
+        public int compare(Event e1, Event e2) {
+          return Longs.compare(e1.getTimestamp(), e2.getTimestamp());
+        }
+      });
+      service.restoreEvents(null, allEvents);
+    }
+    catch (IOException e) {
+      LOG.warn("Couldn't restore events of workflows", e);
+    }
+    service.restoreDagNodes(null, allDagNodes);
+  }
+
+  @Override
+  public boolean isServingStats() {
+    return true;
   }
-  
+
+  @Override
   public void stopServer() {
     LOG.info("Stopping Ambrose Server...");
     server.stop();
   }
-  
+
+  @Override
   public void flushJsonToDisk() {
     try {
       service.flushJsonToDisk();
@@ -106,7 +117,7 @@ public class EmbeddedAmbroseHiveProgressReporter extends AmbroseHiveProgressRepo
 
   @Override
   public void resetAdditionals() {
-    _eventMap.clear();
+    // events of each query are collected in their own workflow by InMemoryStatsService
   }
 
 }
@@ -0,0 +1,90 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.hive.reporter;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+
+/**
+ * Subclass of {@link AmbroseHiveProgressReporter} that sends stats to a remote Ambrose server
+ * through a RemoteStatsWriteService, rather than serving them from the Hive client VM. The hooks
+ * use this reporter when <code>{@value RemoteStatsWriteService#URL_PARAM}</code> is set, see
+ * {@link AmbroseHiveReporterFactory#getProgressReporter()}.
+ * <p/>
+ * The remote server keeps the events and DAG of each query in their own workflow, so unlike
+ * {@link EmbeddedAmbroseHiveProgressReporter} this reporter doesn't merge the workflows of a
+ * script once it completes. See {@link RemoteStatsWriteService} for the other system properties
+ * configuring how stats are sent.
+ *
+ */
+public class RemoteAmbroseHiveProgressReporter extends AmbroseHiveProgressReporter {
+
+  private static final Log LOG = LogFactory.getLog(RemoteAmbroseHiveProgressReporter.class);
+
+  private RemoteStatsWriteService service;
+
+  RemoteAmbroseHiveProgressReporter() {
+    super(RemoteStatsWriteService.open());
+    this.service = (RemoteStatsWriteService) getStatsWriteService();
+  }
+
+  @Override
+  public void saveEventStack() {
+  }
+
+  @Override
+  public void restoreEventStack() {
+  }
+
+  @Override
+  public boolean isServingStats() {
+    return false;
+  }
+
+  /**
+   * Sends stats still queued, after which stats pushed are dropped.
+   */
+  @Override
+  public void stopServer() {
+    try {
+      service.close();
+    }
+    catch (IOException e) {
+      LOG.warn("Couldn't send stats to remote server", e);
+    }
+    if (service.getDroppedCount() > 0) {
+      LOG.warn("Dropped " + service.getDroppedCount() + " events not sent to remote server");
+    }
+    if (service.getDroppedObjectCount() > 0) {
+      LOG.warn("Dropped " + service.getDroppedObjectCount()
+          + " DAGs and configurations not sent to remote server");
+    }
+  }
+
+  @Override
+  public void flushJsonToDisk() {
+    // the remote server writes the dumps it is configured to write
+  }
+
+  @Override
+  public void resetAdditionals() {
+  }
+
+}
@@ -15,6 +15,9 @@ limitations under the License.
 */
 package com.twitter.ambrose.model;
 
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.assertSerializedAsBean;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.counterGroupMap;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.mapReduceJobState;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -29,6 +32,7 @@ import org.junit.Test;
 
 import com.google.common.collect.Maps;
 import com.twitter.ambrose.hive.HiveJob;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
 
 /**
  * Unit tests for {@link com.twitter.ambrose.model.HiveJobTest}.
@@ -72,6 +76,13 @@ public class HiveJobTest {
     doTestRoundTrip(node);
   }
 
+  @Test
+  public void testSerializedAsBean() throws IOException {
+    HiveJob job = new HiveJob("job_1", new String[] { "A", null }, new String[] { "GROUP_BY" },
+        mapReduceJobState(new MapReduceJobState()), counterGroupMap());
+    assertSerializedAsBean(job, new HiveJob(null, null));
+  }
+
   @Test
   public void testFromJson() throws IOException {
     String json = 
@@ -19,8 +19,10 @@ import com.google.common.base.Joiner;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.JobProgressEncoder;
 import com.twitter.ambrose.model.Workflow;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+import com.twitter.ambrose.service.ConfigurationWriteServices;
 import com.twitter.ambrose.service.StatsWriteService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -71,6 +73,7 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
   private Map<String, DAGNode<PigJob>> dagNodeNameMap = Maps.newTreeMap();
   private Map<String, DAGNode<PigJob>> dagNodeJobIdMap = Maps.newTreeMap();
   private Set<String> completedJobIds = Sets.newHashSet();
+  private JobProgressEncoder progressEncoder = new JobProgressEncoder();
   private JobClient jobClient;
   private PigStats.JobGraph jobGraph;
 
@@ -247,7 +250,7 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
 
       //only push job progress events for a completed job once
       if (node.getJob().getMapReduceJobState() != null && !completedJobIds.contains(node.getJob().getId())) {
-        pushEvent(scriptId, new Event.JobProgressEvent(node));
+        pushJobProgressEvent(scriptId, node);
 
         if (node.getJob().getMapReduceJobState().isComplete()) {
           completedJobIds.add(node.getJob().getId());
@@ -289,7 +292,7 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
     }
 
     job.setJobStats(stats);
-    job.setConfiguration(jobConfProperties);
+    ConfigurationWriteServices.setConfiguration(statsWriteService, job, jobConfProperties);
     jobs.add(job);
   }
 
@@ -307,6 +310,14 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
     }
   }
 
+  private void pushJobProgressEvent(String scriptId, DAGNode<? extends Job> node) {
+    try {
+      statsWriteService.pushEvent(scriptId, progressEncoder.encode(node));
+    } catch (IOException e) {
+      log.error("Couldn't send event to StatsWriteService", e);
+    }
+  }
+
   @SuppressWarnings("deprecation")
   private void addMapReduceJobState(PigJob pigJob) {
     JobClient jobClientLocal = getJobClient();
@@ -324,12 +335,15 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
       TaskReport[] reduceTaskReport = jobClientLocal.getReduceTaskReports(jobID);
       pigJob.setMapReduceJobState(new MapReduceJobState(runningJob, mapTaskReport, reduceTaskReport));
 
-      Properties jobConfProperties = new Properties();
-      Configuration conf = jobClientLocal.getConf();
-      for (Map.Entry<String, String> entry : conf) {
-        jobConfProperties.setProperty(entry.getKey(), entry.getValue());
+      // the configuration doesn't change between polls, so only copy it once per job
+      if (pigJob.getConfiguration() == null && pigJob.getConfigurationId() == null) {
+        Properties jobConfProperties = new Properties();
+        Configuration conf = jobClientLocal.getConf();
+        for (Map.Entry<String, String> entry : conf) {
+          jobConfProperties.setProperty(entry.getKey(), entry.getValue());
+        }
+        ConfigurationWriteServices.setConfiguration(statsWriteService, pigJob, jobConfProperties);
       }
-      pigJob.setConfiguration(jobConfProperties);
 
     } catch (IOException e) {
       log.error("Error getting job info.", e);
@@ -15,17 +15,24 @@ limitations under the License.
 */
 package com.twitter.ambrose.pig;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import org.apache.pig.tools.pigstats.PigStatsUtil;
 
+import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.server.ScriptStatusServer;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
 import com.twitter.ambrose.service.impl.InMemoryStatsService;
+import com.twitter.ambrose.service.impl.StatsServiceFactory;
 
 /**
  * Subclass of AmbrosePigProgressNotificationListener that starts a ScriptStatusServer embedded in
- * the running Pig client VM. Stats are collected using by this class via InMemoryStatsService,
- * which is what serves stats to ScriptStatusServer.
+ * the running Pig client VM. Stats are collected using by this class via the service created by
+ * {@link StatsServiceFactory}, InMemoryStatsService by default, which is what serves stats to
+ * ScriptStatusServer.
  * <p/>
  * To use this class with pig, start pig as follows:
  * <pre>
@@ -42,19 +49,23 @@ import com.twitter.ambrose.service.impl.InMemoryStatsService;
  * listen on. Defaults to {@value ScriptStatusServer#PORT_DEFAULT}.</li>
  *     <li><code>{@value #POST_SCRIPT_SLEEP_SECS_PARAM}</code> - Number of seconds to keep the VM
  * running after the script is complete.</li>
+ *     <li><code>{@value StatsServiceFactory#STORE_PARAM}</code> - store holding the stats, see
+ * {@link StatsServiceFactory} for this and the other store options.</li>
  *   </ul>
  * </pre>
  */
 public class EmbeddedAmbrosePigProgressNotificationListener
     extends AmbrosePigProgressNotificationListener {
   private static final String POST_SCRIPT_SLEEP_SECS_PARAM = "ambrose.post.script.sleep.seconds";
-  private InMemoryStatsService service;
+  private StatsWriteService<Job> service;
   private ScriptStatusServer server;
 
+  @SuppressWarnings("unchecked")
   public EmbeddedAmbrosePigProgressNotificationListener() {
-    super(new InMemoryStatsService());
-    this.service = (InMemoryStatsService) getStatsWriteService();
-    this.server = new ScriptStatusServer(service, service);
+    super(StatsServiceFactory.fromSystemProperties());
+    this.service = getStatsWriteService();
+    this.server = new ScriptStatusServer((WorkflowIndexReadService) service,
+        (StatsReadService<Job>) service);
     this.server.start();
   }
 
@@ -78,15 +89,20 @@ public class EmbeddedAmbrosePigProgressNotificationListener
 
       log.info("Job complete but sleeping for " + sleepTimeSeconds
           + " seconds to keep the PigStats REST server running. Hit ctrl-c to exit.");
-      service.flushJsonToDisk();
+      if (service instanceof InMemoryStatsService) {
+        ((InMemoryStatsService) service).flushJsonToDisk();
+      }
       Thread.sleep(sleepTimeSeconds * 1000);
       server.stop();
+      if (service instanceof Closeable) {
+        ((Closeable) service).close();
+      }
 
     } catch (NumberFormatException e) {
       log.warn(POST_SCRIPT_SLEEP_SECS_PARAM + " param is not a valid number, not sleeping: " +
           sleepTime);
     } catch (IOException e) {
-      log.warn("Couldn't write json to disk", e);
+      log.warn("Couldn't write stats to disk", e);
     } catch (InterruptedException e) {
       log.warn("Sleep interrupted", e);
     }
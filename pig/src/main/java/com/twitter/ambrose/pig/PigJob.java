@@ -25,6 +25,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import com.twitter.ambrose.util.JSONUtil;
 import org.apache.commons.logging.Log;
@@ -33,6 +34,7 @@ import org.apache.pig.tools.pigstats.InputStats;
 import org.apache.pig.tools.pigstats.JobStats;
 import org.apache.pig.tools.pigstats.OutputStats;
 
+import com.twitter.ambrose.model.HadoopJobSerializer;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.hadoop.CounterGroup;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
@@ -46,6 +48,7 @@ import com.twitter.ambrose.model.hadoop.MapReduceJobState;
  * @author billg
  */
 @JsonTypeName("pig")
+@JsonSerialize(using = PigJob.Serializer.class, include = JsonSerialize.Inclusion.NON_NULL)
 public class PigJob extends Job {
   protected static Log LOG = LogFactory.getLog(PigJob.class);
 
@@ -188,4 +191,25 @@ public class PigJob extends Job {
       @JsonSubTypes.Type(value=com.twitter.ambrose.pig.PigJob.class, name="pig")
   })
   private static class AnnotationMixinClass { }
+
+  /**
+   * Serializes PigJobs without reflection.
+   */
+  public static class Serializer extends HadoopJobSerializer<PigJob> {
+    @Override
+    protected String[] getAliases(PigJob job) { return job.getAliases(); }
+
+    @Override
+    protected String[] getFeatures(PigJob job) { return job.getFeatures(); }
+
+    @Override
+    protected MapReduceJobState getMapReduceJobState(PigJob job) {
+      return job.getMapReduceJobState();
+    }
+
+    @Override
+    protected Map<String, CounterGroup> getCounterGroupMap(PigJob job) {
+      return job.getCounterGroupMap();
+    }
+  }
 }
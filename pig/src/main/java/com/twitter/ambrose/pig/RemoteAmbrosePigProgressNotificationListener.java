@@ -0,0 +1,65 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.pig;
+
+import java.io.IOException;
+
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+
+/**
+ * Subclass of AmbrosePigProgressNotificationListener that sends stats to a remote Ambrose server
+ * through a RemoteStatsWriteService, rather than serving them from the Pig client VM.
+ * <p/>
+ * To use this class with pig, start pig as follows:
+ * <pre>
+ * $ pig \
+ * -Dpig.notification.listener=\
+ * com.twitter.ambrose.pig.RemoteAmbrosePigProgressNotificationListener \
+ * -Dambrose.remote.url=http://ambrose.example.com:8080 \
+ * -f path/to/script.pig
+ * </pre>
+ * See {@link RemoteStatsWriteService} for the other system properties configuring how stats are
+ * sent.
+ */
+public class RemoteAmbrosePigProgressNotificationListener
+    extends AmbrosePigProgressNotificationListener {
+  private RemoteStatsWriteService service;
+
+  public RemoteAmbrosePigProgressNotificationListener() {
+    super(RemoteStatsWriteService.open());
+    this.service = (RemoteStatsWriteService) getStatsWriteService();
+  }
+
+  /**
+   * Sends stats still queued once the script completes.
+   */
+  @Override
+  public void launchCompletedNotification(String scriptId, int numJobsSucceeded) {
+    super.launchCompletedNotification(scriptId, numJobsSucceeded);
+    try {
+      service.close();
+    } catch (IOException e) {
+      log.warn("Couldn't send stats to remote server", e);
+    }
+    if (service.getDroppedCount() > 0) {
+      log.warn("Dropped " + service.getDroppedCount() + " events not sent to remote server");
+    }
+    if (service.getDroppedObjectCount() > 0) {
+      log.warn("Dropped " + service.getDroppedObjectCount()
+          + " DAGs and configurations not sent to remote server");
+    }
+  }
+}
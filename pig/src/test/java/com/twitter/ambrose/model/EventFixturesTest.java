@@ -0,0 +1,62 @@
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.pig.PigJob;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trips the events of the web/data/events.json fixture through {@link JSONUtil}, whose
+ * serializers of model classes must write the same json as Jackson's bean serializers.
+ */
+public class EventFixturesTest {
+  private static final TypeReference<List<Event<?>>> EVENTS_TYPE =
+      new TypeReference<List<Event<?>>>() { };
+
+  static {
+    PigJob.mixinJsonAnnotations();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    String json = Resources.toString(Resources.getResource("web/data/events.json"), Charsets.UTF_8);
+    ObjectMapper beanMapper = new ObjectMapper()
+        .setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+          @Override
+          public Object findSerializer(Annotated a) {
+            // ignore the serializer of PigJob, to compare its output to a bean's
+            return null;
+          }
+        })
+        .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    beanMapper.registerSubtypes(new NamedType(PigJob.class, "pig"));
+
+    JsonNode fixtures = beanMapper.readTree(json);
+    List<Event<?>> events = JSONUtil.toObject(json, EVENTS_TYPE);
+    List<Event<?>> beanEvents = beanMapper.readValue(json, EVENTS_TYPE);
+    assertEquals(fixtures.size(), events.size());
+    assertEquals(fixtures.size(), beanEvents.size());
+    for (int i = 0; i < events.size(); i++) {
+      String roundTripped = events.get(i).toJson();
+      assertEquals(beanMapper.writeValueAsString(beanEvents.get(i)), roundTripped);
+      assertEquals(fixtures.get(i), beanMapper.readTree(roundTripped));
+    }
+  }
+}
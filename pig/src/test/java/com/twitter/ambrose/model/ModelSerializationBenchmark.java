@@ -0,0 +1,156 @@
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+
+import com.twitter.ambrose.pig.PigJob;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Times serialization and deserialization of events by {@link JSONUtil}, whose model classes have
+ * hand-written serializers, against a mapper serializing them as beans. Events are the Pig events
+ * of the web/data/events.json fixture and job events of the default runtime. Run with the test
+ * classpath of this module, optionally passing the number of rounds and iterations per round:
+ * <pre>
+ * $ java -cp ... com.twitter.ambrose.model.ModelSerializationBenchmark 5 2000
+ * </pre>
+ * The best round of each case is reported, after a first round warming up the JIT.
+ */
+public class ModelSerializationBenchmark {
+  private static final TypeReference<List<Event<?>>> EVENTS_TYPE =
+      new TypeReference<List<Event<?>>>() { };
+
+  private static abstract class Case {
+    private final String name;
+
+    Case(String name) {
+      this.name = name;
+    }
+
+    abstract void run() throws IOException;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    PigJob.mixinJsonAnnotations();
+    ObjectMapper beanMapper = new ObjectMapper()
+        .setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+          @Override
+          public Object findSerializer(Annotated a) {
+            return null;
+          }
+        })
+        .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    beanMapper.registerSubtypes(new NamedType(PigJob.class, "pig"));
+
+    String fixtures =
+        Resources.toString(Resources.getResource("web/data/events.json"), Charsets.UTF_8);
+    List<Event<?>> pigEvents = JSONUtil.toObject(fixtures, EVENTS_TYPE);
+    List<Event<?>> jobEvents = defaultJobEvents(pigEvents.size());
+
+    List<Case> cases = Lists.newArrayList();
+    addCases(cases, "pig", pigEvents, beanMapper);
+    addCases(cases, "default", jobEvents, beanMapper);
+
+    System.out.println(String.format("%d rounds of %d iterations, best round in ms",
+        rounds, iterations));
+    // cases take turns in each round, so drift of the machine affects them alike
+    long[] best = new long[cases.size()];
+    Arrays.fill(best, Long.MAX_VALUE);
+    for (int round = 0; round <= rounds; round++) {
+      for (int c = 0; c < cases.size(); c++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          cases.get(c).run();
+        }
+        long elapsed = System.nanoTime() - start;
+        // round 0 warms up
+        if (round > 0) {
+          best[c] = Math.min(best[c], elapsed);
+        }
+      }
+    }
+    for (int c = 0; c < cases.size(); c++) {
+      System.out.println(String.format("%-30s %10.1f", cases.get(c).name, best[c] / 1e6));
+    }
+  }
+
+  private static void addCases(List<Case> cases, String events, final List<Event<?>> values,
+      ObjectMapper beanMapper) throws IOException {
+    final ObjectWriter beanWriter = beanMapper.writer();
+    final ObjectReader beanReader = beanMapper.reader(EVENTS_TYPE);
+    for (Event<?> event : values) {
+      if (!JSONUtil.toJson(event).equals(beanWriter.writeValueAsString(event))) {
+        throw new IllegalStateException("Serializers write different json for " + event);
+      }
+    }
+    final String json = beanMapper.writerWithType(EVENTS_TYPE).writeValueAsString(values);
+    // events are serialized one at a time, as they are pushed
+    cases.add(new Case(events + " serialize, model") {
+      @Override
+      void run() throws IOException {
+        for (Event<?> event : values) {
+          JSONUtil.toJsonBytes(event);
+        }
+      }
+    });
+    cases.add(new Case(events + " serialize, bean") {
+      @Override
+      void run() throws IOException {
+        for (Event<?> event : values) {
+          beanWriter.writeValueAsBytes(event);
+        }
+      }
+    });
+    cases.add(new Case(events + " deserialize, model") {
+      @Override
+      void run() throws IOException {
+        JSONUtil.toObject(json, EVENTS_TYPE);
+      }
+    });
+    cases.add(new Case(events + " deserialize, bean") {
+      @Override
+      void run() throws IOException {
+        beanReader.readValue(json);
+      }
+    });
+  }
+
+  private static List<Event<?>> defaultJobEvents(int count) {
+    List<Event<?>> events = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      Properties configuration = new Properties();
+      for (int property = 0; property < 20; property++) {
+        configuration.setProperty("mapred.property." + property, "value " + i);
+      }
+      Map<String, Number> metrics = Maps.newHashMap();
+      metrics.put("mapProgress", 0.5);
+      metrics.put("numberMaps", 3);
+      metrics.put("hdfsBytesWritten", 123456789L);
+      DAGNode<Job> node = new DAGNode<Job>("scope-" + i,
+          new Job("job_" + i, configuration, metrics));
+      events.add(new Event.JobProgressEvent(node).withId(i));
+    }
+    return events;
+  }
+}
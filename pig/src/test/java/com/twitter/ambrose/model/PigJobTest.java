@@ -1,5 +1,6 @@
 package com.twitter.ambrose.model;
 
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
 import com.twitter.ambrose.pig.PigJob;
 
 import org.junit.Assert;
@@ -11,6 +12,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.assertSerializedAsBean;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.counterGroupMap;
+import static com.twitter.ambrose.model.HadoopJobSerializerTestUtils.mapReduceJobState;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -58,6 +62,13 @@ public class PigJobTest {
     doTestRoundTrip(node);
   }
 
+  @Test
+  public void testSerializedAsBean() throws IOException {
+    PigJob job = new PigJob("job_1", new String[] { "A", null }, new String[] { "GROUP_BY" },
+        mapReduceJobState(new MapReduceJobState()), counterGroupMap(), null, null);
+    assertSerializedAsBean(job, new PigJob(null, null));
+  }
+
   @Test
   public void testFromJson() throws IOException {
     String json =  "{\n" +
@@ -0,0 +1,128 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.server.ScriptStatusServer;
+import com.twitter.ambrose.service.impl.FileWorkflowIndexService;
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+
+/**
+ * Runs a {@link ScriptStatusServer} as a standalone daemon collecting stats of any number of
+ * workflows from remote clients, such as Pig, Hive or Cascading clients writing through a
+ * {@link RemoteStatsWriteService}, rather than each client serving its own stats. Stats are
+ * received through the endpoints of {@link IngestHandler} and held by a {@link ShardedStatsService}.
+ * Jobs of every runtime are served as they were received, see {@link IngestedJob}.
+ * <p/>
+ * The server is configured with the system properties of {@link ScriptStatusServer}, along with
+ * the following:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #PARTITIONS_PARAM}</code> - number of partitions workflows are spread
+ * across. Defaults to twice the number of available processors.</li>
+ *     <li><code>{@value #MAX_REQUEST_BYTES_PARAM}</code> - max size of ingest requests. Defaults to
+ * {@value #MAX_REQUEST_BYTES_DEFAULT}.</li>
+ *     <li><code>{@value #INDEX_FILE_PARAM}</code> - file in which to keep the summaries of all
+ * workflows collected, see {@link FileWorkflowIndexService}. By default only the summaries of the
+ * workflows held in memory are served.</li>
+ *     <li><code>{@value #RETENTION_MS_PARAM}</code> - time in milliseconds finished workflows are
+ * held in memory for, after which their DAGs and events are dropped. Their summaries are still
+ * served if an index file is given. Defaults to {@value #RETENTION_MS_DEFAULT}; zero or less holds
+ * workflows until the server exits.</li>
+ *     <li><code>{@value #INACTIVE_MS_PARAM}</code> - time in milliseconds running workflows are
+ * held in memory for once they stop receiving DAGs and events, such as those whose client died.
+ * Defaults to {@value #INACTIVE_MS_DEFAULT}; zero or less holds running workflows until the
+ * server exits.</li>
+ *   </ul>
+ * </pre>
+ * The events retained for each workflow can be bounded using the system properties described in
+ * {@link com.twitter.ambrose.service.impl.EventRetentionPolicy}.
+ */
+public class AmbroseServer {
+  public static final String PARTITIONS_PARAM = "ambrose.server.partitions";
+  public static final String MAX_REQUEST_BYTES_PARAM = "ambrose.server.max.request.bytes";
+  public static final int MAX_REQUEST_BYTES_DEFAULT = 16 * 1024 * 1024;
+  public static final String INDEX_FILE_PARAM = "ambrose.server.index.file";
+  public static final String RETENTION_MS_PARAM = "ambrose.server.retention.ms";
+  public static final long RETENTION_MS_DEFAULT = 60 * 60 * 1000;
+  public static final String INACTIVE_MS_PARAM = "ambrose.server.inactive.ms";
+  public static final long INACTIVE_MS_DEFAULT = 24 * 60 * 60 * 1000;
+  private static final long MAX_EVICTION_INTERVAL_MS = 60 * 1000;
+  private static final Logger LOG = LoggerFactory.getLogger(AmbroseServer.class);
+
+  private AmbroseServer() { }
+
+  public static void main(String[] args) throws IOException {
+    IngestedJob.mixinJsonAnnotations();
+    int partitions = Integer.getInteger(PARTITIONS_PARAM,
+        2 * Runtime.getRuntime().availableProcessors());
+    int maxRequestBytes = Integer.getInteger(MAX_REQUEST_BYTES_PARAM, MAX_REQUEST_BYTES_DEFAULT);
+
+    String indexFile = System.getProperty(INDEX_FILE_PARAM);
+    FileWorkflowIndexService index =
+        indexFile == null ? null : new FileWorkflowIndexService(new File(indexFile));
+
+    ShardedStatsService service = new ShardedStatsService(partitions, index);
+    long retentionMs = Long.getLong(RETENTION_MS_PARAM, RETENTION_MS_DEFAULT);
+    long inactiveMs = Long.getLong(INACTIVE_MS_PARAM, INACTIVE_MS_DEFAULT);
+    if (retentionMs > 0 || inactiveMs > 0) {
+      scheduleEviction(service, retentionMs, inactiveMs);
+    }
+    ScriptStatusServer server = new ScriptStatusServer(service, service);
+    server.addHandler(new IngestHandler(service, maxRequestBytes));
+    LOG.info("Collecting stats in {} partitions", partitions);
+    server.run();
+  }
+
+  /**
+   * Periodically drops workflows which finished more than retentionMs ago, and running workflows
+   * which received nothing for more than inactiveMs. Either is disabled by a time of zero or less.
+   */
+  private static void scheduleEviction(final ShardedStatsService service, final long retentionMs,
+      final long inactiveMs) {
+    long intervalMs = MAX_EVICTION_INTERVAL_MS;
+    if (retentionMs > 0) {
+      intervalMs = Math.min(intervalMs, retentionMs);
+    }
+    if (inactiveMs > 0) {
+      intervalMs = Math.min(intervalMs, inactiveMs);
+    }
+    new Timer("ambrose-eviction", true).schedule(new TimerTask() {
+      @Override
+      public void run() {
+        // an exception would cancel the timer
+        try {
+          long now = System.currentTimeMillis();
+          int evicted = service.evictWorkflows(retentionMs > 0 ? now - retentionMs : 0,
+              inactiveMs > 0 ? now - inactiveMs : 0);
+          if (evicted > 0) {
+            LOG.info("Evicted {} workflows which finished more than {} ms ago or received "
+                + "nothing for {} ms", new Object[] { evicted, retentionMs, inactiveMs });
+          }
+        } catch (RuntimeException e) {
+          LOG.error("Failed to evict finished workflows", e);
+        }
+      }
+    }, intervalMs, intervalMs);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server.standalone;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.mortbay.util.MultiMap;
+import org.mortbay.util.UrlEncoded;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.ConfigurationWriteService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.WorkflowUserWriteService;
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Handler of the ingest endpoints posted to by {@link RemoteStatsWriteService}, which writes the
+ * DAGs, events and job configurations it receives to a StatsWriteService:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value RemoteStatsWriteService#DAG_PATH}</code> - a JSON array of the DAG nodes of
+ * the workflow given by the <code>workflowId</code> parameter.</li>
+ *     <li><code>{@value RemoteStatsWriteService#EVENTS_PATH}</code> - events of a workflow as
+ * newline delimited JSON, pushed in the order they are read. A request with a malformed event
+ * is rejected without pushing any of its events.</li>
+ *     <li><code>{@value RemoteStatsWriteService#CONFIGURATION_PATH}</code> - a job configuration as
+ * a JSON object. Not found unless the service is a {@link ConfigurationWriteService}.</li>
+ *   </ul>
+ * </pre>
+ * DAGs and events may be posted with a <code>userId</code> parameter naming the user who submitted
+ * the workflow, which is recorded if the service is a {@link WorkflowUserWriteService}. Requests
+ * must be posted. Accepted requests are answered with 204 No Content, malformed requests
+ * with 400 Bad Request and requests larger than the max request size with 413 Request Entity Too
+ * Large.
+ */
+public class IngestHandler extends AbstractHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(IngestHandler.class);
+  private static final String QUERY_PARAM_WORKFLOW_ID = "workflowId";
+  private static final String QUERY_PARAM_USER_ID = "userId";
+  private static final TypeReference<List<DAGNode<Job>>> DAG_TYPE =
+      new TypeReference<List<DAGNode<Job>>>() { };
+  private static final TypeReference<Event> EVENT_TYPE = new TypeReference<Event>() { };
+  private static final TypeReference<Properties> CONFIGURATION_TYPE =
+      new TypeReference<Properties>() { };
+
+  private final StatsWriteService<Job> statsWriteService;
+  private final int maxRequestBytes;
+
+  /**
+   * @param statsWriteService service to write what is received to.
+   * @param maxRequestBytes max size of request bodies.
+   */
+  public IngestHandler(StatsWriteService<Job> statsWriteService, int maxRequestBytes) {
+    this.statsWriteService = statsWriteService;
+    this.maxRequestBytes = maxRequestBytes;
+  }
+
+  private static void setHandled(HttpServletRequest request) {
+    Request base_request = (request instanceof Request) ?
+        (Request) request : HttpConnection.getCurrentConnection().getRequest();
+    base_request.setHandled(true);
+  }
+
+  @Override
+  public void handle(String target, HttpServletRequest request, HttpServletResponse response,
+      int dispatch) throws IOException {
+    boolean dag = target.endsWith(RemoteStatsWriteService.DAG_PATH);
+    boolean events = target.endsWith(RemoteStatsWriteService.EVENTS_PATH);
+    boolean configuration = target.endsWith(RemoteStatsWriteService.CONFIGURATION_PATH);
+    if (!dag && !events && !configuration) {
+      return;
+    }
+    setHandled(request);
+    if (!"POST".equals(request.getMethod())) {
+      response.setHeader("Allow", "POST");
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return;
+    }
+    if (request.getContentLength() > maxRequestBytes) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+          "Requests are limited to " + maxRequestBytes + " bytes");
+      return;
+    }
+    if (configuration && !(statsWriteService instanceof ConfigurationWriteService)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Configurations aren't supported");
+      return;
+    }
+
+    // parameters are read from the query string only, as form encoded bodies would be consumed
+    MultiMap parameters = new MultiMap();
+    if (request.getQueryString() != null) {
+      UrlEncoded.decodeTo(request.getQueryString(), parameters, "UTF-8");
+    }
+    String workflowId = parameters.getString(QUERY_PARAM_WORKFLOW_ID);
+    String userId = parameters.getString(QUERY_PARAM_USER_ID);
+    // the whole body is parsed before anything is written, so a rejected request has no effect.
+    // One byte more than the max is read, to tell a body of unknown length which is too large from
+    // one which ends on an event boundary.
+    CountingInputStream in = new CountingInputStream(
+        ByteStreams.limit(request.getInputStream(), maxRequestBytes + 1L));
+    JsonParser parser = JSONUtil.createParser(JSONUtil.Format.JSON, in);
+    Map<String, DAGNode<Job>> dagNodeNameMap = null;
+    List<Event> eventList = null;
+    Properties properties = null;
+    try {
+      if (dag) {
+        parser.nextToken();
+        List<DAGNode<Job>> nodes = JSONUtil.readValue(JSONUtil.Format.JSON, parser, DAG_TYPE);
+        dagNodeNameMap = Maps.newLinkedHashMap();
+        for (DAGNode<Job> node : nodes) {
+          dagNodeNameMap.put(node.getName(), node);
+        }
+      } else if (events) {
+        eventList = Lists.newArrayList();
+        while (parser.nextToken() != null) {
+          eventList.add(JSONUtil.readValue(JSONUtil.Format.JSON, parser, EVENT_TYPE));
+        }
+      } else {
+        parser.nextToken();
+        properties = JSONUtil.readValue(JSONUtil.Format.JSON, parser, CONFIGURATION_TYPE);
+      }
+    } catch (JsonProcessingException e) {
+      if (in.getCount() <= maxRequestBytes) {
+        LOG.warn("Rejected malformed request to {} for workflowId={}: {}",
+            new Object[] { target, workflowId, e.getOriginalMessage() });
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getOriginalMessage());
+        return;
+      }
+    } finally {
+      parser.close();
+    }
+    if (in.getCount() > maxRequestBytes) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+          "Requests are limited to " + maxRequestBytes + " bytes");
+      return;
+    }
+
+    if (userId != null && !userId.isEmpty() && !configuration
+        && statsWriteService instanceof WorkflowUserWriteService) {
+      ((WorkflowUserWriteService) statsWriteService).setWorkflowUser(workflowId, userId);
+    }
+    if (dagNodeNameMap != null) {
+      statsWriteService.sendDagNodeNameMap(workflowId, dagNodeNameMap);
+    } else if (eventList != null) {
+      for (Event event : eventList) {
+        statsWriteService.pushEvent(workflowId, event);
+      }
+    } else {
+      ((ConfigurationWriteService) statsWriteService).putConfiguration(properties);
+    }
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server.standalone;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.JsonNodeDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Job of a runtime whose classes aren't on the server's classpath, such as a PigJob sent by a
+ * remote client. The job's json is held as read, runtime included, and written back unchanged, so
+ * the server serves jobs of any runtime without knowing them. Only the id of the job is bound.
+ */
+@JsonSerialize(using = IngestedJob.Serializer.class)
+@JsonDeserialize(using = IngestedJob.Deserializer.class)
+public class IngestedJob extends Job {
+  private static final Logger LOG = LoggerFactory.getLogger(IngestedJob.class);
+
+  private final ObjectNode json;
+
+  public IngestedJob(ObjectNode json) {
+    this.json = json;
+    JsonNode id = json.get("id");
+    if (id != null && id.isTextual()) {
+      setId(id.asText());
+    }
+  }
+
+  /**
+   * @return json of the job, which must not be modified.
+   */
+  public ObjectNode getJson() {
+    return json;
+  }
+
+  /**
+   * Makes jobs of runtimes unknown to the json mapper read as IngestedJobs. As with the mixins of
+   * runtimes such as Pig, this replaces other annotations mixed into Job, so it must happen once
+   * upon startup, and jobs of runtimes mixed in otherwise are read as IngestedJobs too.
+   */
+  public static void mixinJsonAnnotations() {
+    LOG.info("Mixing in JSON annotations for IngestedJob into Job");
+    JSONUtil.mixinAnnotatons(Job.class, AnnotationMixinClass.class);
+  }
+
+  @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY,
+      property = "runtime", visible = true, defaultImpl = IngestedJob.class)
+  @JsonSubTypes({
+      @JsonSubTypes.Type(value=com.twitter.ambrose.model.Job.class, name="default")
+  })
+  private static class AnnotationMixinClass { }
+
+  /**
+   * Writes the json of the job, which already holds its runtime as type id.
+   */
+  static class Serializer extends JsonSerializer<IngestedJob> {
+    @Override
+    public void serialize(IngestedJob job, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      provider.defaultSerializeValue(job.json, jgen);
+    }
+
+    @Override
+    public void serializeWithType(IngestedJob job, JsonGenerator jgen,
+        SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+      serialize(job, jgen, provider);
+    }
+  }
+
+  /**
+   * Reads the json of the job, which holds its runtime as the type id is visible.
+   */
+  static class Deserializer extends JsonDeserializer<IngestedJob> {
+    @Override
+    public IngestedJob deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+      JsonNode json = JsonNodeDeserializer.getDeserializer(ObjectNode.class).deserialize(jp, ctxt);
+      return new IngestedJob((ObjectNode) json);
+    }
+  }
+}
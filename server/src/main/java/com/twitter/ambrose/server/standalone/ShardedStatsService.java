@@ -0,0 +1,352 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.server.standalone;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.ConfigurationWriteService;
+import com.twitter.ambrose.service.EventJsonReadService;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.PagedEventReadService;
+import com.twitter.ambrose.service.SerializedEventList;
+import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.StoreMetricsReadService;
+import com.twitter.ambrose.service.VersionedReadService;
+import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.service.WorkflowUserWriteService;
+import com.twitter.ambrose.service.impl.FileWorkflowIndexService;
+import com.twitter.ambrose.service.impl.InMemoryStatsService;
+import com.twitter.ambrose.service.impl.WorkflowPages;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stats service which partitions workflows across a number of {@link InMemoryStatsService}s by a
+ * consistent hash of their workflowId, so a single server may collect stats of thousands of
+ * concurrently running workflows. Reads and writes of a workflow go to its partition alone, so the
+ * counters, version sequences and listener registries shared by all workflows of a partition are
+ * only contended by the workflows of that partition. Workflow summaries and metrics are merged
+ * across partitions.
+ * <p/>
+ * A null workflowId is served by the first partition, and job configurations, which are stored by
+ * content rather than by workflow, are all stored there too. Partitions don't write json to disk.
+ * <p/>
+ * Given a {@link FileWorkflowIndexService}, summaries are served from the index, so they outlive the
+ * server process and the eviction of their workflows through {@link #evictFinishedWorkflows}. The
+ * summary of a workflow is put to the index when its status, creation time, user or name changes,
+ * and when its progress reaches another multiple of {@value #INDEXED_PROGRESS_STEP}, so progress
+ * events don't each append a record to the index.
+ */
+public class ShardedStatsService implements StatsReadService<Job>, StatsWriteService<Job>,
+    WorkflowIndexReadService, EventJsonReadService, PagedEventReadService,
+    EventNotificationService, VersionedReadService, StoreMetricsReadService,
+    ConfigurationReadService, ConfigurationWriteService, WorkflowUserWriteService {
+  /**
+   * Cluster workflows are indexed under, the one cluster of {@link InMemoryStatsService}.
+   */
+  private static final String CLUSTER = "default";
+  /**
+   * Progress, in percent, a workflow must make for its summary to be put to the index again.
+   */
+  static final int INDEXED_PROGRESS_STEP = 10;
+  private final InMemoryStatsService[] partitions;
+  private final FileWorkflowIndexService index;
+  // summaries last put to the index, of workflows which haven't finished, with one map for each
+  // partition which is synchronized on when read or updated
+  private final List<Map<String, WorkflowSummary>> indexedSummaries;
+
+  public ShardedStatsService(int partitionCount) {
+    this(partitionCount, null);
+  }
+
+  /**
+   * @param partitionCount number of partitions to spread workflows across.
+   * @param index index to put and serve workflow summaries, or null to serve them from the
+   * partitions.
+   */
+  public ShardedStatsService(int partitionCount, FileWorkflowIndexService index) {
+    checkArgument(partitionCount > 0, "partitionCount must be positive: %s", partitionCount);
+    this.index = index;
+    partitions = new InMemoryStatsService[partitionCount];
+    indexedSummaries = Lists.newArrayListWithCapacity(partitionCount);
+    for (int i = 0; i < partitionCount; i++) {
+      partitions[i] = new InMemoryStatsService(null, null);
+      indexedSummaries.add(Maps.<String, WorkflowSummary>newHashMap());
+    }
+  }
+
+  /**
+   * @return number of partitions workflows are spread across.
+   */
+  public int getPartitionCount() {
+    return partitions.length;
+  }
+
+  /**
+   * @return index of the partition serving workflowId.
+   */
+  int getPartition(String workflowId) {
+    return workflowId == null
+        ? 0
+        : Hashing.consistentHash(workflowId.hashCode(), partitions.length);
+  }
+
+  private InMemoryStatsService partition(String workflowId) {
+    return partitions[getPartition(workflowId)];
+  }
+
+  @Override
+  public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<Job>> dagNodeNameMap)
+      throws IOException {
+    InMemoryStatsService partition = partition(workflowId);
+    long workflowsVersion = partition.getWorkflowsVersion();
+    partition.sendDagNodeNameMap(workflowId, dagNodeNameMap);
+    indexWorkflow(partition, workflowId, workflowsVersion);
+  }
+
+  @Override
+  public void setWorkflowUser(String workflowId, String userId) throws IOException {
+    InMemoryStatsService partition = partition(workflowId);
+    long workflowsVersion = partition.getWorkflowsVersion();
+    partition.setWorkflowUser(workflowId, userId);
+    indexWorkflow(partition, workflowId, workflowsVersion);
+  }
+
+  @Override
+  public void pushEvent(String workflowId, Event event) throws IOException {
+    InMemoryStatsService partition = partition(workflowId);
+    long workflowsVersion = partition.getWorkflowsVersion();
+    partition.pushEvent(workflowId, event);
+    indexWorkflow(partition, workflowId, workflowsVersion);
+  }
+
+  /**
+   * Puts the summary of a workflow to the index if the summaries of its partition changed since
+   * they had the given version, and the summary changed enough since it was last put. The summary is
+   * read and put while holding the indexed summaries of the partition, so the last summary put is
+   * the latest.
+   */
+  private void indexWorkflow(InMemoryStatsService partition, String workflowId,
+      long workflowsVersion) throws IOException {
+    if (index == null || workflowId == null
+        || partition.getWorkflowsVersion() == workflowsVersion) {
+      return;
+    }
+    Map<String, WorkflowSummary> indexed = indexedSummaries.get(getPartition(workflowId));
+    synchronized (indexed) {
+      WorkflowSummary summary = partition.getWorkflowSummary(workflowId);
+      if (summary == null || !shouldIndex(indexed.get(workflowId), summary)) {
+        return;
+      }
+      index.putWorkflow(CLUSTER, summary);
+      if (summary.getStatus() == WorkflowSummary.Status.RUNNING) {
+        indexed.put(workflowId, summary);
+      } else {
+        indexed.remove(workflowId);
+      }
+    }
+  }
+
+  private static boolean shouldIndex(WorkflowSummary indexed, WorkflowSummary summary) {
+    return indexed == null
+        || indexed.getStatus() != summary.getStatus()
+        || indexed.getCreatedAt() != summary.getCreatedAt()
+        || !Objects.equal(indexed.getUserId(), summary.getUserId())
+        || !Objects.equal(indexed.getName(), summary.getName())
+        || indexed.getProgress() / INDEXED_PROGRESS_STEP
+            != summary.getProgress() / INDEXED_PROGRESS_STEP;
+  }
+
+  /**
+   * Drops the workflows of all partitions which finished before the given time, leaving running
+   * workflows, as described in {@link #evictWorkflows}.
+   *
+   * @param finishedBefore time in milliseconds before which workflows must have finished.
+   * @return number of workflows dropped.
+   */
+  public int evictFinishedWorkflows(long finishedBefore) {
+    return evictWorkflows(finishedBefore, 0);
+  }
+
+  /**
+   * Drops the workflows of all partitions which finished before the given time, and the running
+   * workflows which received nothing since the given time, as described in
+   * {@link InMemoryStatsService#evictWorkflows}. Also forgets the summaries last put to the index
+   * of workflows no longer running or no longer held, such as those whose final status was never
+   * put.
+   *
+   * @param finishedBefore time in milliseconds before which workflows must have finished.
+   * @param inactiveBefore time in milliseconds since which running workflows must have received
+   * nothing, or zero or less to keep running workflows.
+   * @return number of workflows dropped.
+   */
+  public int evictWorkflows(long finishedBefore, long inactiveBefore) {
+    int evicted = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      evicted += partitions[i].evictWorkflows(finishedBefore, inactiveBefore);
+      Map<String, WorkflowSummary> indexed = indexedSummaries.get(i);
+      synchronized (indexed) {
+        Iterator<String> workflowIds = indexed.keySet().iterator();
+        while (workflowIds.hasNext()) {
+          WorkflowSummary summary = partitions[i].getWorkflowSummary(workflowIds.next());
+          if (summary == null || summary.getStatus() != WorkflowSummary.Status.RUNNING) {
+            workflowIds.remove();
+          }
+        }
+      }
+    }
+    return evicted;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<String, DAGNode<Job>> getDagNodeNameMap(String workflowId) throws IOException {
+    return partition(workflowId).getDagNodeNameMap(workflowId);
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId) throws IOException {
+    return partition(workflowId).getEventsSinceId(workflowId, eventId);
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, long eventId, int limit) {
+    return partition(workflowId).getEventsSinceId(workflowId, eventId, limit);
+  }
+
+  @Override
+  public SerializedEventList getSerializedEventsSinceId(String workflowId, long eventId) {
+    return partition(workflowId).getSerializedEventsSinceId(workflowId, eventId);
+  }
+
+  @Override
+  public void addEventListener(String workflowId, Listener listener) {
+    partition(workflowId).addEventListener(workflowId, listener);
+  }
+
+  @Override
+  public void removeEventListener(String workflowId, Listener listener) {
+    partition(workflowId).removeEventListener(workflowId, listener);
+  }
+
+  @Override
+  public long getDagVersion(String workflowId) {
+    return partition(workflowId).getDagVersion(workflowId);
+  }
+
+  /**
+   * Returns the sum of the versions of all partitions, which increases whenever the version of a
+   * partition does, or -1 if a partition doesn't version its summaries.
+   */
+  @Override
+  public long getWorkflowsVersion() {
+    long version = 0;
+    for (InMemoryStatsService partition : partitions) {
+      long partitionVersion = partition.getWorkflowsVersion();
+      if (partitionVersion < 0) {
+        return -1;
+      }
+      version += partitionVersion;
+    }
+    return version;
+  }
+
+  @Override
+  public Map<String, String> getClusters() throws IOException {
+    Map<String, String> clusters = Maps.newTreeMap();
+    clusters.putAll(partitions[0].getClusters());
+    if (index != null) {
+      clusters.putAll(index.getClusters());
+    }
+    return clusters;
+  }
+
+  /**
+   * Returns a page of the summaries held by the index if there is one, or else merged from the
+   * pages of all partitions.
+   */
+  @Override
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster, WorkflowSummary.Status status,
+      String userId, int numResults, byte[] startKey) throws IOException {
+    if (index != null) {
+      return index.getWorkflows(cluster, status, userId, numResults, startKey);
+    }
+    // one more summary than requested tells whether there is a next page
+    int partitionResults = numResults > 0 ? numResults + 1 : numResults;
+    List<WorkflowSummary> summaries = Lists.newArrayList();
+    for (InMemoryStatsService partition : partitions) {
+      summaries.addAll(partition.getWorkflows(
+          cluster, status, userId, partitionResults, startKey).getResults());
+    }
+    Collections.sort(summaries, WorkflowPages.NEWEST_FIRST);
+    return WorkflowPages.getPage(summaries, numResults, null);
+  }
+
+  @Override
+  public Map<String, WorkflowMetrics> getWorkflowMetrics() throws IOException {
+    Map<String, WorkflowMetrics> metrics = Maps.newTreeMap();
+    for (InMemoryStatsService partition : partitions) {
+      metrics.putAll(partition.getWorkflowMetrics());
+    }
+    return metrics;
+  }
+
+  @Override
+  public long getEventsPushed() {
+    long eventsPushed = 0;
+    for (InMemoryStatsService partition : partitions) {
+      eventsPushed += partition.getEventsPushed();
+    }
+    return eventsPushed;
+  }
+
+  @Override
+  public double getEventsPushedPerSecond() {
+    double eventsPushedPerSecond = 0;
+    for (InMemoryStatsService partition : partitions) {
+      eventsPushedPerSecond += partition.getEventsPushedPerSecond();
+    }
+    return eventsPushedPerSecond;
+  }
+
+  @Override
+  public String putConfiguration(Properties configuration) {
+    return partitions[0].putConfiguration(configuration);
+  }
+
+  @Override
+  public Properties getConfiguration(String configurationId) {
+    return partitions[0].getConfiguration(configurationId);
+  }
+}
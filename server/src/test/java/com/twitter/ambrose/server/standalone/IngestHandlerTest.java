@@ -0,0 +1,189 @@
+package com.twitter.ambrose.server.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.impl.RemoteStatsWriteService;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link IngestHandler} writing to a {@link ShardedStatsService}.
+ */
+public class IngestHandlerTest {
+  private static final String WORKFLOW_ID = "id-123";
+
+  private Server server;
+  private SelectChannelConnector connector;
+  private ShardedStatsService service;
+
+  @BeforeClass
+  public static void mixinJsonAnnotations() {
+    IngestedJob.mixinJsonAnnotations();
+  }
+
+  @Before
+  public void setup() throws Exception {
+    service = new ShardedStatsService(4);
+    server = new Server();
+    connector = new SelectChannelConnector();
+    connector.setPort(0);
+    server.setConnectors(new Connector[] { connector });
+    server.setHandler(new IngestHandler(service, 1024));
+    server.start();
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    server.stop();
+  }
+
+  private int post(String path, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + connector.getLocalPort() + path).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    OutputStream out = connection.getOutputStream();
+    out.write(body.getBytes(Charsets.UTF_8));
+    out.close();
+    int status = connection.getResponseCode();
+    connection.disconnect();
+    return status;
+  }
+
+  @Test
+  public void testRemoteStatsWriteService() throws Exception {
+    RemoteStatsWriteService remote =
+        new RemoteStatsWriteService(new URL("http://localhost:" + connector.getLocalPort()));
+    remote.sendDagNodeNameMap(WORKFLOW_ID, ImmutableMap.of("a", new DAGNode<Job>("a", null)));
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.name", "job 1");
+    String configurationId = remote.putConfiguration(configuration);
+    remote.pushEvent(WORKFLOW_ID, new Event.WorkflowProgressEvent(
+        ImmutableMap.of(Event.WorkflowProgressField.workflowProgress, "50")));
+    remote.close();
+
+    assertEquals(ImmutableList.of("a"),
+        ImmutableList.copyOf(service.getDagNodeNameMap(WORKFLOW_ID).keySet()));
+    assertEquals(configuration, service.getConfiguration(configurationId));
+    assertEquals(1, service.getEventsSinceId(WORKFLOW_ID, -1).size());
+    assertTrue(service.getDagNodeNameMap("other").isEmpty());
+  }
+
+  @Test
+  public void testUserId() throws Exception {
+    String event = new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "0")).toJson().replace('\n', ' ');
+    assertEquals(204, post(RemoteStatsWriteService.EVENTS_PATH + "?workflowId=" + WORKFLOW_ID
+        + "&userId=alice", event));
+    List<WorkflowSummary> summaries =
+        service.getWorkflows(null, null, "alice", 0, null).getResults();
+    assertEquals(1, summaries.size());
+    assertEquals(WORKFLOW_ID, summaries.get(0).getId());
+
+    // workflows posted without a user are recorded under the user running the server
+    assertEquals(204, post(RemoteStatsWriteService.DAG_PATH + "?workflowId=other", "[]"));
+    summaries = service.getWorkflows(null, null, System.getProperty("user.name"), 0, null)
+        .getResults();
+    assertEquals(1, summaries.size());
+    assertEquals("other", summaries.get(0).getId());
+  }
+
+  @Test
+  public void testUnknownRuntimePassesThrough() throws Exception {
+    String json = "[{\"name\":\"a\",\"job\":{\"runtime\":\"pig\",\"id\":\"job_1\","
+        + "\"aliases\":[\"x\"],\"metrics\":{\"maps\":2}},\"successorNames\":[]}]";
+    assertEquals(204, post(RemoteStatsWriteService.DAG_PATH + "?workflowId=" + WORKFLOW_ID, json));
+
+    Map<String, DAGNode<Job>> dagNodeNameMap = service.getDagNodeNameMap(WORKFLOW_ID);
+    Job job = dagNodeNameMap.get("a").getJob();
+    assertTrue(job instanceof IngestedJob);
+    assertEquals("job_1", job.getId());
+    String served = JSONUtil.toJson(dagNodeNameMap.values());
+    assertTrue(served, served.matches("(?s).*\"runtime\"\\s*:\\s*\"pig\".*"));
+    assertTrue(served, served.matches("(?s).*\"aliases\"\\s*:\\s*\\[\\s*\"x\"\\s*\\].*"));
+  }
+
+  @Test
+  public void testPartitioning() throws Exception {
+    Set<Integer> partitions = Sets.newHashSet();
+    for (int i = 0; i < 16; i++) {
+      String workflowId = "workflow-" + i;
+      assertEquals(204, post(RemoteStatsWriteService.EVENTS_PATH + "?workflowId=" + workflowId,
+          new Event.WorkflowProgressEvent(ImmutableMap.of(
+              Event.WorkflowProgressField.workflowProgress, "0")).toJson().replace('\n', ' ')));
+      partitions.add(service.getPartition(workflowId));
+      assertEquals(1, service.getEventsSinceId(workflowId, -1).size());
+    }
+    assertTrue(partitions.size() > 1);
+    assertNotNull(service.getWorkflowMetrics().get("workflow-0"));
+    assertEquals(16, service.getWorkflowMetrics().size());
+  }
+
+  @Test
+  public void testMalformedEventsRejectedAtomically() throws Exception {
+    String event = new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, "0")).toJson().replace('\n', ' ');
+    assertEquals(400, post(RemoteStatsWriteService.EVENTS_PATH + "?workflowId=" + WORKFLOW_ID,
+        event + "\n" + event + "\n{"));
+    assertTrue(service.getEventsSinceId(WORKFLOW_ID, -1).isEmpty());
+
+    // a body of unknown length larger than the max is rejected, even if it ends between events
+    StringBuilder body = new StringBuilder();
+    while (body.length() <= 1024) {
+      body.append(event).append('\n');
+    }
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"
+        + connector.getLocalPort() + RemoteStatsWriteService.EVENTS_PATH + "?workflowId="
+        + WORKFLOW_ID).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setChunkedStreamingMode(64);
+    OutputStream out = connection.getOutputStream();
+    out.write(body.toString().getBytes(Charsets.UTF_8));
+    out.close();
+    assertEquals(413, connection.getResponseCode());
+    connection.disconnect();
+    assertTrue(service.getEventsSinceId(WORKFLOW_ID, -1).isEmpty());
+  }
+
+  @Test
+  public void testRejected() throws Exception {
+    assertEquals(400, post(RemoteStatsWriteService.DAG_PATH + "?workflowId=" + WORKFLOW_ID, "[{"));
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 2048; i++) {
+      large.append(' ');
+    }
+    assertEquals(413, post(RemoteStatsWriteService.EVENTS_PATH, large.toString()));
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"
+        + connector.getLocalPort() + RemoteStatsWriteService.EVENTS_PATH).openConnection();
+    assertEquals(405, connection.getResponseCode());
+    connection.disconnect();
+  }
+}
@@ -0,0 +1,157 @@
+package com.twitter.ambrose.server.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.service.impl.FileWorkflowIndexService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ShardedStatsService}.
+ */
+public class ShardedStatsServiceTest {
+  private static void sendWorkflows(ShardedStatsService service, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      service.sendDagNodeNameMap("workflow-" + i, ImmutableMap.<String, DAGNode<Job>>of());
+    }
+  }
+
+  /**
+   * Reads all pages of summaries, checking no summary is returned twice.
+   */
+  private static int countWorkflows(ShardedStatsService service, int numResults)
+      throws IOException {
+    Set<String> ids = Sets.newHashSet();
+    byte[] startKey = null;
+    do {
+      PaginatedList<WorkflowSummary> page =
+          service.getWorkflows(null, null, null, numResults, startKey);
+      List<WorkflowSummary> results = page.getResults();
+      for (WorkflowSummary summary : results) {
+        assertTrue("Summary returned twice", ids.add(summary.getId()));
+      }
+      startKey = page.getNextPageStart() == null
+          ? null
+          : BaseEncoding.base64().decode(page.getNextPageStart());
+    } while (startKey != null);
+    return ids.size();
+  }
+
+  @Test
+  public void testGetWorkflowsPaginated() throws IOException {
+    ShardedStatsService service = new ShardedStatsService(4);
+    sendWorkflows(service, 23);
+    assertEquals(23, countWorkflows(service, 5));
+    assertEquals(23, service.getWorkflows(null, null, null, 0, null).getResults().size());
+  }
+
+  @Test
+  public void testEvictFinishedWorkflows() throws IOException {
+    File dir = Files.createTempDir();
+    File file = new File(dir, "workflows.log");
+    try {
+      FileWorkflowIndexService index = new FileWorkflowIndexService(file);
+      ShardedStatsService service = new ShardedStatsService(4, index);
+      sendWorkflows(service, 3);
+      service.pushEvent("workflow-0", new Event.WorkflowProgressEvent(ImmutableMap.of(
+          Event.WorkflowProgressField.workflowProgress, "100")));
+      assertEquals(0, service.evictFinishedWorkflows(0));
+      assertEquals(1, service.evictFinishedWorkflows(System.currentTimeMillis() + 1));
+
+      assertTrue(service.getEventsSinceId("workflow-0", -1).isEmpty());
+      assertEquals(2, service.getWorkflowMetrics().size());
+      // the summary of an evicted workflow is still served from the index
+      assertEquals(3, countWorkflows(service, 5));
+      index.close();
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    File dir = Files.createTempDir();
+    File file = new File(dir, "workflows.log");
+    try {
+      FileWorkflowIndexService index = new FileWorkflowIndexService(file);
+      ShardedStatsService service = new ShardedStatsService(4, index);
+      sendWorkflows(service, 12);
+      service.pushEvent("workflow-3", new Event.WorkflowProgressEvent(ImmutableMap.of(
+          Event.WorkflowProgressField.workflowProgress, "100")));
+      index.close();
+
+      // summaries outlive the partitions holding the workflows
+      index = new FileWorkflowIndexService(file);
+      service = new ShardedStatsService(4, index);
+      assertEquals(12, countWorkflows(service, 5));
+      assertEquals(ImmutableMap.of("default", "default"), service.getClusters());
+      PaginatedList<WorkflowSummary> page =
+          service.getWorkflows("default", WorkflowSummary.Status.SUCCEEDED, null, 5, null);
+      assertEquals(1, page.getResults().size());
+      assertEquals("workflow-3", page.getResults().get(0).getId());
+      assertNull(page.getNextPageStart());
+      index.close();
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testIndexCoalescesProgress() throws IOException {
+    File dir = Files.createTempDir();
+    File file = new File(dir, "workflows.log");
+    try {
+      FileWorkflowIndexService index = new FileWorkflowIndexService(file);
+      ShardedStatsService service = new ShardedStatsService(4, index);
+      sendWorkflows(service, 1);
+      pushProgress(service, 11);
+      long length = file.length();
+      // progress within the same step isn't put to the index
+      pushProgress(service, 15);
+      pushProgress(service, 19);
+      assertEquals(length, file.length());
+      pushProgress(service, 20);
+      assertTrue(file.length() > length);
+
+      length = file.length();
+      pushProgress(service, 100);
+      assertTrue(file.length() > length);
+      index.close();
+
+      index = new FileWorkflowIndexService(file);
+      service = new ShardedStatsService(4, index);
+      PaginatedList<WorkflowSummary> page = service.getWorkflows(null, null, null, 5, null);
+      assertEquals(WorkflowSummary.Status.SUCCEEDED, page.getResults().get(0).getStatus());
+      assertEquals(100, page.getResults().get(0).getProgress());
+      index.close();
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+  private static void pushProgress(ShardedStatsService service, int progress)
+      throws IOException {
+    service.pushEvent("workflow-0", new Event.WorkflowProgressEvent(ImmutableMap.of(
+        Event.WorkflowProgressField.workflowProgress, String.valueOf(progress))));
+  }
+}